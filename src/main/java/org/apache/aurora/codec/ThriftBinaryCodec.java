@@ -15,16 +15,25 @@
  */
 package org.apache.aurora.codec;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import javax.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
 
 import org.apache.thrift.TBase;
-import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
-import org.apache.thrift.TSerializer;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
 
 /**
  * Codec that works for thrift objects.
@@ -36,6 +45,24 @@ public final class ThriftBinaryCodec {
    */
   public static final TProtocolFactory PROTOCOL_FACTORY = new TBinaryProtocol.Factory();
 
+  // Encoding buffers that grow beyond this size are not retained for reuse, to avoid pinning
+  // memory after encoding a large object.
+  private static final int MAX_RETAINED_BUFFER_BYTES = 1024 * 1024;
+
+  // Encoders and decoders are reused by each thread rather than allocated for every call.
+  private static final ThreadLocal<Encoder> ENCODER = new ThreadLocal<Encoder>() {
+    @Override
+    protected Encoder initialValue() {
+      return new Encoder();
+    }
+  };
+  private static final ThreadLocal<Decoder> DECODER = new ThreadLocal<Decoder>() {
+    @Override
+    protected Decoder initialValue() {
+      return new Decoder();
+    }
+  };
+
   private ThriftBinaryCodec() {
     // Utility class.
   }
@@ -74,17 +101,59 @@ public final class ThriftBinaryCodec {
     Preconditions.checkNotNull(clazz);
     Preconditions.checkNotNull(buffer);
 
-    try {
-      T t = clazz.newInstance();
-      new TDeserializer(PROTOCOL_FACTORY).deserialize(t, buffer);
-      return t;
-    } catch (IllegalAccessException e) {
-      throw new CodingException("Failed to access constructor for target type.", e);
-    } catch (InstantiationException e) {
-      throw new CodingException("Failed to instantiate target type.", e);
-    } catch (TException e) {
-      throw new CodingException("Failed to deserialize thrift object.", e);
+    T t = newInstance(clazz);
+    DECODER.get().decode(t, buffer, 0, buffer.length);
+    return t;
+  }
+
+  /**
+   * Decodes a binary-encoded message from the remaining bytes of a buffer, advancing the buffer's
+   * position past the message.  Messages in heap buffers are decoded without copying the buffer,
+   * so binary fields of the decoded message may share its contents; the buffer should not be
+   * modified afterwards.
+   *
+   * @param clazz Class to instantiate and deserialize to.
+   * @param buffer Buffer to decode.
+   * @param <T> Target type.
+   * @return A populated message.
+   * @throws CodingException If the message could not be decoded.
+   */
+  public static <T extends TBase<T, ?>> T decodeNonNull(Class<T> clazz, ByteBuffer buffer)
+      throws CodingException {
+
+    Preconditions.checkNotNull(clazz);
+    Preconditions.checkNotNull(buffer);
+
+    T t = newInstance(clazz);
+    if (buffer.hasArray()) {
+      int start = buffer.arrayOffset() + buffer.position();
+      int read = DECODER.get().decode(t, buffer.array(), start, buffer.remaining());
+      buffer.position(buffer.position() + read);
+    } else {
+      read(t, new ByteBufferTransport(buffer));
     }
+    return t;
+  }
+
+  /**
+   * Decodes a binary-encoded stream into a target type, without first buffering the entire stream
+   * in memory.  The stream is read up to the end of the encoded message, and is not closed.
+   *
+   * @param clazz Class to instantiate and deserialize to.
+   * @param input Stream to decode.
+   * @param <T> Target type.
+   * @return A populated message.
+   * @throws CodingException If the message could not be decoded.
+   */
+  public static <T extends TBase<T, ?>> T decodeNonNull(Class<T> clazz, InputStream input)
+      throws CodingException {
+
+    Preconditions.checkNotNull(clazz);
+    Preconditions.checkNotNull(input);
+
+    T t = newInstance(clazz);
+    read(t, new TIOStreamTransport(input));
+    return t;
   }
 
   /**
@@ -112,13 +181,169 @@ public final class ThriftBinaryCodec {
   public static byte[] encodeNonNull(TBase<?, ?> tBase) throws CodingException {
     Preconditions.checkNotNull(tBase);
 
+    return ENCODER.get().encode(tBase);
+  }
+
+  /**
+   * Encodes a thrift object into the remaining space of a buffer, advancing the buffer's position
+   * past the encoded object.
+   *
+   * @param tBase Object to encode.
+   * @param buffer Buffer to encode into.
+   * @throws CodingException If the object could not be encoded, including if the buffer did not
+   *     have enough space remaining.
+   */
+  public static void encodeNonNull(TBase<?, ?> tBase, ByteBuffer buffer) throws CodingException {
+    Preconditions.checkNotNull(tBase);
+    Preconditions.checkNotNull(buffer);
+
+    try {
+      write(tBase, new ByteBufferTransport(buffer));
+    } catch (BufferOverflowException e) {
+      throw new CodingException("Insufficient buffer space to serialize: " + tBase, e);
+    }
+  }
+
+  /**
+   * Encodes a thrift object to a stream, without first buffering the encoded object in memory.
+   * The stream is not flushed or closed.
+   *
+   * @param tBase Object to encode.
+   * @param output Stream to encode to.
+   * @throws CodingException If the object could not be encoded or written to the stream.
+   */
+  public static void encodeNonNull(TBase<?, ?> tBase, OutputStream output)
+      throws CodingException {
+
+    Preconditions.checkNotNull(tBase);
+    Preconditions.checkNotNull(output);
+
+    write(tBase, new TIOStreamTransport(output));
+  }
+
+  private static <T> T newInstance(Class<T> clazz) throws CodingException {
     try {
-      return new TSerializer(PROTOCOL_FACTORY).serialize(tBase);
+      return clazz.newInstance();
+    } catch (IllegalAccessException e) {
+      throw new CodingException("Failed to access constructor for target type.", e);
+    } catch (InstantiationException e) {
+      throw new CodingException("Failed to instantiate target type.", e);
+    }
+  }
+
+  private static void read(TBase<?, ?> tBase, TTransport transport) throws CodingException {
+    try {
+      tBase.read(PROTOCOL_FACTORY.getProtocol(transport));
+    } catch (TException e) {
+      throw new CodingException("Failed to deserialize thrift object.", e);
+    }
+  }
+
+  private static void write(TBase<?, ?> tBase, TTransport transport) throws CodingException {
+    try {
+      tBase.write(PROTOCOL_FACTORY.getProtocol(transport));
     } catch (TException e) {
       throw new CodingException("Failed to serialize: " + tBase, e);
     }
   }
 
+  /**
+   * A reusable encoder, which retains its buffer between uses.
+   */
+  private static final class Encoder {
+    private ExposedOutputStream output = new ExposedOutputStream();
+    private TProtocol protocol = PROTOCOL_FACTORY.getProtocol(new TIOStreamTransport(output));
+
+    byte[] encode(TBase<?, ?> tBase) throws CodingException {
+      try {
+        output.reset();
+        tBase.write(protocol);
+        return output.toByteArray();
+      } catch (TException e) {
+        throw new CodingException("Failed to serialize: " + tBase, e);
+      } finally {
+        if (output.capacity() > MAX_RETAINED_BUFFER_BYTES) {
+          output = new ExposedOutputStream();
+          protocol = PROTOCOL_FACTORY.getProtocol(new TIOStreamTransport(output));
+        }
+      }
+    }
+  }
+
+  private static final class ExposedOutputStream extends ByteArrayOutputStream {
+    int capacity() {
+      return buf.length;
+    }
+  }
+
+  /**
+   * A reusable decoder of byte arrays.
+   */
+  private static final class Decoder {
+    private final TMemoryInputTransport transport = new TMemoryInputTransport();
+    private final TProtocol protocol = PROTOCOL_FACTORY.getProtocol(transport);
+
+    /**
+     * Decodes a message from a range of an array.
+     *
+     * @return The number of bytes read.
+     */
+    int decode(TBase<?, ?> tBase, byte[] buffer, int offset, int length) throws CodingException {
+      transport.reset(buffer, offset, length);
+      try {
+        tBase.read(protocol);
+        return transport.getBufferPosition() - offset;
+      } catch (TException e) {
+        throw new CodingException("Failed to deserialize thrift object.", e);
+      } finally {
+        // Release the array for garbage collection.
+        transport.clear();
+        protocol.reset();
+      }
+    }
+  }
+
+  /**
+   * A transport that reads from and writes to a {@link ByteBuffer}.
+   */
+  private static final class ByteBufferTransport extends TTransport {
+    private final ByteBuffer buffer;
+
+    ByteBufferTransport(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void open() {
+      // No-op.
+    }
+
+    @Override
+    public void close() {
+      // No-op.
+    }
+
+    @Override
+    public int read(byte[] dst, int offset, int length) throws TTransportException {
+      if (!buffer.hasRemaining()) {
+        throw new TTransportException(TTransportException.END_OF_FILE, "Buffer exhausted.");
+      }
+      int read = Math.min(length, buffer.remaining());
+      buffer.get(dst, offset, read);
+      return read;
+    }
+
+    @Override
+    public void write(byte[] src, int offset, int length) {
+      buffer.put(src, offset, length);
+    }
+  }
+
   /**
    * Thrown when serialization or deserialization failed.
    */
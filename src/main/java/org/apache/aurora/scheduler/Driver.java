@@ -15,6 +15,7 @@
  */
 package org.apache.aurora.scheduler;
 
+import java.util.Collection;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
@@ -52,6 +53,14 @@ public interface Driver {
    */
   void launchTask(OfferID offerId, TaskInfo task);
 
+  /**
+   * Launches several tasks against a single resource offer.
+   *
+   * @param offerId ID of the resource offer to accept with the tasks.
+   * @param tasks Tasks to launch.
+   */
+  void launchTasks(OfferID offerId, Collection<TaskInfo> tasks);
+
   /**
    * Declines a resource offer.
    *
@@ -118,7 +127,12 @@ public interface Driver {
 
     @Override
     public void launchTask(OfferID offerId, TaskInfo task) {
-      get(State.RUNNING).launchTasks(offerId, ImmutableList.of(task));
+      launchTasks(offerId, ImmutableList.of(task));
+    }
+
+    @Override
+    public void launchTasks(OfferID offerId, Collection<TaskInfo> tasks) {
+      get(State.RUNNING).launchTasks(offerId, tasks);
     }
 
     @Override
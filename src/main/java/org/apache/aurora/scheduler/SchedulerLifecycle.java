@@ -125,6 +125,7 @@ public class SchedulerLifecycle implements EventSubscriber {
       NonVolatileStorage storage,
       Lifecycle lifecycle,
       SettableDriver driver,
+      StatusUpdateQueue statusUpdates,
       LeadingOptions leadingOptions,
       ScheduledExecutorService executorService,
       Clock clock,
@@ -135,6 +136,7 @@ public class SchedulerLifecycle implements EventSubscriber {
         storage,
         lifecycle,
         driver,
+        statusUpdates,
         new DefaultDelayedActions(leadingOptions, executorService),
         clock,
         eventSink);
@@ -195,6 +197,7 @@ public class SchedulerLifecycle implements EventSubscriber {
       final NonVolatileStorage storage,
       final Lifecycle lifecycle,
       final SettableDriver driver,
+      final StatusUpdateQueue statusUpdates,
       final DelayedActions delayedActions,
       final Clock clock,
       final EventSink eventSink) {
@@ -203,6 +206,7 @@ public class SchedulerLifecycle implements EventSubscriber {
     checkNotNull(storage);
     checkNotNull(lifecycle);
     checkNotNull(driver);
+    checkNotNull(statusUpdates);
     checkNotNull(delayedActions);
     checkNotNull(clock);
     checkNotNull(eventSink);
@@ -351,6 +355,8 @@ public class SchedulerLifecycle implements EventSubscriber {
           // TODO(wfarner): Re-evaluate tear-down ordering here.  Should the top-level shutdown
           // be invoked first, or the underlying critical components?
           driver.stop();
+          // Acknowledged status updates must be persisted before storage is stopped.
+          statusUpdates.flush();
           storage.stop();
         } finally {
           lifecycle.shutdown();
@@ -29,6 +29,7 @@ import com.google.inject.PrivateModule;
 import com.google.inject.Provides;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 
@@ -36,6 +37,7 @@ import org.apache.aurora.scheduler.Driver.DriverImpl;
 import org.apache.aurora.scheduler.Driver.SettableDriver;
 import org.apache.aurora.scheduler.SchedulerLifecycle.LeadingOptions;
 import org.apache.aurora.scheduler.TaskIdGenerator.TaskIdGeneratorImpl;
+import org.apache.aurora.scheduler.UserTaskLauncher.StatusUpdateSettings;
 import org.apache.aurora.scheduler.events.PubsubEventModule;
 import org.apache.aurora.scheduler.periodic.GcExecutorLauncher;
 import org.apache.aurora.scheduler.periodic.GcExecutorLauncher.GcExecutorSettings;
@@ -64,6 +66,24 @@ public class SchedulerModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> MAX_LEADING_DURATION =
       Arg.create(Amount.of(1L, Time.DAYS));
 
+  @CmdLine(name = "async_status_updates",
+      help = "If true, task status updates are queued and applied in batches off the driver "
+          + "thread.  Queued updates are acknowledged to mesos before they are persisted, and "
+          + "updates still queued if the scheduler fails before flushing them are lost, leaving "
+          + "their tasks in stale states until reconciled.")
+  private static final Arg<Boolean> ASYNC_STATUS_UPDATES = Arg.create(false);
+
+  @Positive
+  @CmdLine(name = "status_update_queue_capacity",
+      help = "Maximum number of task status updates to queue before blocking the driver, when "
+          + "async_status_updates is enabled.")
+  private static final Arg<Integer> STATUS_UPDATE_QUEUE_CAPACITY = Arg.create(50000);
+
+  @Positive
+  @CmdLine(name = "max_status_update_batch_size",
+      help = "Maximum number of task status updates to apply in a single storage transaction.")
+  private static final Arg<Integer> MAX_STATUS_UPDATE_BATCH_SIZE = Arg.create(1000);
+
   @Override
   protected void configure() {
     bind(Driver.class).to(DriverImpl.class);
@@ -80,7 +100,12 @@ public class SchedulerModule extends AbstractModule {
         Optional.fromNullable(GC_EXECUTOR_PATH.get())));
 
     bind(GcExecutorLauncher.class).in(Singleton.class);
+    bind(StatusUpdateSettings.class).toInstance(new StatusUpdateSettings(
+        ASYNC_STATUS_UPDATES.get(),
+        STATUS_UPDATE_QUEUE_CAPACITY.get(),
+        MAX_STATUS_UPDATE_BATCH_SIZE.get()));
     bind(UserTaskLauncher.class).in(Singleton.class);
+    bind(StatusUpdateQueue.class).to(UserTaskLauncher.class);
 
     install(new PrivateModule() {
       @Override protected void configure() {
@@ -97,7 +122,7 @@ public class SchedulerModule extends AbstractModule {
     });
 
     PubsubEventModule.bindSubscriber(binder(), SchedulerLifecycle.class);
-    PubsubEventModule.bindSubscriber(binder(), TaskVars.class);
+    PubsubEventModule.bindAsyncSubscriber(binder(), TaskVars.class);
   }
 
   @Provides
@@ -0,0 +1,28 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler;
+
+/**
+ * Holds task status updates that have been acknowledged to the driver but not yet persisted.
+ */
+public interface StatusUpdateQueue {
+
+  /**
+   * Applies all held status updates before returning, and stops accepting new ones.  Must be
+   * called before storage is stopped, since held updates will not be resent by mesos.
+   */
+  void flush();
+}
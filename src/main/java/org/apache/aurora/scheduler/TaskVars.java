@@ -15,6 +15,7 @@
  */
 package org.apache.aurora.scheduler;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
@@ -30,13 +31,16 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.eventbus.Subscribe;
 import com.twitter.common.stats.StatsProvider;
 
 import org.apache.aurora.gen.Attribute;
 import org.apache.aurora.gen.ScheduleStatus;
-import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent;
+import org.apache.aurora.scheduler.events.PubsubEvent.BatchedEventSubscriber;
 import org.apache.aurora.scheduler.events.PubsubEvent.SchedulerActive;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
@@ -51,7 +55,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * A container that tracks and exports stat counters for tasks.
  */
-class TaskVars implements EventSubscriber {
+class TaskVars implements BatchedEventSubscriber {
   private static final Logger LOG = Logger.getLogger(TaskVars.class.getName());
 
   private final LoadingCache<String, Counter> counters;
@@ -109,6 +113,19 @@ class TaskVars implements EventSubscriber {
 
   @Subscribe
   public void taskChangedState(TaskStateChange stateChange) {
+    Optional<String> lostHost = updateCounts(stateChange);
+    if (lostHost.isPresent()) {
+      incrementRackCounts(ImmutableList.of(lostHost.get()));
+    }
+  }
+
+  /**
+   * Updates status counters for a task state change.
+   *
+   * @param stateChange State change to count.
+   * @return The host of the task, if the task was lost.
+   */
+  private Optional<String> updateCounts(TaskStateChange stateChange) {
     IScheduledTask task = stateChange.getTask();
     Optional<ScheduleStatus> previousState = stateChange.getOldState();
     if (stateChange.isTransition() && !previousState.equals(Optional.of(ScheduleStatus.INIT))) {
@@ -117,21 +134,34 @@ class TaskVars implements EventSubscriber {
 
     incrementCount(task.getStatus());
 
-    if (stateChange.getNewState() == ScheduleStatus.LOST) {
-      final String host = stateChange.getTask().getAssignedTask().getSlaveHost();
-      Optional<String> rack = storage.consistentRead(new Work.Quiet<Optional<String>>() {
-        @Override public Optional<String> apply(StoreProvider storeProvider) {
-          Optional<Attribute> rack = FluentIterable
-              .from(AttributeStore.Util.attributesOrNone(storeProvider, host))
-              .firstMatch(IS_RACK);
-          return rack.transform(ATTR_VALUE);
-        }
-      });
+    return stateChange.getNewState() == ScheduleStatus.LOST
+        ? Optional.of(task.getAssignedTask().getSlaveHost())
+        : Optional.<String>absent();
+  }
 
+  private void incrementRackCounts(final List<String> lostHosts) {
+    // Racks for all hosts are looked up in one read, since a batch of events may include many
+    // lost tasks.
+    List<Optional<String>> racks = storage.consistentRead(
+        new Work.Quiet<List<Optional<String>>>() {
+          @Override public List<Optional<String>> apply(StoreProvider storeProvider) {
+            ImmutableList.Builder<Optional<String>> racks = ImmutableList.builder();
+            for (String host : lostHosts) {
+              racks.add(FluentIterable
+                  .from(AttributeStore.Util.attributesOrNone(storeProvider, host))
+                  .firstMatch(IS_RACK)
+                  .transform(ATTR_VALUE));
+            }
+            return racks.build();
+          }
+        });
+
+    for (int i = 0; i < lostHosts.size(); i++) {
+      Optional<String> rack = racks.get(i);
       if (rack.isPresent()) {
         counters.getUnchecked(rackStatName(rack.get())).increment();
       } else {
-        LOG.warning("Failed to find rack attribute associated with host " + host);
+        LOG.warning("Failed to find rack attribute associated with host " + lostHosts.get(i));
       }
     }
   }
@@ -160,6 +190,24 @@ class TaskVars implements EventSubscriber {
     }
   }
 
+  @Override
+  public void eventsPosted(List<PubsubEvent> events) {
+    List<String> lostHosts = Lists.newArrayList();
+    for (PubsubEvent event : events) {
+      if (event instanceof TaskStateChange) {
+        lostHosts.addAll(updateCounts((TaskStateChange) event).asSet());
+      } else if (event instanceof TasksDeleted) {
+        tasksDeleted((TasksDeleted) event);
+      } else if (event instanceof SchedulerActive) {
+        schedulerActive((SchedulerActive) event);
+      }
+    }
+
+    if (!lostHosts.isEmpty()) {
+      incrementRackCounts(lostHosts);
+    }
+  }
+
   private static class Counter implements Supplier<Long> {
     private final AtomicLong value = new AtomicLong();
     private boolean exported = false;
@@ -15,6 +15,14 @@
  */
 package org.apache.aurora.scheduler;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,23 +31,47 @@ import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.common.application.Lifecycle;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.Clock;
 
 import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.scheduler.async.OfferQueue;
 import org.apache.aurora.scheduler.base.Conversions;
 import org.apache.aurora.scheduler.base.SchedulerException;
+import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.state.StateManager;
+import org.apache.aurora.scheduler.state.StateManager.Transition;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
 import org.apache.mesos.Protos.TaskInfo;
 import org.apache.mesos.Protos.TaskStatus;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * A task launcher that matches resource offers against user tasks.
+ *
+ * <p>By default, status updates are applied on the driver callback thread, and an update that
+ * fails to apply is not acknowledged to the driver.
+ *
+ * <p>Status updates may instead be queued and applied asynchronously, so that the driver callback
+ * thread is not held up by storage.  Queued updates are coalesced per task and applied in batches,
+ * one storage transaction per batch.  The queue is bounded, and the driver thread blocks when it
+ * is full, which stops the driver from delivering further updates until the queue drains.
+ *
+ * <p>Queued updates are acknowledged to the driver before they are persisted, and will not be
+ * resent by mesos.  A batch that fails to apply is therefore retried.  If it still fails, the
+ * scheduler is shut down, further status updates are rejected so that the driver does not
+ * acknowledge them, and the updates that could not be applied are logged.  When the scheduler
+ * shuts down, updates still queued are {@link #flush() flushed} before storage is stopped.
  */
-class UserTaskLauncher implements TaskLauncher {
+class UserTaskLauncher implements TaskLauncher, StatusUpdateQueue {
 
   private static final Logger LOG = Logger.getLogger(UserTaskLauncher.class.getName());
 
@@ -49,13 +81,90 @@ class UserTaskLauncher implements TaskLauncher {
   @VisibleForTesting
   static final String MEMORY_LIMIT_DISPLAY = "Task used more memory than requested.";
 
+  @VisibleForTesting
+  static final int MAX_APPLY_ATTEMPTS = 3;
+
+  @VisibleForTesting
+  static final long RETRY_DELAY_MS = 1000;
+
   private final OfferQueue offerQueue;
   private final StateManager stateManager;
+  private final Clock clock;
+  private final Lifecycle lifecycle;
+  private final StatusUpdateSettings settings;
+  private final Executor executor;
+  private final BlockingQueue<QueuedUpdate> updates;
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  // Held while applying queued updates, so that a flush applies them in order with the drain.
+  private final Object drainLock = new Object();
+  private volatile boolean failed = false;
+
+  private final AtomicLong queueFull = Stats.exportLong("status_update_queue_full");
+  private final AtomicLong coalesced = Stats.exportLong("status_updates_coalesced");
+  private final AtomicLong lagMs = Stats.exportLong("status_update_lag_ms");
+  private final AtomicLong applyFailures = Stats.exportLong("status_update_apply_failures");
+  private final AtomicLong lost = Stats.exportLong("status_updates_lost");
+  private final SlidingStats batchSizes = new SlidingStats("status_update_batch", "updates");
+
+  static class StatusUpdateSettings {
+    private final boolean async;
+    private final int queueCapacity;
+    private final int maxBatchSize;
+
+    /**
+     * Creates status update settings.
+     *
+     * @param async Whether to queue updates and apply them in batches, acknowledging them to the
+     *     driver before they are persisted.
+     * @param queueCapacity Maximum number of updates to queue before blocking the driver.
+     * @param maxBatchSize Maximum number of updates to apply in one storage transaction.
+     */
+    StatusUpdateSettings(boolean async, int queueCapacity, int maxBatchSize) {
+      checkArgument(queueCapacity > 0, "Queue capacity must be positive.");
+      checkArgument(maxBatchSize > 0, "Batch size must be positive.");
+      this.async = async;
+      this.queueCapacity = queueCapacity;
+      this.maxBatchSize = maxBatchSize;
+    }
+  }
 
   @Inject
-  UserTaskLauncher(OfferQueue offerQueue, StateManager stateManager) {
+  UserTaskLauncher(
+      OfferQueue offerQueue,
+      StateManager stateManager,
+      Clock clock,
+      Lifecycle lifecycle,
+      StatusUpdateSettings settings) {
+
+    this(
+        offerQueue,
+        stateManager,
+        clock,
+        lifecycle,
+        settings,
+        Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("StatusUpdate-%d")
+            .setDaemon(true)
+            .build()));
+  }
+
+  @VisibleForTesting
+  UserTaskLauncher(
+      OfferQueue offerQueue,
+      StateManager stateManager,
+      Clock clock,
+      Lifecycle lifecycle,
+      StatusUpdateSettings settings,
+      Executor executor) {
+
     this.offerQueue = checkNotNull(offerQueue);
     this.stateManager = checkNotNull(stateManager);
+    this.clock = checkNotNull(clock);
+    this.lifecycle = checkNotNull(lifecycle);
+    this.settings = checkNotNull(settings);
+    this.executor = checkNotNull(executor);
+    this.updates = new LinkedBlockingQueue<>(settings.queueCapacity);
+    Stats.exportSize("status_update_queue_size", updates);
   }
 
   @Override
@@ -67,36 +176,191 @@ class UserTaskLauncher implements TaskLauncher {
   }
 
   @Override
-  public synchronized boolean statusUpdate(TaskStatus status) {
+  public boolean statusUpdate(TaskStatus status) {
+    if (failed) {
+      // Refuse the update, which prevents the driver from acknowledging it.
+      throw new SchedulerException("Status updates could not be applied, rejecting update for "
+          + status.getTaskId().getValue());
+    }
+
     @Nullable String message = null;
     if (status.hasMessage()) {
       message = status.getMessage();
     }
 
-    try {
-      ScheduleStatus translatedState = Conversions.convertProtoState(status.getState());
-      // TODO(William Farner): Remove this hack once Mesos API change is done.
-      //                       Tracked by: https://issues.apache.org/jira/browse/MESOS-343
-      if ((translatedState == ScheduleStatus.FAILED)
-          && (message != null)
-          && (message.contains(MEMORY_LIMIT_EXCEEDED))) {
-        message = MEMORY_LIMIT_DISPLAY;
+    ScheduleStatus translatedState = Conversions.convertProtoState(status.getState());
+    // TODO(William Farner): Remove this hack once Mesos API change is done.
+    //                       Tracked by: https://issues.apache.org/jira/browse/MESOS-343
+    if ((translatedState == ScheduleStatus.FAILED)
+        && (message != null)
+        && (message.contains(MEMORY_LIMIT_EXCEEDED))) {
+      message = MEMORY_LIMIT_DISPLAY;
+    }
+
+    if (!settings.async) {
+      applyNow(status.getTaskId().getValue(), translatedState, Optional.fromNullable(message));
+      return true;
+    }
+
+    QueuedUpdate update = new QueuedUpdate(
+        status.getTaskId().getValue(),
+        Transition.to(translatedState, Optional.fromNullable(message)),
+        clock.nowMillis());
+    if (!updates.offer(update)) {
+      LOG.warning("Status update queue is full, blocking until it drains.");
+      queueFull.incrementAndGet();
+      try {
+        updates.put(update);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SchedulerException("Interrupted while queueing status update for "
+            + update.taskId, e);
       }
+    }
+
+    if (drainScheduled.compareAndSet(false, true)) {
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          drainUpdates();
+        }
+      });
+    }
+    return true;
+  }
+
+  private synchronized void applyNow(
+      String taskId,
+      ScheduleStatus newState,
+      Optional<String> message) {
 
-      stateManager.changeState(
-          status.getTaskId().getValue(),
-          Optional.<ScheduleStatus>absent(),
-          translatedState,
-          Optional.fromNullable(message));
+    try {
+      stateManager.changeState(taskId, Optional.<ScheduleStatus>absent(), newState, message);
     } catch (SchedulerException e) {
-      LOG.log(Level.WARNING, "Failed to update status for: " + status, e);
+      LOG.log(Level.WARNING, "Failed to update status for: " + taskId, e);
       throw e;
     }
-    return true;
+  }
+
+  private void drainUpdates() {
+    synchronized (drainLock) {
+      List<QueuedUpdate> batch = Lists.newArrayList();
+      while (true) {
+        batch.clear();
+        updates.drainTo(batch, settings.maxBatchSize);
+        if (batch.isEmpty()) {
+          drainScheduled.set(false);
+          // An update may have been queued after the queue was found empty, but before the flag
+          // was cleared.  Whoever sets the flag again is responsible for draining it.
+          if (updates.isEmpty() || !drainScheduled.compareAndSet(false, true)) {
+            return;
+          }
+        } else if (!applyWithRetries(batch)) {
+          // The drain flag is left set, since no further updates will be applied.
+          giveUp(batch);
+          break;
+        }
+      }
+    }
+    LOG.severe("Giving up on status updates after " + MAX_APPLY_ATTEMPTS
+        + " attempts, shutting down.");
+    lifecycle.shutdown();
+  }
+
+  /**
+   * Applies all queued status updates on the calling thread, after any drain in progress, and
+   * stops accepting further updates.  Updates that cannot be applied are logged as lost.
+   */
+  @Override
+  public void flush() {
+    if (!settings.async) {
+      return;
+    }
+
+    synchronized (drainLock) {
+      failed = true;
+      List<QueuedUpdate> batch = Lists.newArrayList();
+      while (true) {
+        batch.clear();
+        updates.drainTo(batch, settings.maxBatchSize);
+        if (batch.isEmpty()) {
+          return;
+        }
+        if (!applyWithRetries(batch)) {
+          giveUp(batch);
+          return;
+        }
+      }
+    }
+  }
+
+  private void giveUp(List<QueuedUpdate> failedBatch) {
+    failed = true;
+    List<QueuedUpdate> unapplied = Lists.newArrayList(failedBatch);
+    updates.drainTo(unapplied);
+    lost.addAndGet(unapplied.size());
+    List<String> taskIds = Lists.newArrayList();
+    for (QueuedUpdate update : unapplied) {
+      taskIds.add(update.taskId + " -> " + update.transition.getNewState());
+    }
+    LOG.severe(unapplied.size() + " acknowledged status updates were not applied and will not "
+        + "be resent: " + taskIds);
+  }
+
+  private boolean applyWithRetries(List<QueuedUpdate> batch) {
+    // The latest update for a task wins, except that a terminal state is never replaced, since
+    // applying the updates in order would not have moved the task out of it either.
+    Map<String, Transition> transitions = Maps.newHashMap();
+    long oldestQueuedMs = Long.MAX_VALUE;
+    for (QueuedUpdate update : batch) {
+      oldestQueuedMs = Math.min(oldestQueuedMs, update.queuedAtMs);
+      Transition existing = transitions.get(update.taskId);
+      if (existing != null) {
+        coalesced.incrementAndGet();
+        if (Tasks.isTerminated(existing.getNewState())) {
+          continue;
+        }
+      }
+      transitions.put(update.taskId, update.transition);
+    }
+
+    for (int attempt = 1; attempt <= MAX_APPLY_ATTEMPTS; attempt++) {
+      try {
+        stateManager.changeStates(transitions);
+        batchSizes.accumulate(batch.size());
+        lagMs.set(clock.nowMillis() - oldestQueuedMs);
+        return true;
+      } catch (RuntimeException e) {
+        applyFailures.incrementAndGet();
+        LOG.log(Level.SEVERE, "Failed to apply status updates for tasks " + transitions.keySet()
+            + " (attempt " + attempt + ")", e);
+      }
+
+      if (attempt < MAX_APPLY_ATTEMPTS) {
+        try {
+          clock.waitFor(RETRY_DELAY_MS * attempt);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+    return false;
   }
 
   @Override
   public void cancelOffer(OfferID offer) {
     offerQueue.cancelOffer(offer);
   }
+
+  private static class QueuedUpdate {
+    private final String taskId;
+    private final Transition transition;
+    private final long queuedAtMs;
+
+    QueuedUpdate(String taskId, Transition transition, long queuedAtMs) {
+      this.taskId = taskId;
+      this.transition = transition;
+      this.queuedAtMs = queuedAtMs;
+    }
+  }
 }
@@ -30,6 +30,8 @@ import com.google.inject.Key;
 import com.google.inject.Provides;
 import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.application.modules.LifecycleModule;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
 import com.twitter.common.base.Command;
 import com.twitter.common.inject.TimedInterceptor;
 import com.twitter.common.net.pool.DynamicHostSet;
@@ -49,6 +51,7 @@ import org.apache.aurora.GuiceUtils;
 import org.apache.aurora.scheduler.SchedulerModule;
 import org.apache.aurora.scheduler.async.AsyncModule;
 import org.apache.aurora.scheduler.events.PubsubEventModule;
+import org.apache.aurora.scheduler.filter.CachingSchedulingFilter;
 import org.apache.aurora.scheduler.filter.SchedulingFilterImpl;
 import org.apache.aurora.scheduler.http.ClusterName;
 import org.apache.aurora.scheduler.http.ServletModule;
@@ -68,6 +71,12 @@ import static com.twitter.common.base.MorePreconditions.checkNotBlank;
 class AppModule extends AbstractModule {
   private static final Logger LOG = Logger.getLogger(AppModule.class.getName());
 
+  @CmdLine(name = "enable_scheduling_filter_cache",
+      help = "Memoize resource requirements and static placement results of task configurations "
+          + "when matching tasks against offers.  Host attributes may be up to a second stale "
+          + "when this is enabled.")
+  private static final Arg<Boolean> ENABLE_SCHEDULING_FILTER_CACHE = Arg.create(false);
+
   private final String clusterName;
   private final String serverSetPath;
   private final ClientConfig zkClientConfig;
@@ -89,9 +98,12 @@ class AppModule extends AbstractModule {
 
     bind(Key.get(String.class, ClusterName.class)).toInstance(clusterName);
 
-    // Filter layering: notifier filter -> base impl
-    PubsubEventModule.bind(binder(), SchedulingFilterImpl.class);
-    bind(SchedulingFilterImpl.class).in(Singleton.class);
+    // Filter layering: notifier filter -> base impl, optionally caching static results.
+    Class<? extends SchedulingFilterImpl> filterClass = ENABLE_SCHEDULING_FILTER_CACHE.get()
+        ? CachingSchedulingFilter.class
+        : SchedulingFilterImpl.class;
+    PubsubEventModule.bind(binder(), filterClass);
+    bind(filterClass).in(Singleton.class);
 
     LifecycleModule.bindStartupAction(binder(), RegisterShutdownStackPrinter.class);
 
@@ -19,6 +19,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.inject.Singleton;
@@ -35,11 +36,13 @@ import com.google.inject.PrivateModule;
 import com.google.inject.TypeLiteral;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.stats.StatsProvider;
+import com.twitter.common.util.Clock;
 import com.twitter.common.util.Random;
 import com.twitter.common.util.TruncatedBinaryBackoff;
 
@@ -48,6 +51,7 @@ import org.apache.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
 import org.apache.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl;
 import org.apache.aurora.scheduler.async.TaskGroups.TaskGroupsSettings;
 import org.apache.aurora.scheduler.async.TaskScheduler.TaskSchedulerImpl;
+import org.apache.aurora.scheduler.async.TimerService.HashedWheelTimer;
 import org.apache.aurora.scheduler.events.PubsubEventModule;
 import org.apache.aurora.scheduler.filter.CachedJobState;
 
@@ -72,6 +76,13 @@ public class AsyncModule extends AbstractModule {
       help = "The number of worker threads to process async task operations with.")
   private static final Arg<Integer> ASYNC_WORKER_THREADS = Arg.create(1);
 
+  @CmdLine(name = "async_timer_tick",
+      help = "Resolution of the timer used for task timeouts, throttling and history pruning.")
+  private static final Arg<Amount<Long, Time>> ASYNC_TIMER_TICK =
+      Arg.create(Amount.of(100L, Time.MILLISECONDS));
+
+  private static final int TIMER_WHEEL_SIZE = 1024;
+
   @CmdLine(name = "transient_task_state_timeout",
       help = "The amount of time after which to treat a task stuck in a transient state as LOST.")
   private static final Arg<Amount<Long, Time>> TRANSIENT_TASK_STATE_TIMEOUT =
@@ -97,10 +108,24 @@ public class AsyncModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> HISTORY_PRUNE_THRESHOLD =
       Arg.create(Amount.of(2L, Time.DAYS));
 
+  @Positive
+  @CmdLine(name = "history_prune_batch_size",
+      help = "Maximum number of inactive tasks to prune in one storage transaction.")
+  private static final Arg<Integer> HISTORY_PRUNE_BATCH_SIZE = Arg.create(500);
+
+  @CmdLine(name = "max_history_prune_rate",
+      help = "Maximum number of inactive tasks to prune per second.")
+  private static final Arg<Double> MAX_HISTORY_PRUNE_RATE = Arg.create(1000D);
+
   @CmdLine(name = "max_schedule_attempts_per_sec",
       help = "Maximum number of scheduling attempts to make per second.")
   private static final Arg<Double> MAX_SCHEDULE_ATTEMPTS_PER_SEC = Arg.create(10D);
 
+  @Positive
+  @CmdLine(name = "max_schedule_batch_size",
+      help = "Maximum number of identical PENDING tasks to schedule in one scheduling attempt.")
+  private static final Arg<Integer> MAX_SCHEDULE_BATCH_SIZE = Arg.create(1);
+
   @CmdLine(name = "flapping_task_threshold",
       help = "A task that repeatedly runs for less than this time is considered to be flapping.")
   private static final Arg<Amount<Long, Time>> FLAPPING_THRESHOLD =
@@ -164,13 +189,34 @@ public class AsyncModule extends AbstractModule {
       }
     });
 
+    // Per-task timeouts are kept out of the executor's delay queue, which would otherwise hold an
+    // entry for every task in a transient or terminal state.  Instead a single periodic task
+    // advances the timer, running expired timeouts in batches.
+    final HashedWheelTimer timer =
+        new HashedWheelTimer(Clock.SYSTEM_CLOCK, ASYNC_TIMER_TICK.get(), TIMER_WHEEL_SIZE);
+    long tickMs = ASYNC_TIMER_TICK.get().as(Time.MILLISECONDS);
+    executor.scheduleAtFixedRate(
+        new Runnable() {
+          @Override public void run() {
+            timer.advance();
+          }
+        },
+        tickMs,
+        tickMs,
+        TimeUnit.MILLISECONDS);
+    Stats.export(new StatImpl<Integer>("async_timer_outstanding_timeouts") {
+      @Override public Integer read() {
+        return timer.size();
+      }
+    });
+
     // AsyncModule itself is not a subclass of PrivateModule because TaskEventModule internally uses
     // a MultiBinder, which cannot span multiple injectors.
     install(new PrivateModule() {
       @Override protected void configure() {
         bind(new TypeLiteral<Amount<Long, Time>>() { })
             .toInstance(TRANSIENT_TASK_STATE_TIMEOUT.get());
-        bind(ScheduledExecutorService.class).toInstance(executor);
+        bind(TimerService.class).toInstance(timer);
 
         bind(TaskTimeout.class).in(Singleton.class);
         requireBinding(StatsProvider.class);
@@ -183,7 +229,8 @@ public class AsyncModule extends AbstractModule {
       @Override protected void configure() {
         bind(TaskGroupsSettings.class).toInstance(new TaskGroupsSettings(
             new TruncatedBinaryBackoff(INITIAL_SCHEDULE_DELAY.get(), MAX_SCHEDULE_DELAY.get()),
-            RateLimiter.create(MAX_SCHEDULE_ATTEMPTS_PER_SEC.get())));
+            RateLimiter.create(MAX_SCHEDULE_ATTEMPTS_PER_SEC.get()),
+            MAX_SCHEDULE_BATCH_SIZE.get()));
 
         bind(RescheduleCalculatorImpl.RescheduleCalculatorSettings.class)
             .toInstance(new RescheduleCalculatorImpl.RescheduleCalculatorSettings(
@@ -196,6 +243,8 @@ public class AsyncModule extends AbstractModule {
         if (ENABLE_PREEMPTOR.get()) {
           bind(PREEMPTOR_KEY).to(PreemptorImpl.class);
           bind(PreemptorImpl.class).in(Singleton.class);
+          bind(PreemptionCandidates.class).in(Singleton.class);
+          expose(PreemptionCandidates.class);
           LOG.info("Preemptor Enabled.");
         } else {
           bind(PREEMPTOR_KEY).toInstance(NULL_PREEMPTOR);
@@ -209,7 +258,11 @@ public class AsyncModule extends AbstractModule {
       }
     });
     bindTaskScheduler(binder(), PREEMPTOR_KEY, RESERVATION_DURATION.get());
+    PubsubEventModule.bindSubscriber(binder(), RescheduleCalculator.class);
     PubsubEventModule.bindSubscriber(binder(), TaskGroups.class);
+    if (ENABLE_PREEMPTOR.get()) {
+      PubsubEventModule.bindSubscriber(binder(), PreemptionCandidates.class);
+    }
 
     install(new PrivateModule() {
       @Override protected void configure() {
@@ -229,7 +282,11 @@ public class AsyncModule extends AbstractModule {
         bind(Integer.class).annotatedWith(PruneThreshold.class).toInstance(100);
         bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(PruneThreshold.class)
             .toInstance(HISTORY_PRUNE_THRESHOLD.get());
-        bind(ScheduledExecutorService.class).toInstance(executor);
+        bind(HistoryPruner.PruneBatchSettings.class).toInstance(
+            new HistoryPruner.PruneBatchSettings(
+                HISTORY_PRUNE_BATCH_SIZE.get(),
+                MAX_HISTORY_PRUNE_RATE.get()));
+        bind(TimerService.class).toInstance(timer);
 
         bind(HistoryPruner.class).in(Singleton.class);
         expose(HistoryPruner.class);
@@ -239,7 +296,7 @@ public class AsyncModule extends AbstractModule {
 
     install(new PrivateModule() {
       @Override protected void configure() {
-        bind(ScheduledExecutorService.class).toInstance(executor);
+        bind(TimerService.class).toInstance(timer);
         bind(TaskThrottler.class).in(Singleton.class);
         expose(TaskThrottler.class);
       }
@@ -21,14 +21,15 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedHashMultimap;
@@ -39,8 +40,12 @@ import com.google.common.eventbus.Subscribe;
 import com.google.inject.BindingAnnotation;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
 import com.twitter.common.util.Clock;
 
+import org.apache.aurora.scheduler.async.TimerService.Timeout;
 import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.state.StateManager;
 import org.apache.aurora.scheduler.storage.entities.IJobKey;
@@ -51,6 +56,7 @@ import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.ElementType.PARAMETER;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
@@ -60,6 +66,12 @@ import static org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
 /**
  * Prunes tasks in a job based on per-job history and an inactive time threshold by observing tasks
  * transitioning into one of the inactive states.
+ *
+ * <p>Tasks that become eligible for pruning are queued rather than deleted immediately.  The queue
+ * is drained on the timer, deleting tasks across all jobs in bounded batches with one storage
+ * transaction per batch.  Batches are spaced out so that tasks are deleted no faster than a
+ * configured rate.  A batch that fails to be deleted is returned to the head of the queue and
+ * retried.
  */
 public class HistoryPruner implements EventSubscriber {
   private static final Logger LOG = Logger.getLogger(HistoryPruner.class.getName());
@@ -71,30 +83,78 @@ public class HistoryPruner implements EventSubscriber {
     return tasksByJob;
   }
 
-  private final ScheduledExecutorService executor;
+  private final TimerService timer;
   private final StateManager stateManager;
   private final Clock clock;
   private final long pruneThresholdMillis;
   private final int perJobHistoryGoal;
-  private final Map<String, Future<?>> taskIdToFuture = Maps.newConcurrentMap();
+  private final Map<String, Timeout> taskIdToTimeout = Maps.newConcurrentMap();
+  private final PruneBatchSettings batchSettings;
+
+  // Task IDs awaiting deletion, mapped to the time they were queued.  Guarded by its own monitor,
+  // along with drainScheduled.  Insertion order is queue order, so the head is always the
+  // longest-waiting task.
+  private final Map<String, Long> pendingDeletes = Maps.newLinkedHashMap();
+  private boolean drainScheduled = false;
+
+  private final AtomicLong tasksPruned = Stats.exportLong("history_prune_tasks_deleted");
+  private final AtomicLong pruneFailures = Stats.exportLong("history_prune_batch_failures");
+  private final SlidingStats batchSizes = new SlidingStats("history_prune_batch", "tasks");
 
   @BindingAnnotation
   @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
   public @interface PruneThreshold { }
 
+  static class PruneBatchSettings {
+    private final int batchSize;
+    private final double maxTasksPerSec;
+
+    /**
+     * Creates pruning batch settings.
+     *
+     * @param batchSize Maximum number of tasks to delete in one storage transaction.
+     * @param maxTasksPerSec Maximum rate at which to delete tasks.
+     */
+    PruneBatchSettings(int batchSize, double maxTasksPerSec) {
+      checkArgument(batchSize > 0, "Batch size must be positive.");
+      checkArgument(maxTasksPerSec > 0, "Prune rate must be positive.");
+      this.batchSize = batchSize;
+      this.maxTasksPerSec = maxTasksPerSec;
+    }
+  }
+
   @Inject
   HistoryPruner(
-      final ScheduledExecutorService executor,
+      final TimerService timer,
       final StateManager stateManager,
       final Clock clock,
       @PruneThreshold Amount<Long, Time> inactivePruneThreshold,
-      @PruneThreshold int perJobHistoryGoal) {
+      @PruneThreshold int perJobHistoryGoal,
+      PruneBatchSettings batchSettings) {
 
-    this.executor = checkNotNull(executor);
+    this.timer = checkNotNull(timer);
     this.stateManager = checkNotNull(stateManager);
     this.clock = checkNotNull(clock);
     this.pruneThresholdMillis = inactivePruneThreshold.as(Time.MILLISECONDS);
     this.perJobHistoryGoal = perJobHistoryGoal;
+    this.batchSettings = checkNotNull(batchSettings);
+
+    Stats.export(new StatImpl<Integer>("history_prune_pending_tasks") {
+      @Override public Integer read() {
+        synchronized (pendingDeletes) {
+          return pendingDeletes.size();
+        }
+      }
+    });
+    Stats.export(new StatImpl<Long>("history_prune_lag_ms") {
+      @Override public Long read() {
+        synchronized (pendingDeletes) {
+          return pendingDeletes.isEmpty()
+              ? 0L
+              : clock.nowMillis() - pendingDeletes.values().iterator().next();
+        }
+      }
+    });
   }
 
   @VisibleForTesting
@@ -120,13 +180,88 @@ public class HistoryPruner implements EventSubscriber {
     }
   }
 
-  private void deleteTasks(Set<String> taskIds) {
-    LOG.info("Pruning inactive tasks " + taskIds);
-    stateManager.deleteTasks(taskIds);
+  private void queueDeletes(Set<String> taskIds) {
+    long now = clock.nowMillis();
+    synchronized (pendingDeletes) {
+      for (String taskId : taskIds) {
+        if (!pendingDeletes.containsKey(taskId)) {
+          pendingDeletes.put(taskId, now);
+        }
+      }
+      if (!drainScheduled && !pendingDeletes.isEmpty()) {
+        scheduleDrain(0);
+      }
+    }
+  }
+
+  // Must be called while holding the pendingDeletes monitor.
+  private void scheduleDrain(long delayMs) {
+    drainScheduled = true;
+    timer.schedule(
+        new Runnable() {
+          @Override public void run() {
+            pruneBatch();
+          }
+        },
+        delayMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  // Spaces batches out so that the deletion rate stays under the limit.
+  private long batchDelayMs(int batchSize) {
+    return (long) Math.ceil(batchSize * 1000 / batchSettings.maxTasksPerSec);
+  }
+
+  private void pruneBatch() {
+    Map<String, Long> batch = Maps.newLinkedHashMap();
+    synchronized (pendingDeletes) {
+      Iterator<Map.Entry<String, Long>> queued = pendingDeletes.entrySet().iterator();
+      while (queued.hasNext() && (batch.size() < batchSettings.batchSize)) {
+        Map.Entry<String, Long> entry = queued.next();
+        batch.put(entry.getKey(), entry.getValue());
+        queued.remove();
+      }
+      if (pendingDeletes.isEmpty()) {
+        drainScheduled = false;
+      } else {
+        scheduleDrain(batchDelayMs(batch.size()));
+      }
+    }
+
+    if (!batch.isEmpty()) {
+      Set<String> taskIds = ImmutableSet.copyOf(batch.keySet());
+      LOG.info("Pruning " + taskIds.size() + " inactive tasks.");
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Pruning inactive tasks " + taskIds);
+      }
+      try {
+        stateManager.deleteTasks(taskIds);
+      } catch (RuntimeException e) {
+        LOG.log(Level.WARNING, "Failed to prune " + taskIds.size() + " tasks, will retry.", e);
+        pruneFailures.incrementAndGet();
+        requeue(batch);
+        return;
+      }
+      tasksPruned.addAndGet(taskIds.size());
+      batchSizes.accumulate(taskIds.size());
+    }
+  }
+
+  private void requeue(Map<String, Long> batch) {
+    synchronized (pendingDeletes) {
+      // The batch is restored to the head of the queue, keeping the time its tasks were queued.
+      Map<String, Long> queued = ImmutableMap.copyOf(pendingDeletes);
+      pendingDeletes.clear();
+      pendingDeletes.putAll(batch);
+      pendingDeletes.putAll(queued);
+      if (!drainScheduled) {
+        scheduleDrain(batchDelayMs(batch.size()));
+      }
+    }
   }
 
   /**
-   * When triggered, removes the tasks scheduled for pruning and cancels any existing future.
+   * When triggered, removes the tasks scheduled for pruning and cancels any existing timeout.
    *
    * @param event A new TasksDeleted event.
    */
@@ -135,9 +270,12 @@ public class HistoryPruner implements EventSubscriber {
     for (IScheduledTask task : event.getTasks()) {
       String id = Tasks.id(task);
       tasksByJob.remove(Tasks.SCHEDULED_TO_JOB_KEY.apply(task), id);
-      Future<?> future = taskIdToFuture.remove(id);
-      if (future != null) {
-        future.cancel(false);
+      synchronized (pendingDeletes) {
+        pendingDeletes.remove(id);
+      }
+      Timeout timeout = taskIdToTimeout.remove(id);
+      if (timeout != null) {
+        timeout.cancel();
       }
     }
   }
@@ -152,13 +290,13 @@ public class HistoryPruner implements EventSubscriber {
     tasksByJob.put(jobKey, taskId);
     Runnable runnable = new Runnable() {
       @Override public void run() {
-        LOG.info("Pruning expired inactive task " + taskId);
+        LOG.fine("Inactive task " + taskId + " expired, queueing for pruning.");
         tasksByJob.remove(jobKey, taskId);
-        taskIdToFuture.remove(taskId);
-        deleteTasks(ImmutableSet.of(taskId));
+        taskIdToTimeout.remove(taskId);
+        queueDeletes(ImmutableSet.of(taskId));
       }
     };
-    taskIdToFuture.put(taskId, executor.schedule(runnable, timeRemaining, TimeUnit.MILLISECONDS));
+    taskIdToTimeout.put(taskId, timer.schedule(runnable, timeRemaining, TimeUnit.MILLISECONDS));
 
     ImmutableSet.Builder<String> pruneTaskIds = ImmutableSet.builder();
     Collection<String> tasks = tasksByJob.get(jobKey);
@@ -172,16 +310,17 @@ public class HistoryPruner implements EventSubscriber {
         String id = iterator.next();
         iterator.remove();
         pruneTaskIds.add(id);
-        Future<?> future = taskIdToFuture.remove(id);
-        if (future != null) {
-          future.cancel(false);
+        Timeout timeout = taskIdToTimeout.remove(id);
+        if (timeout != null) {
+          timeout.cancel();
         }
       }
     }
 
     Set<String> ids = pruneTaskIds.build();
     if (!ids.isEmpty()) {
-      deleteTasks(ids);
+      LOG.fine("Job " + jobKey + " exceeded its history goal, queueing " + ids + " for pruning.");
+      queueDeletes(ids);
     }
   }
 }
@@ -17,10 +17,12 @@ package org.apache.aurora.scheduler.async;
 
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
@@ -30,14 +32,19 @@ import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
 import com.google.common.eventbus.Subscribe;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 
 import org.apache.aurora.gen.HostStatus;
@@ -87,6 +94,21 @@ public interface OfferQueue extends EventSubscriber {
    */
   boolean launchFirst(Function<Offer, Optional<TaskInfo>> acceptor) throws LaunchException;
 
+  /**
+   * Launches tasks against offers in preference order, where the {@code acceptor} may launch
+   * several tasks against a single offer.  Offers are considered until {@code maxTasks} tasks
+   * have been launched or all offers have been visited.
+   *
+   * @param acceptor Function that determines the tasks to launch against an offer, returning an
+   *                 empty list if the offer is not accepted.
+   * @param maxTasks Maximum number of tasks to launch.
+   * @return The number of tasks launched.
+   * @throws LaunchException If the acceptor accepted an offer, but there was an error launching the
+   *                         tasks.  Tasks launched against previously-accepted offers are not
+   *                         affected.
+   */
+  int launchBatch(Function<Offer, List<TaskInfo>> acceptor, int maxTasks) throws LaunchException;
+
   /**
    * Notifies the offer queue that a host has changed state.
    *
@@ -135,7 +157,7 @@ public interface OfferQueue extends EventSubscriber {
             })
             .compound(Ordering.arbitrary());
 
-    private final Set<HostOffer> hostOffers = new ConcurrentSkipListSet<>(PREFERENCE_COMPARATOR);
+    private final HostOffers hostOffers = new HostOffers();
     private final AtomicLong offerRaces = Stats.exportLong("offer_accept_races");
 
     private final Driver driver;
@@ -153,9 +175,11 @@ public interface OfferQueue extends EventSubscriber {
       this.returnDelay = returnDelay;
       this.executor = executor;
       this.maintenance = maintenance;
-      // Potential gotcha - since this is now a ConcurrentSkipListSet, size() is more expensive.
-      // Could track this separately if it turns out to pose problems.
-      Stats.exportSize("outstanding_offers", hostOffers);
+      Stats.export(new StatImpl<Integer>("outstanding_offers") {
+        @Override public Integer read() {
+          return hostOffers.size();
+        }
+      });
     }
 
     @Override
@@ -165,15 +189,7 @@ public interface OfferQueue extends EventSubscriber {
       // them after the return delay.
       // There's also a chance that we return an offer for compaction ~simultaneously with the
       // same-host offer being canceled/returned.  This is also fine.
-      List<HostOffer> sameSlave = FluentIterable.from(hostOffers)
-          .filter(new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer hostOffer) {
-              // Intentionally avoid equals() on the SlaveID itself, since protobuf equals
-              // is rather intensive, and we may have thousands of them to do.
-              return hostOffer.offer.getSlaveId().getValue().equals(offer.getSlaveId().getValue());
-            }
-          })
-          .toList();
+      Set<HostOffer> sameSlave = hostOffers.getBySlave(offer.getSlaveId().getValue());
       if (sameSlave.isEmpty()) {
         hostOffers.add(new HostOffer(offer, maintenance.getMode(offer.getHostname())));
         executor.schedule(
@@ -217,18 +233,13 @@ public interface OfferQueue extends EventSubscriber {
 
       // The small risk of inconsistency is acceptable here - if we have an accept/remove race
       // on an offer, the master will mark the task as LOST and it will be retried.
-      return Iterables.removeIf(hostOffers,
-          new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer input) {
-              return input.offer.getId().getValue().equals(offerId.getValue());
-            }
-          });
+      return hostOffers.remove(offerId.getValue());
     }
 
     @Override
     public Iterable<Offer> getOffers() {
       return Iterables.unmodifiableIterable(
-          FluentIterable.from(hostOffers)
+          FluentIterable.from(hostOffers.getAll())
               .transform(new Function<HostOffer, Offer>() {
                 @Override public Offer apply(HostOffer offer) {
                   return offer.offer;
@@ -243,25 +254,8 @@ public interface OfferQueue extends EventSubscriber {
      */
     @Subscribe
     public void hostChangedState(HostMaintenanceStateChange change) {
-      final HostStatus hostStatus = change.getStatus();
-
-      // Remove and re-add a host's offers to re-sort based on its new hostStatus
-      Set<HostOffer> changedOffers = FluentIterable.from(hostOffers)
-          .filter(new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer hostOffer) {
-              return hostOffer.offer.getHostname().equals(hostStatus.getHost());
-            }
-          })
-          .toSet();
-      hostOffers.removeAll(changedOffers);
-      hostOffers.addAll(
-          FluentIterable.from(changedOffers)
-              .transform(new Function<HostOffer, HostOffer>() {
-                @Override public HostOffer apply(HostOffer hostOffer) {
-                  return new HostOffer(hostOffer.offer, hostStatus.getMode());
-                }
-              })
-              .toSet());
+      HostStatus hostStatus = change.getStatus();
+      hostOffers.updateMode(hostStatus.getHost(), hostStatus.getMode());
     }
 
     /**
@@ -278,6 +272,105 @@ public interface OfferQueue extends EventSubscriber {
       hostOffers.clear();
     }
 
+    /**
+     * A container for the offers held by the scheduler.  Offers are kept in preference order for
+     * iteration, and are additionally indexed by offer ID, slave ID and hostname so that no
+     * mutation requires a scan of all held offers.
+     * <p>
+     * Mutations are serialized, while iteration over {@link #getAll()} is weakly consistent and
+     * does not block mutations.
+     */
+    private static class HostOffers {
+      private final Set<HostOffer> offers = new ConcurrentSkipListSet<>(PREFERENCE_COMPARATOR);
+      // Indices are keyed by the string values of the protobuf identifiers, since protobuf equals()
+      // and hashCode() are rather intensive.
+      private final Map<String, HostOffer> offersById = Maps.newHashMap();
+      private final Multimap<String, String> offerIdsBySlave = HashMultimap.create();
+      private final Multimap<String, String> offerIdsByHost = HashMultimap.create();
+      private final AtomicInteger size = new AtomicInteger();
+
+      Iterable<HostOffer> getAll() {
+        return offers;
+      }
+
+      int size() {
+        return size.get();
+      }
+
+      synchronized Set<HostOffer> getBySlave(String slaveId) {
+        ImmutableSet.Builder<HostOffer> sameSlave = ImmutableSet.builder();
+        for (String offerId : offerIdsBySlave.get(slaveId)) {
+          sameSlave.add(offersById.get(offerId));
+        }
+        return sameSlave.build();
+      }
+
+      synchronized void add(HostOffer offer) {
+        String offerId = offer.offer.getId().getValue();
+        remove(offerId);
+        offersById.put(offerId, offer);
+        offerIdsBySlave.put(offer.offer.getSlaveId().getValue(), offerId);
+        offerIdsByHost.put(offer.offer.getHostname(), offerId);
+        offers.add(offer);
+        size.incrementAndGet();
+      }
+
+      /**
+       * Removes an offer by ID.
+       *
+       * @param offerId ID of the offer to remove.
+       * @return {@code true} if the offer was held and has been removed.
+       */
+      synchronized boolean remove(String offerId) {
+        HostOffer removed = offersById.remove(offerId);
+        if (removed == null) {
+          return false;
+        }
+        offers.remove(removed);
+        offerIdsBySlave.remove(removed.offer.getSlaveId().getValue(), offerId);
+        offerIdsByHost.remove(removed.offer.getHostname(), offerId);
+        size.decrementAndGet();
+        return true;
+      }
+
+      /**
+       * Removes an offer, only if the held offer is the same instance.  This prevents a stale
+       * reference, such as one that was re-sorted after a maintenance change, from removing the
+       * current instance.
+       *
+       * @param offer Offer to remove.
+       * @return {@code true} if the offer was held and has been removed.
+       */
+      synchronized boolean remove(HostOffer offer) {
+        String offerId = offer.offer.getId().getValue();
+        return (offersById.get(offerId) == offer) && remove(offerId);
+      }
+
+      /**
+       * Re-sorts a host's offers according to a new maintenance mode.
+       *
+       * @param host Host whose maintenance mode changed.
+       * @param mode New maintenance mode of the host.
+       */
+      synchronized void updateMode(String host, MaintenanceMode mode) {
+        for (String offerId : offerIdsByHost.get(host)) {
+          HostOffer old = offersById.get(offerId);
+          HostOffer updated = new HostOffer(old.offer, mode);
+          offers.remove(old);
+          offersById.put(offerId, updated);
+          offers.add(updated);
+        }
+      }
+
+      synchronized void clear() {
+        offers.clear();
+        offersById.clear();
+        offerIdsBySlave.clear();
+        offerIdsByHost.clear();
+        size.set(0);
+      }
+    }
+
     /**
      * Encapsulate an offer from a host, and the host's maintenance mode.
      */
@@ -312,31 +405,61 @@ public interface OfferQueue extends EventSubscriber {
       // It's important that this method is not called concurrently - doing so would open up the
       // possibility of a race between the same offers being accepted by different threads.
 
-      for (HostOffer hostOffer : hostOffers) {
+      for (HostOffer hostOffer : hostOffers.getAll()) {
         Optional<TaskInfo> assignment = acceptor.apply(hostOffer.offer);
         if (assignment.isPresent()) {
-          // Guard against an offer being removed after we grabbed it from the iterator.
-          // If that happens, the offer will not exist in hostOffers, and we can immediately
-          // send it back to LOST for quick reschedule.
-          if (hostOffers.remove(hostOffer)) {
-            try {
-              driver.launchTask(hostOffer.offer.getId(), assignment.get());
-              return true;
-            } catch (IllegalStateException e) {
-              // TODO(William Farner): Catch only the checked exception produced by Driver
-              // once it changes from throwing IllegalStateException when the driver is not yet
-              // registered.
-              throw new LaunchException("Failed to launch task.", e);
-            }
-          } else {
-            offerRaces.incrementAndGet();
-            throw new LaunchException(
-                "Accepted offer no longer exists in offer queue, likely data race.");
-          }
+          launch(hostOffer, ImmutableList.of(assignment.get()));
+          return true;
         }
       }
 
       return false;
     }
+
+    @Override
+    public int launchBatch(Function<Offer, List<TaskInfo>> acceptor, int maxTasks)
+        throws LaunchException {
+
+      // Like launchFirst, this must not be called concurrently.
+
+      int launched = 0;
+      for (HostOffer hostOffer : hostOffers.getAll()) {
+        if (launched >= maxTasks) {
+          break;
+        }
+
+        List<TaskInfo> assignments = acceptor.apply(hostOffer.offer);
+        if (!assignments.isEmpty()) {
+          launch(hostOffer, assignments);
+          launched += assignments.size();
+        }
+      }
+
+      return launched;
+    }
+
+    private void launch(HostOffer hostOffer, List<TaskInfo> tasks) throws LaunchException {
+      // Guard against an offer being removed after we grabbed it from the iterator.
+      // If that happens, the offer will not exist in hostOffers, and we can immediately
+      // send it back to LOST for quick reschedule.
+      if (hostOffers.remove(hostOffer)) {
+        try {
+          if (tasks.size() == 1) {
+            driver.launchTask(hostOffer.offer.getId(), Iterables.getOnlyElement(tasks));
+          } else {
+            driver.launchTasks(hostOffer.offer.getId(), tasks);
+          }
+        } catch (IllegalStateException e) {
+          // TODO(William Farner): Catch only the checked exception produced by Driver
+          // once it changes from throwing IllegalStateException when the driver is not yet
+          // registered.
+          throw new LaunchException("Failed to launch task.", e);
+        }
+      } else {
+        offerRaces.incrementAndGet();
+        throw new LaunchException(
+            "Accepted offer no longer exists in offer queue, likely data race.");
+      }
+    }
   }
 }
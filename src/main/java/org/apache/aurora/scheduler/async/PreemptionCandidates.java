@@ -0,0 +1,278 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static org.apache.aurora.scheduler.async.Preemptor.PreemptorImpl.CANDIDATE_STATES;
+
+/**
+ * An index of the tasks that may be preempted on each slave, maintained from task state changes so
+ * that the preemptor does not scan all active tasks for every preemption attempt.
+ * <p>
+ * The tasks on a slave are grouped by the attributes that decide whether a pending task may
+ * preempt them: production flag, role and priority.  Each group keeps the total resources of its
+ * tasks, so a slave where preempting every eligible task would not make room for a pending task
+ * is ruled out without examining its tasks.
+ */
+class PreemptionCandidates implements EventSubscriber {
+
+  // Allows for rounding differences between CPU totals kept here and those summed when filtering.
+  private static final double CPU_TOLERANCE = 1e-6;
+
+  private final Map<String, Map<GroupKey, Group>> slaves = Maps.newHashMap();
+  private final Map<String, String> taskSlaves = Maps.newHashMap();
+
+  private final AtomicLong candidateTasks = Stats.exportLong("preemptor_candidate_tasks");
+  // Incremented every time a slave is ruled out by its resource totals.
+  private final AtomicLong slavesSkipped = Stats.exportLong("preemptor_slaves_skipped");
+
+  @Inject
+  PreemptionCandidates() {
+    // Guice constructor.
+  }
+
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange stateChange) {
+    remove(stateChange.getTaskId());
+
+    IAssignedTask task = stateChange.getTask().getAssignedTask();
+    if (CANDIDATE_STATES.contains(stateChange.getNewState()) && (task.getSlaveId() != null)) {
+      add(task);
+    }
+  }
+
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      remove(Tasks.id(task));
+    }
+  }
+
+  private void add(IAssignedTask task) {
+    Map<GroupKey, Group> groups = slaves.get(task.getSlaveId());
+    if (groups == null) {
+      groups = Maps.newHashMap();
+      slaves.put(task.getSlaveId(), groups);
+    }
+
+    GroupKey key = new GroupKey(task);
+    Group group = groups.get(key);
+    if (group == null) {
+      group = new Group();
+      groups.put(key, group);
+    }
+
+    group.add(task);
+    taskSlaves.put(task.getTaskId(), task.getSlaveId());
+    candidateTasks.incrementAndGet();
+  }
+
+  private void remove(String taskId) {
+    String slaveId = taskSlaves.remove(taskId);
+    if (slaveId == null) {
+      return;
+    }
+
+    Map<GroupKey, Group> groups = slaves.get(slaveId);
+    for (Map.Entry<GroupKey, Group> entry : groups.entrySet()) {
+      Group group = entry.getValue();
+      if (group.remove(taskId)) {
+        if (group.tasks.isEmpty()) {
+          groups.remove(entry.getKey());
+        }
+        break;
+      }
+    }
+    if (groups.isEmpty()) {
+      slaves.remove(slaveId);
+    }
+    candidateTasks.decrementAndGet();
+  }
+
+  @VisibleForTesting
+  long getSlavesSkipped() {
+    return slavesSkipped.get();
+  }
+
+  /**
+   * Gets the IDs of all slaves running tasks that may be preempted.
+   *
+   * @return Slave IDs.
+   */
+  synchronized Set<String> getSlaveIds() {
+    return ImmutableSet.copyOf(slaves.keySet());
+  }
+
+  /**
+   * Finds the tasks on a slave that may be preempted in favor of a pending task, if preempting all
+   * of them would free enough resources for the pending task.
+   *
+   * @param slaveId Slave to find tasks on.
+   * @param pendingTask Task that would preempt the returned tasks.
+   * @param slack Resources already available on the slave.
+   * @return The tasks that may be preempted in reverse scheduling order, or absent if there are no
+   *     such tasks or they do not leave enough room for the pending task.
+   */
+  synchronized Optional<List<IAssignedTask>> getVictims(
+      String slaveId,
+      IAssignedTask pendingTask,
+      ResourceSlot slack) {
+
+    Map<GroupKey, Group> groups = slaves.get(slaveId);
+    if (groups == null) {
+      return Optional.absent();
+    }
+
+    Totals available = new Totals();
+    available.add(slack);
+    List<IAssignedTask> victims = Lists.newArrayList();
+    for (Group group : groups.values()) {
+      // All tasks in a group are equally eligible, so any one of them stands in for the group.
+      IAssignedTask member = Iterables.getFirst(group.tasks.values(), null);
+      if (PreemptorImpl.canPreempt(pendingTask).apply(member)) {
+        available.add(group.totals);
+        victims.addAll(group.tasks.values());
+      }
+    }
+
+    if (victims.isEmpty()) {
+      return Optional.absent();
+    }
+    if (!available.satisfies(ResourceSlot.from(pendingTask.getTask()))) {
+      slavesSkipped.incrementAndGet();
+      return Optional.absent();
+    }
+
+    return Optional.of(Tasks.SCHEDULING_ORDER.reverse().sortedCopy(victims));
+  }
+
+  /**
+   * Attributes that determine whether a task may be preempted by a pending task.
+   */
+  private static final class GroupKey {
+    private final boolean production;
+    private final String role;
+    private final int priority;
+
+    GroupKey(IAssignedTask task) {
+      this.production = task.getTask().isProduction();
+      this.role = task.getTask().getOwner().getRole();
+      this.priority = task.getTask().getPriority();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof GroupKey)) {
+        return false;
+      }
+
+      GroupKey other = (GroupKey) o;
+      return (production == other.production)
+          && role.equals(other.role)
+          && (priority == other.priority);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(production, role, priority);
+    }
+  }
+
+  private static final class Group {
+    private final Map<String, IAssignedTask> tasks = Maps.newHashMap();
+    private final Totals totals = new Totals();
+
+    void add(IAssignedTask task) {
+      IAssignedTask replaced = tasks.put(task.getTaskId(), task);
+      if (replaced != null) {
+        totals.subtract(ResourceSlot.from(replaced.getTask()));
+      }
+      totals.add(ResourceSlot.from(task.getTask()));
+    }
+
+    boolean remove(String taskId) {
+      IAssignedTask removed = tasks.remove(taskId);
+      if (removed == null) {
+        return false;
+      }
+      totals.subtract(ResourceSlot.from(removed.getTask()));
+      return true;
+    }
+  }
+
+  /**
+   * Running resource totals, kept in primitive form to be cheaply updated in place.
+   */
+  private static final class Totals {
+    private double cpus;
+    private long ramMb;
+    private long diskMb;
+    private long ports;
+
+    void add(ResourceSlot slot) {
+      cpus += slot.getNumCpus();
+      ramMb += slot.getRam().as(Data.MB);
+      diskMb += slot.getDisk().as(Data.MB);
+      ports += slot.getNumPorts();
+    }
+
+    void add(Totals other) {
+      cpus += other.cpus;
+      ramMb += other.ramMb;
+      diskMb += other.diskMb;
+      ports += other.ports;
+    }
+
+    void subtract(ResourceSlot slot) {
+      cpus -= slot.getNumCpus();
+      ramMb -= slot.getRam().as(Data.MB);
+      diskMb -= slot.getDisk().as(Data.MB);
+      ports -= slot.getNumPorts();
+    }
+
+    boolean satisfies(ResourceSlot required) {
+      return (cpus + CPU_TOLERANCE >= required.getNumCpus())
+          && (ramMb >= required.getRam().as(Data.MB))
+          && (diskMb >= required.getDisk().as(Data.MB))
+          && (ports >= required.getNumPorts());
+    }
+  }
+}
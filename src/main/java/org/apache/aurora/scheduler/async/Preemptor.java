@@ -17,7 +17,6 @@ package org.apache.aurora.scheduler.async;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
-import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
@@ -25,12 +24,10 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -99,9 +96,9 @@ public interface Preemptor {
     @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
     @interface PreemptionDelay { }
 
-    @VisibleForTesting
-    static final Query.Builder CANDIDATE_QUERY = Query.statusScoped(
-        EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(PENDING, PREEMPTING))));
+    // Only non-pending active tasks may be preempted.
+    static final Set<ScheduleStatus> CANDIDATE_STATES = Sets.immutableEnumSet(
+        Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(PENDING, PREEMPTING)));
 
     private static final Function<IAssignedTask, Integer> GET_PRIORITY =
         new Function<IAssignedTask, Integer>() {
@@ -124,6 +121,7 @@ public interface Preemptor {
     };
 
     private final Storage storage;
+    private final PreemptionCandidates candidates;
     private final StateManager stateManager;
     private final OfferQueue offerQueue;
     private final SchedulingFilter schedulingFilter;
@@ -134,6 +132,7 @@ public interface Preemptor {
      * Creates a new preemptor.
      *
      * @param storage Backing store for tasks.
+     * @param candidates Index of tasks that may be preempted.
      * @param stateManager Scheduler state controller to instruct when preempting tasks.
      * @param offerQueue Queue that contains available Mesos resource offers.
      * @param schedulingFilter Filter to identify whether tasks may reside on given slaves.
@@ -144,6 +143,7 @@ public interface Preemptor {
     @Inject
     PreemptorImpl(
         Storage storage,
+        PreemptionCandidates candidates,
         StateManager stateManager,
         OfferQueue offerQueue,
         SchedulingFilter schedulingFilter,
@@ -151,6 +151,7 @@ public interface Preemptor {
         Clock clock) {
 
       this.storage = checkNotNull(storage);
+      this.candidates = checkNotNull(candidates);
       this.stateManager = checkNotNull(stateManager);
       this.offerQueue = checkNotNull(offerQueue);
       this.schedulingFilter = checkNotNull(schedulingFilter);
@@ -164,18 +165,7 @@ public interface Preemptor {
           SCHEDULED_TO_ASSIGNED));
     }
 
-    private List<IAssignedTask> fetch(Query.Builder query) {
-      return fetch(query, Predicates.<IScheduledTask>alwaysTrue());
-    }
-
-    private static final Function<IAssignedTask, String> TASK_TO_SLAVE_ID =
-        new Function<IAssignedTask, String>() {
-          @Override public String apply(IAssignedTask input) {
-            return input.getSlaveId();
-          }
-        };
-
-    private static Predicate<IAssignedTask> canPreempt(final IAssignedTask pending) {
+    static Predicate<IAssignedTask> canPreempt(final IAssignedTask pending) {
       return new Predicate<IAssignedTask>() {
         @Override public boolean apply(IAssignedTask possibleVictim) {
           return preemptionFilter(possibleVictim).apply(pending);
@@ -215,23 +205,17 @@ public interface Preemptor {
      * A set with elements indicates those tasks and the offers are enough.
      */
     private Optional<Set<IAssignedTask>> getTasksToPreempt(
-        Iterable<IAssignedTask> possibleVictims,
+        String slaveId,
         Iterable<Offer> offers,
         IAssignedTask pendingTask,
         CachedJobState cachedJobState) {
 
-      // This enforces the precondition that all of the resources are from the same host. We need to
-      // get the host for the schedulingFilter.
-      Set<String> hosts = ImmutableSet.<String>builder()
-          .addAll(Iterables.transform(possibleVictims, Tasks.ASSIGNED_TO_SLAVE_HOST))
-          .addAll(Iterables.transform(offers, OFFER_TO_HOST)).build();
-
-      String host = Iterables.getOnlyElement(hosts);
-
       ResourceSlot slackResources =
           ResourceSlot.sum(Iterables.transform(offers, OFFER_TO_RESOURCE_SLOT));
 
       if (!Iterables.isEmpty(offers)) {
+        String host = Iterables.getOnlyElement(
+            ImmutableSet.copyOf(Iterables.transform(offers, OFFER_TO_HOST)));
         Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
             slackResources,
             host,
@@ -244,23 +228,29 @@ public interface Preemptor {
         }
       }
 
-      FluentIterable<IAssignedTask> preemptableTasks =
-          FluentIterable.from(possibleVictims).filter(canPreempt(pendingTask));
-
-      if (preemptableTasks.isEmpty()) {
+      Optional<List<IAssignedTask>> possibleVictims =
+          candidates.getVictims(slaveId, pendingTask, slackResources);
+      if (!possibleVictims.isPresent()) {
         return Optional.absent();
       }
 
+      // This enforces the precondition that all of the resources are from the same host. We need to
+      // get the host for the schedulingFilter.
+      Set<String> hosts = ImmutableSet.<String>builder()
+          .addAll(Iterables.transform(possibleVictims.get(), Tasks.ASSIGNED_TO_SLAVE_HOST))
+          .addAll(Iterables.transform(offers, OFFER_TO_HOST)).build();
+
+      String host = Iterables.getOnlyElement(hosts);
+
       List<IAssignedTask> toPreemptTasks = Lists.newArrayList();
+      ResourceSlot totalResource = slackResources;
 
-      Iterable<IAssignedTask> sortedVictims = RESOURCE_ORDER.immutableSortedCopy(preemptableTasks);
+      Iterable<IAssignedTask> sortedVictims =
+          RESOURCE_ORDER.immutableSortedCopy(possibleVictims.get());
 
       for (IAssignedTask victim : sortedVictims) {
         toPreemptTasks.add(victim);
-
-        ResourceSlot totalResource = ResourceSlot.sum(
-            ResourceSlot.sum(Iterables.transform(toPreemptTasks, TASK_TO_RESOURCES)),
-            slackResources);
+        totalResource = ResourceSlot.sum(totalResource, TASK_TO_RESOURCES.apply(victim));
 
         Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
             totalResource,
@@ -283,17 +273,6 @@ public interface Preemptor {
           }
         };
 
-    private Multimap<String, IAssignedTask> getSlavesToActiveTasks() {
-      // Only non-pending active tasks may be preempted.
-      List<IAssignedTask> activeTasks = fetch(CANDIDATE_QUERY);
-
-      // Walk through the preemption candidates in reverse scheduling order.
-      Collections.sort(activeTasks, Tasks.SCHEDULING_ORDER.reverse());
-
-      // Group the tasks by slave id so they can be paired with offers from the same slave.
-      return Multimaps.index(activeTasks, TASK_TO_SLAVE_ID);
-    }
-
     @Override
     public synchronized Optional<String> findPreemptionSlotFor(
         String taskId,
@@ -309,9 +288,9 @@ public interface Preemptor {
 
       IAssignedTask pendingTask = Iterables.getOnlyElement(pendingTasks);
 
-      Multimap<String, IAssignedTask> slavesToActiveTasks = getSlavesToActiveTasks();
+      Set<String> candidateSlaves = candidates.getSlaveIds();
 
-      if (slavesToActiveTasks.isEmpty()) {
+      if (candidateSlaves.isEmpty()) {
         return Optional.absent();
       }
 
@@ -323,12 +302,12 @@ public interface Preemptor {
 
       Set<String> allSlaves = ImmutableSet.<String>builder()
           .addAll(slavesToOffers.keySet())
-          .addAll(slavesToActiveTasks.keySet())
+          .addAll(candidateSlaves)
           .build();
 
       for (String slaveID : allSlaves) {
         Optional<Set<IAssignedTask>> toPreemptTasks = getTasksToPreempt(
-            slavesToActiveTasks.get(slaveID),
+            slaveID,
             slavesToOffers.get(slaveID),
             pendingTask,
             cachedJobState);
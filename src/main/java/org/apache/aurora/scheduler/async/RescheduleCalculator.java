@@ -17,7 +17,9 @@ package org.apache.aurora.scheduler.async;
 
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -30,14 +32,22 @@ import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
 import com.twitter.common.util.BackoffStrategy;
 import com.twitter.common.util.Random;
 
+import org.apache.aurora.gen.InstanceKey;
 import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskEvent;
@@ -50,7 +60,7 @@ import static org.apache.aurora.gen.ScheduleStatus.RESTARTING;
 /**
  * Calculates scheduling delays for tasks.
  */
-public interface RescheduleCalculator {
+public interface RescheduleCalculator extends EventSubscriber {
   /**
    * Calculates the delay, in milliseconds, before the task should be considered eligible for
    * (re)scheduling at scheduler startup.
@@ -69,6 +79,12 @@ public interface RescheduleCalculator {
    */
   long getFlappingPenaltyMs(IScheduledTask task);
 
+  /**
+   * Calculates flapping penalties from a per-instance history of the most recently terminated
+   * task, which is maintained from task state changes.  A task's penalty is looked up from the
+   * history of its ancestor, and only falls back to walking the ancestor chain in storage when the
+   * history is missing or stale, such as for tasks loaded at startup.
+   */
   class RescheduleCalculatorImpl implements RescheduleCalculator {
 
     private static final Logger LOG = Logger.getLogger(TaskGroups.class.getName());
@@ -78,6 +94,28 @@ public interface RescheduleCalculator {
     // TODO(wfarner): Inject 'random' in the constructor for better test coverage.
     private final Random random = new Random.SystemRandom(new java.util.Random());
 
+    private final Map<InstanceKey, FlapHistory> flapHistories = Maps.newConcurrentMap();
+    private final AtomicLong historyHits = Stats.exportLong("reschedule_flap_history_hits");
+    private final AtomicLong historyMisses = Stats.exportLong("reschedule_flap_history_misses");
+
+    /**
+     * The flapping history leading up to a terminated task.
+     */
+    private static final class FlapHistory {
+      private final String taskId;
+      private final long terminatedAtMs;
+      private final int consecutiveFlaps;
+      // Penalty for a task rescheduled from this one.
+      private final long penaltyMs;
+
+      FlapHistory(String taskId, long terminatedAtMs, int consecutiveFlaps, long penaltyMs) {
+        this.taskId = taskId;
+        this.terminatedAtMs = terminatedAtMs;
+        this.consecutiveFlaps = consecutiveFlaps;
+        this.penaltyMs = penaltyMs;
+      }
+    }
+
     private static final Predicate<ScheduleStatus> IS_ACTIVE_STATUS =
         Predicates.in(Tasks.ACTIVE_STATES);
 
@@ -110,12 +148,15 @@ public interface RescheduleCalculator {
         ScheduleStatus terminalState = terminalEvent.getStatus();
         Preconditions.checkState(Tasks.isTerminated(terminalState));
 
-        ITaskEvent activeEvent =
-            Iterables.find(events, Predicates.compose(IS_ACTIVE_STATUS, TO_STATUS));
+        Optional<ITaskEvent> activeEvent =
+            Iterables.tryFind(events, Predicates.compose(IS_ACTIVE_STATUS, TO_STATUS));
+        if (!activeEvent.isPresent()) {
+          return false;
+        }
 
         long thresholdMs = settings.flappingTaskThreashold.as(Time.MILLISECONDS);
 
-        return (terminalEvent.getTimestamp() - activeEvent.getTimestamp()) < thresholdMs;
+        return (terminalEvent.getTimestamp() - activeEvent.get().getTimestamp()) < thresholdMs;
       }
     };
 
@@ -139,6 +180,86 @@ public interface RescheduleCalculator {
     RescheduleCalculatorImpl(Storage storage, RescheduleCalculatorSettings settings) {
       this.storage = checkNotNull(storage);
       this.settings = checkNotNull(settings);
+
+      Stats.export(new StatImpl<Integer>("reschedule_flap_history_size") {
+        @Override public Integer read() {
+          return flapHistories.size();
+        }
+      });
+    }
+
+    private static InstanceKey instanceKey(IScheduledTask task) {
+      return new InstanceKey(
+          Tasks.SCHEDULED_TO_JOB_KEY.apply(task).newBuilder(),
+          task.getAssignedTask().getInstanceId());
+    }
+
+    private static long terminatedAtMs(IScheduledTask task) {
+      return task.isSetTaskEvents() ? Tasks.getLatestEvent(task).getTimestamp() : 0L;
+    }
+
+    private void remember(IScheduledTask task, FlapHistory history) {
+      InstanceKey key = instanceKey(task);
+      synchronized (flapHistories) {
+        FlapHistory existing = flapHistories.get(key);
+        // Histories may be loaded out of order, only the most recent task is of interest.
+        if (existing == null || existing.terminatedAtMs <= history.terminatedAtMs) {
+          flapHistories.put(key, history);
+        }
+      }
+    }
+
+    /**
+     * Records the flap history of newly-terminated tasks.
+     *
+     * @param change Task state change.
+     */
+    @Subscribe
+    public void taskChangedState(TaskStateChange change) {
+      // Histories for tasks loaded at startup are filled in lazily, since the order tasks are
+      // loaded in does not allow incrementally building histories.
+      if (!change.isTransition() || !Tasks.isTerminated(change.getNewState())) {
+        return;
+      }
+
+      IScheduledTask task = change.getTask();
+      FlapHistory history;
+      if (!flapped.apply(task)) {
+        history = new FlapHistory(Tasks.id(task), terminatedAtMs(task), 0, 0L);
+      } else {
+        FlapHistory ancestor = task.isSetAncestorId() ? flapHistories.get(instanceKey(task)) : null;
+        if ((ancestor != null) && ancestor.taskId.equals(task.getAncestorId())) {
+          long penaltyMs = settings.flappingTaskBackoff.calculateBackoffMs(ancestor.penaltyMs);
+          history = new FlapHistory(
+              Tasks.id(task),
+              terminatedAtMs(task),
+              ancestor.consecutiveFlaps + 1,
+              penaltyMs);
+        } else {
+          history = loadHistory(task);
+        }
+        LOG.info(String.format("Task %s flapped %d consecutive times, penalty is now %d ms",
+            Tasks.id(task), history.consecutiveFlaps, history.penaltyMs));
+      }
+      remember(task, history);
+    }
+
+    /**
+     * Drops histories of deleted tasks, since a deleted ancestor no longer incurs a penalty.
+     *
+     * @param deleted Tasks deleted event.
+     */
+    @Subscribe
+    public void tasksDeleted(TasksDeleted deleted) {
+      synchronized (flapHistories) {
+        for (IScheduledTask task : deleted.getTasks()) {
+          InstanceKey key = instanceKey(task);
+          FlapHistory history = flapHistories.get(key);
+          if ((history != null) && history.taskId.equals(Tasks.id(task))) {
+            flapHistories.remove(key);
+          }
+        }
+      }
     }
 
     @Override
@@ -160,21 +281,47 @@ public interface RescheduleCalculator {
 
     @Override
     public long getFlappingPenaltyMs(IScheduledTask task) {
-      Optional<IScheduledTask> curTask = getTaskAncestor(task);
+      if (!task.isSetAncestorId()) {
+        return 0L;
+      }
+
+      FlapHistory history = flapHistories.get(instanceKey(task));
+      if ((history != null) && history.taskId.equals(task.getAncestorId())) {
+        historyHits.incrementAndGet();
+        return history.penaltyMs;
+      }
+
+      historyMisses.incrementAndGet();
+      Optional<IScheduledTask> ancestor = getTaskAncestor(task);
+      if (!ancestor.isPresent()) {
+        return 0L;
+      }
+      history = loadHistory(ancestor.get());
+      remember(ancestor.get(), history);
+      return history.penaltyMs;
+    }
+
+    /**
+     * Computes the flap history of a terminated task by walking its ancestors in storage.
+     */
+    private FlapHistory loadHistory(IScheduledTask terminated) {
+      Optional<IScheduledTask> curTask = Optional.of(terminated);
       long penaltyMs = 0;
+      int flaps = 0;
       while (curTask.isPresent() && flapped.apply(curTask.get())) {
-        LOG.info(
-            String.format("Ancestor of %s flapped: %s", Tasks.id(task), Tasks.id(curTask.get())));
+        LOG.info(String.format(
+            "Task in history of %s flapped: %s", Tasks.id(terminated), Tasks.id(curTask.get())));
         long newPenalty = settings.flappingTaskBackoff.calculateBackoffMs(penaltyMs);
         // If the backoff strategy is truncated then there is no need for us to continue.
         if (newPenalty == penaltyMs) {
           break;
         }
         penaltyMs = newPenalty;
+        flaps++;
         curTask = getTaskAncestor(curTask.get());
       }
 
-      return penaltyMs;
+      return new FlapHistory(Tasks.id(terminated), terminatedAtMs(terminated), flaps, penaltyMs);
     }
   }
 }
@@ -80,6 +80,32 @@ class TaskGroup {
     return head.taskId;
   }
 
+  /**
+   * Removes the task at the head of the queue, along with up to {@code maxTasks - 1} subsequent
+   * tasks that are ready to be scheduled.
+   *
+   * @param maxTasks Maximum number of tasks to remove.
+   * @param nowMs Current time, in milliseconds.
+   * @return The ids of the removed tasks, in queue order.
+   * @throws IllegalStateException if the queue is empty.
+   */
+  Set<String> popReady(int maxTasks, long nowMs) throws IllegalStateException {
+    ImmutableSet.Builder<String> taskIds = ImmutableSet.builder();
+    taskIds.add(pop());
+    for (int i = 1; i < maxTasks; i++) {
+      Task head = tasks.poll();
+      if (head == null) {
+        break;
+      }
+      if (head.readyTimestampMs > nowMs) {
+        tasks.offer(head);
+        break;
+      }
+      taskIds.add(head.taskId);
+    }
+    return taskIds.build();
+  }
+
   void remove(String taskId) {
     Iterables.removeIf(tasks, Predicates.compose(Predicates.equalTo(taskId), TO_TASK_ID));
   }
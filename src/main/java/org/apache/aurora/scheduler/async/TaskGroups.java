@@ -15,6 +15,7 @@
  */
 package org.apache.aurora.scheduler.async;
 
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -50,6 +51,7 @@ import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static org.apache.aurora.gen.ScheduleStatus.PENDING;
@@ -75,10 +77,13 @@ public class TaskGroups implements EventSubscriber {
   static class TaskGroupsSettings {
     private final BackoffStrategy taskGroupBackoff;
     private final RateLimiter rateLimiter;
+    private final int batchSize;
 
-    TaskGroupsSettings(BackoffStrategy taskGroupBackoff, RateLimiter rateLimiter) {
+    TaskGroupsSettings(BackoffStrategy taskGroupBackoff, RateLimiter rateLimiter, int batchSize) {
       this.taskGroupBackoff = checkNotNull(taskGroupBackoff);
       this.rateLimiter = checkNotNull(rateLimiter);
+      checkArgument(batchSize > 0, "Batch size must be positive.");
+      this.batchSize = batchSize;
     }
   }
 
@@ -94,6 +99,7 @@ public class TaskGroups implements EventSubscriber {
         createThreadPool(shutdownRegistry),
         settings.taskGroupBackoff,
         settings.rateLimiter,
+        settings.batchSize,
         taskScheduler,
         clock,
         rescheduleCalculator);
@@ -104,6 +110,7 @@ public class TaskGroups implements EventSubscriber {
       final ScheduledExecutorService executor,
       final BackoffStrategy taskGroupBackoffStrategy,
       final RateLimiter rateLimiter,
+      final int batchSize,
       final TaskScheduler taskScheduler,
       final Clock clock,
       final RescheduleCalculator rescheduleCalculator) {
@@ -120,13 +127,18 @@ public class TaskGroups implements EventSubscriber {
         rateLimiter.acquire();
         return taskScheduler.schedule(taskId);
       }
+
+      @Override public Set<String> scheduleBatch(Set<String> taskIds) {
+        rateLimiter.acquire();
+        return taskScheduler.scheduleBatch(taskIds);
+      }
     };
 
     groups = CacheBuilder.newBuilder().build(new CacheLoader<GroupKey, TaskGroup>() {
       @Override public TaskGroup load(GroupKey key) {
         TaskGroup group = new TaskGroup(key, taskGroupBackoffStrategy);
         LOG.info("Evaluating group " + key + " in " + group.getPenaltyMs() + " ms");
-        startGroup(group, executor, ratelLimitedScheduler);
+        startGroup(group, executor, ratelLimitedScheduler, batchSize);
         return group;
       }
     });
@@ -143,7 +155,8 @@ public class TaskGroups implements EventSubscriber {
   private void startGroup(
       final TaskGroup group,
       final ScheduledExecutorService executor,
-      final TaskScheduler taskScheduler) {
+      final TaskScheduler taskScheduler,
+      final int batchSize) {
 
     Runnable monitor = new Runnable() {
       @Override public void run() {
@@ -155,22 +168,17 @@ public class TaskGroups implements EventSubscriber {
             break;
 
           case READY:
-            String id = group.pop();
-            TaskScheduler.TaskSchedulerResult result = taskScheduler.schedule(id);
-            switch (result) {
-              case SUCCESS:
-                if (!maybeInvalidate(group)) {
-                  executor.schedule(this, group.resetPenaltyAndGet(), TimeUnit.MILLISECONDS);
-                }
-                break;
-
-              case TRY_AGAIN:
-                group.push(id, clock.nowMillis());
-                executor.schedule(this, group.penalizeAndGet(), TimeUnit.MILLISECONDS);
-                break;
-
-              default:
-                throw new IllegalStateException("Unknown TaskSchedulerResult " + result);
+            Set<String> batch = group.popReady(batchSize, clock.nowMillis());
+            Set<String> unscheduled = taskScheduler.scheduleBatch(batch);
+            for (String id : unscheduled) {
+              group.push(id, clock.nowMillis());
+            }
+            if (unscheduled.size() < batch.size()) {
+              if (!maybeInvalidate(group)) {
+                executor.schedule(this, group.resetPenaltyAndGet(), TimeUnit.MILLISECONDS);
+              }
+            } else {
+              executor.schedule(this, group.penalizeAndGet(), TimeUnit.MILLISECONDS);
             }
             break;
 
@@ -18,6 +18,10 @@ package org.apache.aurora.scheduler.async;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -33,8 +37,10 @@ import com.google.common.base.Suppliers;
 import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.inject.BindingAnnotation;
@@ -48,6 +54,7 @@ import com.twitter.common.util.Clock;
 import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.configuration.Resources;
 import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.filter.CachedJobState;
@@ -87,6 +94,16 @@ interface TaskScheduler extends EventSubscriber {
    */
   TaskSchedulerResult schedule(String taskId);
 
+  /**
+   * Attempts to schedule a batch of identical tasks in a single pass over the held offers,
+   * launching several tasks against an offer where resources allow.
+   *
+   * @param taskIds The tasks to attempt to schedule, which must share the same configuration.
+   * @return The IDs of tasks that were not scheduled.  The caller should call schedule again for
+   *         these tasks.
+   */
+  Set<String> scheduleBatch(Set<String> taskIds);
+
   enum TaskSchedulerResult {
     SUCCESS,
     TRY_AGAIN
@@ -227,6 +244,111 @@ interface TaskScheduler extends EventSubscriber {
       }
     }
 
+    @Timed("task_schedule_batch_attempt")
+    @Override
+    public Set<String> scheduleBatch(final Set<String> taskIds) {
+      if (taskIds.size() == 1) {
+        return (schedule(Iterables.getOnlyElement(taskIds)) == TaskSchedulerResult.SUCCESS)
+            ? ImmutableSet.<String>of()
+            : taskIds;
+      }
+
+      scheduleAttemptsFired.addAndGet(taskIds.size());
+      try {
+        return storage.write(new MutateWork.Quiet<Set<String>>() {
+          @Override public Set<String> apply(MutableStoreProvider store) {
+            LOG.fine("Attempting to schedule tasks " + taskIds);
+            Map<String, IScheduledTask> pending = Maps.newLinkedHashMap(Tasks.mapById(
+                store.getTaskStore().fetchTasks(Query.taskScoped(taskIds).byStatus(PENDING))));
+            if (pending.size() < taskIds.size()) {
+              LOG.warning("Failed to look up tasks "
+                  + Sets.difference(taskIds, pending.keySet()) + ", they may have been deleted.");
+            }
+            if (pending.isEmpty()) {
+              return ImmutableSet.of();
+            }
+
+            IJobKey jobKey = Tasks.SCHEDULED_TO_JOB_KEY.apply(Iterables.get(pending.values(), 0));
+            BatchAssigner batchAssigner = new BatchAssigner(store.getTaskStore(), jobKey, pending);
+            try {
+              offerQueue.launchBatch(batchAssigner, pending.size());
+            } catch (OfferQueue.LaunchException e) {
+              LOG.log(Level.WARNING, "Failed to launch tasks.", e);
+              scheduleAttemptsFailed.incrementAndGet();
+
+              // As with a single task, backpedal on the assignments made against the offer that
+              // could not be launched.  Tasks launched against earlier offers are unaffected.
+              for (String taskId : batchAssigner.lastAssigned) {
+                stateManager.changeState(taskId, Optional.of(PENDING), LOST, LAUNCH_FAILED_MSG);
+              }
+            }
+
+            if (!pending.isEmpty()) {
+              // Tasks in the batch are identical, so a preemption slot is only sought for one.
+              maybePreemptFor(
+                  Iterables.get(pending.keySet(), 0),
+                  getJobState(store.getTaskStore(), jobKey));
+            }
+            return ImmutableSet.copyOf(pending.keySet());
+          }
+        });
+      } catch (RuntimeException e) {
+        LOG.log(Level.WARNING, "Task scheduling unexpectedly failed, will be retried", e);
+        scheduleAttemptsFailed.incrementAndGet();
+        return taskIds;
+      }
+    }
+
+    /**
+     * Assigns as many pending tasks of a batch as fit in each offer.  Assigned tasks are removed
+     * from the pending map.
+     */
+    private class BatchAssigner implements Function<Offer, List<TaskInfo>> {
+      private final TaskStore store;
+      private final IJobKey jobKey;
+      private final Map<String, IScheduledTask> pending;
+      private final Set<String> lastAssigned = Sets.newHashSet();
+
+      BatchAssigner(TaskStore store, IJobKey jobKey, Map<String, IScheduledTask> pending) {
+        this.store = store;
+        this.jobKey = jobKey;
+        this.pending = pending;
+      }
+
+      @Override public List<TaskInfo> apply(Offer offer) {
+        lastAssigned.clear();
+        Optional<String> reservedTaskId = reservations.getSlaveReservation(offer.getSlaveId());
+        ImmutableList.Builder<TaskInfo> assignments = ImmutableList.builder();
+        Offer remaining = offer;
+        Iterator<Map.Entry<String, IScheduledTask>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+          Map.Entry<String, IScheduledTask> entry = iterator.next();
+          if (reservedTaskId.isPresent() && !reservedTaskId.get().equals(entry.getKey())) {
+            // Slave is reserved for another task.
+            continue;
+          }
+
+          // The job state is fetched anew for each assignment so that limit constraints observe
+          // the tasks assigned earlier in the batch.
+          Optional<TaskInfo> assignment =
+              assigner.maybeAssign(remaining, entry.getValue(), getJobState(store, jobKey));
+          if (!assignment.isPresent()) {
+            // The remaining tasks are identical, and will not fit either.
+            break;
+          }
+
+          iterator.remove();
+          lastAssigned.add(entry.getKey());
+          assignments.add(assignment.get());
+          if (reservedTaskId.isPresent()) {
+            break;
+          }
+          remaining = Resources.subtract(remaining, assignment.get());
+        }
+        return assignments.build();
+      }
+    }
+
     private void maybePreemptFor(String taskId, CachedJobState cachedJobState) {
       if (reservations.hasReservationForTask(taskId)) {
         return;
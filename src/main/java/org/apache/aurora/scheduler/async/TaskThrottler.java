@@ -15,7 +15,6 @@
  */
 package org.apache.aurora.scheduler.async;
 
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
@@ -45,7 +44,7 @@ class TaskThrottler implements EventSubscriber {
 
   private final RescheduleCalculator rescheduleCalculator;
   private final Clock clock;
-  private final ScheduledExecutorService executor;
+  private final TimerService timer;
   private final StateManager stateManager;
 
   private final SlidingStats throttleStats = new SlidingStats("task_throttle", "ms");
@@ -54,12 +53,12 @@ class TaskThrottler implements EventSubscriber {
   TaskThrottler(
       RescheduleCalculator rescheduleCalculator,
       Clock clock,
-      ScheduledExecutorService executor,
+      TimerService timer,
       StateManager stateManager) {
 
     this.rescheduleCalculator = checkNotNull(rescheduleCalculator);
     this.clock = checkNotNull(clock);
-    this.executor = checkNotNull(executor);
+    this.timer = checkNotNull(timer);
     this.stateManager = checkNotNull(stateManager);
   }
 
@@ -70,7 +69,7 @@ class TaskThrottler implements EventSubscriber {
           + rescheduleCalculator.getFlappingPenaltyMs(stateChange.getTask());
       long delayMs = Math.max(0, readyAtMs - clock.nowMillis());
       throttleStats.accumulate(delayMs);
-      executor.schedule(
+      timer.schedule(
           new Runnable() {
             @Override public void run() {
               stateManager.changeState(
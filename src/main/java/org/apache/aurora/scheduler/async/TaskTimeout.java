@@ -18,23 +18,18 @@ package org.apache.aurora.scheduler.async;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
-import com.google.common.base.Objects;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -42,9 +37,11 @@ import com.twitter.common.stats.StatsProvider;
 import com.twitter.common.util.Clock;
 
 import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.scheduler.async.TimerService.Timeout;
 import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.state.StateManager;
+import org.apache.aurora.scheduler.state.StateManager.Transition;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -71,75 +68,64 @@ class TaskTimeout implements EventSubscriber {
       ScheduleStatus.RESTARTING,
       ScheduleStatus.KILLING);
 
-  private final Map<TimeoutKey, Context> futures = Maps.newConcurrentMap();
+  // Timeouts are registered with the current time, so each map's insertion order is also its
+  // timestamp order, and the longest-waiting task in a state is always at the head.  Each map is
+  // guarded by its own monitor.
+  private final Map<ScheduleStatus, Map<String, Context>> timeoutsByStatus =
+      Maps.newEnumMap(ScheduleStatus.class);
 
-  private static final class TimeoutKey {
-    private final String taskId;
-    private final ScheduleStatus status;
-
-    private TimeoutKey(String taskId, ScheduleStatus status) {
-      this.taskId = taskId;
-      this.status = status;
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hashCode(taskId, status);
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (!(o instanceof TimeoutKey)) {
-        return false;
-      }
-      TimeoutKey key = (TimeoutKey) o;
-      return Objects.equal(taskId, key.taskId)
-          && (status == key.status);
-    }
-
-    @Override
-    public String toString() {
-      return taskId + ":" + status;
-    }
-  }
-
-  private final ScheduledExecutorService executor;
+  private final TimerService timer;
   private final StateManager stateManager;
   private final long timeoutMillis;
   private final Clock clock;
   private final AtomicLong timedOutTasks;
 
+  // Tasks whose timeouts have expired, mapped to the state they timed out in.  These are
+  // transitioned together, so that a burst of expired timeouts is handled in one storage
+  // transaction.  Guarded by its own monitor, along with drainScheduled.
+  private final Map<String, ScheduleStatus> expired = Maps.newLinkedHashMap();
+  private boolean drainScheduled = false;
+
   @Inject
   TaskTimeout(
-      ScheduledExecutorService executor,
+      TimerService timer,
       StateManager stateManager,
       final Clock clock,
       Amount<Long, Time> timeout,
       StatsProvider statsProvider) {
 
-    this.executor = checkNotNull(executor);
+    this.timer = checkNotNull(timer);
     this.stateManager = checkNotNull(stateManager);
     this.timeoutMillis = timeout.as(Time.MILLISECONDS);
     this.clock = checkNotNull(clock);
     this.timedOutTasks = statsProvider.makeCounter(TIMED_OUT_TASKS_COUNTER);
+    for (ScheduleStatus status : TRANSIENT_STATES) {
+      timeoutsByStatus.put(status, Maps.<String, Context>newLinkedHashMap());
+    }
 
     exportStats(statsProvider);
   }
 
-  private void registerTimeout(TimeoutKey key) {
-    // This is an obvious check-then-act, but:
-    //   - there isn't much of a better option, given that we have to get the Future before
-    //     inserting into the map
-    //   - a key collision only happens in practice if something is wrong externally to this class
-    //     (double event for the same state)
-    //   - the outcome is low-risk, we would wind up with a redundant Future that will eventually
-    //     no-op
-    if (!futures.containsKey(key)) {
-      Future<?> timeoutHandler = executor.schedule(
-          new TimedOutTaskHandler(key),
-          timeoutMillis,
-          TimeUnit.MILLISECONDS);
-      futures.put(key, new Context(clock.nowMillis(), timeoutHandler));
+  private void registerTimeout(String taskId, ScheduleStatus status) {
+    Map<String, Context> timeouts = timeoutsByStatus.get(status);
+    synchronized (timeouts) {
+      // A key collision only happens in practice if something is wrong externally to this class
+      // (double event for the same state).
+      if (!timeouts.containsKey(taskId)) {
+        Timeout timeoutHandler = timer.schedule(
+            new TimedOutTaskHandler(taskId, status),
+            timeoutMillis,
+            TimeUnit.MILLISECONDS);
+        timeouts.put(taskId, new Context(clock.nowMillis(), timeoutHandler));
+      }
+    }
+  }
+
+  @Nullable
+  private Context removeTimeout(String taskId, ScheduleStatus status) {
+    Map<String, Context> timeouts = timeoutsByStatus.get(status);
+    synchronized (timeouts) {
+      return timeouts.remove(taskId);
     }
   }
 
@@ -152,75 +138,88 @@ class TaskTimeout implements EventSubscriber {
     String taskId = change.getTaskId();
     ScheduleStatus newState = change.getNewState();
     if (change.isTransition() && isTransient(change.getOldState().get())) {
-      TimeoutKey oldKey = new TimeoutKey(taskId, change.getOldState().get());
-      Context context = futures.remove(oldKey);
+      Context context = removeTimeout(taskId, change.getOldState().get());
       if (context != null) {
-        LOG.fine("Canceling state timeout for task " + oldKey);
-        context.future.cancel(false);
+        LOG.fine("Canceling state timeout for task " + taskId + ":" + change.getOldState().get());
+        context.timeout.cancel();
       }
     }
 
     if (isTransient(newState)) {
-      registerTimeout(new TimeoutKey(taskId, change.getNewState()));
+      registerTimeout(taskId, newState);
     }
   }
 
   private class TimedOutTaskHandler implements Runnable {
-    private final TimeoutKey key;
+    private final String taskId;
+    private final ScheduleStatus status;
 
-    TimedOutTaskHandler(TimeoutKey key) {
-      this.key = key;
+    TimedOutTaskHandler(String taskId, ScheduleStatus status) {
+      this.taskId = taskId;
+      this.status = status;
     }
 
     @Override public void run() {
-      Context context = futures.get(key);
-      try {
-        if (context == null) {
-          LOG.warning("Timeout context not found for " + key);
-          return;
+      String key = taskId + ":" + status;
+      Context context = removeTimeout(taskId, status);
+      if (context == null) {
+        LOG.warning("Timeout context not found for " + key);
+        return;
+      }
+
+      LOG.info("Timeout reached for task " + key);
+      synchronized (expired) {
+        expired.put(taskId, status);
+        if (!drainScheduled) {
+          drainScheduled = true;
+          timer.schedule(
+              new Runnable() {
+                @Override public void run() {
+                  expireTasks();
+                }
+              },
+              0,
+              TimeUnit.MILLISECONDS);
         }
+      }
+    }
+  }
 
-        LOG.info("Timeout reached for task " + key);
-        // This query acts as a CAS by including the state that we expect the task to be in if the
-        // timeout is still valid.  Ideally, the future would have already been canceled, but in the
-        // event of a state transition race, including transientState prevents an unintended
-        // task timeout.
+  private void expireTasks() {
+    Map<String, Transition> transitions = Maps.newHashMap();
+    synchronized (expired) {
+      for (Map.Entry<String, ScheduleStatus> entry : expired.entrySet()) {
+        // The transition acts as a CAS by including the state that we expect the task to be in if
+        // the timeout is still valid.  Ideally, the timeout would have already been canceled, but
+        // in the event of a state transition race, including the transient state prevents an
+        // unintended task timeout.
         // Note: This requires LOST transitions trigger Driver.killTask.
-        if (stateManager.changeState(
-            key.taskId,
-            Optional.of(key.status),
-            ScheduleStatus.LOST,
-            TIMEOUT_MESSAGE)) {
-
-          timedOutTasks.incrementAndGet();
-        } else {
-          LOG.warning("Task " + key + " does not exist, or was not in the expected state.");
-        }
-      } finally {
-        futures.remove(key);
+        transitions.put(
+            entry.getKey(),
+            new Transition(Optional.of(entry.getValue()), ScheduleStatus.LOST, TIMEOUT_MESSAGE));
       }
+      expired.clear();
+      drainScheduled = false;
+    }
+
+    Set<String> lost = stateManager.changeStates(transitions);
+    timedOutTasks.addAndGet(lost.size());
+    for (String taskId : Sets.difference(transitions.keySet(), lost)) {
+      LOG.warning("Task " + taskId + ":" + transitions.get(taskId).getCasState().get()
+          + " does not exist, or was not in the expected state.");
     }
   }
 
-  private class Context {
+  private static class Context {
     private final long timestampMillis;
-    private final Future<?> future;
+    private final Timeout timeout;
 
-    Context(long timestampMillis, Future<?> future) {
+    Context(long timestampMillis, Timeout timeout) {
       this.timestampMillis = timestampMillis;
-      this.future = future;
+      this.timeout = timeout;
     }
   }
 
-  private static final Function<Context, Long> CONTEXT_TIMESTAMP = new Function<Context, Long>() {
-    @Override public Long apply(Context context) {
-      return context.timestampMillis;
-    }
-  };
-
-  private static final Ordering<Context> TIMESTAMP_ORDER =
-      Ordering.natural().onResultOf(CONTEXT_TIMESTAMP);
-
   @VisibleForTesting
   static String waitingTimeStatName(ScheduleStatus status) {
     return "scheduler_max_" + status + "_waiting_ms";
@@ -229,24 +228,26 @@ class TaskTimeout implements EventSubscriber {
   private void exportStats(StatsProvider statsProvider) {
     statsProvider.makeGauge(TRANSIENT_COUNT_STAT_NAME, new Supplier<Number>() {
       @Override public Number get() {
-          return futures.size();
+        int count = 0;
+        for (Map<String, Context> timeouts : timeoutsByStatus.values()) {
+          synchronized (timeouts) {
+            count += timeouts.size();
+          }
         }
+        return count;
+      }
     });
 
     for (final ScheduleStatus status : TRANSIENT_STATES) {
+      final Map<String, Context> timeouts = timeoutsByStatus.get(status);
       statsProvider.makeGauge(waitingTimeStatName(status), new Supplier<Number>() {
-        private final Predicate<TimeoutKey> statusMatcher = new Predicate<TimeoutKey>() {
-          @Override public boolean apply(TimeoutKey key) {
-            return key.status == status;
-          }
-        };
-
         @Override public Number get() {
-          Iterable<Context> matches = Maps.filterKeys(futures, statusMatcher).values();
-          if (Iterables.isEmpty(matches)) {
-            return 0L;
-          } else {
-            return clock.nowMillis() - TIMESTAMP_ORDER.min(matches).timestampMillis;
+          synchronized (timeouts) {
+            if (timeouts.isEmpty()) {
+              return 0L;
+            } else {
+              return clock.nowMillis() - timeouts.values().iterator().next().timestampMillis;
+            }
           }
         }
       });
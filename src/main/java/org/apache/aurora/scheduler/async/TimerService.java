@@ -0,0 +1,269 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.Clock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs tasks after a delay.  Unlike a {@link java.util.concurrent.ScheduledExecutorService}, this
+ * is intended for a very large number of long-lived, frequently canceled timeouts.
+ */
+public interface TimerService {
+
+  /**
+   * Schedules a task to run once after a delay.
+   *
+   * @param task Task to run.
+   * @param delay Time to wait before running the task.
+   * @param unit Unit of {@code delay}.
+   * @return A handle to cancel the task with.
+   */
+  Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+  /**
+   * A handle to a scheduled task.
+   */
+  interface Timeout {
+    /**
+     * Prevents the task from running, if it has not already run.
+     *
+     * @return {@code true} if the task was canceled, {@code false} if it has already run or been
+     *     canceled.
+     */
+    boolean cancel();
+  }
+
+  /**
+   * A hashed timing wheel, which schedules and cancels timeouts in constant time.
+   *
+   * <p>Timeouts are hashed into a ring of buckets by deadline, each bucket covering one tick.
+   * Timeouts further out than one revolution of the wheel record the number of remaining
+   * revolutions.  {@link #advance()} must be called at least once per tick; it visits the buckets
+   * for elapsed ticks and runs all expired tasks as a batch on the calling thread.  Tasks may run
+   * up to one tick late.
+   *
+   * <p>Scheduling and cancellation only enqueue work; the wheel itself is touched solely from
+   * {@link #advance()}, so callers never contend with expiry processing.
+   */
+  class HashedWheelTimer implements TimerService {
+    private static final Logger LOG = Logger.getLogger(HashedWheelTimer.class.getName());
+
+    private static final int PENDING = 0;
+    private static final int CANCELED = 1;
+    private static final int EXPIRED = 2;
+
+    private final Clock clock;
+    private final long tickMs;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startMs;
+    private final Queue<WheelTimeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<WheelTimeout> canceled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private long tick;
+
+    /**
+     * Creates a timing wheel.
+     *
+     * @param clock Clock to measure deadlines with.
+     * @param tickDuration Resolution of the timer.
+     * @param wheelSize Number of buckets in the wheel, rounded up to a power of two.
+     */
+    public HashedWheelTimer(Clock clock, Amount<Long, Time> tickDuration, int wheelSize) {
+      this.clock = checkNotNull(clock);
+      this.tickMs = tickDuration.as(Time.MILLISECONDS);
+      checkArgument(tickMs > 0, "Tick duration must be at least one millisecond.");
+      checkArgument(wheelSize > 0 && wheelSize <= (1 << 30), "Invalid wheel size " + wheelSize);
+
+      int buckets = 1;
+      while (buckets < wheelSize) {
+        buckets <<= 1;
+      }
+      wheel = new Bucket[buckets];
+      for (int i = 0; i < wheel.length; i++) {
+        wheel[i] = new Bucket();
+      }
+      mask = wheel.length - 1;
+      startMs = clock.nowMillis();
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+      checkNotNull(task);
+      WheelTimeout timeout =
+          new WheelTimeout(task, clock.nowMillis() + Math.max(0, unit.toMillis(delay)));
+      added.add(timeout);
+      size.incrementAndGet();
+      return timeout;
+    }
+
+    /**
+     * Gets the number of timeouts that have neither run nor been canceled.
+     *
+     * @return Outstanding timeout count.
+     */
+    public int size() {
+      return size.get();
+    }
+
+    @VisibleForTesting
+    int getWheelSize() {
+      return wheel.length;
+    }
+
+    /**
+     * Processes all ticks that have elapsed since the last call, running expired tasks.
+     * Exceptions thrown by tasks are logged and do not prevent other tasks from running.
+     */
+    public void advance() {
+      List<WheelTimeout> expired = Lists.newArrayList();
+      synchronized (this) {
+        long now = clock.nowMillis();
+        while (startMs + (tick * tickMs) <= now) {
+          removeCanceled();
+          transferAdded();
+          wheel[(int) (tick & mask)].expire(expired);
+          tick++;
+        }
+      }
+
+      for (WheelTimeout timeout : expired) {
+        try {
+          timeout.task.run();
+        } catch (RuntimeException e) {
+          LOG.log(Level.SEVERE, "Timer task failed: " + e, e);
+        }
+      }
+    }
+
+    private void removeCanceled() {
+      WheelTimeout timeout;
+      while ((timeout = canceled.poll()) != null) {
+        if (timeout.bucket != null) {
+          timeout.bucket.remove(timeout);
+        }
+      }
+    }
+
+    private void transferAdded() {
+      WheelTimeout timeout;
+      while ((timeout = added.poll()) != null) {
+        if (timeout.state.get() == CANCELED) {
+          continue;
+        }
+
+        // The first tick at or after the deadline, or the current tick for overdue timeouts.
+        long deadlineTick = Math.max(tick, (timeout.deadlineMs - startMs + tickMs - 1) / tickMs);
+        timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+        wheel[(int) (deadlineTick & mask)].add(timeout);
+      }
+    }
+
+    private final class WheelTimeout implements Timeout {
+      private final Runnable task;
+      private final long deadlineMs;
+      private final AtomicInteger state = new AtomicInteger(PENDING);
+
+      // Only accessed while advancing the wheel.
+      private long remainingRounds;
+      private Bucket bucket;
+      private WheelTimeout prev;
+      private WheelTimeout next;
+
+      WheelTimeout(Runnable task, long deadlineMs) {
+        this.task = task;
+        this.deadlineMs = deadlineMs;
+      }
+
+      @Override
+      public boolean cancel() {
+        if (!state.compareAndSet(PENDING, CANCELED)) {
+          return false;
+        }
+        size.decrementAndGet();
+        canceled.add(this);
+        return true;
+      }
+    }
+
+    /**
+     * A doubly-linked list of the timeouts hashed to one slot of the wheel.
+     */
+    private final class Bucket {
+      private WheelTimeout head;
+      private WheelTimeout tail;
+
+      void add(WheelTimeout timeout) {
+        timeout.bucket = this;
+        if (head == null) {
+          head = timeout;
+        } else {
+          tail.next = timeout;
+          timeout.prev = tail;
+        }
+        tail = timeout;
+      }
+
+      void remove(WheelTimeout timeout) {
+        if (timeout.prev == null) {
+          head = timeout.next;
+        } else {
+          timeout.prev.next = timeout.next;
+        }
+        if (timeout.next == null) {
+          tail = timeout.prev;
+        } else {
+          timeout.next.prev = timeout.prev;
+        }
+        timeout.bucket = null;
+        timeout.prev = null;
+        timeout.next = null;
+      }
+
+      void expire(List<WheelTimeout> expired) {
+        WheelTimeout timeout = head;
+        while (timeout != null) {
+          WheelTimeout next = timeout.next;
+          if (timeout.remainingRounds <= 0) {
+            remove(timeout);
+            if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+              size.decrementAndGet();
+              expired.add(timeout);
+            }
+          } else {
+            timeout.remainingRounds--;
+          }
+          timeout = next;
+        }
+      }
+    }
+  }
+}
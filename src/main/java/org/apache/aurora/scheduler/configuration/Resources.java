@@ -40,6 +40,7 @@ import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskInfo;
 import org.apache.mesos.Protos.Value.Range;
 import org.apache.mesos.Protos.Value.Ranges;
 import org.apache.mesos.Protos.Value.Scalar;
@@ -214,6 +215,48 @@ public class Resources {
         a.getNumPorts() - b.getNumPorts());
   }
 
+  /**
+   * Computes the resources that remain in an offer after a task is launched against it.  Resources
+   * consumed by both the task and its executor are deducted, along with the ports assigned to the
+   * task.
+   *
+   * @param offer Offer to deduct resources from.
+   * @param task Task launched against {@code offer}.
+   * @return An offer describing the remaining resources.
+   */
+  public static Offer subtract(Offer offer, TaskInfo task) {
+    checkNotNull(offer);
+    checkNotNull(task);
+
+    List<Resource> consumed = ImmutableList.<Resource>builder()
+        .addAll(task.getResourcesList())
+        .addAll(task.getExecutor().getResourcesList())
+        .build();
+    Set<Integer> remainingPorts = Sets.difference(
+        getPortSet(offer.getResourcesList()),
+        getPortSet(consumed));
+
+    Offer.Builder remaining = offer.toBuilder()
+        .clearResources()
+        .addResources(makeMesosResource(CPUS,
+            getScalarValue(offer, CPUS) - getScalarSum(consumed, CPUS)))
+        .addResources(makeMesosResource(RAM_MB,
+            getScalarValue(offer, RAM_MB) - getScalarSum(consumed, RAM_MB)))
+        .addResources(makeMesosResource(DISK_MB,
+            getScalarValue(offer, DISK_MB) - getScalarSum(consumed, DISK_MB)));
+    if (!remainingPorts.isEmpty()) {
+      remaining.addResources(makeMesosRangeResource(PORTS, remainingPorts));
+    }
+    remaining.addAllResources(Iterables.filter(
+        offer.getResourcesList(),
+        Predicates.not(Predicates.or(
+            withName(CPUS),
+            withName(RAM_MB),
+            withName(DISK_MB),
+            withName(PORTS)))));
+    return remaining.build();
+  }
+
   /**
    * sum(a, b)
    */
@@ -261,6 +304,23 @@ public class Resources {
     return resource.getScalar().getValue();
   }
 
+  private static double getScalarSum(List<Resource> resources, String key) {
+    double sum = 0;
+    for (Resource resource : Iterables.filter(resources, withName(key))) {
+      sum += resource.getScalar().getValue();
+    }
+    return sum;
+  }
+
+  private static Set<Integer> getPortSet(List<Resource> resources) {
+    ImmutableSet.Builder<Integer> ports = ImmutableSet.builder();
+    for (Resource resource : Iterables.filter(resources, withName(PORTS))) {
+      ports.addAll(Iterables.concat(
+          Iterables.transform(resource.getRanges().getRangeList(), RANGE_TO_MEMBERS)));
+    }
+    return ports.build();
+  }
+
   private static Resource getResource(List<Resource> resource, String key) {
       return Iterables.find(resource, withName(key), null);
   }
@@ -15,6 +15,7 @@
  */
 package org.apache.aurora.scheduler.events;
 
+import java.util.List;
 import java.util.Set;
 
 import com.google.common.base.Objects;
@@ -25,6 +26,7 @@ import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.filter.SchedulingFilter.Veto;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -39,6 +41,22 @@ public interface PubsubEvent {
   public interface EventSubscriber {
   }
 
+  /**
+   * A subscriber that can handle events in batches.  When the subscriber is bound for asynchronous
+   * delivery with {@link PubsubEventModule#bindAsyncSubscriber}, all events waiting in its queue
+   * are handed to {@link #eventsPosted(List)} together, instead of to its individual handlers.
+   */
+  public interface BatchedEventSubscriber extends EventSubscriber {
+
+    /**
+     * Handles a batch of events.  The batch only contains events of types the subscriber has
+     * {@link com.google.common.eventbus.Subscribe} handlers for, in the order they were posted.
+     *
+     * @param events Events to handle.
+     */
+    void eventsPosted(List<PubsubEvent> events);
+  }
+
   /**
    * Event sent when tasks were deleted.
    */
@@ -155,6 +173,60 @@ public interface PubsubEvent {
     }
   }
 
+  /**
+   * Event sent when the configuration of a task was rewritten in place, without a change of state.
+   */
+  public static class TaskConfigRewritten implements PubsubEvent {
+    private final IScheduledTask task;
+    private final ITaskConfig rewrittenConfig;
+
+    /**
+     * Creates a config rewrite event.
+     *
+     * @param task Task structure, as it was before the rewrite.
+     * @param rewrittenConfig Configuration the task was rewritten with.
+     */
+    public TaskConfigRewritten(IScheduledTask task, ITaskConfig rewrittenConfig) {
+      this.task = checkNotNull(task);
+      this.rewrittenConfig = checkNotNull(rewrittenConfig);
+    }
+
+    public IScheduledTask getTask() {
+      return task;
+    }
+
+    public ITaskConfig getOldConfig() {
+      return task.getAssignedTask().getTask();
+    }
+
+    public ITaskConfig getRewrittenConfig() {
+      return rewrittenConfig;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof TaskConfigRewritten)) {
+        return false;
+      }
+
+      TaskConfigRewritten other = (TaskConfigRewritten) o;
+      return Objects.equal(task, other.task)
+          && Objects.equal(rewrittenConfig, other.rewrittenConfig);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(task, rewrittenConfig);
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+          .add("task", Tasks.id(task))
+          .toString();
+    }
+  }
+
   /**
    * Event sent when a host changed maintenance state.
    */
@@ -15,6 +15,9 @@
  */
 package org.apache.aurora.scheduler.events;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -22,11 +25,14 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import com.google.common.eventbus.DeadEvent;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
+import com.google.inject.BindingAnnotation;
+import com.google.inject.TypeLiteral;
 import com.google.inject.multibindings.Multibinder;
 import com.twitter.common.application.modules.LifecycleModule;
 import com.twitter.common.base.Command;
@@ -35,6 +41,11 @@ import org.apache.aurora.scheduler.events.NotifyingSchedulingFilter.NotifyDelega
 import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import org.apache.aurora.scheduler.filter.SchedulingFilter;
 
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -53,37 +64,90 @@ public final class PubsubEventModule extends AbstractModule {
     binder.install(new PubsubEventModule());
   }
 
+  /**
+   * Binding annotation for subscribers that receive events asynchronously.
+   */
+  @BindingAnnotation
+  @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+  @interface AsyncDelivery { }
+
+  /**
+   * Binding annotation for subscribers, and the corresponding event sink, that observe events
+   * within the storage transaction that produced them.
+   */
+  @BindingAnnotation
+  @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+  public @interface TransactionalDelivery { }
+
   @Override
   protected void configure() {
     final EventBus eventBus = new EventBus("TaskEvents");
+    final List<QueuedSubscriber> queuedSubscribers = Lists.newCopyOnWriteArrayList();
     eventBus.register(new Object() {
       @Subscribe public void logDeadEvent(DeadEvent event) {
+        for (QueuedSubscriber subscriber : queuedSubscribers) {
+          if (subscriber.accepts(event.getEvent())) {
+            return;
+          }
+        }
         LOG.warning("Captured dead event " + event.getEvent());
       }
     });
 
     bind(EventBus.class).toInstance(eventBus);
+    bind(new TypeLiteral<List<QueuedSubscriber>>() { }).toInstance(queuedSubscribers);
 
     EventSink eventSink = new EventSink() {
       @Override public void post(PubsubEvent event) {
+        // Events are queued for asynchronous subscribers first, since an event posted by a
+        // synchronous handler would otherwise be queued ahead of the event being handled.
+        for (QueuedSubscriber subscriber : queuedSubscribers) {
+          subscriber.post(event);
+        }
         eventBus.post(event);
       }
     };
     bind(EventSink.class).toInstance(eventSink);
 
+    final EventBus transactionalEventBus = new EventBus("TransactionalTaskEvents");
+    bind(EventBus.class).annotatedWith(TransactionalDelivery.class)
+        .toInstance(transactionalEventBus);
+    bind(EventSink.class).annotatedWith(TransactionalDelivery.class).toInstance(new EventSink() {
+      @Override public void post(PubsubEvent event) {
+        transactionalEventBus.post(event);
+      }
+    });
+
     // Ensure at least an empty binding is present.
     getSubscriberBinder(binder());
+    getAsyncSubscriberBinder(binder());
+    getTransactionalSubscriberBinder(binder());
     LifecycleModule.bindStartupAction(binder(), RegisterSubscribers.class);
   }
 
   static class RegisterSubscribers implements Command {
     private final EventBus eventBus;
+    private final EventBus transactionalEventBus;
+    private final List<QueuedSubscriber> queuedSubscribers;
     private final Set<EventSubscriber> subscribers;
+    private final Set<EventSubscriber> asyncSubscribers;
+    private final Set<EventSubscriber> transactionalSubscribers;
 
     @Inject
-    RegisterSubscribers(EventBus eventBus, Set<EventSubscriber> subscribers) {
+    RegisterSubscribers(
+        EventBus eventBus,
+        @TransactionalDelivery EventBus transactionalEventBus,
+        List<QueuedSubscriber> queuedSubscribers,
+        Set<EventSubscriber> subscribers,
+        @AsyncDelivery Set<EventSubscriber> asyncSubscribers,
+        @TransactionalDelivery Set<EventSubscriber> transactionalSubscribers) {
+
       this.eventBus = checkNotNull(eventBus);
+      this.transactionalEventBus = checkNotNull(transactionalEventBus);
+      this.queuedSubscribers = checkNotNull(queuedSubscribers);
       this.subscribers = checkNotNull(subscribers);
+      this.asyncSubscribers = checkNotNull(asyncSubscribers);
+      this.transactionalSubscribers = checkNotNull(transactionalSubscribers);
     }
 
     @Override
@@ -91,6 +155,12 @@ public final class PubsubEventModule extends AbstractModule {
       for (EventSubscriber subscriber : subscribers) {
         eventBus.register(subscriber);
       }
+      for (EventSubscriber subscriber : asyncSubscribers) {
+        queuedSubscribers.add(new QueuedSubscriber(subscriber));
+      }
+      for (EventSubscriber subscriber : transactionalSubscribers) {
+        transactionalEventBus.register(subscriber);
+      }
     }
   }
 
@@ -111,8 +181,17 @@ public final class PubsubEventModule extends AbstractModule {
     return Multibinder.newSetBinder(binder, EventSubscriber.class);
   }
 
+  private static Multibinder<EventSubscriber> getAsyncSubscriberBinder(Binder binder) {
+    return Multibinder.newSetBinder(binder, EventSubscriber.class, AsyncDelivery.class);
+  }
+
+  private static Multibinder<EventSubscriber> getTransactionalSubscriberBinder(Binder binder) {
+    return Multibinder.newSetBinder(binder, EventSubscriber.class, TransactionalDelivery.class);
+  }
+
   /**
-   * Binds a subscriber to receive task events.
+   * Binds a subscriber to receive task events.  Events are delivered synchronously, on the thread
+   * that posted them.
    *
    * @param binder Binder to bind the subscriber with.
    * @param subscriber Subscriber implementation class to register for events.
@@ -120,4 +199,42 @@ public final class PubsubEventModule extends AbstractModule {
   public static void bindSubscriber(Binder binder, Class<? extends EventSubscriber> subscriber) {
     getSubscriberBinder(binder).addBinding().to(subscriber);
   }
+
+  /**
+   * Binds a subscriber to receive task events asynchronously.  The subscriber is given its own
+   * queue and delivery thread, so that slow handlers do not hold up the thread posting events.
+   * Events are delivered in the order they were posted.  Subscribers that implement
+   * {@link PubsubEvent.BatchedEventSubscriber} receive all queued events at once.
+   *
+   * <p>This should only be used for subscribers that do not need to observe an event before the
+   * posting thread continues, such as those that only export stats.
+   *
+   * @param binder Binder to bind the subscriber with.
+   * @param subscriber Subscriber implementation class to register for events.
+   */
+  public static void bindAsyncSubscriber(
+      Binder binder,
+      Class<? extends EventSubscriber> subscriber) {
+
+    getAsyncSubscriberBinder(binder).addBinding().to(subscriber);
+  }
+
+  /**
+   * Binds a subscriber to receive task state change, deletion and config rewrite events within the
+   * storage write transaction that produced them, while the storage write lock is held.  Unlike
+   * other subscribers, transactional subscribers observe changes before any other writer, and so
+   * may be used to maintain state that is consulted by subsequent writers.  They do not receive
+   * any other events.
+   *
+   * <p>Handlers must be fast and must not block, since they delay every write.
+   *
+   * @param binder Binder to bind the subscriber with.
+   * @param subscriber Subscriber implementation class to register for events.
+   */
+  public static void bindTransactionalSubscriber(
+      Binder binder,
+      Class<? extends EventSubscriber> subscriber) {
+
+    getTransactionalSubscriberBinder(binder).addBinding().to(subscriber);
+  }
 }
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.events;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.scheduler.events.PubsubEvent.BatchedEventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Delivers events to a single subscriber asynchronously, on a thread dedicated to that subscriber.
+ * Events are delivered one at a time and in the order they were posted, so the subscriber
+ * observes events for any given task in order.  Events the subscriber has no handler for are not
+ * queued.
+ */
+final class QueuedSubscriber {
+  private static final Logger LOG = Logger.getLogger(QueuedSubscriber.class.getName());
+
+  @VisibleForTesting
+  static final int MAX_BATCH_SIZE = 1000;
+
+  private final EventSubscriber subscriber;
+  private final Set<Class<?>> eventTypes;
+  private final EventBus delivery;
+  private final Executor executor;
+  private final BlockingQueue<PubsubEvent> queue = new LinkedBlockingQueue<>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  private final SlidingStats handlerLatency;
+
+  QueuedSubscriber(EventSubscriber subscriber) {
+    this(
+        subscriber,
+        Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("PubsubEvent-" + subscriberName(subscriber) + "-%d")
+            .setDaemon(true)
+            .build()));
+  }
+
+  @VisibleForTesting
+  QueuedSubscriber(EventSubscriber subscriber, Executor executor) {
+    this.subscriber = checkNotNull(subscriber);
+    this.executor = checkNotNull(executor);
+    this.eventTypes = subscribedTypes(subscriber.getClass());
+
+    String name = subscriberName(subscriber);
+    delivery = new EventBus(name);
+    delivery.register(subscriber);
+    Stats.exportSize(queueSizeStatName(name), queue);
+    handlerLatency = new SlidingStats("pubsub_" + name + "_handler", "nanos");
+  }
+
+  @VisibleForTesting
+  static String queueSizeStatName(String subscriberName) {
+    return "pubsub_" + subscriberName + "_queue_size";
+  }
+
+  private static String subscriberName(EventSubscriber subscriber) {
+    // Strips the suffix of classes generated by guice for method interception.
+    return subscriber.getClass().getSimpleName().split("\\$\\$")[0];
+  }
+
+  private static Set<Class<?>> subscribedTypes(Class<?> subscriberClass) {
+    // Mirrors the way EventBus finds handlers, which includes handlers declared by supertypes.
+    ImmutableSet.Builder<Class<?>> types = ImmutableSet.builder();
+    for (Class<?> type : TypeToken.of(subscriberClass).getTypes().rawTypes()) {
+      for (Method method : type.getMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class)
+            && (method.getParameterTypes().length == 1)) {
+
+          types.add(method.getParameterTypes()[0]);
+        }
+      }
+    }
+    return types.build();
+  }
+
+  /**
+   * Checks whether the subscriber handles an event.
+   *
+   * @param event Event to check.
+   * @return {@code true} if the subscriber has a handler for the event.
+   */
+  boolean accepts(Object event) {
+    for (Class<?> type : eventTypes) {
+      if (type.isInstance(event)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Queues an event for delivery, if the subscriber handles it.  This never blocks.
+   *
+   * @param event Event to deliver.
+   */
+  void post(PubsubEvent event) {
+    if (!accepts(event)) {
+      return;
+    }
+
+    queue.add(event);
+    if (drainScheduled.compareAndSet(false, true)) {
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          drain();
+        }
+      });
+    }
+  }
+
+  private void drain() {
+    List<PubsubEvent> batch = Lists.newArrayList();
+    try {
+      while (true) {
+        batch.clear();
+        queue.drainTo(batch, MAX_BATCH_SIZE);
+        if (batch.isEmpty()) {
+          drainScheduled.set(false);
+          // An event may have been queued after the queue was found empty, but before the flag
+          // was cleared.  Whoever sets the flag again is responsible for draining it.
+          if (queue.isEmpty() || !drainScheduled.compareAndSet(false, true)) {
+            return;
+          }
+        } else {
+          deliver(batch);
+        }
+      }
+    } catch (RuntimeException e) {
+      drainScheduled.set(false);
+      throw e;
+    }
+  }
+
+  private void deliver(List<PubsubEvent> batch) {
+    if (subscriber instanceof BatchedEventSubscriber) {
+      long startNanos = System.nanoTime();
+      try {
+        ((BatchedEventSubscriber) subscriber).eventsPosted(ImmutableList.copyOf(batch));
+      } catch (RuntimeException e) {
+        // Matches EventBus, which logs and otherwise ignores exceptions thrown by handlers.
+        LOG.log(Level.SEVERE, "Subscriber " + subscriber + " failed to handle events.", e);
+      }
+      handlerLatency.accumulate(System.nanoTime() - startNanos);
+    } else {
+      for (PubsubEvent event : batch) {
+        long startNanos = System.nanoTime();
+        delivery.post(event);
+        handlerLatency.accumulate(System.nanoTime() - startNanos);
+      }
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.filter;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.gen.Attribute;
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.state.MaintenanceController;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+
+/**
+ * A scheduling filter that memoizes the parts of filtering that depend only on the task
+ * configuration and host attributes.
+ * <p>
+ * The resources required by a task and the results of static placement rules (dedicated hosts and
+ * value constraints) are cached for each task configuration.  Caches are keyed by the value of the
+ * configuration, so that all tasks of a job stored with the same configuration share entries, and
+ * hold a bounded number of configurations.  Static results are remembered for each host along with
+ * the host attributes they were computed from, and are recomputed when the attributes change.
+ * Host attributes are read from storage at most once per host every
+ * {@link #HOST_ATTRIBUTES_EXPIRATION}, so a change to them may take that long to be observed.
+ */
+public class CachingSchedulingFilter extends SchedulingFilterImpl {
+
+  @VisibleForTesting
+  static final int MAX_CACHED_CONFIGS = 10000;
+
+  @VisibleForTesting
+  static final Amount<Long, Time> HOST_ATTRIBUTES_EXPIRATION = Amount.of(1L, Time.SECONDS);
+
+  private final LoadingCache<ITaskConfig, ResourceSlot> requiredResources;
+  private final LoadingCache<ITaskConfig, Map<String, StaticResult>> staticResults;
+  private final LoadingCache<String, Set<Attribute>> hostAttributes;
+
+  private final AtomicLong staticHits = Stats.exportLong("scheduling_filter_static_cache_hits");
+  private final AtomicLong staticMisses =
+      Stats.exportLong("scheduling_filter_static_cache_misses");
+
+  /**
+   * Creates a new caching scheduling filter.
+   *
+   * @param storage Interface to accessing the task store.
+   * @param maintenance Interface to accessing the maintenance controller
+   */
+  @Inject
+  public CachingSchedulingFilter(Storage storage, MaintenanceController maintenance) {
+    this(storage, maintenance, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  CachingSchedulingFilter(Storage storage, MaintenanceController maintenance, Ticker ticker) {
+    super(storage, maintenance);
+
+    requiredResources = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_CONFIGS)
+        .recordStats()
+        .build(new CacheLoader<ITaskConfig, ResourceSlot>() {
+          @Override public ResourceSlot load(ITaskConfig task) {
+            return CachingSchedulingFilter.super.getRequiredResources(task);
+          }
+        });
+    staticResults = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_CONFIGS)
+        .build(new CacheLoader<ITaskConfig, Map<String, StaticResult>>() {
+          @Override public Map<String, StaticResult> load(ITaskConfig task) {
+            return Maps.newConcurrentMap();
+          }
+        });
+    hostAttributes = CacheBuilder.newBuilder()
+        .expireAfterWrite(
+            HOST_ATTRIBUTES_EXPIRATION.getValue(),
+            HOST_ATTRIBUTES_EXPIRATION.getUnit().getTimeUnit())
+        .ticker(ticker)
+        .build(new CacheLoader<String, Set<Attribute>>() {
+          @Override public Set<Attribute> load(String slaveHost) {
+            return ImmutableSet.copyOf(getHostAttributes(slaveHost));
+          }
+        });
+
+    Stats.export(new StatImpl<Double>("scheduling_filter_resource_cache_hit_rate") {
+      @Override public Double read() {
+        return requiredResources.stats().hitRate();
+      }
+    });
+    Stats.export(new StatImpl<Double>("scheduling_filter_static_cache_hit_rate") {
+      @Override public Double read() {
+        return getStaticHitRate();
+      }
+    });
+  }
+
+  @VisibleForTesting
+  double getStaticHitRate() {
+    long hits = staticHits.get();
+    long total = hits + staticMisses.get();
+    return (total == 0) ? 1.0 : (double) hits / total;
+  }
+
+  @Override
+  ResourceSlot getRequiredResources(ITaskConfig task) {
+    return requiredResources.getUnchecked(task);
+  }
+
+  @Override
+  Optional<Veto> getStaticVeto(String slaveHost, ITaskConfig task) {
+    Set<Attribute> attributes = hostAttributes.getUnchecked(slaveHost);
+    Map<String, StaticResult> byHost = staticResults.getUnchecked(task);
+    StaticResult result = byHost.get(slaveHost);
+    if ((result != null) && result.attributes.equals(attributes)) {
+      staticHits.incrementAndGet();
+      return result.veto;
+    }
+
+    staticMisses.incrementAndGet();
+    Optional<Veto> veto = getStaticVeto(attributes, task);
+    byHost.put(slaveHost, new StaticResult(attributes, veto));
+    return veto;
+  }
+
+  private static class StaticResult {
+    private final Set<Attribute> attributes;
+    private final Optional<Veto> veto;
+
+    StaticResult(Set<Attribute> attributes, Optional<Veto> veto) {
+      this.attributes = attributes;
+      this.veto = veto;
+    }
+  }
+}
@@ -77,21 +77,40 @@ class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
     return new Veto("Host " + reason + " for maintenance", Veto.MAX_SCORE);
   }
 
+  private static Set<Attribute> getAttributes(
+      Iterable<Attribute> hostAttributes,
+      IConstraint constraint) {
+
+    return ImmutableSet.copyOf(
+        Iterables.filter(hostAttributes, new NameFilter(constraint.getName())));
+  }
+
+  /**
+   * Tests a value constraint against host attributes.  Unlike limit constraints, the result
+   * depends only on the attributes of the host.
+   *
+   * @param hostAttributes The attributes of the host to test against.
+   * @param constraint Value constraint to test.
+   * @return A veto if the constraint is not satisfied.
+   */
+  static Optional<Veto> checkValue(Iterable<Attribute> hostAttributes, IConstraint constraint) {
+    boolean matches = AttributeFilter.matches(
+        getAttributes(hostAttributes, constraint),
+        constraint.getConstraint().getValue());
+    return matches
+        ? Optional.<Veto>absent()
+        : Optional.of(mismatchVeto(constraint.getName()));
+  }
+
   @Override
   public Optional<Veto> apply(IConstraint constraint) {
-    Set<Attribute> attributes =
-        ImmutableSet.copyOf(Iterables.filter(hostAttributes, new NameFilter(constraint.getName())));
-
     ITaskConstraint taskConstraint = constraint.getConstraint();
     switch (taskConstraint.getSetField()) {
       case VALUE:
-        boolean matches =
-            AttributeFilter.matches(attributes, taskConstraint.getValue());
-        return matches
-            ? Optional.<Veto>absent()
-            : Optional.of(mismatchVeto(constraint.getName()));
+        return checkValue(hostAttributes, constraint);
 
       case LIMIT:
+        Set<Attribute> attributes = getAttributes(hostAttributes, constraint);
         if (attributes.isEmpty()) {
           return Optional.of(mismatchVeto(constraint.getName()));
         }
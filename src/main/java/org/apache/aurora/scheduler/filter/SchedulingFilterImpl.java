@@ -15,7 +15,6 @@
  */
 package org.apache.aurora.scheduler.filter;
 
-import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.Set;
 
@@ -24,10 +23,10 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.collect.ImmutableList;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Ordering;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
 
@@ -88,22 +87,6 @@ public class SchedulingFilterImpl implements SchedulingFilter {
    */
   public interface AttributeLoader extends Function<String, Iterable<Attribute>> { }
 
-  /**
-   * A function that may veto a task.
-   */
-  private interface FilterRule extends Function<ITaskConfig, Iterable<Veto>> { }
-
-  /**
-   * Convenience class for a rule that will only ever have a single veto.
-   */
-  private abstract static class SingleVetoRule implements FilterRule {
-    @Override public final Iterable<Veto> apply(ITaskConfig task) {
-      return doApply(task).asSet();
-    }
-
-    abstract Optional<Veto> doApply(ITaskConfig task);
-  }
-
   // Scaling ranges to use for comparison of vetos.  This has no real bearing besides trying to
   // determine if a veto along one resource vector is a 'stronger' veto than that of another vector.
   // The values below represent the maximum resources on a typical slave machine.
@@ -145,92 +128,52 @@ public class SchedulingFilterImpl implements SchedulingFilter {
     }
   }
 
-  private Iterable<FilterRule> rulesFromOffer(final ResourceSlot available) {
-    return ImmutableList.<FilterRule>of(
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return CPU.maybeVeto(
-                available.getNumCpus(),
-                ResourceSlot.from(task).getNumCpus());
-          }
-        },
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return RAM.maybeVeto(
-                available.getRam().as(Data.MB),
-                ResourceSlot.from(task).getRam().as(Data.MB));
-          }
-        },
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return DISK.maybeVeto(available.getDisk().as(Data.MB),
-                ResourceSlot.from(task).getDisk().as(Data.MB));
-          }
-        },
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return PORTS.maybeVeto(available.getNumPorts(),
-                ResourceSlot.from(task).getNumPorts());
-          }
-        }
-    );
-  }
+  private static final Predicate<IConstraint> IS_VALUE_CONSTRAINT = new Predicate<IConstraint>() {
+    @Override public boolean apply(IConstraint constraint) {
+      return constraint.getConstraint().getSetField() == TaskConstraint._Fields.VALUE;
+    }
+  };
 
-  private static boolean isValueConstraint(IConstraint constraint) {
-    return constraint.getConstraint().getSetField() == TaskConstraint._Fields.VALUE;
-  }
+  /**
+   * Evaluates the limit constraints of a task, which depend on the placement of other active tasks
+   * in the job.
+   */
+  private Set<Veto> getLimitVetoes(
+      final CachedJobState jobState,
+      final String slaveHost,
+      final ITaskConfig task) {
 
-  private static final Ordering<IConstraint> VALUES_FIRST = Ordering.from(
-      new Comparator<IConstraint>() {
-        @Override public int compare(IConstraint a, IConstraint b) {
-          if (a.getConstraint().getSetField() == b.getConstraint().getSetField()) {
-            return 0;
-          }
-          return isValueConstraint(a) ? -1 : 1;
-        }
-      });
+    if (!task.isSetConstraints()
+        || Iterables.all(task.getConstraints(), IS_VALUE_CONSTRAINT)) {
 
-  private FilterRule getConstraintFilter(final CachedJobState jobState, final String slaveHost) {
-    return new FilterRule() {
-      @Override public Iterable<Veto> apply(final ITaskConfig task) {
-        if (!task.isSetConstraints()) {
-          return ImmutableList.of();
-        }
+      return ImmutableSet.of();
+    }
 
-        // In the interest of performance, we perform a weakly consistent read here.  The biggest
-        // risk of this is that we might schedule against stale host attributes, or we might fail
-        // to correctly satisfy a diversity constraint.  Given that the likelihood is relatively low
-        // for both of these, and the impact is also low, the weak consistency is acceptable.
-        return storage.weaklyConsistentRead(new Quiet<Iterable<Veto>>() {
-          @Override public Iterable<Veto> apply(final StoreProvider storeProvider) {
-            AttributeLoader attributeLoader = new AttributeLoader() {
-              @Override public Iterable<Attribute> apply(String host) {
-                return AttributeStore.Util.attributesOrNone(storeProvider, host);
-              }
-            };
-
-            ConstraintFilter constraintFilter = new ConstraintFilter(
-                jobState,
-                attributeLoader,
-                attributeLoader.apply(slaveHost));
-            ImmutableList.Builder<Veto> vetoes = ImmutableList.builder();
-            for (IConstraint constraint : VALUES_FIRST.sortedCopy(task.getConstraints())) {
-              Optional<Veto> veto = constraintFilter.apply(constraint);
-              if (veto.isPresent()) {
-                vetoes.add(veto.get());
-                if (isValueConstraint(constraint)) {
-                  // Break when a value constraint mismatch is found to avoid other
-                  // potentially-expensive operations to satisfy other constraints.
-                  break;
-                }
-              }
-            }
-
-            return vetoes.build();
+    // In the interest of performance, we perform a weakly consistent read here.  The biggest
+    // risk of this is that we might schedule against stale host attributes, or we might fail
+    // to correctly satisfy a diversity constraint.  Given that the likelihood is relatively low
+    // for both of these, and the impact is also low, the weak consistency is acceptable.
+    return storage.weaklyConsistentRead(new Quiet<Set<Veto>>() {
+      @Override public Set<Veto> apply(final StoreProvider storeProvider) {
+        AttributeLoader attributeLoader = new AttributeLoader() {
+          @Override public Iterable<Attribute> apply(String host) {
+            return AttributeStore.Util.attributesOrNone(storeProvider, host);
           }
-        });
+        };
+
+        ConstraintFilter constraintFilter = new ConstraintFilter(
+            jobState,
+            attributeLoader,
+            attributeLoader.apply(slaveHost));
+        ImmutableSet.Builder<Veto> vetoes = ImmutableSet.builder();
+        for (IConstraint constraint
+            : Iterables.filter(task.getConstraints(), Predicates.not(IS_VALUE_CONSTRAINT))) {
+
+          vetoes.addAll(constraintFilter.apply(constraint).asSet());
+        }
+        return vetoes.build();
       }
-    };
+    });
   }
 
   private Optional<Veto> getMaintenanceVeto(String slaveHost) {
@@ -240,23 +183,80 @@ public class SchedulingFilterImpl implements SchedulingFilter {
         : NO_VETO;
   }
 
-  private Set<Veto> getResourceVetoes(ResourceSlot offer, ITaskConfig task) {
-    ImmutableSet.Builder<Veto> builder = ImmutableSet.builder();
-    for (FilterRule rule : rulesFromOffer(offer)) {
-      builder.addAll(rule.apply(task));
+  private static Set<Veto> getResourceVetoes(ResourceSlot available, ResourceSlot required) {
+    ImmutableSet.Builder<Veto> vetoes = ImmutableSet.builder();
+    vetoes.addAll(CPU.maybeVeto(available.getNumCpus(), required.getNumCpus()).asSet());
+    vetoes.addAll(
+        RAM.maybeVeto(available.getRam().as(Data.MB), required.getRam().as(Data.MB)).asSet());
+    vetoes.addAll(
+        DISK.maybeVeto(available.getDisk().as(Data.MB), required.getDisk().as(Data.MB)).asSet());
+    vetoes.addAll(PORTS.maybeVeto(available.getNumPorts(), required.getNumPorts()).asSet());
+    return vetoes.build();
+  }
+
+  /**
+   * Fetches the attributes of a host.
+   *
+   * @param slaveHost Host to fetch attributes for.
+   * @return The host's attributes, or an empty set if the host is unknown.
+   */
+  Iterable<Attribute> getHostAttributes(final String slaveHost) {
+    return storage.weaklyConsistentRead(new Quiet<Iterable<Attribute>>() {
+      @Override public Iterable<Attribute> apply(final StoreProvider storeProvider) {
+        return AttributeStore.Util.attributesOrNone(storeProvider, slaveHost);
+      }
+    });
+  }
+
+  /**
+   * Evaluates the static placement rules for a task on a host: dedicated host restrictions and
+   * value constraints.  The result depends only on the task configuration and the host
+   * attributes.
+   *
+   * @param hostAttributes Attributes of the host.
+   * @param task Task to evaluate.
+   * @return The first veto found, if any.
+   */
+  static Optional<Veto> getStaticVeto(Iterable<Attribute> hostAttributes, ITaskConfig task) {
+    if (!ConfigurationManager.isDedicated(task)
+        && Iterables.any(hostAttributes, new ConstraintFilter.NameFilter(DEDICATED_ATTRIBUTE))) {
+
+      return Optional.of(DEDICATED_HOST_VETO);
+    }
+
+    if (task.isSetConstraints()) {
+      for (IConstraint constraint : Iterables.filter(task.getConstraints(), IS_VALUE_CONSTRAINT)) {
+        // Stop when a value constraint mismatch is found to avoid other potentially-expensive
+        // operations to satisfy other constraints.
+        Optional<Veto> veto = ConstraintFilter.checkValue(hostAttributes, constraint);
+        if (veto.isPresent()) {
+          return veto;
+        }
+      }
     }
-    return builder.build();
+    return NO_VETO;
   }
 
-  private boolean isDedicated(final String slaveHost) {
-    Iterable<Attribute> slaveAttributes =
-        storage.weaklyConsistentRead(new Quiet<Iterable<Attribute>>() {
-          @Override public Iterable<Attribute> apply(final StoreProvider storeProvider) {
-            return AttributeStore.Util.attributesOrNone(storeProvider, slaveHost);
-          }
-        });
+  /**
+   * Evaluates the static placement rules for a task on a host.  Subclasses may override this to
+   * memoize results.
+   *
+   * @param slaveHost Host to evaluate.
+   * @param task Task to evaluate.
+   * @return The first veto found, if any.
+   */
+  Optional<Veto> getStaticVeto(String slaveHost, ITaskConfig task) {
+    return getStaticVeto(getHostAttributes(slaveHost), task);
+  }
 
-    return Iterables.any(slaveAttributes, new ConstraintFilter.NameFilter(DEDICATED_ATTRIBUTE));
+  /**
+   * Computes the resources required by a task.  Subclasses may override this to memoize results.
+   *
+   * @param task Task to compute resources for.
+   * @return Resources required by the task.
+   */
+  ResourceSlot getRequiredResources(ITaskConfig task) {
+    return ResourceSlot.from(task);
   }
 
   @Override
@@ -267,12 +267,19 @@ public class SchedulingFilterImpl implements SchedulingFilter {
       String taskId,
       CachedJobState cachedJobState) {
 
-    if (!ConfigurationManager.isDedicated(task) && isDedicated(slaveHost)) {
+    Optional<Veto> staticVeto = getStaticVeto(slaveHost, task);
+    if (staticVeto.equals(Optional.of(DEDICATED_HOST_VETO))) {
       return ImmutableSet.of(DEDICATED_HOST_VETO);
     }
-    return ImmutableSet.<Veto>builder()
-        .addAll(getConstraintFilter(cachedJobState, slaveHost).apply(task))
-        .addAll(getResourceVetoes(offer, task))
+
+    ImmutableSet.Builder<Veto> vetoes = ImmutableSet.builder();
+    if (staticVeto.isPresent()) {
+      vetoes.add(staticVeto.get());
+    } else {
+      vetoes.addAll(getLimitVetoes(cachedJobState, slaveHost, task));
+    }
+    return vetoes
+        .addAll(getResourceVetoes(offer, getRequiredResources(task)))
         .addAll(getMaintenanceVeto(slaveHost).asSet())
         .build();
   }
@@ -16,6 +16,7 @@
 package org.apache.aurora.scheduler.http;
 
 import java.io.StringWriter;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -33,19 +34,21 @@ import javax.ws.rs.core.Response.Status;
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.twitter.common.base.Closure;
 import com.twitter.common.base.MorePreconditions;
 import com.twitter.common.util.templating.StringTemplateHelper;
 import com.twitter.common.util.templating.StringTemplateHelper.TemplateException;
 
 import org.antlr.stringtemplate.StringTemplate;
-import org.apache.aurora.scheduler.base.Query;
-import org.apache.aurora.scheduler.stats.ResourceCounter;
+import org.apache.aurora.scheduler.stats.ResourceAggregator;
 import org.apache.aurora.scheduler.stats.ResourceCounter.GlobalMetric;
 import org.apache.aurora.scheduler.stats.ResourceCounter.Metric;
 import org.apache.aurora.scheduler.stats.ResourceCounter.MetricType;
-import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+import org.apache.aurora.scheduler.storage.entities.IJobKey;
 
 /**
  * A servlet to give an aggregate view of cluster resources consumed, grouped by category.
@@ -54,13 +57,13 @@ import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 public class Utilization {
 
   private final String clusterName;
-  private final ResourceCounter counter;
+  private final ResourceAggregator aggregator;
   private final StringTemplateHelper templateHelper;
 
   @Inject
-  Utilization(ResourceCounter counter, @ClusterName String clusterName) {
+  Utilization(ResourceAggregator aggregator, @ClusterName String clusterName) {
     templateHelper = new StringTemplateHelper(getClass(), "utilization", true);
-    this.counter = Preconditions.checkNotNull(counter);
+    this.aggregator = Preconditions.checkNotNull(aggregator);
     this.clusterName = MorePreconditions.checkNotBlank(clusterName);
   }
 
@@ -153,7 +156,7 @@ public class Utilization {
   @Produces(MediaType.TEXT_HTML)
   public Response aggregateCluster() {
     Iterable<DisplayMetric> metrics =
-        FluentIterable.from(counter.computeConsumptionTotals()).transform(TO_DISPLAY).toList();
+        FluentIterable.from(aggregator.getConsumptionTotals()).transform(TO_DISPLAY).toList();
     return Response.ok(fillTemplate(metrics)).build();
   }
 
@@ -176,16 +179,13 @@ public class Utilization {
   @Path("/{metric}")
   @Produces(MediaType.TEXT_HTML)
   public Response aggregateRoles(@PathParam("metric") final String metric) {
-    final MetricType type = getTypeByName(metric);
+    MetricType type = getTypeByName(metric);
 
-    Function<ITaskConfig, Display> toKey = new Function<ITaskConfig, Display>() {
-      @Override public Display apply(ITaskConfig task) {
-        String role = task.getOwner().getRole();
-        return new Display(role, metric + "/" + role);
-      }
-    };
-    Map<Display, Metric> byRole =
-        counter.computeAggregates(Query.unscoped().active(), type.filter, toKey);
+    Map<Display, Metric> byRole = Maps.newHashMap();
+    for (Entry<String, Metric> entry : aggregator.getRoleAggregates(type).entrySet()) {
+      String role = entry.getKey();
+      byRole.put(new Display(role, metric + "/" + role), entry.getValue());
+    }
     return Response.ok(fillTemplate(byRole)).build();
   }
 
@@ -204,13 +204,19 @@ public class Utilization {
       @PathParam("role") String role) {
 
     MetricType type = getTypeByName(metric);
-    Function<ITaskConfig, Display> toKey = new Function<ITaskConfig, Display>() {
-      @Override public Display apply(ITaskConfig task) {
-        return new Display(task.getJobName(), null);
+
+    // Jobs are displayed by name, so aggregates for same-named jobs in different environments
+    // are combined.
+    Multimap<Display, Metric> byJobName = ArrayListMultimap.create();
+    for (Entry<IJobKey, Metric> entry : aggregator.getJobAggregates(type).entrySet()) {
+      if (entry.getKey().getRole().equals(role)) {
+        byJobName.put(new Display(entry.getKey().getName(), null), entry.getValue());
       }
-    };
-    Map<Display, Metric> byJob =
-        counter.computeAggregates(Query.roleScoped(role).active(), type.filter, toKey);
+    }
+    Map<Display, Metric> byJob = Maps.newHashMap();
+    for (Entry<Display, Collection<Metric>> entry : byJobName.asMap().entrySet()) {
+      byJob.put(entry.getKey(), ResourceAggregator.sum(entry.getValue()));
+    }
     return Response.ok(fillTemplate(byJob)).build();
   }
 }
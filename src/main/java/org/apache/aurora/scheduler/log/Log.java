@@ -72,6 +72,10 @@ public interface Log {
      * underlying IO error.
      */
     class StreamAccessException extends RuntimeException {
+      public StreamAccessException(String message) {
+        super(message);
+      }
+
       public StreamAccessException(String message, Throwable cause) {
         super(message, cause);
       }
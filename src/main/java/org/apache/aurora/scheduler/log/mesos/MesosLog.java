@@ -17,12 +17,17 @@ package org.apache.aurora.scheduler.log.mesos;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.lang.ref.WeakReference;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,9 +36,13 @@ import javax.inject.Provider;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.BindingAnnotation;
 import com.twitter.common.base.Function;
 import com.twitter.common.base.MorePreconditions;
@@ -74,6 +83,23 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
   @Target({ PARAMETER, METHOD })
   public @interface ReadTimeout { }
 
+  /**
+   * Binding annotation for the number of log positions to read in a single call.
+   */
+  @BindingAnnotation
+  @Retention(RUNTIME)
+  @Target({ PARAMETER, METHOD })
+  public @interface ReadBatchSize { }
+
+  /**
+   * Binding annotation for the number of batches of entries to read ahead of a reader, or zero to
+   * read entries as they are requested.
+   */
+  @BindingAnnotation
+  @Retention(RUNTIME)
+  @Target({ PARAMETER, METHOD })
+  public @interface ReadAheadBatches { }
+
   /**
    * Binding annotation for log write timeouts - used for truncates and appends.
    */
@@ -86,6 +112,8 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
 
   private final Provider<ReaderInterface> readerFactory;
   private final Amount<Long, Time> readTimeout;
+  private final int readBatchSize;
+  private final int readAheadBatches;
 
   private final Provider<WriterInterface> writerFactory;
   private final Amount<Long, Time> writeTimeout;
@@ -98,6 +126,8 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
    * @param logFactory Factory to provide access to log.
    * @param readerFactory Factory to provide access to log readers.
    * @param readTimeout Log read timeout.
+   * @param readBatchSize Number of log positions to read in a single call.
+   * @param readAheadBatches Number of batches to read ahead of a reader, or zero to read on demand.
    * @param writerFactory Factory to provide access to log writers.
    * @param writeTimeout Log write timeout.
    * @param noopEntry A no-op log entry blob.
@@ -107,6 +137,8 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
       Provider<LogInterface> logFactory,
       Provider<ReaderInterface> readerFactory,
       @ReadTimeout Amount<Long, Time> readTimeout,
+      @ReadBatchSize int readBatchSize,
+      @ReadAheadBatches int readAheadBatches,
       Provider<WriterInterface> writerFactory,
       @WriteTimeout Amount<Long, Time> writeTimeout,
       @NoopEntry byte[] noopEntry) {
@@ -115,6 +147,10 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
 
     this.readerFactory = Preconditions.checkNotNull(readerFactory);
     this.readTimeout = readTimeout;
+    Preconditions.checkArgument(readBatchSize > 0);
+    this.readBatchSize = readBatchSize;
+    Preconditions.checkArgument(readAheadBatches >= 0);
+    this.readAheadBatches = readAheadBatches;
 
     this.writerFactory = Preconditions.checkNotNull(writerFactory);
     this.writeTimeout = writeTimeout;
@@ -125,7 +161,14 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
   @Override
   public Stream open() {
     return new LogStream(
-        logFactory.get(), readerFactory.get(), readTimeout, writerFactory, writeTimeout, noopEntry);
+        logFactory.get(),
+        readerFactory.get(),
+        readTimeout,
+        readBatchSize,
+        readAheadBatches,
+        writerFactory,
+        writeTimeout,
+        noopEntry);
   }
 
   @VisibleForTesting
@@ -156,17 +199,27 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
           }
         };
 
+    // Marks the end of entries read ahead, compared by identity.
+    private static final List<Log.Entry> END_OF_LOG = Lists.newArrayList();
+
+    // Interval at which a blocked read-ahead thread checks whether it should stop.
+    private static final long READ_AHEAD_POLL_INTERVAL_MS = 100;
+
     private final OpStats read = new OpStats("read");
     private final OpStats append = new OpStats("append");
     private final OpStats truncate = new OpStats("truncate");
     private final AtomicLong entriesSkipped =
         Stats.exportLong("scheduler_log_native_native_entries_skipped");
+    private final AtomicLong entriesRead = Stats.exportLong("scheduler_log_native_entries_read");
+    private final AtomicLong bytesRead = Stats.exportLong("scheduler_log_native_bytes_read");
 
     private final LogInterface log;
 
     private final ReaderInterface reader;
     private final long readTimeout;
     private final TimeUnit readTimeUnit;
+    private final int readBatchSize;
+    private final int readAheadBatches;
 
     private final Provider<WriterInterface> writerFactory;
     private final long writeTimeout;
@@ -176,15 +229,20 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
 
     private WriterInterface writer;
 
+    private final Set<Thread> readAheadThreads = Sets.newConcurrentHashSet();
+    private volatile boolean closed = false;
+
     LogStream(LogInterface log, ReaderInterface reader, Amount<Long, Time> readTimeout,
-        Provider<WriterInterface> writerFactory, Amount<Long, Time> writeTimeout,
-        byte[] noopEntry) {
+        int readBatchSize, int readAheadBatches, Provider<WriterInterface> writerFactory,
+        Amount<Long, Time> writeTimeout, byte[] noopEntry) {
 
       this.log = log;
 
       this.reader = reader;
       this.readTimeout = readTimeout.getValue();
       this.readTimeUnit = readTimeout.getUnit().getTimeUnit();
+      this.readBatchSize = readBatchSize;
+      this.readAheadBatches = readAheadBatches;
 
       this.writerFactory = writerFactory;
       this.writeTimeout = writeTimeout.getValue();
@@ -205,74 +263,181 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
         throw new StreamAccessException("Error writing noop prior to a read", e);
       }
 
-      final Log.Position from = reader.beginning();
-      final Log.Position to = end().unwrap();
+      final long from = Longs.fromByteArray(reader.beginning().identity());
+      final long to = Longs.fromByteArray(end().unwrap().identity());
 
       // Reading all the entries at once may cause large garbage collections. Instead, we
-      // lazily read the entries one by one as they are requested.
+      // lazily read the entries a batch at a time as they are requested.
       // TODO(Benjamin Hindman): Eventually replace this functionality with functionality
       // from the Mesos Log.
+      final Iterator<List<Log.Entry>> batches = (readAheadBatches > 0)
+          ? readAhead(readBatches(from, to))
+          : readBatches(from, to);
       return new UnmodifiableIterator<Entry>() {
-        private long position = Longs.fromByteArray(from.identity());
-        private final long endPosition = Longs.fromByteArray(to.identity());
-        private Entry entry = null;
+        private Iterator<Log.Entry> batch = Iterators.emptyIterator();
 
         @Override
         public boolean hasNext() {
-          if (entry != null) {
-            return true;
-          }
-
-          while (position <= endPosition) {
-            long start = System.nanoTime();
-            try {
-              Log.Position p = log.position(Longs.toByteArray(position));
-              if (LOG.isLoggable(Level.FINE)) {
-                LOG.fine("Reading position " + position + " from the log");
-              }
-              List<Log.Entry> entries = reader.read(p, p, readTimeout, readTimeUnit);
-
-              // N.B. HACK! There is currently no way to "increment" a position. Until the Mesos
-              // Log actually provides a way to "stream" the log, we approximate as much by
-              // using longs via Log.Position.identity and Log.position.
-              position++;
-
-              // Reading positions in this way means it's possible that we get an "invalid" entry
-              // (e.g., in the underlying log terminology this would be anything but an append)
-              // which will be removed from the returned entries resulting in an empty list.
-              // We skip these.
-              if (entries.isEmpty()) {
-                entriesSkipped.getAndIncrement();
-              } else {
-                entry = MESOS_ENTRY_TO_ENTRY.apply(Iterables.getOnlyElement(entries));
-                return true;
-              }
-            } catch (TimeoutException e) {
-              read.timeouts.getAndIncrement();
-              throw new StreamAccessException("Timeout reading from log.", e);
-            } catch (Log.OperationFailedException e) {
-              read.failures.getAndIncrement();
-              throw new StreamAccessException("Problem reading from log", e);
-            } finally {
-              read.timing.accumulate(System.nanoTime() - start);
+          while (!batch.hasNext()) {
+            if (!batches.hasNext()) {
+              return false;
             }
+            batch = batches.next().iterator();
           }
-          return false;
+          return true;
         }
 
         @Override
         public Entry next() {
-          if (entry == null && !hasNext()) {
+          if (!hasNext()) {
             throw new NoSuchElementException();
           }
+          return MESOS_ENTRY_TO_ENTRY.apply(batch.next());
+        }
+      };
+    }
+
+    private Iterator<List<Log.Entry>> readBatches(final long from, final long to) {
+      return new AbstractIterator<List<Log.Entry>>() {
+        private long position = from;
+
+        @Override
+        protected List<Log.Entry> computeNext() {
+          if (position > to) {
+            return endOfData();
+          }
+
+          long batchEnd = Math.min(to, position + readBatchSize - 1);
+          List<Log.Entry> entries = read(position, batchEnd);
 
-          Entry result = Preconditions.checkNotNull(entry);
-          entry = null;
-          return result;
+          // N.B. HACK! There is currently no way to "increment" a position. Until the Mesos
+          // Log actually provides a way to "stream" the log, we approximate as much by
+          // using longs via Log.Position.identity and Log.position.
+          position = batchEnd + 1;
+          return entries;
         }
       };
     }
 
+    private List<Log.Entry> read(long from, long to) throws StreamAccessException {
+      long start = System.nanoTime();
+      try {
+        if (LOG.isLoggable(Level.FINE)) {
+          LOG.fine("Reading positions " + from + " through " + to + " from the log");
+        }
+        List<Log.Entry> entries = reader.read(
+            log.position(Longs.toByteArray(from)),
+            log.position(Longs.toByteArray(to)),
+            readTimeout,
+            readTimeUnit);
+
+        // Reading positions in this way means it's possible that we get "invalid" entries
+        // (e.g., in the underlying log terminology this would be anything but an append)
+        // which will be removed from the returned entries.  We skip these.
+        entriesSkipped.getAndAdd((to - from + 1) - entries.size());
+        entriesRead.getAndAdd(entries.size());
+        for (Log.Entry entry : entries) {
+          bytesRead.getAndAdd(entry.data.length);
+        }
+        return entries;
+      } catch (TimeoutException e) {
+        read.timeouts.getAndIncrement();
+        throw new StreamAccessException("Timeout reading from log.", e);
+      } catch (Log.OperationFailedException e) {
+        read.failures.getAndIncrement();
+        throw new StreamAccessException("Problem reading from log", e);
+      } finally {
+        read.timing.accumulate(System.nanoTime() - start);
+      }
+    }
+
+    /**
+     * Reads batches on a background thread, buffering up to {@code readAheadBatches} of them ahead
+     * of the returned iterator.  Read failures are thrown by the returned iterator once the batches
+     * read before the failure have been consumed.
+     * <p>
+     * The background thread stops once the stream is closed, or once the returned iterator is no
+     * longer referenced and has been garbage collected.  If the stream is closed before all entries
+     * have been read, the iterator throws {@link StreamAccessException} in place of the remaining
+     * entries.
+     */
+    private Iterator<List<Log.Entry>> readAhead(final Iterator<List<Log.Entry>> batches) {
+      final BlockingQueue<List<Log.Entry>> buffer = new ArrayBlockingQueue<>(readAheadBatches);
+      final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+      Iterator<List<Log.Entry>> consumer = new AbstractIterator<List<Log.Entry>>() {
+        @Override
+        protected List<Log.Entry> computeNext() {
+          List<Log.Entry> batch;
+          try {
+            batch = buffer.take();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StreamAccessException("Interrupted waiting for log entries", e);
+          }
+
+          if (batch == END_OF_LOG) {
+            if (failure.get() != null) {
+              throw failure.get();
+            }
+            return endOfData();
+          }
+          return batch;
+        }
+      };
+
+      // The reader thread must not hold a strong reference to the consumer, so that an abandoned
+      // consumer may be collected and the thread stopped.
+      final WeakReference<Iterator<List<Log.Entry>>> consumerRef = new WeakReference<>(consumer);
+      Thread thread = new ThreadFactoryBuilder()
+          .setNameFormat("LogReadAhead-%d")
+          .setDaemon(true)
+          .build()
+          .newThread(new Runnable() {
+            @Override public void run() {
+              try {
+                while (batches.hasNext()) {
+                  List<Log.Entry> batch = batches.next();
+                  if (!batch.isEmpty() && !enqueue(batch)) {
+                    failure.set(new StreamAccessException("Log stream was closed while reading"));
+                    break;
+                  }
+                }
+              } catch (RuntimeException e) {
+                failure.set(e);
+              } finally {
+                if (!enqueue(END_OF_LOG)) {
+                  // Nothing will consume the remaining batches, but a consumer of a closed stream
+                  // must still observe the end of entries rather than block, and must not mistake
+                  // the discarded batches for a complete read.
+                  failure.compareAndSet(
+                      null,
+                      new StreamAccessException("Log stream was closed while reading"));
+                  buffer.clear();
+                  buffer.offer(END_OF_LOG);
+                }
+                readAheadThreads.remove(Thread.currentThread());
+              }
+            }
+
+            private boolean enqueue(List<Log.Entry> batch) {
+              while (!closed && (consumerRef.get() != null)) {
+                try {
+                  if (buffer.offer(batch, READ_AHEAD_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                  }
+                } catch (InterruptedException e) {
+                  return false;
+                }
+              }
+              return false;
+            }
+          });
+      readAheadThreads.add(thread);
+      thread.start();
+      return consumer;
+    }
+
     @Override
     public LogPosition append(final byte[] contents) throws StreamAccessException {
       Preconditions.checkNotNull(contents);
@@ -338,7 +503,15 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
 
     @Override
     public void close() {
-      // noop
+      closed = true;
+      for (Thread thread : readAheadThreads) {
+        thread.interrupt();
+      }
+    }
+
+    @VisibleForTesting
+    Set<Thread> getReadAheadThreads() {
+      return readAheadThreads;
     }
 
     private static class LogPosition implements org.apache.aurora.scheduler.log.Log.Position {
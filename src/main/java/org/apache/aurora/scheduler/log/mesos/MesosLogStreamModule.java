@@ -30,6 +30,8 @@ import com.google.inject.Provides;
 import com.google.inject.TypeLiteral;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.NotNegative;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.net.InetSocketAddressHelper;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -90,6 +92,17 @@ public class MesosLogStreamModule extends PrivateModule {
   private static final Arg<Amount<Long, Time>> READ_TIMEOUT =
       Arg.create(Amount.of(5L, Time.SECONDS));
 
+  @Positive
+  @CmdLine(name = "native_log_read_batch_size",
+           help = "The number of log positions to read in a single call when reading the log.")
+  private static final Arg<Integer> READ_BATCH_SIZE = Arg.create(1);
+
+  @NotNegative
+  @CmdLine(name = "native_log_read_ahead_batches",
+           help = "The number of batches of log entries to read ahead of log recovery on a "
+               + "background thread, or 0 to read entries only as they are needed.")
+  private static final Arg<Integer> READ_AHEAD_BATCHES = Arg.create(0);
+
   @CmdLine(name = "native_log_write_timeout",
            help = "The timeout for doing log appends and truncations.")
   private static final Arg<Amount<Long, Time>> WRITE_TIMEOUT =
@@ -105,6 +118,10 @@ public class MesosLogStreamModule extends PrivateModule {
   protected void configure() {
     bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(MesosLog.ReadTimeout.class)
         .toInstance(READ_TIMEOUT.get());
+    bind(Integer.class).annotatedWith(MesosLog.ReadBatchSize.class)
+        .toInstance(READ_BATCH_SIZE.get());
+    bind(Integer.class).annotatedWith(MesosLog.ReadAheadBatches.class)
+        .toInstance(READ_AHEAD_BATCHES.get());
     bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(MesosLog.WriteTimeout.class)
         .toInstance(WRITE_TIMEOUT.get());
 
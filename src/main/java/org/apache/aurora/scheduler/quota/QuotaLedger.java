@@ -0,0 +1,168 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.quota;
+
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+
+import org.apache.aurora.gen.Quota;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskConfigRewritten;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.storage.entities.IQuota;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maintains the resources consumed by active tasks of each role, split between production and
+ * non-production tasks, updated from task events.
+ * <p>
+ * The ledger is populated from the task events posted when storage starts, and thereafter kept
+ * up to date as tasks change state, are deleted, and have their configurations rewritten.  It
+ * must be bound as a transactional subscriber, so that it is updated within the storage
+ * transaction that changes tasks.  A writer that reads the ledger while holding the storage lock
+ * therefore observes the consumption of all tasks written before it, including those written
+ * earlier in its own transaction.
+ */
+class QuotaLedger implements EventSubscriber {
+  private static final Logger LOG = Logger.getLogger(QuotaLedger.class.getName());
+
+  private static final Function<ScheduleStatus, Boolean> IS_ACTIVE =
+      new Function<ScheduleStatus, Boolean>() {
+        @Override public Boolean apply(ScheduleStatus status) {
+          return Tasks.isActive(status);
+        }
+      };
+
+  private final Map<String, Consumption> prodByRole = Maps.newHashMap();
+  private final Map<String, Consumption> nonProdByRole = Maps.newHashMap();
+
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange stateChange) {
+    boolean wasActive = stateChange.getOldState().transform(IS_ACTIVE).or(false);
+    boolean isActive = Tasks.isActive(stateChange.getNewState());
+    ITaskConfig config = stateChange.getTask().getAssignedTask().getTask();
+    if (isActive && !wasActive) {
+      add(config);
+    } else if (wasActive && !isActive) {
+      remove(config);
+    }
+  }
+
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted event) {
+    for (IScheduledTask task : event.getTasks()) {
+      if (Tasks.isActive(task.getStatus())) {
+        remove(task.getAssignedTask().getTask());
+      }
+    }
+  }
+
+  @Subscribe
+  public synchronized void taskConfigRewritten(TaskConfigRewritten event) {
+    if (Tasks.isActive(event.getTask().getStatus())) {
+      remove(event.getOldConfig());
+      add(event.getRewrittenConfig());
+    }
+  }
+
+  private Map<String, Consumption> consumptionMap(ITaskConfig config) {
+    return config.isProduction() ? prodByRole : nonProdByRole;
+  }
+
+  private void add(ITaskConfig config) {
+    Map<String, Consumption> byRole = consumptionMap(config);
+    String role = config.getOwner().getRole();
+    Consumption consumption = byRole.get(role);
+    if (consumption == null) {
+      consumption = new Consumption();
+      byRole.put(role, consumption);
+    }
+    consumption.add(config);
+  }
+
+  private void remove(ITaskConfig config) {
+    Map<String, Consumption> byRole = consumptionMap(config);
+    String role = config.getOwner().getRole();
+    Consumption consumption = byRole.get(role);
+    if (consumption == null) {
+      LOG.warning("Attempted to remove resources of an untracked task from role " + role);
+    } else if (consumption.remove(config) == 0) {
+      // Discarding empty entries also discards any accumulated floating point error.
+      byRole.remove(role);
+    }
+  }
+
+  private static IQuota toQuota(Consumption consumption) {
+    return consumption == null ? Quotas.noQuota() : consumption.toQuota();
+  }
+
+  /**
+   * Gets the resources consumed by active tasks of a role.
+   *
+   * @param role Role to fetch consumption for.
+   * @param quota Quota allocated to the role.
+   * @return Quota info composed of {@code quota} and the role's consumption.
+   */
+  synchronized QuotaInfo getQuotaInfo(String role, IQuota quota) {
+    checkNotNull(role);
+    return new QuotaInfo(
+        quota,
+        toQuota(prodByRole.get(role)),
+        toQuota(nonProdByRole.get(role)));
+  }
+
+  /**
+   * Running resource sums for a set of tasks, which also tracks the number of tasks represented
+   * so that empty entries may be discarded.
+   */
+  private static class Consumption {
+    private double numCpus = 0;
+    private long ramMb = 0;
+    private long diskMb = 0;
+    private int tasks = 0;
+
+    void add(ITaskConfig config) {
+      numCpus += config.getNumCpus();
+      ramMb += config.getRamMb();
+      diskMb += config.getDiskMb();
+      tasks++;
+    }
+
+    int remove(ITaskConfig config) {
+      numCpus -= config.getNumCpus();
+      ramMb -= config.getRamMb();
+      diskMb -= config.getDiskMb();
+      return --tasks;
+    }
+
+    IQuota toQuota() {
+      return IQuota.build(new Quota()
+          .setNumCpus(numCpus)
+          .setRamMb(ramMb)
+          .setDiskMb(diskMb));
+    }
+  }
+}
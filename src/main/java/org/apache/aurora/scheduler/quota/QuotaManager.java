@@ -15,10 +15,21 @@
  */
 package org.apache.aurora.scheduler.quota;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
+import com.google.inject.BindingAnnotation;
 import com.google.inject.Inject;
+import com.twitter.common.collections.Pair;
+import com.twitter.common.stats.Stats;
 
 import org.apache.aurora.gen.Quota;
 import org.apache.aurora.scheduler.base.JobKeys;
@@ -75,14 +86,34 @@ public interface QuotaManager {
   }
 
   /**
-   * Quota provider that stores quotas in the canonical {@link Storage} system.
+   * Quota provider that stores quotas in the canonical {@link Storage} system.  Consumption is
+   * served from a {@link QuotaLedger}, rather than by scanning the active tasks of a role.
    */
   class QuotaManagerImpl implements QuotaManager {
+    private static final Logger LOG = Logger.getLogger(QuotaManagerImpl.class.getName());
+
+    // Tolerance for floating point error accumulated in the CPU consumption of the ledger.
+    private static final double CPU_EPSILON = 1e-6;
+
+    /**
+     * Identifies whether consumption served from the ledger should be verified against a scan of
+     * active tasks.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ ElementType.PARAMETER, ElementType.METHOD })
+    @BindingAnnotation
+    @interface VerifyLedger { }
+
     private final Storage storage;
+    private final QuotaLedger ledger;
+    private final boolean verifyLedger;
+    private final AtomicLong ledgerMismatches = Stats.exportLong("quota_ledger_mismatches");
 
     @Inject
-    QuotaManagerImpl(Storage storage) {
+    QuotaManagerImpl(Storage storage, QuotaLedger ledger, @VerifyLedger boolean verifyLedger) {
       this.storage = checkNotNull(storage);
+      this.ledger = checkNotNull(ledger);
+      this.verifyLedger = verifyLedger;
     }
 
     @Override
@@ -104,21 +135,79 @@ public interface QuotaManager {
 
     @Override
     public QuotaInfo getQuotaInfo(final String role) {
+      if (verifyLedger) {
+        return verifiedQuotaInfo(role);
+      }
+
+      // The ledger is read within a storage operation so that it is consistent with storage, and
+      // reflects tasks written earlier in an enclosing write transaction.
       return storage.consistentRead(new Work.Quiet<QuotaInfo>() {
         @Override public QuotaInfo apply(StoreProvider storeProvider) {
-          FluentIterable<ITaskConfig> tasks = FluentIterable
-              .from(storeProvider.getTaskStore().fetchTasks(Query.roleScoped(role).active()))
-              .transform(Tasks.SCHEDULED_TO_INFO);
+          return ledger.getQuotaInfo(
+              role,
+              storeProvider.getQuotaStore().fetchQuota(role).or(Quotas.noQuota()));
+        }
+      });
+    }
+
+    /**
+     * Computes quota info by scanning the active tasks of a role, and compares the result with the
+     * consumption recorded in the ledger.  Mismatches are logged and counted.
+     * <p>
+     * Mismatches indicate a bug in the ledger, or task changes that are not reported through task
+     * events.
+     *
+     * @param role Quota owner.
+     * @return Quota info computed from a scan of storage.
+     */
+    private QuotaInfo verifiedQuotaInfo(final String role) {
+      Pair<QuotaInfo, QuotaInfo> infos =
+          storage.consistentRead(new Work.Quiet<Pair<QuotaInfo, QuotaInfo>>() {
+            @Override public Pair<QuotaInfo, QuotaInfo> apply(StoreProvider storeProvider) {
+              QuotaInfo scanned = scanQuotaInfo(storeProvider, role);
+              return Pair.of(scanned, ledger.getQuotaInfo(role, scanned.guota()));
+            }
+          });
+      QuotaInfo scanned = infos.getFirst();
+      QuotaInfo recorded = infos.getSecond();
+      if (!matches(scanned.prodConsumption(), recorded.prodConsumption())
+          || !matches(scanned.nonProdConsumption(), recorded.nonProdConsumption())) {
+
+        ledgerMismatches.incrementAndGet();
+        LOG.warning(String.format(
+            "Quota ledger for role %s (prod %s, non-prod %s) differs from storage "
+                + "(prod %s, non-prod %s)",
+            role,
+            recorded.prodConsumption(),
+            recorded.nonProdConsumption(),
+            scanned.prodConsumption(),
+            scanned.nonProdConsumption()));
+      }
+      return scanned;
+    }
 
-          IQuota prodConsumed = fromTasks(tasks.filter(Tasks.IS_PRODUCTION));
-          IQuota nonProdConsumed =
-              fromTasks(tasks.filter(Predicates.not(Tasks.IS_PRODUCTION)));
+    private static boolean matches(IQuota a, IQuota b) {
+      return Math.abs(a.getNumCpus() - b.getNumCpus()) < CPU_EPSILON
+          && a.getRamMb() == b.getRamMb()
+          && a.getDiskMb() == b.getDiskMb();
+    }
 
-          IQuota quota = storeProvider.getQuotaStore().fetchQuota(role).or(Quotas.noQuota());
+    @VisibleForTesting
+    long getLedgerMismatches() {
+      return ledgerMismatches.get();
+    }
 
-          return new QuotaInfo(quota, prodConsumed, nonProdConsumed);
-        }
-      });
+    private static QuotaInfo scanQuotaInfo(StoreProvider storeProvider, String role) {
+      FluentIterable<ITaskConfig> tasks = FluentIterable
+          .from(storeProvider.getTaskStore().fetchTasks(Query.roleScoped(role).active()))
+          .transform(Tasks.SCHEDULED_TO_INFO);
+
+      IQuota prodConsumed = fromTasks(tasks.filter(Tasks.IS_PRODUCTION));
+      IQuota nonProdConsumed = fromTasks(tasks.filter(Predicates.not(Tasks.IS_PRODUCTION)));
+
+      IQuota quota = storeProvider.getQuotaStore().fetchQuota(role).or(Quotas.noQuota());
+
+      return new QuotaInfo(quota, prodConsumed, nonProdConsumed);
     }
 
     @Override
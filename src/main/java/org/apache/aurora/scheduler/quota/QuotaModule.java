@@ -18,8 +18,12 @@ package org.apache.aurora.scheduler.quota;
 import javax.inject.Singleton;
 
 import com.google.inject.AbstractModule;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
 
+import org.apache.aurora.scheduler.events.PubsubEventModule;
 import org.apache.aurora.scheduler.quota.QuotaManager.QuotaManagerImpl;
+import org.apache.aurora.scheduler.quota.QuotaManager.QuotaManagerImpl.VerifyLedger;
 import org.apache.aurora.scheduler.storage.Storage;
 
 /**
@@ -27,10 +31,19 @@ import org.apache.aurora.scheduler.storage.Storage;
  */
 public class QuotaModule extends AbstractModule {
 
+  @CmdLine(name = "verify_quota_ledger",
+      help = "Verify quota consumption tracked from task events against a scan of active tasks "
+          + "on every quota lookup.")
+  private static final Arg<Boolean> VERIFY_QUOTA_LEDGER = Arg.create(false);
+
   @Override
   protected void configure() {
     requireBinding(Storage.class);
 
+    bind(QuotaLedger.class).in(Singleton.class);
+    PubsubEventModule.bindTransactionalSubscriber(binder(), QuotaLedger.class);
+
+    bind(Boolean.class).annotatedWith(VerifyLedger.class).toInstance(VERIFY_QUOTA_LEDGER.get());
     bind(QuotaManager.class).to(QuotaManagerImpl.class);
     bind(QuotaManagerImpl.class).in(Singleton.class);
   }
@@ -45,6 +45,7 @@ import org.apache.aurora.scheduler.configuration.ConfigurationManager.TaskDescri
 import org.apache.aurora.scheduler.configuration.SanitizedConfiguration;
 import org.apache.aurora.scheduler.quota.QuotaCheckResult;
 import org.apache.aurora.scheduler.quota.QuotaManager;
+import org.apache.aurora.scheduler.state.StateManager.Transition;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
 import org.apache.aurora.scheduler.storage.Storage.MutateWork;
@@ -119,9 +120,9 @@ class SchedulerCoreImpl implements SchedulerCore {
 
   @Override
   public synchronized void tasksDeleted(Set<String> taskIds) {
-    for (String taskId : taskIds) {
-      setTaskStatus(taskId, ScheduleStatus.UNKNOWN, Optional.<String>absent());
-    }
+    stateManager.changeStates(Maps.toMap(
+        taskIds,
+        Functions.constant(Transition.to(ScheduleStatus.UNKNOWN, Optional.<String>absent()))));
   }
 
   @Override
@@ -294,19 +295,11 @@ class SchedulerCoreImpl implements SchedulerCore {
 
     int tasksAffected = storage.write(new MutateWork.Quiet<Integer>() {
       @Override public Integer apply(MutableStoreProvider storeProvider) {
-        int total = 0;
-        for (String taskId : Tasks.ids(storeProvider.getTaskStore().fetchTasks(taskQuery))) {
-          boolean changed = stateManager.changeState(
-              taskId,
-              Optional.<ScheduleStatus>absent(),
-              KILLING,
-              Optional.of("Killed by " + user));
-
-          if (changed) {
-            total++;
-          }
-        }
-        return total;
+        Set<String> taskIds = Tasks.ids(storeProvider.getTaskStore().fetchTasks(taskQuery));
+        return stateManager.changeStates(Maps.toMap(
+            taskIds,
+            Functions.constant(Transition.to(KILLING, Optional.of("Killed by " + user)))))
+            .size();
       }
     });
 
@@ -339,13 +332,10 @@ class SchedulerCoreImpl implements SchedulerCore {
           throw new ScheduleException("Not all requested shards are active.");
         }
         LOG.info("Restarting shards matching " + query);
-        for (String taskId : Tasks.ids(matchingTasks)) {
-          stateManager.changeState(
-              taskId,
-              Optional.<ScheduleStatus>absent(),
-              RESTARTING,
-              Optional.of("Restarted by " + requestingUser));
-        }
+        stateManager.changeStates(Maps.toMap(
+            Tasks.ids(matchingTasks),
+            Functions.constant(
+                Transition.to(RESTARTING, Optional.of("Restarted by " + requestingUser)))));
       }
     });
   }
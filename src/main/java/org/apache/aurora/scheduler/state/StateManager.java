@@ -18,6 +18,7 @@ package org.apache.aurora.scheduler.state;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 
 import org.apache.aurora.gen.ScheduleStatus;
@@ -25,6 +26,8 @@ import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 import org.apache.mesos.Protos.SlaveID;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * A manager for the state of tasks.  Most modifications to tasks should be made here, especially
  * those that alter the {@link ScheduleStatus} of tasks.
@@ -55,6 +58,17 @@ public interface StateManager {
       ScheduleStatus newState,
       Optional<String> auditMessage);
 
+  /**
+   * Attempts to alter many tasks at once.  This behaves as though {@link #changeState} were called
+   * for each task, but the tasks are fetched once, all transitions and their side-effects are
+   * applied in a single storage transaction, and the resulting events are posted together after
+   * the transaction.
+   *
+   * @param transitions Transitions to attempt, mapped by the ID of the task to transition.
+   * @return IDs of the tasks that were successfully transitioned.
+   */
+  Set<String> changeStates(Map<String, Transition> transitions);
+
   /**
    * Assigns a task to a specific slave.
    * This will modify the task record to reflect the host assignment and return the updated record.
@@ -88,4 +102,73 @@ public interface StateManager {
    * @param taskIds IDs of tasks to delete.
    */
   void deleteTasks(final Set<String> taskIds);
+
+  /**
+   * A requested state change for a single task.  See {@link #changeState} for the meaning of each
+   * field.
+   */
+  final class Transition {
+    private final Optional<ScheduleStatus> casState;
+    private final ScheduleStatus newState;
+    private final Optional<String> auditMessage;
+
+    public Transition(
+        Optional<ScheduleStatus> casState,
+        ScheduleStatus newState,
+        Optional<String> auditMessage) {
+
+      this.casState = checkNotNull(casState);
+      this.newState = checkNotNull(newState);
+      this.auditMessage = checkNotNull(auditMessage);
+    }
+
+    /**
+     * Creates an unconditional transition to a new state.
+     *
+     * @param newState State to move the task to.
+     * @param auditMessage Message to include with the transition.
+     * @return A transition that does not check the task's current state.
+     */
+    public static Transition to(ScheduleStatus newState, Optional<String> auditMessage) {
+      return new Transition(Optional.<ScheduleStatus>absent(), newState, auditMessage);
+    }
+
+    public Optional<ScheduleStatus> getCasState() {
+      return casState;
+    }
+
+    public ScheduleStatus getNewState() {
+      return newState;
+    }
+
+    public Optional<String> getAuditMessage() {
+      return auditMessage;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Transition)) {
+        return false;
+      }
+
+      Transition other = (Transition) o;
+      return Objects.equal(casState, other.casState)
+          && Objects.equal(newState, other.newState)
+          && Objects.equal(auditMessage, other.auditMessage);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(casState, newState, auditMessage);
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+          .add("casState", casState)
+          .add("newState", newState)
+          .add("auditMessage", auditMessage)
+          .toString();
+    }
+  }
 }
@@ -29,6 +29,7 @@ import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
@@ -36,6 +37,7 @@ import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -55,6 +57,7 @@ import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.events.EventSink;
 import org.apache.aurora.scheduler.events.PubsubEvent;
+import org.apache.aurora.scheduler.events.PubsubEventModule.TransactionalDelivery;
 import org.apache.aurora.scheduler.state.SideEffect.Action;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
@@ -86,6 +89,7 @@ public class StateManagerImpl implements StateManager {
   private final Driver driver;
   private final TaskIdGenerator taskIdGenerator;
   private final EventSink eventSink;
+  private final EventSink transactionalEventSink;
   private final RescheduleCalculator rescheduleCalculator;
 
   @Inject
@@ -95,6 +99,7 @@ public class StateManagerImpl implements StateManager {
       Driver driver,
       TaskIdGenerator taskIdGenerator,
       EventSink eventSink,
+      @TransactionalDelivery EventSink transactionalEventSink,
       RescheduleCalculator rescheduleCalculator) {
 
     this.storage = checkNotNull(storage);
@@ -102,6 +107,7 @@ public class StateManagerImpl implements StateManager {
     this.driver = checkNotNull(driver);
     this.taskIdGenerator = checkNotNull(taskIdGenerator);
     this.eventSink = checkNotNull(eventSink);
+    this.transactionalEventSink = checkNotNull(transactionalEventSink);
     this.rescheduleCalculator = checkNotNull(rescheduleCalculator);
   }
 
@@ -131,13 +137,16 @@ public class StateManagerImpl implements StateManager {
       @Override protected void execute(MutableStoreProvider storeProvider) {
         storeProvider.getUnsafeTaskStore().saveTasks(scheduledTasks);
 
-        for (IScheduledTask task : scheduledTasks) {
-          updateTaskAndExternalState(
-              Tasks.id(task),
-              Optional.of(task),
-              PENDING,
-              Optional.<String>absent());
-        }
+        Map<String, IScheduledTask> tasksById = Tasks.mapById(scheduledTasks);
+        List<PubsubEvent> events = Lists.newArrayList();
+        applyTransitions(
+            storeProvider,
+            tasksById,
+            Maps.toMap(
+                tasksById.keySet(),
+                Functions.constant(Transition.to(PENDING, Optional.<String>absent()))),
+            events);
+        postEvents(storeProvider, events);
       }
     });
   }
@@ -149,7 +158,31 @@ public class StateManagerImpl implements StateManager {
       final ScheduleStatus newState,
       final Optional<String> auditMessage) {
 
-    return updateTaskAndExternalState(casState, taskId, newState, auditMessage);
+    return changeStates(ImmutableMap.of(taskId, new Transition(casState, newState, auditMessage)))
+        .contains(taskId);
+  }
+
+  @Override
+  public Set<String> changeStates(final Map<String, Transition> transitions) {
+    checkNotNull(transitions);
+
+    if (transitions.isEmpty()) {
+      return ImmutableSet.of();
+    }
+
+    return storage.write(new MutateWork.Quiet<Set<String>>() {
+      @Override public Set<String> apply(MutableStoreProvider storeProvider) {
+        List<PubsubEvent> events = Lists.newArrayList();
+        Set<String> transitioned = applyTransitions(
+            storeProvider,
+            Tasks.mapById(
+                storeProvider.getTaskStore().fetchTasks(Query.taskScoped(transitions.keySet()))),
+            transitions,
+            events);
+        postEvents(storeProvider, events);
+        return transitioned;
+      }
+    });
   }
 
   @Override
@@ -166,9 +199,9 @@ public class StateManagerImpl implements StateManager {
 
     return storage.write(new MutateWork.Quiet<IAssignedTask>() {
       @Override public IAssignedTask apply(MutableStoreProvider storeProvider) {
-        boolean success = updateTaskAndExternalState(
-            Optional.<ScheduleStatus>absent(),
+        boolean success = changeState(
             taskId,
+            Optional.<ScheduleStatus>absent(),
             ASSIGNED,
             Optional.<String>absent());
 
@@ -236,30 +269,6 @@ public class StateManagerImpl implements StateManager {
         }
       });
 
-  private boolean updateTaskAndExternalState(
-      final Optional<ScheduleStatus> casState,
-      final String taskId,
-      final ScheduleStatus targetState,
-      final Optional<String> transitionMessage) {
-
-    return storage.write(new MutateWork.Quiet<Boolean>() {
-      @Override public Boolean apply(MutableStoreProvider storeProvider) {
-        Optional<IScheduledTask> task = Optional.fromNullable(Iterables.getOnlyElement(
-            storeProvider.getTaskStore().fetchTasks(Query.taskScoped(taskId)),
-            null));
-
-        // CAS operation fails if the task does not exist, or the states don't match.
-        if (casState.isPresent()
-            && (!task.isPresent() || (casState.get() != task.get().getStatus()))) {
-
-          return false;
-        }
-
-        return updateTaskAndExternalState(taskId, task, targetState, transitionMessage);
-      }
-    });
-  }
-
   private static final Function<SideEffect, Action> GET_ACTION =
       new Function<SideEffect, Action>() {
         @Override public Action apply(SideEffect sideEffect) {
@@ -288,146 +297,219 @@ public class StateManagerImpl implements StateManager {
   private static final Ordering<SideEffect> ACTION_ORDER =
       Ordering.explicit(ACTIONS_IN_ORDER).onResultOf(GET_ACTION);
 
-  private boolean updateTaskAndExternalState(
-      final String taskId,
-      // Note: This argument is deliberately non-final, and should not be made final.
-      // This is because using the captured value within the storage operation below is
-      // highly-risky, since it doesn't necessarily represent the value in storage.
-      // As a result, it would be easy to accidentally clobber mutations.
-      Optional<IScheduledTask> task,
-      final ScheduleStatus targetState,
-      final Optional<String> transitionMessage) {
-
-    if (task.isPresent()) {
-      Preconditions.checkArgument(taskId.equals(task.get().getAssignedTask().getTaskId()));
+  /**
+   * Applies transitions to tasks, along with their side-effects.  Tasks are mutated in memory and
+   * then saved with a single mutation, and side-effects that produce further transitions (follow-up
+   * state changes and rescheduled tasks) are applied as one batch per round.
+   *
+   * @param storeProvider Store provider of the enclosing write transaction.
+   * @param tasks Current records of the tasks being transitioned, mapped by task ID.  Tasks
+   *              that do not exist are absent.
+   * @param transitions Transitions to apply, mapped by task ID.
+   * @param events Collector of events to post once the transaction completes.
+   * @return IDs of the tasks that were successfully transitioned.
+   */
+  private Set<String> applyTransitions(
+      MutableStoreProvider storeProvider,
+      Map<String, IScheduledTask> tasks,
+      Map<String, Transition> transitions,
+      List<PubsubEvent> events) {
+
+    TaskStore.Mutable taskStore = storeProvider.getUnsafeTaskStore();
+    ImmutableSet.Builder<String> transitioned = ImmutableSet.builder();
+    final Map<String, IScheduledTask> mutated = Maps.newHashMap();
+    Map<String, Transition> followUps = Maps.newHashMap();
+    Set<String> toReschedule = Sets.newLinkedHashSet();
+    Set<String> toKill = Sets.newLinkedHashSet();
+    Set<String> toDelete = Sets.newLinkedHashSet();
+
+    for (Entry<String, Transition> entry : transitions.entrySet()) {
+      String taskId = entry.getKey();
+      Transition transition = entry.getValue();
+      Optional<IScheduledTask> task = Optional.fromNullable(tasks.get(taskId));
+
+      // CAS operation fails if the task does not exist, or the states don't match.
+      Optional<ScheduleStatus> casState = transition.getCasState();
+      if (casState.isPresent() && (!task.isPresent() || casState.get() != task.get().getStatus())) {
+        continue;
+      }
+
+      TaskStateMachine stateMachine = task.isPresent()
+          ? new TaskStateMachine(task.get())
+          : new TaskStateMachine(taskId);
+      TransitionResult result = stateMachine.updateState(transition.getNewState());
+      if (result.isSuccess()) {
+        transitioned.add(taskId);
+      }
+
+      for (SideEffect sideEffect : ACTION_ORDER.sortedCopy(result.getSideEffects())) {
+        switch (sideEffect.getAction()) {
+          case INCREMENT_FAILURES:
+            if (task.isPresent()) {
+              task = Optional.of(IScheduledTask.build(
+                  task.get().newBuilder().setFailureCount(task.get().getFailureCount() + 1)));
+              mutated.put(taskId, task.get());
+            }
+            break;
+
+          case SAVE_STATE:
+            Preconditions.checkState(
+                task.isPresent(),
+                "Operation expected task " + taskId + " to be present.");
+
+            ScheduledTask mutableTask = task.get().newBuilder();
+            mutableTask.setStatus(stateMachine.getState());
+            mutableTask.addToTaskEvents(new TaskEvent()
+                .setTimestamp(clock.nowMillis())
+                .setStatus(transition.getNewState())
+                .setMessage(transition.getAuditMessage().orNull())
+                .setScheduler(LOCAL_HOST_SUPPLIER.get()));
+            task = Optional.of(IScheduledTask.build(mutableTask));
+            mutated.put(taskId, task.get());
+            events.add(PubsubEvent.TaskStateChange.transition(
+                task.get(),
+                stateMachine.getPreviousState()));
+            break;
+
+          case STATE_CHANGE:
+            followUps.put(
+                taskId,
+                Transition.to(sideEffect.getNextState().get(), Optional.<String>absent()));
+            break;
+
+          case RESCHEDULE:
+            toReschedule.add(taskId);
+            break;
+
+          case KILL:
+            toKill.add(taskId);
+            break;
+
+          case DELETE:
+            toDelete.add(taskId);
+            break;
+
+          default:
+            throw new IllegalStateException("Unrecognized side-effect " + sideEffect.getAction());
+        }
+      }
     }
 
-    final List<PubsubEvent> events = Lists.newArrayList();
+    // Side-effects are applied in ACTION_ORDER across the whole batch, which preserves the order
+    // for each individual task.
+    if (!mutated.isEmpty()) {
+      taskStore.mutateTasks(Query.taskScoped(mutated.keySet()), new TaskMutation() {
+        @Override public IScheduledTask apply(IScheduledTask task) {
+          return mutated.get(Tasks.id(task));
+        }
+      });
+    }
 
-    final TaskStateMachine stateMachine = task.isPresent()
-        ? new TaskStateMachine(task.get())
-        : new TaskStateMachine(taskId);
+    if (!followUps.isEmpty()) {
+      applyTransitions(
+          storeProvider,
+          Tasks.mapById(taskStore.fetchTasks(Query.taskScoped(followUps.keySet()))),
+          followUps,
+          events);
+    }
 
-    boolean success = storage.write(new MutateWork.Quiet<Boolean>() {
-      @Override public Boolean apply(MutableStoreProvider storeProvider) {
-        TransitionResult result = stateMachine.updateState(targetState);
-        Query.Builder query = Query.taskScoped(taskId);
+    if (!toReschedule.isEmpty()) {
+      rescheduleTasks(storeProvider, toReschedule, events);
+    }
 
-        for (SideEffect sideEffect : ACTION_ORDER.sortedCopy(result.getSideEffects())) {
-          Optional<IScheduledTask> upToDateTask = Optional.fromNullable(
-              Iterables.getOnlyElement(storeProvider.getTaskStore().fetchTasks(query), null));
-
-          switch (sideEffect.getAction()) {
-            case INCREMENT_FAILURES:
-              storeProvider.getUnsafeTaskStore().mutateTasks(query, new TaskMutation() {
-                @Override public IScheduledTask apply(IScheduledTask task) {
-                  return IScheduledTask.build(
-                      task.newBuilder().setFailureCount(task.getFailureCount() + 1));
-                }
-              });
-              break;
-
-            case SAVE_STATE:
-              Preconditions.checkState(
-                  upToDateTask.isPresent(),
-                  "Operation expected task " + taskId + " to be present.");
-
-              storeProvider.getUnsafeTaskStore().mutateTasks(query, new TaskMutation() {
-                @Override public IScheduledTask apply(IScheduledTask task) {
-                  ScheduledTask mutableTask = task.newBuilder();
-                  mutableTask.setStatus(stateMachine.getState());
-                  mutableTask.addToTaskEvents(new TaskEvent()
-                      .setTimestamp(clock.nowMillis())
-                      .setStatus(targetState)
-                      .setMessage(transitionMessage.orNull())
-                      .setScheduler(LOCAL_HOST_SUPPLIER.get()));
-                  return IScheduledTask.build(mutableTask);
-                }
-              });
-              events.add(
-                  PubsubEvent.TaskStateChange.transition(
-                      Iterables.getOnlyElement(storeProvider.getTaskStore().fetchTasks(query)),
-                      stateMachine.getPreviousState()));
-              break;
-
-            case STATE_CHANGE:
-              updateTaskAndExternalState(
-                  Optional.<ScheduleStatus>absent(),
-                  taskId,
-                  sideEffect.getNextState().get(),
-                  Optional.<String>absent());
-              break;
-
-            case RESCHEDULE:
-              Preconditions.checkState(
-                  upToDateTask.isPresent(),
-                  "Operation expected task " + taskId + " to be present.");
-              LOG.info("Task being rescheduled: " + taskId);
-
-              ScheduleStatus newState;
-              String auditMessage;
-              long flapPenaltyMs = rescheduleCalculator.getFlappingPenaltyMs(upToDateTask.get());
-              if (flapPenaltyMs > 0) {
-                newState = THROTTLED;
-                auditMessage =
-                    String.format("Rescheduled, penalized for %s ms for flapping", flapPenaltyMs);
-              } else {
-                newState = PENDING;
-                auditMessage = "Rescheduled";
-              }
+    for (String taskId : toKill) {
+      driver.killTask(taskId);
+    }
 
-              IScheduledTask newTask = IScheduledTask.build(createTask(
-                  upToDateTask.get().getAssignedTask().getInstanceId(),
-                  upToDateTask.get().getAssignedTask().getTask())
-                  .newBuilder()
-                  .setFailureCount(upToDateTask.get().getFailureCount())
-                  .setAncestorId(taskId));
-              storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(newTask));
-              updateTaskAndExternalState(
-                  Tasks.id(newTask),
-                  Optional.of(newTask),
-                  newState,
-                  Optional.of(auditMessage));
-              break;
-
-            case KILL:
-              driver.killTask(taskId);
-              break;
-
-            case DELETE:
-              Preconditions.checkState(
-                  upToDateTask.isPresent(),
-                  "Operation expected task " + taskId + " to be present.");
-
-              events.add(deleteTasks(storeProvider, ImmutableSet.of(taskId)));
-              break;
-
-            default:
-              throw new IllegalStateException("Unrecognized side-effect " + sideEffect.getAction());
-          }
-        }
+    if (!toDelete.isEmpty()) {
+      Set<IScheduledTask> deleted = taskStore.fetchTasks(Query.taskScoped(toDelete));
+      Preconditions.checkState(
+          deleted.size() == toDelete.size(),
+          "Operation expected tasks " + toDelete + " to be present.");
+      taskStore.deleteTasks(toDelete);
+      events.add(new PubsubEvent.TasksDeleted(deleted));
+    }
+
+    return transitioned.build();
+  }
 
-        return result.isSuccess();
+  private void rescheduleTasks(
+      MutableStoreProvider storeProvider,
+      Set<String> taskIds,
+      List<PubsubEvent> events) {
+
+    Map<String, IScheduledTask> upToDateTasks =
+        Tasks.mapById(storeProvider.getTaskStore().fetchTasks(Query.taskScoped(taskIds)));
+
+    ImmutableSet.Builder<IScheduledTask> newTasks = ImmutableSet.builder();
+    ImmutableMap.Builder<String, Transition> newTransitions = ImmutableMap.builder();
+    for (String taskId : taskIds) {
+      IScheduledTask upToDateTask = upToDateTasks.get(taskId);
+      Preconditions.checkState(
+          upToDateTask != null,
+          "Operation expected task " + taskId + " to be present.");
+      LOG.info("Task being rescheduled: " + taskId);
+
+      ScheduleStatus newState;
+      String auditMessage;
+      long flapPenaltyMs = rescheduleCalculator.getFlappingPenaltyMs(upToDateTask);
+      if (flapPenaltyMs > 0) {
+        newState = THROTTLED;
+        auditMessage =
+            String.format("Rescheduled, penalized for %s ms for flapping", flapPenaltyMs);
+      } else {
+        newState = PENDING;
+        auditMessage = "Rescheduled";
       }
-    });
 
-    // Note (AURORA-138): Delaying events until after the write operation is somewhat futile, since
-    // the state may actually not be written to durable store
-    // (e.g. if this is a nested transaction). Ideally, Storage would add a facility to attach
-    // side-effects that are performed after the outer-most transaction completes (meaning state
-    // has been durably persisted).
-    for (PubsubEvent event : events) {
-      eventSink.post(event);
+      IScheduledTask newTask = IScheduledTask.build(createTask(
+          upToDateTask.getAssignedTask().getInstanceId(),
+          upToDateTask.getAssignedTask().getTask())
+          .newBuilder()
+          .setFailureCount(upToDateTask.getFailureCount())
+          .setAncestorId(taskId));
+      newTasks.add(newTask);
+      newTransitions.put(Tasks.id(newTask), Transition.to(newState, Optional.of(auditMessage)));
     }
 
-    return success;
+    Set<IScheduledTask> rescheduled = newTasks.build();
+    storeProvider.getUnsafeTaskStore().saveTasks(rescheduled);
+    applyTransitions(storeProvider, Tasks.mapById(rescheduled), newTransitions.build(), events);
+  }
+
+  /**
+   * Posts events to transactional subscribers immediately, and to all other subscribers once the
+   * enclosing transaction has been committed, so that they only observe durably persisted state
+   * and are notified outside of the storage lock.
+   *
+   * @param storeProvider Store provider of the enclosing write transaction.
+   * @param events Events to post, in order.
+   */
+  private void postEvents(MutableStoreProvider storeProvider, List<PubsubEvent> events) {
+    if (events.isEmpty()) {
+      return;
+    }
+
+    final List<PubsubEvent> toPost = ImmutableList.copyOf(events);
+    for (PubsubEvent event : toPost) {
+      transactionalEventSink.post(event);
+    }
+    storeProvider.addPostCommitHook(new Runnable() {
+      @Override public void run() {
+        for (PubsubEvent event : toPost) {
+          eventSink.post(event);
+        }
+      }
+    });
   }
 
   @Override
   public void deleteTasks(final Set<String> taskIds) {
     storage.write(new MutateWork.NoResult.Quiet() {
       @Override protected void execute(final MutableStoreProvider storeProvider) {
-        eventSink.post(deleteTasks(storeProvider, taskIds));
+        postEvents(
+            storeProvider,
+            ImmutableList.<PubsubEvent>of(deleteTasks(storeProvider, taskIds)));
       }
     });
   }
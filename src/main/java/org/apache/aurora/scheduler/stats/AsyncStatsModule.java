@@ -40,6 +40,7 @@ import com.twitter.common.quantity.Time;
 import org.apache.aurora.gen.Quota;
 import org.apache.aurora.scheduler.async.OfferQueue;
 import org.apache.aurora.scheduler.configuration.Resources;
+import org.apache.aurora.scheduler.events.PubsubEventModule;
 import org.apache.aurora.scheduler.stats.SlotSizeCounter.ResourceSlotProvider;
 import org.apache.aurora.scheduler.storage.entities.IQuota;
 import org.apache.mesos.Protos.Offer;
@@ -75,6 +76,8 @@ public class AsyncStatsModule extends AbstractModule {
     final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
         new ThreadFactoryBuilder().setNameFormat("AsyncStat-%d").setDaemon(true).build());
 
+    bind(ResourceAggregator.class).in(Singleton.class);
+    PubsubEventModule.bindAsyncSubscriber(binder(), ResourceAggregator.class);
     bind(TaskStatCalculator.class).in(Singleton.class);
     bind(CachedCounters.class).in(Singleton.class);
     bind(ResourceSlotProvider.class).to(OfferAdapter.class);
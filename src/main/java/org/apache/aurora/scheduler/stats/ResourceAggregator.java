@@ -0,0 +1,290 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.stats;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.eventbus.Subscribe;
+import com.twitter.common.stats.StatsProvider;
+
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.TaskConstraint;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.configuration.ConfigurationManager;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskConfigRewritten;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.stats.ResourceCounter.GlobalMetric;
+import org.apache.aurora.scheduler.stats.ResourceCounter.Metric;
+import org.apache.aurora.scheduler.stats.ResourceCounter.MetricType;
+import org.apache.aurora.scheduler.storage.entities.IConstraint;
+import org.apache.aurora.scheduler.storage.entities.IJobKey;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maintains running resource consumption aggregates for active tasks, updated from task events.
+ * <p>
+ * Aggregates are kept for each {@link MetricType} globally, by role, and by job, as well as for
+ * each dedicated pool.  Reads are served from memory and never block on the storage lock.
+ * {@link #reconcile(Iterable)} may be used to verify the aggregates against a full scan of active
+ * tasks.
+ */
+public class ResourceAggregator implements EventSubscriber {
+  private static final Logger LOG = Logger.getLogger(ResourceAggregator.class.getName());
+
+  private static final Function<ScheduleStatus, Boolean> IS_ACTIVE =
+      new Function<ScheduleStatus, Boolean>() {
+        @Override public Boolean apply(ScheduleStatus status) {
+          return Tasks.isActive(status);
+        }
+      };
+
+  private final Map<MetricType, Aggregate> totals = new EnumMap<>(MetricType.class);
+  private final Map<MetricType, Map<String, Aggregate>> byRole = new EnumMap<>(MetricType.class);
+  private final Map<MetricType, Map<IJobKey, Aggregate>> byJob = new EnumMap<>(MetricType.class);
+  private final Map<String, Aggregate> byDedicatedPool = Maps.newHashMap();
+
+  private final AtomicLong reconciliations;
+  private final AtomicLong drifted;
+
+  @Inject
+  ResourceAggregator(StatsProvider statsProvider) {
+    checkNotNull(statsProvider);
+    reconciliations = statsProvider.makeCounter("resource_aggregate_reconciliations");
+    drifted = statsProvider.makeCounter("resource_aggregate_drift");
+    clear();
+  }
+
+  private void clear() {
+    byDedicatedPool.clear();
+    for (MetricType type : MetricType.values()) {
+      totals.put(type, new Aggregate());
+      byRole.put(type, Maps.<String, Aggregate>newHashMap());
+      byJob.put(type, Maps.<IJobKey, Aggregate>newHashMap());
+    }
+  }
+
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange stateChange) {
+    boolean wasActive = stateChange.getOldState().transform(IS_ACTIVE).or(false);
+    boolean isActive = Tasks.isActive(stateChange.getNewState());
+    ITaskConfig config = stateChange.getTask().getAssignedTask().getTask();
+    if (isActive && !wasActive) {
+      add(config);
+    } else if (wasActive && !isActive) {
+      remove(config);
+    }
+  }
+
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted event) {
+    for (IScheduledTask task : event.getTasks()) {
+      if (Tasks.isActive(task.getStatus())) {
+        remove(task.getAssignedTask().getTask());
+      }
+    }
+  }
+
+  @Subscribe
+  public synchronized void taskConfigRewritten(TaskConfigRewritten event) {
+    if (Tasks.isActive(event.getTask().getStatus())) {
+      remove(event.getOldConfig());
+      add(event.getRewrittenConfig());
+    }
+  }
+
+  private void add(ITaskConfig config) {
+    for (MetricType type : MetricType.values()) {
+      if (type.filter.apply(config)) {
+        totals.get(type).add(config);
+        getOrCreate(byRole.get(type), config.getOwner().getRole()).add(config);
+        getOrCreate(byJob.get(type), JobKeys.from(config)).add(config);
+      }
+    }
+    Optional<String> pool = getDedicatedPool(config);
+    if (pool.isPresent()) {
+      getOrCreate(byDedicatedPool, pool.get()).add(config);
+    }
+  }
+
+  private void remove(ITaskConfig config) {
+    for (MetricType type : MetricType.values()) {
+      if (type.filter.apply(config)) {
+        totals.get(type).remove(config);
+        removeFrom(byRole.get(type), config.getOwner().getRole(), config);
+        removeFrom(byJob.get(type), JobKeys.from(config), config);
+      }
+    }
+    Optional<String> pool = getDedicatedPool(config);
+    if (pool.isPresent()) {
+      removeFrom(byDedicatedPool, pool.get(), config);
+    }
+  }
+
+  private static <K> Aggregate getOrCreate(Map<K, Aggregate> aggregates, K key) {
+    Aggregate aggregate = aggregates.get(key);
+    if (aggregate == null) {
+      aggregate = new Aggregate();
+      aggregates.put(key, aggregate);
+    }
+    return aggregate;
+  }
+
+  private static <K> void removeFrom(Map<K, Aggregate> aggregates, K key, ITaskConfig config) {
+    Aggregate aggregate = aggregates.get(key);
+    if (aggregate == null) {
+      LOG.warning("Attempted to remove resources of an untracked task from " + key);
+    } else if (aggregate.remove(config) == 0) {
+      aggregates.remove(key);
+    }
+  }
+
+  private static Optional<String> getDedicatedPool(ITaskConfig config) {
+    for (IConstraint constraint : config.getConstraints()) {
+      if (ConfigurationManager.DEDICATED_ATTRIBUTE.equals(constraint.getName())
+          && (constraint.getConstraint().getSetField() == TaskConstraint._Fields.VALUE)) {
+
+        return Optional.of(Joiner.on(',').join(
+            Ordering.natural().sortedCopy(constraint.getConstraint().getValue().getValues())));
+      }
+    }
+    return Optional.absent();
+  }
+
+  private static <K> Map<K, Metric> copy(Map<K, Aggregate> aggregates) {
+    ImmutableMap.Builder<K, Metric> copy = ImmutableMap.builder();
+    for (Map.Entry<K, Aggregate> entry : aggregates.entrySet()) {
+      copy.put(entry.getKey(), new Metric(entry.getValue()));
+    }
+    return copy.build();
+  }
+
+  /**
+   * Gets the consumption totals for each of the {@link MetricType}s.
+   *
+   * @return Aggregates for each global metric type.
+   */
+  public synchronized List<GlobalMetric> getConsumptionTotals() {
+    ImmutableList.Builder<GlobalMetric> metrics = ImmutableList.builder();
+    for (MetricType type : MetricType.values()) {
+      metrics.add(new GlobalMetric(type, totals.get(type)));
+    }
+    return metrics.build();
+  }
+
+  /**
+   * Gets the consumption of each role within a metric type.
+   *
+   * @param type Metric type to fetch aggregates for.
+   * @return Consumption aggregates, keyed by role.
+   */
+  public synchronized Map<String, Metric> getRoleAggregates(MetricType type) {
+    return copy(byRole.get(type));
+  }
+
+  /**
+   * Gets the consumption of each job within a metric type.
+   *
+   * @param type Metric type to fetch aggregates for.
+   * @return Consumption aggregates, keyed by job.
+   */
+  public synchronized Map<IJobKey, Metric> getJobAggregates(MetricType type) {
+    return copy(byJob.get(type));
+  }
+
+  /**
+   * Gets the consumption of each dedicated pool, identified by the values of the dedicated
+   * constraint.
+   *
+   * @return Consumption aggregates, keyed by dedicated pool.
+   */
+  public synchronized Map<String, Metric> getDedicatedPoolAggregates() {
+    return copy(byDedicatedPool);
+  }
+
+  /**
+   * Verifies the global aggregates against totals computed by a full scan of storage.  Each
+   * mismatched metric type is logged and counted in the exported drift counter.
+   * <p>
+   * Since task events are delivered after the storage changes they describe, a single mismatch
+   * may be transient.  Persistent drift indicates a bug in event handling.
+   *
+   * @param scanned Consumption totals computed from storage.
+   * @return {@code true} if the aggregates matched the scanned totals.
+   */
+  public synchronized boolean reconcile(Iterable<GlobalMetric> scanned) {
+    reconciliations.incrementAndGet();
+    boolean matched = true;
+    for (GlobalMetric metric : scanned) {
+      if (!totals.get(metric.type).matches(metric)) {
+        LOG.warning("Resource aggregate for " + metric.type + " differs from storage contents.");
+        drifted.incrementAndGet();
+        matched = false;
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * A metric that also tracks the number of tasks it represents, so that empty aggregates may be
+   * discarded.
+   */
+  private static class Aggregate extends Metric {
+    private int tasks = 0;
+
+    void add(ITaskConfig config) {
+      accumulate(config);
+      tasks++;
+    }
+
+    int remove(ITaskConfig config) {
+      subtract(config);
+      return --tasks;
+    }
+  }
+
+  /**
+   * Sums the provided metrics.
+   *
+   * @param metrics Metrics to sum.
+   * @return A metric representing the sum of all {@code metrics}.
+   */
+  public static Metric sum(Iterable<? extends Metric> metrics) {
+    Metric total = new Metric();
+    for (Metric metric : metrics) {
+      total.accumulate(metric);
+    }
+    return total;
+  }
+}
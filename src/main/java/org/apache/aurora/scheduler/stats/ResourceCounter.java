@@ -17,17 +17,12 @@ package org.apache.aurora.scheduler.stats;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import javax.inject.Inject;
 
-import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Iterables;
 
 import org.apache.aurora.scheduler.base.Query;
@@ -96,33 +91,6 @@ public class ResourceCounter {
     });
   }
 
-  /**
-   * Computes arbitrary resource aggregates based on a query, a filter, and a grouping function.
-   *
-   * @param query Query to select tasks for aggregation.
-   * @param filter Filter to apply on query result tasks.
-   * @param keyFunction Function to define aggregation groupings.
-   * @param <K> Key type.
-   * @return A map from the keys to their aggregates based on the tasks fetched.
-   * @throws StorageException if there was a problem fetching tasks from storage.
-   */
-  public <K> Map<K, Metric> computeAggregates(
-      Query.Builder query,
-      Predicate<ITaskConfig> filter,
-      Function<ITaskConfig, K> keyFunction) throws StorageException {
-
-    LoadingCache<K, Metric> metrics = CacheBuilder.newBuilder()
-        .build(new CacheLoader<K, Metric>() {
-          @Override public Metric load(K key) {
-            return new Metric();
-          }
-        });
-    for (ITaskConfig task : Iterables.filter(getTasks(query), filter)) {
-      metrics.getUnchecked(keyFunction.apply(task)).accumulate(task);
-    }
-    return metrics.asMap();
-  }
-
   public enum MetricType {
     TOTAL_CONSUMED(Predicates.<ITaskConfig>alwaysTrue()),
     DEDICATED_CONSUMED(new Predicate<ITaskConfig>() {
@@ -155,6 +123,11 @@ public class ResourceCounter {
       this.type = type;
     }
 
+    public GlobalMetric(MetricType type, Metric copy) {
+      super(copy);
+      this.type = type;
+    }
+
     @Override
     protected void accumulate(ITaskConfig task) {
       if (type.filter.apply(task)) {
@@ -164,7 +137,9 @@ public class ResourceCounter {
   }
 
   public static class Metric {
-    private long cpu = 0;
+    private static final double CPU_EPSILON = 0.001;
+
+    private double cpu = 0;
     private long ramMb = 0;
     private long diskMb = 0;
 
@@ -192,8 +167,33 @@ public class ResourceCounter {
       diskMb += quota.getDiskMb();
     }
 
+    protected void accumulate(Metric other) {
+      cpu += other.cpu;
+      ramMb += other.ramMb;
+      diskMb += other.diskMb;
+    }
+
+    protected void subtract(ITaskConfig task) {
+      cpu -= task.getNumCpus();
+      ramMb -= task.getRamMb();
+      diskMb -= task.getDiskMb();
+    }
+
+    /**
+     * Tests whether this metric represents the same consumption as another, allowing for
+     * floating point error accumulated in the CPU total.
+     *
+     * @param other Metric to compare against.
+     * @return {@code true} if both metrics are equivalent.
+     */
+    boolean matches(Metric other) {
+      return Math.abs(cpu - other.cpu) < CPU_EPSILON
+          && (ramMb == other.ramMb)
+          && (diskMb == other.diskMb);
+    }
+
     public long getCpu() {
-      return cpu;
+      return (long) cpu;
     }
 
     public long getRamGb() {
@@ -19,6 +19,9 @@ import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
+
 import org.apache.aurora.scheduler.stats.AsyncStatsModule.StatUpdater;
 import org.apache.aurora.scheduler.stats.ResourceCounter.GlobalMetric;
 import org.apache.aurora.scheduler.stats.ResourceCounter.Metric;
@@ -32,13 +35,26 @@ import static com.google.common.base.Preconditions.checkNotNull;
 class TaskStatCalculator implements Runnable {
   private static final Logger LOG = Logger.getLogger(StatUpdater.class.getName());
 
+  @CmdLine(name = "verify_resource_aggregates",
+      help = "If true, periodically compare event-maintained resource aggregates against a full "
+          + "scan of active tasks and export any drift.")
+  private static final Arg<Boolean> VERIFY_RESOURCE_AGGREGATES = Arg.create(false);
+
   private final CachedCounters counters;
   private final ResourceCounter resourceCounter;
+  private final ResourceAggregator aggregator;
+  private final boolean verifyAggregates;
 
   @Inject
-  TaskStatCalculator(ResourceCounter resourceCounter, CachedCounters counters) {
+  TaskStatCalculator(
+      ResourceCounter resourceCounter,
+      ResourceAggregator aggregator,
+      CachedCounters counters) {
+
     this.resourceCounter = checkNotNull(resourceCounter);
+    this.aggregator = checkNotNull(aggregator);
     this.counters = checkNotNull(counters);
+    this.verifyAggregates = VERIFY_RESOURCE_AGGREGATES.get();
   }
 
   private void update(String prefix, Metric metric) {
@@ -49,11 +65,15 @@ class TaskStatCalculator implements Runnable {
 
   @Override
   public void run() {
+    for (GlobalMetric metric : aggregator.getConsumptionTotals()) {
+      update("resources_" + metric.type.name().toLowerCase(), metric);
+    }
+
     try {
-      for (GlobalMetric metric : resourceCounter.computeConsumptionTotals()) {
-        update("resources_" + metric.type.name().toLowerCase(), metric);
-      }
       update("resources_allocated_quota", resourceCounter.computeQuotaAllocationTotals());
+      if (verifyAggregates) {
+        aggregator.reconcile(resourceCounter.computeConsumptionTotals());
+      }
     } catch (StorageException e) {
       LOG.fine("Unable to fetch metrics, storage is likely not ready.");
     }
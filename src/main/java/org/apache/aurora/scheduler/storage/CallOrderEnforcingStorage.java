@@ -32,6 +32,7 @@ import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.events.EventSink;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEventModule.TransactionalDelivery;
 import org.apache.aurora.scheduler.storage.Storage.MutateWork.NoResult.Quiet;
 import org.apache.aurora.scheduler.storage.Storage.NonVolatileStorage;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
@@ -53,6 +54,7 @@ public class CallOrderEnforcingStorage implements NonVolatileStorage {
 
   private final NonVolatileStorage wrapped;
   private final EventSink eventSink;
+  private final EventSink transactionalEventSink;
 
   private enum State {
     CONSTRUCTED,
@@ -70,9 +72,14 @@ public class CallOrderEnforcingStorage implements NonVolatileStorage {
       .build();
 
   @Inject
-  CallOrderEnforcingStorage(@EnforceOrderOn NonVolatileStorage wrapped, EventSink eventSink) {
+  CallOrderEnforcingStorage(
+      @EnforceOrderOn NonVolatileStorage wrapped,
+      EventSink eventSink,
+      @TransactionalDelivery EventSink transactionalEventSink) {
+
     this.wrapped = checkNotNull(wrapped);
     this.eventSink = checkNotNull(eventSink);
+    this.transactionalEventSink = checkNotNull(transactionalEventSink);
   }
 
   private void checkInState(State state) throws StorageException {
@@ -98,7 +105,9 @@ public class CallOrderEnforcingStorage implements NonVolatileStorage {
         Iterable<IScheduledTask> tasks = Tasks.LATEST_ACTIVITY.sortedCopy(
             storeProvider.getTaskStore().fetchTasks(Query.unscoped()));
         for (IScheduledTask task : tasks) {
-          eventSink.post(TaskStateChange.initialized(task));
+          TaskStateChange event = TaskStateChange.initialized(task);
+          transactionalEventSink.post(event);
+          eventSink.post(event);
         }
       }
     });
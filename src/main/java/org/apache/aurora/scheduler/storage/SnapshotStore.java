@@ -15,6 +15,8 @@
  */
 package org.apache.aurora.scheduler.storage;
 
+import com.google.common.base.Supplier;
+
 /**
  * Storage mechanism that is able to create complete snapshots of the local storage system state
  * and apply these to restore local storage from a snapshotted baseline.
@@ -28,6 +30,16 @@ public interface SnapshotStore<T> {
    */
    T createSnapshot();
 
+  /**
+   * Captures the state of the local storage system, deferring the work of building a snapshot
+   * from it.  Capturing is cheap, and the returned supplier may be invoked without any storage
+   * lock held, allowing writes to proceed while the snapshot is built.
+   *
+   * @return A supplier of a snapshot of the state at the time of capture.  The supplier may be
+   *         invoked at most once.
+   */
+  Supplier<T> captureSnapshot();
+
   /**
    * Applies a snapshot blob to the local storage system, wiping out all existing data and
    * resetting with the contents of the snapshot.
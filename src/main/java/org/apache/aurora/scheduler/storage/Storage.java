@@ -63,6 +63,16 @@ public interface Storage {
     LockStore.Mutable getLockStore();
     QuotaStore.Mutable getQuotaStore();
     AttributeStore.Mutable getAttributeStore();
+
+    /**
+     * Registers an operation to be performed after the outer-most enclosing transaction has been
+     * committed, meaning its changes are durably persisted.  Hooks are run in the order they are
+     * registered, on the writing thread, after all storage locks have been released.  If the
+     * transaction fails, hooks registered within it are discarded without being run.
+     *
+     * @param hook Side-effect operation to perform once the transaction commits.
+     */
+    void addPostCommitHook(Runnable hook);
   }
 
   /**
@@ -197,11 +207,9 @@ public interface Storage {
   <T, E extends Exception> T weaklyConsistentRead(Work<T, E> work) throws StorageException, E;
 
   /**
-   * Executes the unit of mutating {@code work}.
-   * TODO(wfarner): Add a mechanism by which mutating work can add side-effect operations to be
-   * performed after completion of the outer-most transaction.  As it stands, it's somewhat
-   * futile to try to achieve this within a transaction, since the local code does not know
-   * if the current transaction is nested.
+   * Executes the unit of mutating {@code work}.  Side-effect operations that should only be
+   * performed once the changes are committed may be attached with
+   * {@link MutableStoreProvider#addPostCommitHook(Runnable)}.
    *
    * @param work The unit of work to execute.
    * @param <T> The type of result this unit of work produces.
@@ -20,6 +20,7 @@ import java.util.Set;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 
+import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
@@ -38,6 +39,64 @@ public interface TaskStore {
    */
   ImmutableSet<IScheduledTask> fetchTasks(Query.Builder query);
 
+  /**
+   * A task store that can capture its contents at a point in time without copying them.
+   */
+  public interface Versioned extends TaskStore {
+
+    /**
+     * Captures the current contents of the store.  Must be called while holding a storage lock,
+     * but the returned version may be read after the lock is released.  Writes to the store are
+     * slightly more expensive while a version is open, so versions should be closed promptly.
+     *
+     * @return A point-in-time view of all tasks in the store.
+     */
+    Version openVersion();
+
+    /**
+     * A point-in-time view of a task store.
+     */
+    public interface Version {
+
+      /**
+       * Fetches all tasks that were in the store when this version was opened.
+       *
+       * @return All tasks in the version.
+       */
+      ImmutableSet<IScheduledTask> fetchTasks();
+
+      /**
+       * Fetches the tasks with the given IDs that were in the store when this version was opened.
+       *
+       * @param taskIds IDs of the tasks to fetch.
+       * @return Tasks in the version with the given IDs.
+       */
+      ImmutableSet<IScheduledTask> fetchTasks(Set<String> taskIds);
+
+      /**
+       * Releases this version.  The version may not be read after it is closed.
+       */
+      void close();
+    }
+  }
+
+  /**
+   * A mutable task store that can take ownership of restored task structures rather than copying
+   * them.
+   */
+  public interface Restorable extends Mutable {
+
+    /**
+     * Saves tasks restored from a snapshot.  Unlike {@link #saveTasks(Set)}, the task structures
+     * are not copied.  The store takes ownership of them, and they must not be read or modified by
+     * the caller afterwards.  Task configurations that are shared between the structures are
+     * interned directly, so they remain shared in the store.
+     *
+     * @param tasks Tasks to add.
+     */
+    void restoreTasks(Set<ScheduledTask> tasks);
+  }
+
   public interface Mutable extends TaskStore {
 
     /**
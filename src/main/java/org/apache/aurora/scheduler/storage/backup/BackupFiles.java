@@ -0,0 +1,138 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.backup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.io.ByteStreams;
+
+import org.apache.aurora.codec.ThriftBinaryCodec;
+import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.gen.storage.Snapshot;
+
+/**
+ * Reads and writes the on-disk representation of scheduler backups.
+ *
+ * <p>Backups are written as a gzip stream of the binary thrift encoded {@link Snapshot}, which
+ * carries a CRC32 checksum of the uncompressed contents in its trailer.  Backups written before
+ * compression was introduced hold the bare thrift encoding and are still readable; the two are
+ * told apart by the gzip magic header, which can never start a thrift struct.
+ */
+final class BackupFiles {
+  private static final Logger LOG = Logger.getLogger(BackupFiles.class.getName());
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+  private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
+
+  private BackupFiles() {
+    // Utility class.
+  }
+
+  /**
+   * Streams a compressed backup to {@code target}.  The snapshot is first written to
+   * {@code tempFile} and forced to disk, then atomically moved into place, so that a partially
+   * written backup is never visible under the target name.
+   *
+   * @param snapshot Snapshot to back up.
+   * @param tempFile File to stage the backup in, replaced if it exists.
+   * @param target Final name of the backup.
+   * @throws IOException If the backup could not be written.
+   * @throws CodingException If the snapshot could not be encoded.
+   */
+  static void write(Snapshot snapshot, File tempFile, File target)
+      throws IOException, CodingException {
+
+    try (FileChannel channel = FileChannel.open(
+        tempFile.toPath(),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)) {
+
+      // Closing the gzip stream would close the channel before it is forced, so the streams are
+      // finished and flushed by hand.
+      OutputStream buffered =
+          new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+      GZIPOutputStream compressed = new GZIPOutputStream(buffered, BUFFER_SIZE);
+      ThriftBinaryCodec.encodeNonNull(snapshot, compressed);
+      compressed.finish();
+      buffered.flush();
+      channel.force(true);
+    }
+    java.nio.file.Files.move(
+        tempFile.toPath(),
+        target.toPath(),
+        StandardCopyOption.ATOMIC_MOVE);
+    syncDirectory(target.getParentFile());
+  }
+
+  /**
+   * Stream-decodes a backup, verifying its checksum if it is compressed.
+   *
+   * @param backup Backup file to read.
+   * @return The backed up snapshot.
+   * @throws IOException If the backup could not be read or fails its checksum.
+   * @throws CodingException If the backup could not be decoded.
+   */
+  static Snapshot read(File backup) throws IOException, CodingException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(backup), BUFFER_SIZE)) {
+      if (!isCompressed(in)) {
+        return ThriftBinaryCodec.decodeNonNull(Snapshot.class, in);
+      }
+
+      InputStream decompressed = new GZIPInputStream(in, BUFFER_SIZE);
+      Snapshot snapshot = ThriftBinaryCodec.decodeNonNull(Snapshot.class, decompressed);
+      // The gzip trailer, and with it the checksum, is only verified once the stream is drained.
+      if (ByteStreams.copy(decompressed, ByteStreams.nullOutputStream()) != 0) {
+        throw new IOException("Unexpected trailing data in backup " + backup);
+      }
+      return snapshot;
+    }
+  }
+
+  private static boolean isCompressed(InputStream in) throws IOException {
+    in.mark(2);
+    try {
+      return in.read() == GZIP_MAGIC_FIRST_BYTE && in.read() == GZIP_MAGIC_SECOND_BYTE;
+    } finally {
+      in.reset();
+    }
+  }
+
+  private static void syncDirectory(File dir) {
+    // Makes the rename durable.  Not all platforms allow opening a directory, in which case the
+    // rename is left for the OS to flush.
+    try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Unable to sync backup directory " + dir, e);
+    }
+  }
+}
@@ -25,11 +25,9 @@ import javax.inject.Inject;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.io.Files;
 import com.google.common.util.concurrent.Atomics;
 import com.twitter.common.base.Command;
 
-import org.apache.aurora.codec.ThriftBinaryCodec;
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
 import org.apache.aurora.gen.storage.Snapshot;
 import org.apache.aurora.scheduler.base.Query;
@@ -141,7 +139,7 @@ public interface Recovery {
 
       Snapshot snapshot;
       try {
-        snapshot = ThriftBinaryCodec.decode(Snapshot.class, Files.toByteArray(backupFile));
+        snapshot = BackupFiles.read(backupFile);
       } catch (CodingException e) {
         throw new RecoveryException("Failed to decode backup " + e, e);
       } catch (IOException e) {
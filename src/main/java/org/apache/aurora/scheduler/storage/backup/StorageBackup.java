@@ -24,6 +24,11 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,16 +37,16 @@ import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Ordering;
-import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.BindingAnnotation;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.util.Clock;
 
-import org.apache.aurora.codec.ThriftBinaryCodec;
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
 import org.apache.aurora.gen.storage.Snapshot;
 import org.apache.aurora.scheduler.storage.SnapshotStore;
@@ -57,8 +62,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * A backup routine that layers over a snapshot store and periodically writes snapshots to
  * local disk.
  *
- * TODO(William Farner): Perform backups asynchronously.  As written, they are performed in a
- * blocking write operation, which is asking for trouble.
+ * <p>Periodic backups are handed off to a background writer so that snapshotting never blocks
+ * on backup I/O.  If a backup is still being written when the next one is due, the new one is
+ * skipped rather than queued.
  */
 public interface StorageBackup {
 
@@ -99,8 +105,10 @@ public interface StorageBackup {
 
     private final SnapshotStore<Snapshot> delegate;
     private final Clock clock;
+    private final Executor executor;
     private final long backupIntervalMs;
     private volatile long lastBackupMs;
+    private final AtomicBoolean backupInProgress = new AtomicBoolean(false);
     private final DateFormat backupDateFormat;
 
     private final AtomicLong successes = Stats.exportLong("scheduler_backup_success");
@@ -115,15 +123,39 @@ public interface StorageBackup {
       return failures;
     }
 
+    private final AtomicLong skipped = Stats.exportLong("scheduler_backup_skipped");
+    @VisibleForTesting
+    AtomicLong getSkipped() {
+      return skipped;
+    }
+
     @Inject
     StorageBackupImpl(
         @SnapshotDelegate SnapshotStore<Snapshot> delegate,
         Clock clock,
         BackupConfig config) {
 
+      this(
+          delegate,
+          clock,
+          config,
+          Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+              .setNameFormat("StorageBackup-%d")
+              .setDaemon(true)
+              .build()));
+    }
+
+    @VisibleForTesting
+    StorageBackupImpl(
+        SnapshotStore<Snapshot> delegate,
+        Clock clock,
+        BackupConfig config,
+        Executor executor) {
+
       this.delegate = checkNotNull(delegate);
       this.clock = checkNotNull(clock);
       this.config = checkNotNull(config);
+      this.executor = checkNotNull(executor);
       backupDateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm");
       backupIntervalMs = config.interval.as(Time.MILLISECONDS);
       lastBackupMs = clock.nowMillis();
@@ -131,14 +163,66 @@ public interface StorageBackup {
 
     @Override public Snapshot createSnapshot() {
       Snapshot snapshot = delegate.createSnapshot();
-      if (clock.nowMillis() >= (lastBackupMs + backupIntervalMs)) {
-        save(snapshot);
-      }
+      maybeBackup(snapshot);
       return snapshot;
     }
 
+    @Override public Supplier<Snapshot> captureSnapshot() {
+      final Supplier<Snapshot> captured = delegate.captureSnapshot();
+      return new Supplier<Snapshot>() {
+        @Override public Snapshot get() {
+          Snapshot snapshot = captured.get();
+          maybeBackup(snapshot);
+          return snapshot;
+        }
+      };
+    }
+
     @Override public void backupNow() {
-      save(delegate.createSnapshot());
+      FutureTask<Void> backup = newBackup(delegate.createSnapshot());
+      // Waits for any in-flight periodic backup, since the writer runs backups one at a time.
+      executor.execute(backup);
+      try {
+        backup.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for backup.", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Backup failed unexpectedly.", e.getCause());
+      }
+    }
+
+    private void maybeBackup(Snapshot snapshot) {
+      if (clock.nowMillis() < (lastBackupMs + backupIntervalMs)) {
+        return;
+      }
+
+      lastBackupMs = clock.nowMillis();
+      if (backupInProgress.compareAndSet(false, true)) {
+        final FutureTask<Void> backup = newBackup(snapshot);
+        executor.execute(new Runnable() {
+          @Override public void run() {
+            try {
+              backup.run();
+            } finally {
+              backupInProgress.set(false);
+            }
+          }
+        });
+      } else {
+        LOG.warning("Skipping backup since the previous backup is still being written.");
+        skipped.incrementAndGet();
+      }
+    }
+
+    private FutureTask<Void> newBackup(final Snapshot snapshot) {
+      // The backup name is chosen when the snapshot is taken rather than when it is written.
+      final String backupName = createBackupName();
+      return new FutureTask<>(new Runnable() {
+        @Override public void run() {
+          save(snapshot, backupName);
+        }
+      }, null);
     }
 
     @VisibleForTesting
@@ -146,17 +230,12 @@ public interface StorageBackup {
       return FILE_PREFIX + backupDateFormat.format(new Date(clock.nowMillis()));
     }
 
-    private void save(Snapshot snapshot) {
-      lastBackupMs = clock.nowMillis();
-
-      String backupName = createBackupName();
+    private void save(Snapshot snapshot, String backupName) {
       String tempBackupName = "temp_" + backupName;
       File tempFile = new File(config.dir, tempBackupName);
       LOG.info("Saving backup to " + tempFile);
       try {
-        byte[] backup = ThriftBinaryCodec.encodeNonNull(snapshot);
-        Files.write(backup, tempFile);
-        Files.move(tempFile, new File(config.dir, backupName));
+        BackupFiles.write(snapshot, tempFile, new File(config.dir, backupName));
         successes.incrementAndGet();
       } catch (IOException e) {
         failures.incrementAndGet();
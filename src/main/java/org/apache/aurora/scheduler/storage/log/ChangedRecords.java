@@ -0,0 +1,236 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.util.Set;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import org.apache.aurora.gen.HostAttributes;
+import org.apache.aurora.gen.JobKey;
+import org.apache.aurora.gen.Lock;
+import org.apache.aurora.gen.LockKey;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.storage.DeltaSnapshot;
+import org.apache.aurora.gen.storage.Op;
+import org.apache.aurora.gen.storage.QuotaConfiguration;
+import org.apache.aurora.gen.storage.SchedulerMetadata;
+import org.apache.aurora.gen.storage.Snapshot;
+import org.apache.aurora.gen.storage.StoredJob;
+import org.apache.aurora.scheduler.base.Query;
+import org.apache.aurora.scheduler.storage.Storage.StoreProvider;
+import org.apache.aurora.scheduler.storage.TaskStore;
+import org.apache.aurora.scheduler.storage.entities.IJobConfiguration;
+import org.apache.aurora.scheduler.storage.entities.IJobKey;
+import org.apache.aurora.scheduler.storage.entities.ILock;
+import org.apache.aurora.scheduler.storage.entities.ILockKey;
+import org.apache.aurora.scheduler.storage.entities.IQuota;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+
+/**
+ * Tracks the keys of records changed by logged ops since the last full snapshot, so that a
+ * {@link DeltaSnapshot} can be created from the current values of only those records.
+ */
+class ChangedRecords {
+
+  private final Set<String> taskIds = Sets.newHashSet();
+  private final Set<IJobKey> jobKeys = Sets.newHashSet();
+  private final Set<String> quotaRoles = Sets.newHashSet();
+  private final Set<String> hosts = Sets.newHashSet();
+  private final Set<ILockKey> lockKeys = Sets.newHashSet();
+
+  /**
+   * Records the keys of the records changed by an op.
+   *
+   * @param op Op that was applied to local storage.
+   */
+  synchronized void record(Op op) {
+    switch (op.getSetField()) {
+      case SAVE_FRAMEWORK_ID:
+        // The framework ID is always included in deltas.
+        break;
+
+      case SAVE_ACCEPTED_JOB:
+        jobKeys.add(IJobKey.build(op.getSaveAcceptedJob().getJobConfig().getKey()));
+        break;
+
+      case REMOVE_JOB:
+        jobKeys.add(IJobKey.build(op.getRemoveJob().getJobKey()));
+        break;
+
+      case SAVE_TASKS:
+        for (ScheduledTask task : op.getSaveTasks().getTasks()) {
+          taskIds.add(task.getAssignedTask().getTaskId());
+        }
+        break;
+
+      case REWRITE_TASK:
+        taskIds.add(op.getRewriteTask().getTaskId());
+        break;
+
+      case REMOVE_TASKS:
+        taskIds.addAll(op.getRemoveTasks().getTaskIds());
+        break;
+
+      case SAVE_QUOTA:
+        quotaRoles.add(op.getSaveQuota().getRole());
+        break;
+
+      case REMOVE_QUOTA:
+        quotaRoles.add(op.getRemoveQuota().getRole());
+        break;
+
+      case SAVE_HOST_ATTRIBUTES:
+        hosts.add(op.getSaveHostAttributes().getHostAttributes().getHost());
+        break;
+
+      case SAVE_LOCK:
+        lockKeys.add(ILock.build(op.getSaveLock().getLock()).getKey());
+        break;
+
+      case REMOVE_LOCK:
+        lockKeys.add(ILockKey.build(op.getRemoveLock().getLockKey()));
+        break;
+
+      default:
+        throw new IllegalStateException("Unknown transaction op: " + op);
+    }
+  }
+
+  /**
+   * Forgets all recorded changes, after a full snapshot has been taken.
+   */
+  synchronized void clear() {
+    taskIds.clear();
+    jobKeys.clear();
+    quotaRoles.clear();
+    hosts.clear();
+    lockKeys.clear();
+  }
+
+  /**
+   * Captures the values of all records changed since the last {@link #clear()}, to be built into a
+   * delta.  Must be called under a consistent view of local storage.  Changed tasks make up the
+   * bulk of a delta, so only their keys are copied under the view, and the tasks are read from a
+   * point-in-time version of the task store when the returned supplier is called, which may be
+   * after the view is released.
+   *
+   * @param store Store provider to read current values from.
+   * @param timestamp Timestamp to assign to the delta.
+   * @return A supplier of the delta snapshot of the changed records, to be called once.
+   */
+  synchronized Supplier<DeltaSnapshot> captureDelta(StoreProvider store, long timestamp) {
+    final DeltaSnapshot delta = new DeltaSnapshot()
+        .setTimestamp(timestamp)
+        .setRemovedTaskIds(Sets.<String>newHashSet())
+        .setRemovedJobs(Sets.<JobKey>newHashSet())
+        .setRemovedQuotaRoles(Sets.<String>newHashSet())
+        .setRemovedLocks(Sets.<LockKey>newHashSet());
+    final Snapshot changed = new Snapshot()
+        .setTimestamp(timestamp)
+        .setSchedulerMetadata(
+            new SchedulerMetadata().setFrameworkId(store.getSchedulerStore().fetchFrameworkId()));
+
+    changed.setJobs(Sets.<StoredJob>newHashSet());
+    Set<String> managerIds = store.getJobStore().fetchManagerIds();
+    for (IJobKey jobKey : jobKeys) {
+      boolean found = false;
+      for (String managerId : managerIds) {
+        Optional<IJobConfiguration> job = store.getJobStore().fetchJob(managerId, jobKey);
+        if (job.isPresent()) {
+          changed.getJobs().add(new StoredJob(managerId, job.get().newBuilder()));
+          found = true;
+        }
+      }
+      if (!found) {
+        delta.getRemovedJobs().add(jobKey.newBuilder());
+      }
+    }
+
+    changed.setQuotaConfigurations(Sets.<QuotaConfiguration>newHashSet());
+    for (String role : quotaRoles) {
+      Optional<IQuota> quota = store.getQuotaStore().fetchQuota(role);
+      if (quota.isPresent()) {
+        changed.getQuotaConfigurations()
+            .add(new QuotaConfiguration(role, quota.get().newBuilder()));
+      } else {
+        delta.getRemovedQuotaRoles().add(role);
+      }
+    }
+
+    // Host attributes are never removed by ops.
+    changed.setHostAttributes(Sets.<HostAttributes>newHashSet());
+    for (String host : hosts) {
+      changed.getHostAttributes().addAll(store.getAttributeStore().getHostAttributes(host).asSet());
+    }
+
+    changed.setLocks(Sets.<Lock>newHashSet());
+    for (ILockKey lockKey : lockKeys) {
+      Optional<ILock> lock = store.getLockStore().fetchLock(lockKey);
+      if (lock.isPresent()) {
+        changed.getLocks().add(lock.get().newBuilder());
+      } else {
+        delta.getRemovedLocks().add(lockKey.newBuilder());
+      }
+    }
+
+    delta.setChanged(changed);
+
+    final ImmutableSet<String> changedTaskIds = ImmutableSet.copyOf(taskIds);
+    final Supplier<ImmutableSet<IScheduledTask>> tasks =
+        captureTasks(store.getTaskStore(), changedTaskIds);
+    return new Supplier<DeltaSnapshot>() {
+      @Override public DeltaSnapshot get() {
+        Set<String> removedTaskIds = Sets.newHashSet(changedTaskIds);
+        ImmutableSet<IScheduledTask> changedTasks = tasks.get();
+        for (IScheduledTask task : changedTasks) {
+          removedTaskIds.remove(task.getAssignedTask().getTaskId());
+        }
+        changed.setTasks(IScheduledTask.toBuildersSet(changedTasks));
+        delta.getRemovedTaskIds().addAll(removedTaskIds);
+        return delta;
+      }
+    };
+  }
+
+  private static Supplier<ImmutableSet<IScheduledTask>> captureTasks(
+      TaskStore taskStore,
+      final ImmutableSet<String> taskIds) {
+
+    if (taskIds.isEmpty()) {
+      return Suppliers.ofInstance(ImmutableSet.<IScheduledTask>of());
+    }
+
+    if (taskStore instanceof TaskStore.Versioned) {
+      final TaskStore.Versioned.Version version = ((TaskStore.Versioned) taskStore).openVersion();
+      return new Supplier<ImmutableSet<IScheduledTask>>() {
+        @Override public ImmutableSet<IScheduledTask> get() {
+          try {
+            return version.fetchTasks(taskIds);
+          } finally {
+            version.close();
+          }
+        }
+      };
+    }
+
+    return Suppliers.ofInstance(taskStore.fetchTasks(Query.taskScoped(taskIds)));
+  }
+}
@@ -18,20 +18,29 @@ package org.apache.aurora.scheduler.storage.log;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.Deflater;
 
 import com.google.common.base.Preconditions;
-import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import com.twitter.common.stats.Stats;
 
 import org.apache.aurora.codec.ThriftBinaryCodec;
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.gen.storage.CompressedEntry;
 import org.apache.aurora.gen.storage.LogEntry;
 import org.apache.aurora.gen.storage.LogEntry._Fields;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TIOStreamTransport;
 
 /**
  * Utility class for working with log entries.
@@ -43,6 +52,26 @@ final class Entries {
   private static final AtomicLong COMPRESSION_BYTES_SAVED =
       Stats.exportLong("log_compressed_entry_bytes_saved");
 
+  // Descriptors used to write the envelope of a compressed entry around its data.
+  private static final TStruct LOG_ENTRY_STRUCT = new TStruct("LogEntry");
+  private static final TField DEFLATED_ENTRY_FIELD = new TField(
+      "deflatedEntry",
+      TType.STRING,
+      _Fields.DEFLATED_ENTRY.getThriftFieldId());
+  private static final TField COMPRESSED_ENTRY_FIELD = new TField(
+      "compressedEntry",
+      TType.STRUCT,
+      _Fields.COMPRESSED_ENTRY.getThriftFieldId());
+  private static final TStruct COMPRESSED_ENTRY_STRUCT = new TStruct("CompressedEntry");
+  private static final TField CODEC_FIELD = new TField(
+      "codec",
+      TType.I32,
+      CompressedEntry._Fields.CODEC.getThriftFieldId());
+  private static final TField DATA_FIELD = new TField(
+      "data",
+      TType.STRING,
+      CompressedEntry._Fields.DATA.getThriftFieldId());
+
   private Entries() {
     // Utility class.
   }
@@ -61,28 +90,95 @@ final class Entries {
    * @throws CodingException If the value could not be encoded or deflated.
    */
   static LogEntry deflate(LogEntry entry) throws CodingException {
-    byte[] data = thriftBinaryEncode(entry);
-    int initialLength = data.length;
-    LOG.info("Deflating log entry of size " + initialLength);
-    ByteArrayOutputStream deflated = new ByteArrayOutputStream();
-    DeflaterOutputStream deflater = new DeflaterOutputStream(deflated);
+    ByteArrayOutputStream deflated =
+        compressEncoded(entry, EntryCodec.DEFLATE, Deflater.DEFAULT_COMPRESSION);
+    return LogEntry.deflatedEntry(ByteBuffer.wrap(deflated.toByteArray()));
+  }
+
+  /**
+   * Compresses a log entry and writes the compressed entry to a stream, without holding the
+   * encoded or compressed entry in memory more than once.
+   * <p>
+   * Entries compressed with the deflate codec are written as deflated entries, which schedulers
+   * that predate other codecs are able to read.  The data written for them is identical to the
+   * binary encoding of {@link #deflate(LogEntry)} at the default level.  Entries compressed with
+   * other codecs are written as compressed entries.
+   * <p>
+   * This operation is symmetric with {@link #decompress(LogEntry)}.
+   *
+   * @param entry Entry to compress.
+   * @param codec Codec to compress the entry with.
+   * @param level Compression level, for codecs that support levels.
+   * @param output Stream to write the encoded compressed entry to.
+   * @throws CodingException If the value could not be encoded, compressed or written.
+   */
+  static void compress(LogEntry entry, EntryCodec codec, int level, OutputStream output)
+      throws CodingException {
+
+    ByteArrayOutputStream compressed = compressEncoded(entry, codec, level);
+
+    // The compressed data is written as a binary field, whose length must precede the data.
+    TProtocol protocol = ThriftBinaryCodec.PROTOCOL_FACTORY.getProtocol(
+        new TIOStreamTransport(output));
     try {
-      deflater.write(data);
-      deflater.flush();
-      deflater.close();
-      byte[] deflatedData = deflated.toByteArray();
-      int bytesSaved = initialLength - deflatedData.length;
-      if (bytesSaved < 0) {
-        LOG.warning("Deflated entry is larger than original by " + (bytesSaved * -1) + " bytes");
+      protocol.writeStructBegin(LOG_ENTRY_STRUCT);
+      if (codec == EntryCodec.DEFLATE) {
+        protocol.writeFieldBegin(DEFLATED_ENTRY_FIELD);
+        writeBinary(protocol, compressed, output);
       } else {
-        LOG.info("Deflated log entry size: " + deflatedData.length + " (saved " + bytesSaved + ")");
+        protocol.writeFieldBegin(COMPRESSED_ENTRY_FIELD);
+        protocol.writeStructBegin(COMPRESSED_ENTRY_STRUCT);
+        protocol.writeFieldBegin(CODEC_FIELD);
+        protocol.writeI32(codec.getCodec().getValue());
+        protocol.writeFieldEnd();
+        protocol.writeFieldBegin(DATA_FIELD);
+        writeBinary(protocol, compressed, output);
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
       }
+      protocol.writeFieldEnd();
+      protocol.writeFieldStop();
+      protocol.writeStructEnd();
+    } catch (TException | IOException e) {
+      throw new CodingException("Failed to write compressed entry: " + e, e);
+    }
+  }
+
+  private static void writeBinary(
+      TProtocol protocol,
+      ByteArrayOutputStream data,
+      OutputStream output) throws TException, IOException {
 
-      COMPRESSION_BYTES_SAVED.addAndGet(bytesSaved);
-      return LogEntry.deflatedEntry(ByteBuffer.wrap(deflatedData));
+    protocol.writeI32(data.size());
+    data.writeTo(output);
+  }
+
+  private static ByteArrayOutputStream compressEncoded(LogEntry entry, EntryCodec codec, int level)
+      throws CodingException {
+
+    long startNanos = System.nanoTime();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    CountingOutputStream encoded;
+    try {
+      encoded = new CountingOutputStream(codec.compress(compressed, level));
+      ThriftBinaryCodec.encodeNonNull(entry, encoded);
+      encoded.close();
     } catch (IOException e) {
-      throw new CodingException("Failed to deflate snapshot: " + e, e);
+      throw new CodingException("Failed to compress log entry: " + e, e);
     }
+
+    long initialLength = encoded.getCount();
+    codec.recordCompression(initialLength, compressed.size(), System.nanoTime() - startNanos);
+    long bytesSaved = initialLength - compressed.size();
+    if (bytesSaved < 0) {
+      LOG.warning("Compressed entry is larger than original by " + (bytesSaved * -1) + " bytes");
+    } else {
+      LOG.info("Compressed log entry of size " + initialLength + " to " + compressed.size()
+          + " with " + codec + " (saved " + bytesSaved + ")");
+    }
+    COMPRESSION_BYTES_SAVED.addAndGet(bytesSaved);
+    return compressed;
   }
 
   /**
@@ -98,18 +194,65 @@ final class Entries {
   static LogEntry inflate(LogEntry entry) throws CodingException {
     Preconditions.checkArgument(entry.isSet(_Fields.DEFLATED_ENTRY));
 
-    ByteArrayOutputStream inflated = new ByteArrayOutputStream();
-    ByteBuffer data = entry.bufferForDeflatedEntry();
-    LOG.info("Inflating deflated log entry of size " + data.remaining());
-    InflaterInputStream inflater = new InflaterInputStream(
-        new ByteArrayInputStream(data.array(), data.position(), data.remaining()));
+    return decompress(entry);
+  }
+
+  /**
+   * Checks whether a log entry is a deflated or compressed entry.
+   *
+   * @param entry Entry to check.
+   * @return {@code true} if the entry must be {@link #decompress(LogEntry) decompressed}.
+   */
+  static boolean isCompressed(LogEntry entry) {
+    return entry.isSet(_Fields.DEFLATED_ENTRY) || entry.isSet(_Fields.COMPRESSED_ENTRY);
+  }
+
+  /**
+   * Decompresses and deserializes a deflated or compressed log entry.
+   *
+   * @param entry Entry to decompress, which must be a deflated or compressed entry.
+   * @return The decompressed entry.
+   * @throws CodingException If the value could not be decompressed or decoded.
+   */
+  static LogEntry decompress(LogEntry entry) throws CodingException {
+    Preconditions.checkArgument(isCompressed(entry));
+
+    EntryCodec codec;
+    ByteBuffer data;
+    if (entry.isSet(_Fields.DEFLATED_ENTRY)) {
+      codec = EntryCodec.DEFLATE;
+      data = entry.bufferForDeflatedEntry();
+    } else {
+      CompressedEntry compressed = entry.getCompressedEntry();
+      try {
+        codec = EntryCodec.of(compressed.getCodec());
+      } catch (IllegalArgumentException e) {
+        throw new CodingException("Unsupported compressed entry: " + e.getMessage(), e);
+      }
+      data = compressed.bufferForData();
+    }
+
+    LOG.info("Decompressing " + codec + " log entry of size " + data.remaining());
+    long startNanos = System.nanoTime();
+    CountingInputStream decompressed;
     try {
-      ByteStreams.copy(inflater, inflated);
-      byte[] inflatedData = inflated.toByteArray();
-      LOG.info("Inflated log entry size: " + inflatedData.length);
-      return thriftBinaryDecode(inflatedData);
+      decompressed = new CountingInputStream(codec.decompress(new ByteArrayInputStream(
+          data.array(),
+          data.arrayOffset() + data.position(),
+          data.remaining())));
     } catch (IOException e) {
-      throw new CodingException("Failed to inflate compressed log entry.", e);
+      throw new CodingException("Failed to decompress log entry: " + e, e);
+    }
+    try {
+      LogEntry decoded = thriftBinaryDecode(decompressed);
+      codec.recordDecompression(decompressed.getCount(), System.nanoTime() - startNanos);
+      return decoded;
+    } finally {
+      try {
+        decompressed.close();
+      } catch (IOException e) {
+        LOG.warning("Failed to close decompressor: " + e);
+      }
     }
   }
 
@@ -124,6 +267,17 @@ final class Entries {
     return ThriftBinaryCodec.encodeNonNull(entry);
   }
 
+  /**
+   * Thrift binary-encodes a log entry to a stream.
+   *
+   * @param entry The entry to encode.
+   * @param output The stream to write the serialized entry to.
+   * @throws CodingException If the entry could not be encoded.
+   */
+  static void thriftBinaryEncode(LogEntry entry, OutputStream output) throws CodingException {
+    ThriftBinaryCodec.encodeNonNull(entry, output);
+  }
+
   /**
    * Decodes a byte array containing thrift binary-encoded data.
    *
@@ -134,4 +288,15 @@ final class Entries {
   static LogEntry thriftBinaryDecode(byte[] contents) throws CodingException {
     return ThriftBinaryCodec.decodeNonNull(LogEntry.class, contents);
   }
+
+  /**
+   * Decodes a stream containing thrift binary-encoded data.
+   *
+   * @param contents The stream to decode.
+   * @return The deserialized entry.
+   * @throws CodingException If the entry could not be deserialized.
+   */
+  static LogEntry thriftBinaryDecode(InputStream contents) throws CodingException {
+    return ThriftBinaryCodec.decodeNonNull(LogEntry.class, contents);
+  }
 }
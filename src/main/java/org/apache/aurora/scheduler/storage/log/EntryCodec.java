@@ -0,0 +1,171 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import org.apache.aurora.gen.storage.CompressionCodec;
+
+/**
+ * Implementations of the codecs that log entries may be compressed with.  Each codec exports the
+ * volume of data it has compressed and decompressed, its compression ratio, and its throughput.
+ */
+enum EntryCodec {
+  DEFLATE(CompressionCodec.DEFLATE) {
+    @Override
+    OutputStream compress(OutputStream output, int level) {
+      final Deflater deflater = new Deflater(level);
+      return new DeflaterOutputStream(output, deflater) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            // Deflaters supplied to the stream are not released when it is closed.
+            deflater.end();
+          }
+        }
+      };
+    }
+
+    @Override
+    InputStream decompress(InputStream input) {
+      return new InflaterInputStream(input);
+    }
+  },
+
+  /**
+   * The LZ4 codec, which does not have compression levels.
+   */
+  LZ4(CompressionCodec.LZ4) {
+    @Override
+    OutputStream compress(OutputStream output, int level) {
+      return new LZ4BlockOutputStream(output);
+    }
+
+    @Override
+    InputStream decompress(InputStream input) {
+      return new LZ4BlockInputStream(input);
+    }
+  };
+
+  private final CompressionCodec codec;
+  private final AtomicLong uncompressedBytesWritten;
+  private final AtomicLong compressedBytesWritten;
+  private final AtomicLong compressNanos;
+  private final AtomicLong uncompressedBytesRead;
+  private final AtomicLong decompressNanos;
+
+  EntryCodec(CompressionCodec codec) {
+    this.codec = codec;
+
+    String prefix = "log_" + codec.name().toLowerCase() + "_";
+    uncompressedBytesWritten = Stats.exportLong(prefix + "uncompressed_bytes_written");
+    compressedBytesWritten = Stats.exportLong(prefix + "compressed_bytes_written");
+    compressNanos = Stats.exportLong(prefix + "compress_nanos");
+    uncompressedBytesRead = Stats.exportLong(prefix + "uncompressed_bytes_read");
+    decompressNanos = Stats.exportLong(prefix + "decompress_nanos");
+    Stats.export(new StatImpl<Double>(prefix + "compression_ratio") {
+      @Override public Double read() {
+        long compressed = compressedBytesWritten.get();
+        return (compressed == 0) ? 0 : (double) uncompressedBytesWritten.get() / compressed;
+      }
+    });
+    Stats.export(new StatImpl<Double>(prefix + "compress_bytes_per_sec") {
+      @Override public Double read() {
+        return perSecond(uncompressedBytesWritten.get(), compressNanos.get());
+      }
+    });
+    Stats.export(new StatImpl<Double>(prefix + "decompress_bytes_per_sec") {
+      @Override public Double read() {
+        return perSecond(uncompressedBytesRead.get(), decompressNanos.get());
+      }
+    });
+  }
+
+  private static double perSecond(long bytes, long nanos) {
+    return (nanos == 0) ? 0 : (double) bytes * TimeUnit.SECONDS.toNanos(1) / nanos;
+  }
+
+  /**
+   * Gets the codec identifier recorded in compressed entries.
+   *
+   * @return The thrift codec identifier.
+   */
+  CompressionCodec getCodec() {
+    return codec;
+  }
+
+  /**
+   * Finds the implementation of a codec recorded in a compressed entry.
+   *
+   * @param codec The thrift codec identifier.
+   * @return The codec implementation.
+   * @throws IllegalArgumentException If the codec is not known.
+   */
+  static EntryCodec of(CompressionCodec codec) {
+    for (EntryCodec entryCodec : values()) {
+      if (entryCodec.codec == codec) {
+        return entryCodec;
+      }
+    }
+    throw new IllegalArgumentException("Unknown compression codec " + codec);
+  }
+
+  /**
+   * Creates a stream that compresses data written to it into another stream.  Closing the
+   * returned stream completes the compressed data and closes the underlying stream.
+   *
+   * @param output Stream to write compressed data to.
+   * @param level Compression level, for codecs that support levels.
+   * @return A compressing stream.
+   * @throws IOException If the stream could not be created.
+   */
+  abstract OutputStream compress(OutputStream output, int level) throws IOException;
+
+  /**
+   * Creates a stream that decompresses data read from another stream.
+   *
+   * @param input Stream to read compressed data from.
+   * @return A decompressing stream.
+   * @throws IOException If the stream could not be created.
+   */
+  abstract InputStream decompress(InputStream input) throws IOException;
+
+  void recordCompression(long uncompressedBytes, long compressedBytes, long nanos) {
+    uncompressedBytesWritten.addAndGet(uncompressedBytes);
+    compressedBytesWritten.addAndGet(compressedBytes);
+    compressNanos.addAndGet(nanos);
+  }
+
+  void recordDecompression(long uncompressedBytes, long nanos) {
+    uncompressedBytesRead.addAndGet(uncompressedBytes);
+    decompressNanos.addAndGet(nanos);
+  }
+}
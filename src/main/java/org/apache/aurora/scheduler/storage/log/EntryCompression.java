@@ -0,0 +1,104 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.util.zip.Deflater;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Settings that determine which log entries are compressed, and how they are compressed.
+ */
+final class EntryCompression {
+
+  /**
+   * Settings under which no entries are compressed.
+   */
+  static final EntryCompression NONE = new EntryCompression(
+      EntryCodec.DEFLATE,
+      Deflater.DEFAULT_COMPRESSION,
+      false,
+      Optional.<Amount<Integer, Data>>absent());
+
+  /**
+   * Settings under which snapshots are deflated at the default level.
+   */
+  static final EntryCompression DEFLATE_SNAPSHOTS = new EntryCompression(
+      EntryCodec.DEFLATE,
+      Deflater.DEFAULT_COMPRESSION,
+      true,
+      Optional.<Amount<Integer, Data>>absent());
+
+  private final EntryCodec codec;
+  private final int level;
+  private final boolean compressSnapshots;
+  private final Optional<Integer> transactionThresholdBytes;
+
+  /**
+   * Creates compression settings.
+   *
+   * @param codec Codec to compress entries with.
+   * @param level Compression level, from {@link Deflater#DEFAULT_COMPRESSION} to
+   *     {@link Deflater#BEST_COMPRESSION}, for codecs that support levels.
+   * @param compressSnapshots Whether snapshots are compressed.
+   * @param transactionThreshold The size beyond which encoded transactions are compressed, or
+   *     absent if transactions are never compressed.
+   */
+  EntryCompression(
+      EntryCodec codec,
+      int level,
+      boolean compressSnapshots,
+      Optional<Amount<Integer, Data>> transactionThreshold) {
+
+    Preconditions.checkArgument(
+        (level >= Deflater.DEFAULT_COMPRESSION) && (level <= Deflater.BEST_COMPRESSION),
+        "Invalid compression level " + level);
+    this.codec = checkNotNull(codec);
+    this.level = level;
+    this.compressSnapshots = compressSnapshots;
+    this.transactionThresholdBytes = transactionThreshold.isPresent()
+        ? Optional.of(transactionThreshold.get().as(Data.BYTES))
+        : Optional.<Integer>absent();
+  }
+
+  EntryCodec getCodec() {
+    return codec;
+  }
+
+  int getLevel() {
+    return level;
+  }
+
+  boolean isCompressSnapshots() {
+    return compressSnapshots;
+  }
+
+  /**
+   * Checks whether a transaction should be compressed.
+   *
+   * @param encodedBytes The size of the encoded transaction.
+   * @return {@code true} if the transaction should be compressed.
+   */
+  boolean isCompressTransaction(long encodedBytes) {
+    return transactionThresholdBytes.isPresent()
+        && (encodedBytes > transactionThresholdBytes.get());
+  }
+}
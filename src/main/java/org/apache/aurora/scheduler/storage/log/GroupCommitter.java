@@ -0,0 +1,145 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.scheduler.log.Log.Stream.StreamAccessException;
+import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager;
+import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Coalesces concurrently committed transactions into shared log entries.
+ * <p>
+ * Transactions are queued in the order they were applied to local storage, while the storage lock
+ * is held.  Writers then wait for their transactions to become durable after releasing the lock.
+ * The first waiting writer appends all queued transactions to the log as a single entry and
+ * releases every writer whose transaction was included.  Transactions queued while an append is
+ * in progress are written together by the next writer to acquire the flush lock.
+ */
+class GroupCommitter {
+
+  private static final Function<PendingCommit, StreamTransaction> GET_TRANSACTION =
+      new Function<PendingCommit, StreamTransaction>() {
+        @Override public StreamTransaction apply(PendingCommit pending) {
+          return pending.transaction;
+        }
+      };
+
+  private final StreamManager streamManager;
+  private final BlockingQueue<PendingCommit> queue = new LinkedBlockingQueue<>();
+  private final Object flushLock = new Object();
+
+  private final SlidingStats batchSize =
+      new SlidingStats("scheduler_log_group_commit_batch", "transactions");
+  private final SlidingStats flushLatency =
+      new SlidingStats("scheduler_log_group_commit_flush", "nanos");
+
+  GroupCommitter(StreamManager streamManager) {
+    this.streamManager = checkNotNull(streamManager);
+    Stats.exportSize("scheduler_log_group_commit_queue_depth", queue);
+  }
+
+  /**
+   * Queues a transaction to be committed.  Must be called while holding the storage write lock,
+   * so that transactions are committed in the order they were applied.
+   *
+   * @param transaction Transaction to commit.
+   * @return A handle to {@link #await(PendingCommit) await} the commit with.
+   */
+  PendingCommit enqueue(StreamTransaction transaction) {
+    PendingCommit pending = new PendingCommit(checkNotNull(transaction));
+    queue.add(pending);
+    return pending;
+  }
+
+  /**
+   * Waits for a queued transaction to be committed to the log, committing it along with any other
+   * queued transactions if necessary.  Should be called after releasing the storage write lock.
+   *
+   * @param pending Handle of the queued transaction.
+   * @throws CodingException If there was a problem encoding a log entry for commit.
+   * @throws StreamAccessException If there was a problem appending to the log.
+   */
+  void await(PendingCommit pending) throws CodingException, StreamAccessException {
+    synchronized (flushLock) {
+      if (!pending.done) {
+        flush();
+      }
+    }
+
+    if (pending.failure != null) {
+      Throwables.propagateIfInstanceOf(pending.failure, CodingException.class);
+      throw Throwables.propagate(pending.failure);
+    }
+  }
+
+  /**
+   * Commits any queued transactions without waiting for their writers.  Failures are reported to
+   * the writers of the failed transactions.
+   */
+  void flushQueued() {
+    synchronized (flushLock) {
+      if (!queue.isEmpty()) {
+        flush();
+      }
+    }
+  }
+
+  private void flush() {
+    List<PendingCommit> batch = Lists.newArrayList();
+    queue.drainTo(batch);
+
+    long startNanos = System.nanoTime();
+    Exception failure = null;
+    try {
+      streamManager.commitAll(Lists.transform(batch, GET_TRANSACTION));
+    } catch (CodingException | RuntimeException e) {
+      failure = e;
+    }
+    flushLatency.accumulate(System.nanoTime() - startNanos);
+    batchSize.accumulate(batch.size());
+
+    for (PendingCommit pending : batch) {
+      pending.failure = failure;
+      pending.done = true;
+    }
+  }
+
+  /**
+   * A transaction waiting to be committed.  Fields are only accessed while holding the flush lock.
+   */
+  static final class PendingCommit {
+    private final StreamTransaction transaction;
+    private boolean done = false;
+    private Exception failure = null;
+
+    private PendingCommit(StreamTransaction transaction) {
+      this.transaction = transaction;
+    }
+  }
+}
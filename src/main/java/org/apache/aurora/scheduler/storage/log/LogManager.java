@@ -15,7 +15,12 @@
  */
 package org.apache.aurora.scheduler.storage.log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -24,8 +29,17 @@ import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -36,10 +50,17 @@ import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.primitives.Bytes;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.BindingAnnotation;
 import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.base.Closure;
@@ -47,15 +68,16 @@ import com.twitter.common.base.ExceptionalCommand;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
+import com.twitter.common.stats.SlidingStats;
 import com.twitter.common.stats.Stats;
 
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
 import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.storage.DeltaSnapshot;
 import org.apache.aurora.gen.storage.Frame;
 import org.apache.aurora.gen.storage.FrameChunk;
 import org.apache.aurora.gen.storage.FrameHeader;
 import org.apache.aurora.gen.storage.LogEntry;
-import org.apache.aurora.gen.storage.LogEntry._Fields;
 import org.apache.aurora.gen.storage.Op;
 import org.apache.aurora.gen.storage.RemoveTasks;
 import org.apache.aurora.gen.storage.SaveHostAttributes;
@@ -86,30 +108,44 @@ public final class LogManager {
   public @interface MaxEntrySize { }
 
   /**
-   * Binding annotation for settings regarding the way snapshots are written.
+   * Identifies the number of threads used to decode log entries during recovery.
    */
   @Retention(RetentionPolicy.RUNTIME)
   @Target({ ElementType.PARAMETER, ElementType.METHOD })
   @BindingAnnotation
-  public @interface SnapshotSetting { }
+  public @interface RecoveryThreads { }
+
+  /**
+   * Identifies whether snapshots are written with each distinct task configuration stored once.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface DeduplicateSnapshots { }
 
   private static final Logger LOG = Logger.getLogger(LogManager.class.getName());
 
   private final Log log;
   private final Amount<Integer, Data> maxEntrySize;
-  private final boolean deflateSnapshots;
+  private final EntryCompression compression;
+  private final boolean deduplicateSnapshots;
+  private final int recoveryThreads;
   private final ShutdownRegistry shutdownRegistry;
 
   @Inject
   LogManager(
       Log log,
       @MaxEntrySize Amount<Integer, Data> maxEntrySize,
-      @SnapshotSetting boolean deflateSnapshots,
+      EntryCompression compression,
+      @DeduplicateSnapshots boolean deduplicateSnapshots,
+      @RecoveryThreads int recoveryThreads,
       ShutdownRegistry shutdownRegistry) {
 
     this.log = checkNotNull(log);
     this.maxEntrySize = checkNotNull(maxEntrySize);
-    this.deflateSnapshots = deflateSnapshots;
+    this.compression = checkNotNull(compression);
+    this.deduplicateSnapshots = deduplicateSnapshots;
+    this.recoveryThreads = recoveryThreads;
     this.shutdownRegistry = checkNotNull(shutdownRegistry);
   }
 
@@ -126,7 +162,12 @@ public final class LogManager {
         stream.close();
       }
     });
-    return new StreamManager(stream, deflateSnapshots, maxEntrySize);
+    return new StreamManager(
+        stream,
+        compression,
+        deduplicateSnapshots,
+        maxEntrySize,
+        recoveryThreads);
   }
 
   /**
@@ -157,25 +198,57 @@ public final class LogManager {
       private final AtomicLong deflatedEntriesRead =
           Stats.exportLong("scheduler_log_deflated_entries_read");
       private final AtomicLong snapshots = Stats.exportLong("scheduler_log_snapshots");
+      private final AtomicLong deltaSnapshots =
+          Stats.exportLong("scheduler_log_delta_snapshots");
+      private final SlidingStats readTime =
+          new SlidingStats("scheduler_log_recovery_read", "nanos");
+      private final SlidingStats decodeTime =
+          new SlidingStats("scheduler_log_recovery_decode", "nanos");
+      private final SlidingStats inflateTime =
+          new SlidingStats("scheduler_log_recovery_inflate", "nanos");
+      private final SlidingStats reduplicateTime =
+          new SlidingStats("scheduler_log_recovery_reduplicate", "nanos");
     }
     private final Vars vars = new Vars();
 
+    /**
+     * Maximum number of entries read ahead of the entry being decoded, and of decoded entries
+     * waiting to be handed to the reader.
+     */
+    private static final int READ_AHEAD = 64;
+
     private final Object writeMutex = new Object();
     private final Stream stream;
-    private final boolean deflateSnapshots;
-    private final MessageDigest digest;
+    private final EntryCompression compression;
+    private final boolean deduplicateSnapshots;
+    private final int recoveryThreads;
     private final EntrySerializer entrySerializer;
 
-    StreamManager(Stream stream, boolean deflateSnapshots, Amount<Integer, Data> maxEntrySize) {
+    // Timestamp of the most recent full snapshot, which delta snapshots are based on.  Null until
+    // a full snapshot has been added.
+    private volatile Long baseSnapshotTimestamp = null;
+
+    StreamManager(
+        Stream stream,
+        EntryCompression compression,
+        boolean deduplicateSnapshots,
+        Amount<Integer, Data> maxEntrySize,
+        int recoveryThreads) {
+
+      Preconditions.checkArgument(recoveryThreads > 0);
       this.stream = checkNotNull(stream);
-      this.deflateSnapshots = deflateSnapshots;
-      digest = createDigest();
-      entrySerializer = new EntrySerializer(digest, maxEntrySize);
+      this.compression = checkNotNull(compression);
+      this.deduplicateSnapshots = deduplicateSnapshots;
+      this.recoveryThreads = recoveryThreads;
+      entrySerializer = new EntrySerializer(maxEntrySize);
     }
 
     /**
      * Reads all entries in the log stream after the given position.  If the position
      * supplied is {@code null} then all log entries in the stream will be read.
+     * <p>
+     * Entries are read and decoded ahead of the reader by a pool of recovery threads, and are
+     * handed to the reader in log order on the calling thread.
      *
      * @param reader A reader that will be handed log entries decoded from the stream.
      * @throws CodingException if there was a problem decoding a log entry from the stream.
@@ -185,64 +258,208 @@ public final class LogManager {
     public void readFromBeginning(Closure<LogEntry> reader)
         throws CodingException, InvalidPositionException, StreamAccessException {
 
-      Iterator<Entry> entries = stream.readAll();
+      final Iterator<Entry> entries = stream.readAll();
 
-      while (entries.hasNext()) {
-        LogEntry logEntry = decodeLogEntry(entries.next());
-        while (logEntry != null && isFrame(logEntry)) {
-          logEntry = tryDecodeFrame(logEntry.getFrame(), entries);
-        }
-        if (logEntry != null) {
-          if (logEntry.isSet(_Fields.DEFLATED_ENTRY)) {
-            logEntry = Entries.inflate(logEntry);
-            vars.deflatedEntriesRead.incrementAndGet();
+      // One thread reads raw entries and reassembles frames while the rest decode and decompress.
+      final ExecutorService decoder = Executors.newFixedThreadPool(
+          recoveryThreads + 1,
+          new ThreadFactoryBuilder().setNameFormat("LogRecovery-%d").setDaemon(true).build());
+      final BlockingQueue<Future<LogEntry>> decoded = new LinkedBlockingQueue<>(READ_AHEAD);
+      try {
+        decoder.execute(new Runnable() {
+          @Override public void run() {
+            readAhead(entries, decoder, decoded);
           }
+        });
 
+        LogEntry logEntry;
+        while ((logEntry = await(Uninterruptibles.takeUninterruptibly(decoded))) != null) {
           reader.execute(logEntry);
           vars.entriesRead.incrementAndGet();
         }
+      } finally {
+        decoder.shutdownNow();
       }
     }
 
-    @Nullable
-    private LogEntry tryDecodeFrame(Frame frame, Iterator<Entry> entries) throws CodingException {
-      if (!isHeader(frame)) {
-        LOG.warning("Found a frame with no preceding header, skipping.");
-        return null;
-      }
-      FrameHeader header = frame.getHeader();
-      byte[][] chunks = new byte[header.chunkCount][];
+    /**
+     * Reads entries from the stream, submitting them to be decoded and queueing the results in log
+     * order.  Framed entries are queued as a single result once all of their chunks have been
+     * read.  The end of the stream is signaled by queueing a {@code null} entry.
+     */
+    private void readAhead(
+        Iterator<Entry> entries,
+        ExecutorService decoder,
+        BlockingQueue<Future<LogEntry>> output) {
 
-      digest.reset();
-      for (int i = 0; i < header.chunkCount; i++) {
-        if (!entries.hasNext()) {
-          logBadFrame(header, i);
-          return null;
+      Future<LogEntry> end;
+      try {
+        EntryWindow window = new EntryWindow(entries, decoder);
+        LogEntry logEntry = window.next();
+        while (logEntry != null) {
+          if (!isFrame(logEntry)) {
+            output.put(expand(logEntry, decoder));
+            logEntry = window.next();
+          } else if (!isHeader(logEntry.getFrame())) {
+            LOG.warning("Found a frame with no preceding header, skipping.");
+            logEntry = window.next();
+          } else {
+            FrameHeader header = logEntry.getFrame().getHeader();
+            List<byte[]> chunks = Lists.newArrayListWithCapacity(header.getChunkCount());
+            logEntry = null;
+            for (int i = 0; i < header.getChunkCount(); i++) {
+              LogEntry chunkEntry = window.next();
+              if (chunkEntry == null) {
+                logBadFrame(header, i);
+                break;
+              }
+              if (!isFrame(chunkEntry) || !isChunk(chunkEntry.getFrame())) {
+                // The aborted frame is skipped, and the entry that interrupted it is processed.
+                logBadFrame(header, i);
+                logEntry = chunkEntry;
+                break;
+              }
+              chunks.add(chunkEntry.getFrame().getChunk().getData());
+            }
+            if (chunks.size() == header.getChunkCount()) {
+              output.put(decodeFrame(header, chunks, decoder));
+              logEntry = window.next();
+            }
+          }
         }
-        LogEntry logEntry = decodeLogEntry(entries.next());
-        if (!isFrame(logEntry)) {
-          logBadFrame(header, i);
-          return logEntry;
+        end = Futures.immediateFuture(null);
+      } catch (InterruptedException e) {
+        // The reader has given up on recovery.
+        return;
+      } catch (CodingException | RuntimeException e) {
+        end = Futures.immediateFailedFuture(e);
+      }
+
+      try {
+        output.put(end);
+      } catch (InterruptedException e) {
+        // The reader has given up on recovery.
+      }
+    }
+
+    private Future<LogEntry> decodeFrame(
+        final FrameHeader header,
+        final List<byte[]> chunks,
+        ExecutorService decoder) {
+
+      return decoder.submit(new Callable<LogEntry>() {
+        @Override public LogEntry call() throws CodingException {
+          long startNanos = System.nanoTime();
+          MessageDigest frameDigest = createDigest();
+          List<InputStream> chunkStreams = Lists.newArrayListWithCapacity(chunks.size());
+          for (byte[] chunk : chunks) {
+            frameDigest.update(chunk);
+            chunkStreams.add(new ByteArrayInputStream(chunk));
+          }
+          if (!Arrays.equals(header.getChecksum(), frameDigest.digest())) {
+            throw new CodingException("Read back a framed log entry that failed its checksum");
+          }
+          LogEntry logEntry = Entries.thriftBinaryDecode(
+              new SequenceInputStream(Iterators.asEnumeration(chunkStreams.iterator())));
+          vars.decodeTime.accumulate(System.nanoTime() - startNanos);
+          return expand(logEntry);
         }
-        Frame chunkFrame = logEntry.getFrame();
-        if (!isChunk(chunkFrame)) {
-          logBadFrame(header, i);
-          return logEntry;
+      });
+    }
+
+    private Future<LogEntry> expand(final LogEntry logEntry, ExecutorService decoder) {
+      if (!Entries.isCompressed(logEntry) && !isDeduplicated(logEntry)) {
+        return Futures.immediateFuture(logEntry);
+      }
+
+      return decoder.submit(new Callable<LogEntry>() {
+        @Override public LogEntry call() throws CodingException {
+          return expand(logEntry);
         }
-        byte[] chunkData = chunkFrame.getChunk().getData();
-        digest.update(chunkData);
-        chunks[i] = chunkData;
+      });
+    }
+
+    /**
+     * Restores the original form of a compressed or deduplicated entry.
+     */
+    private LogEntry expand(LogEntry logEntry) throws CodingException {
+      LogEntry expanded = decompressIfCompressed(logEntry);
+      if (isDeduplicated(expanded)) {
+        long startNanos = System.nanoTime();
+        expanded = LogEntry.snapshot(
+            SnapshotDeduplicator.reduplicate(expanded.getDeduplicatedSnapshot()));
+        vars.reduplicateTime.accumulate(System.nanoTime() - startNanos);
+      }
+      return expanded;
+    }
+
+    private LogEntry decompressIfCompressed(LogEntry logEntry) throws CodingException {
+      if (!Entries.isCompressed(logEntry)) {
+        return logEntry;
+      }
+
+      long startNanos = System.nanoTime();
+      LogEntry decompressed = Entries.decompress(logEntry);
+      vars.inflateTime.accumulate(System.nanoTime() - startNanos);
+      vars.deflatedEntriesRead.incrementAndGet();
+      return decompressed;
+    }
+
+    private static LogEntry await(Future<LogEntry> future) throws CodingException {
+      try {
+        return Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), CodingException.class);
+        throw Throwables.propagate(e.getCause());
       }
-      if (!Arrays.equals(header.getChecksum(), digest.digest())) {
-        throw new CodingException("Read back a framed log entry that failed its checksum");
+    }
+
+    /**
+     * A window of entries read from the stream ahead of the entry being processed, which are
+     * decoded concurrently.
+     */
+    private class EntryWindow {
+      private final Iterator<Entry> entries;
+      private final ExecutorService decoder;
+      private final Deque<Future<LogEntry>> window = Queues.newArrayDeque();
+
+      EntryWindow(Iterator<Entry> entries, ExecutorService decoder) {
+        this.entries = entries;
+        this.decoder = decoder;
+      }
+
+      @Nullable
+      LogEntry next() throws CodingException {
+        while (window.size() < READ_AHEAD) {
+          long startNanos = System.nanoTime();
+          if (!entries.hasNext()) {
+            break;
+          }
+          final byte[] contents = entries.next().contents();
+          vars.readTime.accumulate(System.nanoTime() - startNanos);
+          vars.bytesRead.addAndGet(contents.length);
+
+          window.add(decoder.submit(new Callable<LogEntry>() {
+            @Override public LogEntry call() throws CodingException {
+              long startNanos = System.nanoTime();
+              LogEntry logEntry = Entries.thriftBinaryDecode(contents);
+              vars.decodeTime.accumulate(System.nanoTime() - startNanos);
+              return logEntry;
+            }
+          }));
+        }
+        return window.isEmpty() ? null : await(window.remove());
       }
-      return Entries.thriftBinaryDecode(Bytes.concat(chunks));
     }
 
     private static boolean isFrame(LogEntry logEntry) {
       return logEntry.getSetField() == LogEntry._Fields.FRAME;
     }
 
+    private static boolean isDeduplicated(LogEntry logEntry) {
+      return logEntry.getSetField() == LogEntry._Fields.DEDUPLICATED_SNAPSHOT;
+    }
+
     private static boolean isChunk(Frame frame) {
       return frame.getSetField() == Frame._Fields.CHUNK;
     }
@@ -257,12 +474,6 @@ public final class LogManager {
       vars.badFramesRead.incrementAndGet();
     }
 
-    private LogEntry decodeLogEntry(Entry entry) throws CodingException {
-      byte[] contents = entry.contents();
-      vars.bytesRead.addAndGet(contents.length);
-      return Entries.thriftBinaryDecode(contents);
-    }
-
     /**
      * Truncates all entries in the log stream occuring before the given position.  The entry at the
      * given position becomes the first entry in the stream when this call completes.
@@ -286,6 +497,25 @@ public final class LogManager {
       return new StreamTransaction();
     }
 
+    /**
+     * Commits several transactions to the log stream in a single atomic record.  Ops are appended
+     * in the order of the transactions, and are coalesced as if they had been added to a single
+     * transaction.
+     *
+     * @param transactions Transactions to commit, in the order they were applied to local storage.
+     * @return The position of the log entry committed, if any.
+     * @throws CodingException If there was a problem encoding a log entry for commit.
+     */
+    Position commitAll(Iterable<StreamTransaction> transactions) throws CodingException {
+      StreamTransaction merged = startTransaction();
+      for (StreamTransaction transaction : transactions) {
+        for (Op op : transaction.markCommitted()) {
+          merged.add(op);
+        }
+      }
+      return merged.commit();
+    }
+
     /**
      * Adds a snapshot to the log and if successful, truncates the log entries preceding the
      * snapshot.
@@ -299,21 +529,111 @@ public final class LogManager {
     void snapshot(Snapshot snapshot)
         throws CodingException, InvalidPositionException, StreamAccessException {
 
-      LogEntry entry = LogEntry.snapshot(snapshot);
-      if (deflateSnapshots) {
-        entry = Entries.deflate(entry);
-      }
+      stream.truncateBefore(appendSnapshot(snapshot));
+    }
+
+    /**
+     * Marks the point in the log at which the contents of a snapshot were captured.  The snapshot
+     * may then be built and {@link #snapshot(Snapshot, Position) added} while further transactions
+     * are appended, since recovery applies transactions between the marker and the snapshot after
+     * the snapshot.
+     *
+     * @param timestamp The time the snapshot contents were captured.
+     * @return The position of the marker.
+     * @throws CodingException if the was a problem encoding the marker into a log entry.
+     * @throws StreamAccessException if there was a problem appending the marker to the log.
+     */
+    Position markSnapshot(long timestamp) throws CodingException, StreamAccessException {
+      return appendAndGetPosition(LogEntry.snapshotMarker(timestamp));
+    }
 
-      Position position = appendAndGetPosition(entry);
+    /**
+     * Adds a snapshot captured at a {@link #markSnapshot(long) marker} to the log and if
+     * successful, truncates the log entries preceding the marker.
+     *
+     * @param snapshot The snapshot to add.
+     * @param marker The position of the marker appended when the snapshot was captured.
+     * @throws CodingException if the was a problem encoding the snapshot into a log entry.
+     * @throws InvalidPositionException if there was a problem truncating before the marker.
+     * @throws StreamAccessException if there was a problem appending the snapshot to the log.
+     */
+    @Timed("log_manager_snapshot")
+    void snapshot(Snapshot snapshot, Position marker)
+        throws CodingException, InvalidPositionException, StreamAccessException {
+
+      appendSnapshot(snapshot);
+      stream.truncateBefore(marker);
+    }
+
+    private Position appendSnapshot(Snapshot snapshot) throws CodingException {
+      LogEntry entry = deduplicateSnapshots
+          ? LogEntry.deduplicatedSnapshot(SnapshotDeduplicator.deduplicate(snapshot))
+          : LogEntry.snapshot(snapshot);
+      byte[][] entries = serializeSnapshot(entry);
+      Position position = appendAndGetPosition(entries);
+      baseSnapshotTimestamp = snapshot.getTimestamp();
       vars.snapshots.incrementAndGet();
       vars.unSnapshottedTransactions.set(0);
-      stream.truncateBefore(position);
+      return position;
+    }
+
+    /**
+     * Checks whether a full snapshot has been added to the log by this stream manager, which delta
+     * snapshots may be based on.
+     *
+     * @return {@code true} if {@link #snapshotDelta(DeltaSnapshot)} may be called.
+     */
+    boolean hasBaseSnapshot() {
+      return baseSnapshotTimestamp != null;
+    }
+
+    /**
+     * Adds a delta snapshot captured at a {@link #markSnapshot(long) marker} to the log.
+     * <p>
+     * Since the log may only be truncated from the beginning, and the most recent full snapshot is
+     * still required, the log is not truncated.  The delta is stamped with the timestamp of the
+     * full snapshot it is based on.  During recovery, the delta supersedes the transactions between
+     * that snapshot and the marker.
+     *
+     * @param delta Records changed since the most recent full snapshot.
+     * @throws CodingException if the was a problem encoding the delta into a log entry.
+     * @throws StreamAccessException if there was a problem appending to the log.
+     */
+    @Timed("log_manager_snapshot_delta")
+    void snapshotDelta(DeltaSnapshot delta) throws CodingException, StreamAccessException {
+      Preconditions.checkState(hasBaseSnapshot(), "A full snapshot must precede a delta.");
+
+      delta.setBaseTimestamp(baseSnapshotTimestamp);
+      appendAndGetPosition(serializeSnapshot(LogEntry.deltaSnapshot(delta)));
+      vars.deltaSnapshots.incrementAndGet();
+      vars.unSnapshottedTransactions.set(0);
+    }
+
+    private byte[][] serializeSnapshot(LogEntry entry) throws CodingException {
+      return compression.isCompressSnapshots()
+          ? entrySerializer.serializeCompressed(entry, compression)
+          : entrySerializer.serialize(entry);
+    }
+
+    private byte[][] serializeTransaction(Transaction transaction) throws CodingException {
+      LogEntry entry = LogEntry.transaction(transaction);
+      byte[][] entries = entrySerializer.serialize(entry);
+      long bytes = 0;
+      for (byte[] serialized : entries) {
+        bytes += serialized.length;
+      }
+      return compression.isCompressTransaction(bytes)
+          ? entrySerializer.serializeCompressed(entry, compression)
+          : entries;
     }
 
     @Timed("log_manager_append")
     private Position appendAndGetPosition(LogEntry logEntry) throws CodingException {
+      return appendAndGetPosition(entrySerializer.serialize(logEntry));
+    }
+
+    private Position appendAndGetPosition(byte[][] entries) {
       Position firstPosition = null;
-      byte[][] entries = entrySerializer.serialize(logEntry);
       synchronized (writeMutex) { // ensure all sub-entries are written as a unit
         for (byte[] entry : entries) {
           Position position = stream.append(entry);
@@ -327,18 +647,17 @@ public final class LogManager {
       return firstPosition;
     }
 
+    /**
+     * Serializes log entries, splitting those larger than the maximum entry size into frames.
+     * Entries are encoded directly into chunks as they are framed, so a large entry is held in
+     * memory only once, in its framed form.
+     */
     @VisibleForTesting
     public static class EntrySerializer {
-      private final MessageDigest digest;
       private final int maxEntrySizeBytes;
 
-      private EntrySerializer(MessageDigest digest, Amount<Integer, Data> maxEntrySize) {
-        this.digest = checkNotNull(digest);
-        maxEntrySizeBytes = maxEntrySize.as(Data.BYTES);
-      }
-
       public EntrySerializer(Amount<Integer, Data> maxEntrySize) {
-        this(createDigest(), maxEntrySize);
+        maxEntrySizeBytes = maxEntrySize.as(Data.BYTES);
       }
 
       /**
@@ -350,32 +669,94 @@ public final class LogManager {
        */
       @VisibleForTesting
       public byte[][] serialize(LogEntry logEntry) throws CodingException {
-        byte[] entry = Entries.thriftBinaryEncode(logEntry);
-        if (entry.length <= maxEntrySizeBytes) {
-          return new byte[][] {entry};
-        }
-
-        int chunks = (int) Math.ceil(entry.length / (double) maxEntrySizeBytes);
-        byte[][] frames = new byte[chunks + 1][];
-
-        frames[0] = encode(Frame.header(new FrameHeader(chunks, ByteBuffer.wrap(checksum(entry)))));
-        for (int i = 0; i < chunks; i++) {
-          int offset = i * maxEntrySizeBytes;
-          ByteBuffer chunk =
-              ByteBuffer.wrap(entry, offset, Math.min(maxEntrySizeBytes, entry.length - offset));
-          frames[i + 1] = encode(Frame.chunk(new FrameChunk(chunk)));
-        }
-        return frames;
+        FramingOutputStream output = new FramingOutputStream();
+        Entries.thriftBinaryEncode(logEntry, output);
+        return output.finish();
       }
 
-      private byte[] checksum(byte[] data) {
-        digest.reset();
-        return digest.digest(data);
+      /**
+       * Compresses a log entry as with {@link Entries#compress}, then serializes it as with
+       * {@link #serialize(LogEntry)}.
+       *
+       * @param logEntry The log entry to compress and serialize.
+       * @param compression Settings to compress the entry with.
+       * @return Serialized and chunked compressed log entry.
+       * @throws CodingException If the entry could not be compressed or serialized.
+       */
+      byte[][] serializeCompressed(LogEntry logEntry, EntryCompression compression)
+          throws CodingException {
+
+        FramingOutputStream output = new FramingOutputStream();
+        Entries.compress(logEntry, compression.getCodec(), compression.getLevel(), output);
+        return output.finish();
       }
 
       private static byte[] encode(Frame frame) throws CodingException {
         return Entries.thriftBinaryEncode(LogEntry.frame(frame));
       }
+
+      /**
+       * Collects an encoded entry, encoding each full chunk as a frame as soon as the following
+       * data arrives.  An entry no larger than the maximum entry size is left unframed.
+       */
+      private class FramingOutputStream extends OutputStream {
+        private final MessageDigest digest = createDigest();
+        private final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        private final List<byte[]> frames = Lists.newArrayList();
+        private CodingException failure;
+
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+          while (length > 0) {
+            if (chunk.size() == maxEntrySizeBytes) {
+              writeChunk();
+            }
+            int written = Math.min(length, maxEntrySizeBytes - chunk.size());
+            chunk.write(data, offset, written);
+            offset += written;
+            length -= written;
+          }
+        }
+
+        private void writeChunk() throws IOException {
+          byte[] data = chunk.toByteArray();
+          chunk.reset();
+          digest.update(data);
+          try {
+            frames.add(encode(Frame.chunk(new FrameChunk(ByteBuffer.wrap(data)))));
+          } catch (CodingException e) {
+            failure = e;
+            throw new IOException(e);
+          }
+        }
+
+        byte[][] finish() throws CodingException {
+          if (failure != null) {
+            throw failure;
+          }
+          if (frames.isEmpty()) {
+            return new byte[][] {chunk.toByteArray()};
+          }
+
+          try {
+            writeChunk();
+          } catch (IOException e) {
+            throw failure;
+          }
+          FrameHeader header = new FrameHeader(frames.size(), ByteBuffer.wrap(digest.digest()));
+          byte[][] entries = new byte[frames.size() + 1][];
+          entries[0] = encode(Frame.header(header));
+          for (int i = 0; i < frames.size(); i++) {
+            entries[i + 1] = frames.get(i);
+          }
+          return entries;
+        }
+      }
     }
 
     /**
@@ -406,11 +787,24 @@ public final class LogManager {
           return null;
         }
 
-        Position position = appendAndGetPosition(LogEntry.transaction(transaction));
+        Position position = appendAndGetPosition(serializeTransaction(transaction));
         vars.unSnapshottedTransactions.incrementAndGet();
         return position;
       }
 
+      /**
+       * Marks this transaction as committed without appending it to the log stream, for inclusion
+       * in another transaction.
+       *
+       * @return The ops added to this transaction.
+       */
+      private List<Op> markCommitted() {
+        Preconditions.checkState(!committed.getAndSet(true),
+            "Can only call commit once per transaction.");
+
+        return transaction.isSetOps() ? transaction.getOps() : ImmutableList.<Op>of();
+      }
+
       /**
        * Adds a local storage operation to this transaction.
        *
@@ -21,11 +21,14 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,8 +37,11 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.BindingAnnotation;
 import com.twitter.common.application.ShutdownRegistry;
@@ -43,17 +49,24 @@ import com.twitter.common.base.Closure;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.Clock;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
 import org.apache.aurora.gen.HostAttributes;
+import org.apache.aurora.gen.JobKey;
+import org.apache.aurora.gen.Lock;
+import org.apache.aurora.gen.LockKey;
 import org.apache.aurora.gen.MaintenanceMode;
+import org.apache.aurora.gen.storage.DeltaSnapshot;
 import org.apache.aurora.gen.storage.LogEntry;
 import org.apache.aurora.gen.storage.Op;
 import org.apache.aurora.gen.storage.RemoveJob;
 import org.apache.aurora.gen.storage.RemoveLock;
 import org.apache.aurora.gen.storage.RemoveQuota;
 import org.apache.aurora.gen.storage.RemoveTasks;
+import org.apache.aurora.gen.storage.QuotaConfiguration;
 import org.apache.aurora.gen.storage.RewriteTask;
 import org.apache.aurora.gen.storage.SaveAcceptedJob;
 import org.apache.aurora.gen.storage.SaveFrameworkId;
@@ -62,9 +75,12 @@ import org.apache.aurora.gen.storage.SaveLock;
 import org.apache.aurora.gen.storage.SaveQuota;
 import org.apache.aurora.gen.storage.SaveTasks;
 import org.apache.aurora.gen.storage.Snapshot;
+import org.apache.aurora.gen.storage.StoredJob;
+import org.apache.aurora.gen.storage.Transaction;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.SchedulerException;
 import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.log.Log.Position;
 import org.apache.aurora.scheduler.log.Log.Stream.InvalidPositionException;
 import org.apache.aurora.scheduler.log.Log.Stream.StreamAccessException;
 import org.apache.aurora.scheduler.storage.AttributeStore;
@@ -85,10 +101,12 @@ import org.apache.aurora.scheduler.storage.entities.ILockKey;
 import org.apache.aurora.scheduler.storage.entities.IQuota;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+import org.apache.aurora.scheduler.storage.log.GroupCommitter.PendingCommit;
 import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager;
 import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * A storage implementation that ensures committed transactions are written to a log.
@@ -172,10 +190,40 @@ public class LogStorage extends ForwardingStore
   private final SnapshotStore<Snapshot> snapshotStore;
   private final Amount<Long, Time> snapshotInterval;
 
+  private final boolean groupCommit;
+  private final int snapshotDeltas;
+  private final Clock clock;
+  private final ChangedRecords changedRecords = new ChangedRecords();
+  private final AtomicLong supersededTransactionsSkipped =
+      Stats.exportLong("scheduler_log_recovery_superseded_transactions");
+
   private StreamManager streamManager;
+  private GroupCommitter groupCommitter;
+
+  // Number of delta snapshots taken since the last full snapshot, or -1 if the next snapshot must
+  // be a full snapshot.
+  private volatile int deltasSinceFullSnapshot = -1;
+
+  // Serializes snapshots, which are built and appended outside of the storage lock.
+  private final Object snapshotMutex = new Object();
+
+  // Transactions replayed since a snapshot marker, which are not reflected in the snapshot that
+  // follows the marker.  Null when no snapshot marker is pending.
+  private List<Transaction> pendingTransactions = null;
+
+  // Transactions replayed since the last full or delta snapshot and preceding the pending snapshot
+  // marker, which are superseded by the snapshot that follows the marker.  Null unless delta
+  // snapshots are enabled, in which case these transactions are not applied unless no snapshot
+  // follows them.
+  private List<Transaction> supersededTransactions = null;
+
+  // Timestamp of the last full snapshot replayed, or null if none has been replayed.
+  private Long replayedSnapshotTimestamp = null;
 
   private boolean recovered = false;
   private StreamTransaction transaction = null;
+  // Post-commit hooks registered within the current transaction.  Null outside of a transaction.
+  private List<Runnable> postCommitHooks = null;
 
   private final MutableStoreProvider logStoreProvider = new MutableStoreProvider() {
     @Override public SchedulerStore.Mutable getSchedulerStore() {
@@ -205,6 +253,12 @@ public class LogStorage extends ForwardingStore
     @Override public AttributeStore.Mutable getAttributeStore() {
       return LogStorage.this;
     }
+
+    @Override public void addPostCommitHook(Runnable hook) {
+      checkNotNull(hook);
+      checkState(postCommitHooks != null, "Post-commit hooks may only be added within a write.");
+      postCommitHooks.add(hook);
+    }
   };
 
   /**
@@ -233,12 +287,31 @@ public class LogStorage extends ForwardingStore
   @BindingAnnotation
   public @interface WriteBehind { }
 
+  /**
+   * Identifies whether concurrently committed transactions should be appended to the log together.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface GroupCommit { }
+
+  /**
+   * Identifies the number of delta snapshots to take between full snapshots.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface SnapshotDeltas { }
+
   @Inject
   LogStorage(LogManager logManager,
              ShutdownRegistry shutdownRegistry,
              @ShutdownGracePeriod Amount<Long, Time> shutdownGracePeriod,
              SnapshotStore<Snapshot> snapshotStore,
              @SnapshotInterval Amount<Long, Time> snapshotInterval,
+             @GroupCommit boolean groupCommit,
+             @SnapshotDeltas int snapshotDeltas,
+             Clock clock,
              @WriteBehind Storage storage,
              @WriteBehind SchedulerStore.Mutable schedulerStore,
              @WriteBehind JobStore.Mutable jobStore,
@@ -251,6 +324,9 @@ public class LogStorage extends ForwardingStore
         new ScheduledExecutorSchedulingService(shutdownRegistry, shutdownGracePeriod),
         snapshotStore,
         snapshotInterval,
+        groupCommit,
+        snapshotDeltas,
+        clock,
         storage,
         schedulerStore,
         jobStore,
@@ -265,6 +341,9 @@ public class LogStorage extends ForwardingStore
              SchedulingService schedulingService,
              SnapshotStore<Snapshot> snapshotStore,
              Amount<Long, Time> snapshotInterval,
+             boolean groupCommit,
+             int snapshotDeltas,
+             Clock clock,
              Storage storage,
              SchedulerStore.Mutable schedulerStore,
              JobStore.Mutable jobStore,
@@ -278,6 +357,9 @@ public class LogStorage extends ForwardingStore
     this.schedulingService = checkNotNull(schedulingService);
     this.snapshotStore = checkNotNull(snapshotStore);
     this.snapshotInterval = checkNotNull(snapshotInterval);
+    this.groupCommit = groupCommit;
+    this.snapshotDeltas = snapshotDeltas;
+    this.clock = checkNotNull(clock);
   }
 
   @Override
@@ -285,6 +367,9 @@ public class LogStorage extends ForwardingStore
     // Open the log to make a log replica available to the scheduler group.
     try {
       streamManager = logManager.open();
+      if (groupCommit) {
+        groupCommitter = new GroupCommitter(streamManager);
+      }
     } catch (IOException e) {
       throw new IllegalStateException("Failed to open the log, cannot continue", e);
     }
@@ -319,12 +404,17 @@ public class LogStorage extends ForwardingStore
 
   @Timed("scheduler_log_recover")
   void recover() throws RecoveryFailedException {
+    if (snapshotDeltas > 0) {
+      supersededTransactions = Lists.newArrayList();
+    }
     try {
       streamManager.readFromBeginning(new Closure<LogEntry>() {
         @Override public void execute(LogEntry logEntry) {
           replay(logEntry);
         }
       });
+      replaySupersededTransactions();
+      replayPendingTransactions();
     } catch (CodingException | InvalidPositionException | StreamAccessException e) {
       throw new RecoveryFailedException(e);
     }
@@ -339,17 +429,38 @@ public class LogStorage extends ForwardingStore
   void replay(final LogEntry logEntry) {
     switch (logEntry.getSetField()) {
       case SNAPSHOT:
-        Snapshot snapshot = logEntry.getSnapshot();
-        LOG.info("Applying snapshot taken on " + new Date(snapshot.getTimestamp()));
-        snapshotStore.applySnapshot(snapshot);
+        skipSupersededTransactions();
+        applySnapshot(logEntry.getSnapshot());
+        replayPendingTransactions();
+        break;
+
+      case SNAPSHOT_MARKER:
+        // A marker whose snapshot was never appended has no bearing on the transactions before it,
+        // but they are superseded by the snapshot of a later marker.
+        if (supersededTransactions == null) {
+          replayPendingTransactions();
+        } else if (pendingTransactions != null) {
+          supersededTransactions.addAll(pendingTransactions);
+        }
+        pendingTransactions = Lists.newArrayList();
         break;
 
       case TRANSACTION:
-        for (Op op : logEntry.getTransaction().getOps()) {
-          replayOp(op);
+        if (pendingTransactions != null) {
+          pendingTransactions.add(logEntry.getTransaction());
+        } else if (supersededTransactions != null) {
+          supersededTransactions.add(logEntry.getTransaction());
+        } else {
+          replayOps(logEntry.getTransaction().getOps());
         }
         break;
 
+      case DELTA_SNAPSHOT:
+        skipSupersededTransactions();
+        applyDelta(logEntry.getDeltaSnapshot());
+        replayPendingTransactions();
+        break;
+
       case NOOP:
         // Nothing to do here
         break;
@@ -357,6 +468,12 @@ public class LogStorage extends ForwardingStore
       case DEFLATED_ENTRY:
         throw new IllegalArgumentException("Deflated entries are not handled at this layer.");
 
+      case COMPRESSED_ENTRY:
+        throw new IllegalArgumentException("Compressed entries are not handled at this layer.");
+
+      case DEDUPLICATED_SNAPSHOT:
+        throw new IllegalArgumentException("Deduplicated snapshots are not handled at this layer.");
+
       case FRAME:
         throw new IllegalArgumentException("Framed entries are not handled at this layer.");
 
@@ -365,6 +482,84 @@ public class LogStorage extends ForwardingStore
     }
   }
 
+  private void skipSupersededTransactions() {
+    if (supersededTransactions != null) {
+      supersededTransactionsSkipped.addAndGet(supersededTransactions.size());
+      supersededTransactions = Lists.newArrayList();
+    }
+  }
+
+  private void replaySupersededTransactions() {
+    if (supersededTransactions != null) {
+      for (Transaction superseded : supersededTransactions) {
+        replayOps(superseded.getOps());
+      }
+      supersededTransactions = null;
+    }
+  }
+
+  private void replayPendingTransactions() {
+    if (pendingTransactions != null) {
+      for (Transaction pending : pendingTransactions) {
+        replayOps(pending.getOps());
+      }
+      pendingTransactions = null;
+    }
+  }
+
+  @Timed("scheduler_log_recovery_apply_snapshot")
+  void applySnapshot(Snapshot snapshot) {
+    LOG.info("Applying snapshot taken on " + new Date(snapshot.getTimestamp()));
+    snapshotStore.applySnapshot(snapshot);
+    replayedSnapshotTimestamp = snapshot.getTimestamp();
+  }
+
+  @Timed("scheduler_log_recovery_apply_delta")
+  void applyDelta(DeltaSnapshot delta) {
+    if (delta.isSetBaseTimestamp()) {
+      Preconditions.checkState(
+          (replayedSnapshotTimestamp != null)
+              && (replayedSnapshotTimestamp == delta.getBaseTimestamp()),
+          "Delta snapshot taken on %s is not based on the last snapshot applied.",
+          new Date(delta.getTimestamp()));
+    }
+    LOG.info("Applying delta snapshot taken on " + new Date(delta.getTimestamp()));
+    Snapshot changed = delta.getChanged();
+    if (changed.isSetSchedulerMetadata() && changed.getSchedulerMetadata().isSetFrameworkId()) {
+      saveFrameworkId(changed.getSchedulerMetadata().getFrameworkId());
+    }
+    for (HostAttributes attributes : changed.getHostAttributes()) {
+      saveHostAttributes(attributes);
+    }
+    for (StoredJob job : changed.getJobs()) {
+      saveAcceptedJob(job.getJobManagerId(), IJobConfiguration.build(job.getJobConfiguration()));
+    }
+    for (JobKey jobKey : delta.getRemovedJobs()) {
+      removeJob(IJobKey.build(jobKey));
+    }
+    saveTasks(IScheduledTask.setFromBuilders(changed.getTasks()));
+    deleteTasks(delta.getRemovedTaskIds());
+    for (QuotaConfiguration quota : changed.getQuotaConfigurations()) {
+      saveQuota(quota.getRole(), IQuota.build(quota.getQuota()));
+    }
+    for (String role : delta.getRemovedQuotaRoles()) {
+      removeQuota(role);
+    }
+    for (Lock lock : changed.getLocks()) {
+      saveLock(ILock.build(lock));
+    }
+    for (LockKey lockKey : delta.getRemovedLocks()) {
+      removeLock(ILockKey.build(lockKey));
+    }
+  }
+
+  @Timed("scheduler_log_recovery_replay_ops")
+  void replayOps(Iterable<Op> ops) {
+    for (Op op : ops) {
+      replayOp(op);
+    }
+  }
+
   private void replayOp(Op op) {
     switch (op.getSetField()) {
       case SAVE_FRAMEWORK_ID:
@@ -448,13 +643,49 @@ public class LogStorage extends ForwardingStore
    */
   @Timed("scheduler_log_snapshot")
   void doSnapshot() throws CodingException, InvalidPositionException, StreamAccessException {
-    super.write(new MutateWork.NoResult<CodingException>() {
-      @Override protected void execute(MutableStoreProvider unused)
-          throws CodingException, InvalidPositionException, StreamAccessException {
-
-        persist(snapshotStore.createSnapshot());
+    synchronized (snapshotMutex) {
+      final AtomicReference<Position> marker = new AtomicReference<>();
+      final AtomicReference<Supplier<DeltaSnapshot>> capturedDelta = new AtomicReference<>();
+      Supplier<Snapshot> captured =
+          super.write(new MutateWork<Supplier<Snapshot>, CodingException>() {
+            @Override public Supplier<Snapshot> apply(MutableStoreProvider storeProvider)
+                throws CodingException, InvalidPositionException, StreamAccessException {
+
+              // Transactions applied to local storage must reach the log ahead of the snapshot
+              // that includes them.
+              if (groupCommitter != null) {
+                groupCommitter.flushQueued();
+              }
+
+              // A snapshot is only captured under the lock, and is built and appended once the
+              // lock is released.  Transactions committed in the meantime follow the marker, and
+              // are applied on top of the snapshot during recovery.
+              long timestamp = clock.nowMillis();
+              marker.set(streamManager.markSnapshot(timestamp));
+
+              if ((deltasSinceFullSnapshot >= 0)
+                  && (deltasSinceFullSnapshot < snapshotDeltas)
+                  && streamManager.hasBaseSnapshot()) {
+
+                capturedDelta.set(changedRecords.captureDelta(storeProvider, timestamp));
+                return null;
+              }
+
+              changedRecords.clear();
+              deltasSinceFullSnapshot = -1;
+              return snapshotStore.captureSnapshot();
+            }
+          });
+
+      if (captured != null) {
+        streamManager.snapshot(captured.get(), marker.get());
+        deltasSinceFullSnapshot = 0;
+      } else {
+        // The log is not truncated, since the full snapshot the delta is based on is still needed.
+        streamManager.snapshotDelta(capturedDelta.get().get());
+        deltasSinceFullSnapshot++;
       }
-    });
+    }
   }
 
   @Timed("scheduler_log_snapshot_persist")
@@ -462,12 +693,46 @@ public class LogStorage extends ForwardingStore
   public void persist(Snapshot snapshot)
       throws CodingException, InvalidPositionException, StreamAccessException {
 
-    streamManager.snapshot(snapshot);
+    synchronized (snapshotMutex) {
+      streamManager.snapshot(snapshot);
+
+      // The snapshot persisted may not reflect changes recorded since the last full snapshot.
+      deltasSinceFullSnapshot = -1;
+    }
   }
 
   @Override
-  public synchronized <T, E extends Exception> T write(final MutateWork<T, E> work)
-      throws StorageException, E {
+  public <T, E extends Exception> T write(MutateWork<T, E> work) throws StorageException, E {
+    AtomicReference<PendingCommit> pending = new AtomicReference<>();
+    List<Runnable> hooks = Lists.newArrayList();
+    T result = writeLocked(work, pending, hooks);
+
+    // In group commit mode the transaction is appended to the log after releasing the locks, so
+    // that other writers may apply their transactions and share the log append with this one.
+    if (pending.get() != null) {
+      try {
+        groupCommitter.await(pending.get());
+      } catch (CodingException e) {
+        throw new IllegalStateException(
+            "Problem encoding transaction operations to the log stream", e);
+      } catch (StreamAccessException e) {
+        throw new StorageException(
+            "There was a problem committing the transaction to the log.", e);
+      }
+    }
+
+    // Hooks are only populated by the outer-most transaction, and only run once its log append
+    // has completed and all locks have been released.
+    for (Runnable hook : hooks) {
+      hook.run();
+    }
+    return result;
+  }
+
+  private synchronized <T, E extends Exception> T writeLocked(
+      final MutateWork<T, E> work,
+      final AtomicReference<PendingCommit> pending,
+      List<Runnable> hooks) throws StorageException, E {
 
     // We don't want to use the log when recovering from it, we just want to update the underlying
     // store - so pass mutations straight through to the underlying storage.
@@ -486,10 +751,16 @@ public class LogStorage extends ForwardingStore
     }
 
     transaction = streamManager.startTransaction();
+    postCommitHooks = hooks;
     try {
       return super.write(new MutateWork<T, E>() {
         @Override public T apply(MutableStoreProvider unused) throws E {
           T result = work.apply(logStoreProvider);
+          if (groupCommitter != null) {
+            pending.set(groupCommitter.enqueue(transaction));
+            return result;
+          }
+
           try {
             transaction.commit();
           } catch (CodingException e) {
@@ -504,6 +775,7 @@ public class LogStorage extends ForwardingStore
       });
     } finally {
       transaction = null;
+      postCommitHooks = null;
     }
   }
 
@@ -710,6 +982,9 @@ public class LogStorage extends ForwardingStore
   private void log(Op op) {
     if (recovered) {
       transaction.add(op);
+      if (snapshotDeltas > 0) {
+        changedRecords.record(op);
+      }
     }
   }
 }
@@ -16,27 +16,34 @@
 package org.apache.aurora.scheduler.storage.log;
 
 import java.lang.annotation.Annotation;
+import java.util.zip.Deflater;
 
 import javax.inject.Singleton;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.inject.AbstractModule;
 import com.google.inject.Key;
 import com.google.inject.TypeLiteral;
 import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.util.Clock;
 
+import org.apache.aurora.gen.storage.CompressionCodec;
 import org.apache.aurora.scheduler.log.Log;
 import org.apache.aurora.scheduler.storage.CallOrderEnforcingStorage;
 import org.apache.aurora.scheduler.storage.DistributedSnapshotStore;
+import org.apache.aurora.scheduler.storage.log.LogManager.DeduplicateSnapshots;
 import org.apache.aurora.scheduler.storage.log.LogManager.MaxEntrySize;
-import org.apache.aurora.scheduler.storage.log.LogManager.SnapshotSetting;
+import org.apache.aurora.scheduler.storage.log.LogManager.RecoveryThreads;
+import org.apache.aurora.scheduler.storage.log.LogStorage.GroupCommit;
 import org.apache.aurora.scheduler.storage.log.LogStorage.ShutdownGracePeriod;
+import org.apache.aurora.scheduler.storage.log.LogStorage.SnapshotDeltas;
 import org.apache.aurora.scheduler.storage.log.LogStorage.SnapshotInterval;
 
 /**
@@ -64,6 +71,13 @@ public class LogStorageModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> SNAPSHOT_INTERVAL =
       Arg.create(Amount.of(1L, Time.HOURS));
 
+  @CmdLine(name = "dlog_snapshot_deltas",
+           help = "Number of delta snapshots, containing only the records changed since the last "
+                  + "full snapshot, to take between full snapshots of local storage.  The log is "
+                  + "only truncated by full snapshots, but recovery skips the transactions "
+                  + "superseded by a delta.")
+  private static final Arg<Integer> SNAPSHOT_DELTAS = Arg.create(0);
+
   @CmdLine(name = "dlog_max_entry_size",
            help = "Specifies the maximum entry size to append to the log. Larger entries will be "
                   + "split across entry Frames.")
@@ -71,9 +85,48 @@ public class LogStorageModule extends AbstractModule {
   public static final Arg<Amount<Integer, Data>> MAX_LOG_ENTRY_SIZE =
       Arg.create(Amount.of(512, Data.KB));
 
-  @CmdLine(name = "deflate_snapshots", help = "Whether snapshots should be deflate-compressed.")
+  @CmdLine(name = "dlog_group_commit",
+           help = "Whether concurrently committed transactions should share log appends.  Writers "
+                  + "release the storage lock before waiting for their transaction to be logged.")
+  private static final Arg<Boolean> GROUP_COMMIT = Arg.create(false);
+
+  @Positive
+  @CmdLine(name = "dlog_recovery_threads",
+           help = "Number of threads used to decode and inflate log entries during recovery.")
+  private static final Arg<Integer> RECOVERY_THREADS = Arg.create(4);
+
+  @CmdLine(name = "deflate_snapshots",
+           help = "Whether snapshots should be compressed with the dlog_compression_codec.")
   private static final Arg<Boolean> DEFLATE_SNAPSHOTS = Arg.create(true);
 
+  @CmdLine(name = "deduplicate_snapshots",
+           help = "Whether snapshots should store each distinct task configuration once, rather "
+                  + "than once for every task.  Deduplicated snapshots can not be read by "
+                  + "schedulers that predate them.")
+  private static final Arg<Boolean> DEDUPLICATE_SNAPSHOTS = Arg.create(false);
+
+  @CmdLine(name = "dlog_compression_codec",
+           help = "Codec used to compress log entries.  LZ4 compresses less than DEFLATE, but is "
+                  + "faster to write and recover.  Entries written with LZ4 can not be read by "
+                  + "schedulers that predate it.")
+  private static final Arg<CompressionCodec> COMPRESSION_CODEC =
+      Arg.create(CompressionCodec.DEFLATE);
+
+  @CmdLine(name = "dlog_deflate_level",
+           help = "Compression level used by the DEFLATE codec, from 0 (none) to 9 (best), or -1 "
+                  + "for the default level.")
+  private static final Arg<Integer> DEFLATE_LEVEL = Arg.create(Deflater.DEFAULT_COMPRESSION);
+
+  @CmdLine(name = "dlog_compress_transactions",
+           help = "Whether transactions larger than dlog_transaction_compression_threshold "
+                  + "should be compressed.")
+  private static final Arg<Boolean> COMPRESS_TRANSACTIONS = Arg.create(false);
+
+  @CmdLine(name = "dlog_transaction_compression_threshold",
+           help = "Encoded size beyond which transactions are compressed, if enabled.")
+  private static final Arg<Amount<Integer, Data>> TRANSACTION_COMPRESSION_THRESHOLD =
+      Arg.create(Amount.of(64, Data.KB));
+
   @Override
   protected void configure() {
     requireBinding(Log.class);
@@ -85,9 +138,20 @@ public class LogStorageModule extends AbstractModule {
 
     bind(new TypeLiteral<Amount<Integer, Data>>() { }).annotatedWith(MaxEntrySize.class)
         .toInstance(MAX_LOG_ENTRY_SIZE.get());
+    bind(Integer.class).annotatedWith(RecoveryThreads.class).toInstance(RECOVERY_THREADS.get());
+    bind(Boolean.class).annotatedWith(DeduplicateSnapshots.class)
+        .toInstance(DEDUPLICATE_SNAPSHOTS.get());
     bind(LogManager.class).in(Singleton.class);
-    bind(Boolean.class).annotatedWith(SnapshotSetting.class).toInstance(DEFLATE_SNAPSHOTS.get());
+    bind(EntryCompression.class).toInstance(new EntryCompression(
+        EntryCodec.of(COMPRESSION_CODEC.get()),
+        DEFLATE_LEVEL.get(),
+        DEFLATE_SNAPSHOTS.get(),
+        COMPRESS_TRANSACTIONS.get()
+            ? Optional.of(TRANSACTION_COMPRESSION_THRESHOLD.get())
+            : Optional.<Amount<Integer, Data>>absent()));
 
+    bind(Boolean.class).annotatedWith(GroupCommit.class).toInstance(GROUP_COMMIT.get());
+    bind(Integer.class).annotatedWith(SnapshotDeltas.class).toInstance(SNAPSHOT_DELTAS.get());
     bind(LogStorage.class).in(Singleton.class);
     install(CallOrderEnforcingStorage.wrappingModule(LogStorage.class));
     bind(DistributedSnapshotStore.class).to(LogStorage.class);
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.storage.DeduplicatedScheduledTask;
+import org.apache.aurora.gen.storage.DeduplicatedSnapshot;
+import org.apache.aurora.gen.storage.Snapshot;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TFieldIdEnum;
+
+/**
+ * Converts snapshots to and from {@link DeduplicatedSnapshot deduplicated snapshots}, which store
+ * each distinct task configuration once.
+ * <p>
+ * Records other than task configurations are shared between a snapshot and its deduplicated form
+ * rather than copied, so neither should be modified once converted.
+ */
+final class SnapshotDeduplicator {
+
+  private static final Logger LOG = Logger.getLogger(SnapshotDeduplicator.class.getName());
+
+  private SnapshotDeduplicator() {
+    // Utility class.
+  }
+
+  /**
+   * Replaces the task configurations of a snapshot's tasks with references to a table of the
+   * distinct configurations.
+   *
+   * @param snapshot Snapshot to deduplicate.
+   * @return The deduplicated snapshot.
+   */
+  static DeduplicatedSnapshot deduplicate(Snapshot snapshot) {
+    Snapshot partialSnapshot =
+        copyExcept(snapshot, new Snapshot(), Snapshot._Fields.values(), Snapshot._Fields.TASKS);
+
+    Map<TaskConfig, Integer> configIds = Maps.newHashMap();
+    List<TaskConfig> configs = Lists.newArrayList();
+    List<DeduplicatedScheduledTask> partialTasks = Lists.newArrayList();
+    Set<ScheduledTask> tasks =
+        snapshot.isSetTasks() ? snapshot.getTasks() : Sets.<ScheduledTask>newHashSet();
+    for (ScheduledTask task : tasks) {
+      TaskConfig config = task.getAssignedTask().getTask();
+      Integer configId = configIds.get(config);
+      if (configId == null) {
+        configId = configs.size();
+        configs.add(config);
+        configIds.put(config, configId);
+      }
+
+      ScheduledTask partialTask = copyExcept(
+          task,
+          new ScheduledTask(),
+          ScheduledTask._Fields.values(),
+          ScheduledTask._Fields.ASSIGNED_TASK);
+      partialTask.setAssignedTask(copyExcept(
+          task.getAssignedTask(),
+          new AssignedTask(),
+          AssignedTask._Fields.values(),
+          AssignedTask._Fields.TASK));
+      partialTasks.add(new DeduplicatedScheduledTask(partialTask, configId));
+    }
+
+    LOG.info("Deduplicated the configurations of " + partialTasks.size() + " tasks to "
+        + configs.size() + " distinct configurations.");
+    return new DeduplicatedSnapshot(partialSnapshot, partialTasks, configs);
+  }
+
+  /**
+   * Restores the tasks of a deduplicated snapshot.  Tasks referencing the same configuration share
+   * a single instance of it.
+   * <p>
+   * The deduplicated snapshot is consumed, and should not be used afterwards.
+   *
+   * @param deduplicated Deduplicated snapshot to restore.
+   * @return The restored snapshot.
+   * @throws CodingException If a task references a configuration that is not in the snapshot.
+   */
+  static Snapshot reduplicate(DeduplicatedSnapshot deduplicated) throws CodingException {
+    List<TaskConfig> configs = deduplicated.isSetTaskConfigs()
+        ? deduplicated.getTaskConfigs()
+        : Lists.<TaskConfig>newArrayList();
+
+    Set<ScheduledTask> tasks = Sets.newHashSetWithExpectedSize(deduplicated.getPartialTasksSize());
+    if (deduplicated.isSetPartialTasks()) {
+      for (DeduplicatedScheduledTask partialTask : deduplicated.getPartialTasks()) {
+        int configId = partialTask.getTaskConfigId();
+        if ((configId < 0) || (configId >= configs.size())) {
+          throw new CodingException("Task references unknown configuration " + configId);
+        }
+
+        ScheduledTask task = partialTask.getPartialScheduledTask();
+        task.getAssignedTask().setTask(configs.get(configId));
+        tasks.add(task);
+      }
+    }
+
+    return deduplicated.getPartialSnapshot().setTasks(tasks);
+  }
+
+  /**
+   * Copies all set fields but one from a thrift struct to another, without copying their values.
+   */
+  private static <T extends TBase<T, F>, F extends TFieldIdEnum> T copyExcept(
+      T from,
+      T to,
+      F[] fields,
+      F excluded) {
+
+    for (F field : fields) {
+      if ((field != excluded) && from.isSet(field)) {
+        to.setFieldValue(field, from.getFieldValue(field));
+      }
+    }
+    return to;
+  }
+}
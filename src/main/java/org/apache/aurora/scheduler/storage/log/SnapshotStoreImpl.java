@@ -22,6 +22,8 @@ import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.util.BuildInfo;
@@ -41,6 +43,7 @@ import org.apache.aurora.scheduler.storage.Storage.MutateWork;
 import org.apache.aurora.scheduler.storage.Storage.StoreProvider;
 import org.apache.aurora.scheduler.storage.Storage.Volatile;
 import org.apache.aurora.scheduler.storage.Storage.Work;
+import org.apache.aurora.scheduler.storage.TaskStore;
 import org.apache.aurora.scheduler.storage.entities.IJobConfiguration;
 import org.apache.aurora.scheduler.storage.entities.ILock;
 import org.apache.aurora.scheduler.storage.entities.IQuota;
@@ -60,7 +63,12 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
 
   private static final SnapshotField ATTRIBUTE_FIELD = new SnapshotField() {
     @Override public void saveToSnapshot(StoreProvider storeProvider, Snapshot snapshot) {
-      snapshot.setHostAttributes(storeProvider.getAttributeStore().getHostAttributes());
+      // Stored attributes are mutable, so they are copied to be serialized outside the lock.
+      ImmutableSet.Builder<HostAttributes> attributes = ImmutableSet.builder();
+      for (HostAttributes stored : storeProvider.getAttributeStore().getHostAttributes()) {
+        attributes.add(new HostAttributes(stored));
+      }
+      snapshot.setHostAttributes(attributes.build());
     }
 
     @Override public void restoreFromSnapshot(MutableStoreProvider store, Snapshot snapshot) {
@@ -76,21 +84,6 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
 
   private static final Iterable<SnapshotField> SNAPSHOT_FIELDS = Arrays.asList(
       ATTRIBUTE_FIELD,
-      new SnapshotField() {
-        @Override public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
-          snapshot.setTasks(
-              IScheduledTask.toBuildersSet(store.getTaskStore().fetchTasks(Query.unscoped())));
-        }
-
-        @Override public void restoreFromSnapshot(MutableStoreProvider store, Snapshot snapshot) {
-          store.getUnsafeTaskStore().deleteAllTasks();
-
-          if (snapshot.isSetTasks()) {
-            store.getUnsafeTaskStore().saveTasks(
-                IScheduledTask.setFromBuilders(snapshot.getTasks()));
-          }
-        }
-      },
       new SnapshotField() {
         @Override public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
           ImmutableSet.Builder<StoredJob> jobs = ImmutableSet.builder();
@@ -186,9 +179,14 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
 
   @Timed("snapshot_create")
   @Override public Snapshot createSnapshot() {
-    return storage.consistentRead(new Work.Quiet<Snapshot>() {
-      @Override public Snapshot apply(StoreProvider storeProvider) {
-        Snapshot snapshot = new Snapshot();
+    return captureSnapshot().get();
+  }
+
+  @Timed("snapshot_capture")
+  @Override public Supplier<Snapshot> captureSnapshot() {
+    return storage.consistentRead(new Work.Quiet<Supplier<Snapshot>>() {
+      @Override public Supplier<Snapshot> apply(StoreProvider storeProvider) {
+        final Snapshot snapshot = new Snapshot();
 
         // Capture timestamp to signify the beginning of a snapshot operation, apply after in case
         // one of the field closures is mean and tries to apply a timestamp.
@@ -197,11 +195,38 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
           field.saveToSnapshot(storeProvider, snapshot);
         }
         snapshot.setTimestamp(timestamp);
-        return snapshot;
+
+        // Tasks make up the bulk of a snapshot, so they are read from a point-in-time version
+        // after the lock is released when possible.
+        final Supplier<ImmutableSet<IScheduledTask>> tasks =
+            captureTasks(storeProvider.getTaskStore());
+        return new Supplier<Snapshot>() {
+          @Override public Snapshot get() {
+            snapshot.setTasks(IScheduledTask.toBuildersSet(tasks.get()));
+            return snapshot;
+          }
+        };
       }
     });
   }
 
+  private static Supplier<ImmutableSet<IScheduledTask>> captureTasks(TaskStore taskStore) {
+    if (taskStore instanceof TaskStore.Versioned) {
+      final TaskStore.Versioned.Version version = ((TaskStore.Versioned) taskStore).openVersion();
+      return new Supplier<ImmutableSet<IScheduledTask>>() {
+        @Override public ImmutableSet<IScheduledTask> get() {
+          try {
+            return version.fetchTasks();
+          } finally {
+            version.close();
+          }
+        }
+      };
+    }
+
+    return Suppliers.ofInstance(taskStore.fetchTasks(Query.unscoped()));
+  }
+
   @Timed("snapshot_apply")
   @Override public void applySnapshot(final Snapshot snapshot) {
     checkNotNull(snapshot);
@@ -213,6 +238,18 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
         for (SnapshotField field : SNAPSHOT_FIELDS) {
           field.restoreFromSnapshot(storeProvider, snapshot);
         }
+
+        TaskStore.Mutable taskStore = storeProvider.getUnsafeTaskStore();
+        taskStore.deleteAllTasks();
+        if (snapshot.isSetTasks()) {
+          if (taskStore instanceof TaskStore.Restorable) {
+            // The snapshot is discarded once applied, so its tasks are handed to the store rather
+            // than copied, and configurations shared by reduplication stay shared.
+            ((TaskStore.Restorable) taskStore).restoreTasks(snapshot.getTasks());
+          } else {
+            taskStore.saveTasks(IScheduledTask.setFromBuilders(snapshot.getTasks()));
+          }
+        }
       }
     });
   }
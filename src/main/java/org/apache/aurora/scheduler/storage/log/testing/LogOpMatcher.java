@@ -97,6 +97,17 @@ public class LogOpMatcher implements IArgumentMatcher {
       LogEntry entry = LogEntry.snapshot(snapshot);
       return expect(stream.append(sameEntry(entry)));
     }
+
+    /**
+     * Sets an expectation for a snapshot marker.
+     *
+     * @param timestamp Expected capture timestamp of the marker.
+     * @return An expectation setter.
+     */
+    public IExpectationSetters<Position> expectSnapshotMarker(long timestamp) {
+      LogEntry entry = LogEntry.snapshotMarker(timestamp);
+      return expect(stream.append(sameEntry(entry)));
+    }
   }
 
   /**
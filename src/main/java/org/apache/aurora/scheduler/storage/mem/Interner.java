@@ -81,6 +81,11 @@ class Interner<T, A> {
     return pool.containsKey(t);
   }
 
+  @VisibleForTesting
+  synchronized T getInterned(T t) {
+    return pool.get(t).interned;
+  }
+
   @VisibleForTesting
   synchronized Set<A> getAssociations(T t) {
     return ImmutableSet.copyOf(pool.get(t).associations);
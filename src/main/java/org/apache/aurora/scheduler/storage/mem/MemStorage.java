@@ -15,11 +15,13 @@
  */
 package org.apache.aurora.scheduler.storage.mem;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
@@ -34,6 +36,7 @@ import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.TaskStore;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * A storage implementation comprised of individual in-memory store implementations.
@@ -44,6 +47,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * individual stores to ensure that read operations are thread-safe (optimally supporting
  * concurrency).  Store implementations may assume that all methods invoked on {@code Mutable}
  * store interfaces are protected by the global write lock, and thus invoked serially.
+ * <p>
+ * Post-commit hooks registered during a write are run once the outer-most write completes and the
+ * global write lock has been released.
  */
 public class MemStorage implements Storage {
   private final AtomicLong readLockWaitNanos = Stats.exportLong("read_lock_wait_nanos");
@@ -52,6 +58,9 @@ public class MemStorage implements Storage {
   private final MutableStoreProvider storeProvider;
   private final ReadWriteLockManager lockManager = new ReadWriteLockManager();
 
+  // Hooks registered by the outer-most write in progress.  Only accessed with the write lock held.
+  private List<Runnable> postCommitHooks = null;
+
   @Inject
   MemStorage(
       final SchedulerStore.Mutable schedulerStore,
@@ -89,6 +98,12 @@ public class MemStorage implements Storage {
       @Override public AttributeStore.Mutable getAttributeStore() {
         return attributeStore;
       }
+
+      @Override public void addPostCommitHook(Runnable hook) {
+        checkNotNull(hook);
+        checkState(postCommitHooks != null, "Post-commit hooks may only be added within a write.");
+        postCommitHooks.add(hook);
+      }
     };
 
     Stats.export(new StatImpl<Integer>("storage_lock_threads_waiting") {
@@ -146,14 +161,28 @@ public class MemStorage implements Storage {
 
     long lockStartNanos = System.nanoTime();
     boolean topLevelOperation = lockManager.writeLock();
+    List<Runnable> hooks = null;
     if (topLevelOperation) {
       writeLockWaitNanos.addAndGet(System.nanoTime() - lockStartNanos);
+      hooks = Lists.newArrayList();
+      postCommitHooks = hooks;
     }
+    T result;
     try {
-      return work.apply(storeProvider);
+      result = work.apply(storeProvider);
     } finally {
+      if (topLevelOperation) {
+        postCommitHooks = null;
+      }
       lockManager.writeUnlock();
     }
+
+    if (hooks != null) {
+      for (Runnable hook : hooks) {
+        hook.run();
+      }
+    }
+    return result;
   }
 
   @Override
@@ -15,13 +15,14 @@
  */
 package org.apache.aurora.scheduler.storage.mem;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
@@ -33,17 +34,20 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import com.google.common.collect.Ordering;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
 import com.twitter.common.base.MorePreconditions;
+import com.twitter.common.collections.Pair;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.Stats;
 
+import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
 import org.apache.aurora.gen.TaskQuery;
@@ -61,7 +65,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * An in-memory task store.
  */
-class MemTaskStore implements TaskStore.Mutable {
+class MemTaskStore implements TaskStore.Restorable, TaskStore.Versioned {
 
   private static final Logger LOG = Logger.getLogger(MemTaskStore.class.getName());
 
@@ -72,18 +76,69 @@ class MemTaskStore implements TaskStore.Mutable {
 
   private final long slowQueryThresholdNanos = SLOW_QUERY_LOG_THRESHOLD.get().as(Time.NANOSECONDS);
 
-  private static final Function<Query.Builder, Optional<IJobKey>> QUERY_TO_JOB_KEY =
-      new Function<Query.Builder, Optional<IJobKey>>() {
-        @Override public Optional<IJobKey> apply(Query.Builder query) {
-          return JobKeys.from(query);
+  private static final Function<Query.Builder, Optional<Set<IJobKey>>> QUERY_TO_JOB_KEY =
+      new Function<Query.Builder, Optional<Set<IJobKey>>>() {
+        @Override public Optional<Set<IJobKey>> apply(Query.Builder query) {
+          return singleKey(JobKeys.from(query));
         }
       };
-  private static final Function<Query.Builder, Optional<String>> QUERY_TO_SLAVE_HOST =
-      new Function<Query.Builder, Optional<String>>() {
-        @Override public Optional<String> apply(Query.Builder query) {
-          return Optional.fromNullable(query.get().getSlaveHost());
+  private static final Function<Query.Builder, Optional<Set<String>>> QUERY_TO_SLAVE_HOST =
+      new Function<Query.Builder, Optional<Set<String>>>() {
+        @Override public Optional<Set<String>> apply(Query.Builder query) {
+          return singleKey(Optional.fromNullable(query.get().getSlaveHost()));
         }
       };
+  private static final Function<Query.Builder, Optional<Set<ScheduleStatus>>> QUERY_TO_STATUS =
+      new Function<Query.Builder, Optional<Set<ScheduleStatus>>>() {
+        @Override public Optional<Set<ScheduleStatus>> apply(Query.Builder query) {
+          // An empty status set is not a constraint, see queryFilter().
+          return (query.get().getStatusesSize() > 0)
+              ? Optional.<Set<ScheduleStatus>>of(ImmutableSet.copyOf(query.get().getStatuses()))
+              : Optional.<Set<ScheduleStatus>>absent();
+        }
+      };
+  private static final Function<Query.Builder, Optional<Set<String>>> QUERY_TO_ROLE =
+      new Function<Query.Builder, Optional<Set<String>>>() {
+        @Override public Optional<Set<String>> apply(Query.Builder query) {
+          return singleKey(getRole(query.get()));
+        }
+      };
+  private static final Function<Query.Builder, Optional<Set<Pair<String, String>>>>
+      QUERY_TO_ROLE_ENV = new Function<Query.Builder, Optional<Set<Pair<String, String>>>>() {
+        @Override public Optional<Set<Pair<String, String>>> apply(Query.Builder query) {
+          Optional<String> role = getRole(query.get());
+          String environment = query.get().getEnvironment();
+          return (role.isPresent() && (environment != null))
+              ? singleKey(Optional.of(Pair.of(role.get(), environment)))
+              : Optional.<Set<Pair<String, String>>>absent();
+        }
+      };
+
+  private static final Function<IScheduledTask, String> SCHEDULED_TO_ROLE =
+      new Function<IScheduledTask, String>() {
+        @Override public String apply(IScheduledTask task) {
+          return task.getAssignedTask().getTask().getOwner().getRole();
+        }
+      };
+  private static final Function<IScheduledTask, Pair<String, String>> SCHEDULED_TO_ROLE_ENV =
+      new Function<IScheduledTask, Pair<String, String>>() {
+        @Override public Pair<String, String> apply(IScheduledTask task) {
+          ITaskConfig config = task.getAssignedTask().getTask();
+          return Pair.of(config.getOwner().getRole(), config.getEnvironment());
+        }
+      };
+
+  private static Optional<String> getRole(TaskQuery query) {
+    return ((query.getOwner() != null) && !StringUtils.isBlank(query.getOwner().getRole()))
+        ? Optional.of(query.getOwner().getRole())
+        : Optional.<String>absent();
+  }
+
+  private static <K> Optional<Set<K>> singleKey(Optional<K> key) {
+    return key.isPresent()
+        ? Optional.<Set<K>>of(ImmutableSet.of(key.get()))
+        : Optional.<Set<K>>absent();
+  }
 
   // Since this class operates under the API and umbrella of {@link Storage}, it is expected to be
   // thread-safe but not necessarily strongly-consistent unless the externally-controlled storage
@@ -92,18 +147,17 @@ class MemTaskStore implements TaskStore.Mutable {
   // Note that this behavior makes it possible to receive query results that are not sane,
   // specifically when a secondary key value is changed.  In other words, we currently don't always
   // support the invariant that a query by slave host yields a result with all tasks matching that
-  // slave host.  This is deemed acceptable due to the fact that secondary key values are rarely
-  // mutated in practice, and mutated in ways that are not impacted by this behavior.
-  private final Map<String, Task> tasks = Maps.newConcurrentMap();
+  // slave host.  Secondary key values such as status and slave host change with every task state
+  // transition, so queries are always filtered against the tasks found, and writes replace the old
+  // keys of a task in each index.
+  // Tasks are versioned so that snapshots can read a consistent view without holding the lock.
+  private final VersionedMap<String, Task> tasks = new VersionedMap<>();
   private final List<SecondaryIndex<?>> secondaryIndices = ImmutableList.of(
-      new SecondaryIndex<>(
-          Tasks.SCHEDULED_TO_JOB_KEY,
-          QUERY_TO_JOB_KEY,
-          Stats.exportLong("task_queries_by_job")),
-      new SecondaryIndex<>(
-          Tasks.SCHEDULED_TO_SLAVE_HOST,
-          QUERY_TO_SLAVE_HOST,
-          Stats.exportLong("task_queries_by_host")));
+      new SecondaryIndex<>(Tasks.SCHEDULED_TO_JOB_KEY, QUERY_TO_JOB_KEY, "job"),
+      new SecondaryIndex<>(Tasks.SCHEDULED_TO_SLAVE_HOST, QUERY_TO_SLAVE_HOST, "host"),
+      new SecondaryIndex<>(Tasks.GET_STATUS, QUERY_TO_STATUS, "status"),
+      new SecondaryIndex<>(SCHEDULED_TO_ROLE, QUERY_TO_ROLE, "role"),
+      new SecondaryIndex<>(SCHEDULED_TO_ROLE_ENV, QUERY_TO_ROLE_ENV, "role_env"));
 
   // An interner is used here to collapse equivalent TaskConfig instances into canonical instances.
   // Ideally this would fall out of the object hierarchy (TaskConfig being associated with the job
@@ -130,9 +184,42 @@ class MemTaskStore implements TaskStore.Mutable {
     return result;
   }
 
+  @Timed("mem_storage_open_version")
+  @Override
+  public Version openVersion() {
+    final VersionedMap<String, Task>.Version version = tasks.openVersion();
+    return new Version() {
+      @Override public ImmutableSet<IScheduledTask> fetchTasks() {
+        return FluentIterable.from(version.values()).transform(TO_SCHEDULED).toSet();
+      }
+
+      @Override public ImmutableSet<IScheduledTask> fetchTasks(Set<String> taskIds) {
+        ImmutableSet.Builder<IScheduledTask> builder = ImmutableSet.builder();
+        for (String taskId : taskIds) {
+          Task task = version.get(taskId);
+          if (task != null) {
+            builder.add(task.task);
+          }
+        }
+        return builder.build();
+      }
+
+      @Override public void close() {
+        version.close();
+      }
+    };
+  }
+
   private final Function<IScheduledTask, Task> toTask =
       new Function<IScheduledTask, Task>() {
         @Override public Task apply(IScheduledTask task) {
+          return new Task(task.newBuilder(), configInterner);
+        }
+      };
+
+  private final Function<ScheduledTask, Task> ownedToTask =
+      new Function<ScheduledTask, Task>() {
+        @Override public Task apply(ScheduledTask task) {
           return new Task(task, configInterner);
         }
       };
@@ -144,10 +231,29 @@ class MemTaskStore implements TaskStore.Mutable {
     Preconditions.checkState(Tasks.ids(newTasks).size() == newTasks.size(),
         "Proposed new tasks would create task ID collision.");
 
-    Iterable<Task> canonicalized = Iterables.transform(newTasks, toTask);
-    tasks.putAll(Maps.uniqueIndex(canonicalized, TO_ID));
-    for (SecondaryIndex<?> index : secondaryIndices) {
-      index.insert(Iterables.transform(canonicalized, TO_SCHEDULED));
+    save(ImmutableList.copyOf(Iterables.transform(newTasks, toTask)));
+  }
+
+  @Timed("mem_storage_restore_tasks")
+  @Override
+  public void restoreTasks(Set<ScheduledTask> restoredTasks) {
+    checkNotNull(restoredTasks);
+
+    save(ImmutableList.copyOf(Iterables.transform(restoredTasks, ownedToTask)));
+  }
+
+  private void save(List<Task> newTasks) {
+    for (Task task : newTasks) {
+      // Status and host change with every transition, so an overwritten task must have its old
+      // secondary keys removed.
+      Task old = tasks.put(Tasks.id(task.task), task);
+      for (SecondaryIndex<?> index : secondaryIndices) {
+        if (old == null) {
+          index.insert(task.task);
+        } else {
+          index.replace(old.task, task.task);
+        }
+      }
     }
   }
 
@@ -177,6 +283,20 @@ class MemTaskStore implements TaskStore.Mutable {
     }
   }
 
+  @VisibleForTesting
+  TaskConfig getInternedConfig(TaskConfig config) {
+    return configInterner.getInterned(config);
+  }
+
+  @VisibleForTesting
+  int secondaryIndexEntries() {
+    int entries = 0;
+    for (SecondaryIndex<?> index : secondaryIndices) {
+      entries += index.size();
+    }
+    return entries;
+  }
+
   @Timed("mem_storage_mutate_tasks")
   @Override
   public ImmutableSet<IScheduledTask> mutateTasks(
@@ -217,7 +337,11 @@ class MemTaskStore implements TaskStore.Mutable {
     } else {
       ScheduledTask updated = stored.task.newBuilder();
       updated.getAssignedTask().setTask(taskConfiguration.newBuilder());
-      tasks.put(taskId, toTask.apply(IScheduledTask.build(updated)));
+      Task replacement = new Task(updated, configInterner);
+      tasks.put(taskId, replacement);
+      for (SecondaryIndex<?> index : secondaryIndices) {
+        index.replace(stored.task, replacement.task);
+      }
       return true;
     }
   }
@@ -286,30 +410,67 @@ class MemTaskStore implements TaskStore.Mutable {
 
   private FluentIterable<Task> matches(Query.Builder query) {
     // Apply the query against the working set.
-    Optional<? extends Iterable<Task>> from = Optional.absent();
+    Iterable<Task> from;
     if (query.get().isSetTaskIds()) {
       taskQueriesById.incrementAndGet();
-      from = Optional.of(fromIdIndex(query.get().getTaskIds()));
+      from = fromIdIndex(query.get().getTaskIds());
     } else {
-      for (SecondaryIndex<?> index : secondaryIndices) {
-        Optional<Iterable<String>> indexMatch = index.getMatches(query);
-        if (indexMatch.isPresent()) {
-          // Note: we could leverage multiple indexes here if the query applies to them, by
-          // choosing to intersect the results.  Given current indexes and query profile, this is
-          // unlikely to offer much improvement, though.
-          from = Optional.of(fromIdIndex(indexMatch.get()));
-          break;
-        }
+      Optional<Set<String>> indexMatch = planIndexLookup(query);
+      if (indexMatch.isPresent()) {
+        from = fromIdIndex(indexMatch.get());
+      } else {
+        // No index narrows the store, fall back to a full scan.
+        taskQueriesAll.incrementAndGet();
+        from = tasks.values();
       }
+    }
 
-      // No indices match, fall back to a full scan.
-      if (!from.isPresent()) {
-        taskQueriesAll.incrementAndGet();
-        from = Optional.of(tasks.values());
+    return FluentIterable.from(from).filter(queryFilter(query.get()));
+  }
+
+  /**
+   * Chooses the secondary indices to satisfy a query with.  All applicable indices are ordered by
+   * their estimated result size, and the ID sets are intersected starting with the most selective
+   * index.  An index is skipped (and counted as a miss) if the intersection is already empty or
+   * if the index does not narrow the store at all.  If even the most selective index does not
+   * narrow the store, all indices are skipped in favor of a full scan.
+   *
+   * @param query Query to plan.
+   * @return IDs of the candidate tasks for the query, or absent if no index narrows the store.
+   */
+  private Optional<Set<String>> planIndexLookup(Query.Builder query) {
+    List<IndexMatch<?>> applicable = Lists.newArrayList();
+    for (SecondaryIndex<?> index : secondaryIndices) {
+      Optional<? extends IndexMatch<?>> match = index.match(query);
+      if (match.isPresent()) {
+        applicable.add(match.get());
       }
     }
 
-    return FluentIterable.from(from.get()).filter(queryFilter(query.get()));
+    if (applicable.isEmpty()) {
+      return Optional.absent();
+    }
+
+    Collections.sort(applicable, BY_ESTIMATE);
+    int storeSize = tasks.size();
+    if (applicable.get(0).estimate >= storeSize) {
+      for (IndexMatch<?> match : applicable) {
+        match.skip();
+      }
+      return Optional.absent();
+    }
+
+    Set<String> candidates = null;
+    for (IndexMatch<?> match : applicable) {
+      if (candidates == null) {
+        candidates = match.lookup();
+      } else if (candidates.isEmpty() || (match.estimate >= storeSize)) {
+        match.skip();
+      } else {
+        candidates = match.retain(candidates);
+      }
+    }
+    return Optional.of(candidates);
   }
 
   private static final Function<Task, IScheduledTask> TO_SCHEDULED =
@@ -319,20 +480,19 @@ class MemTaskStore implements TaskStore.Mutable {
         }
       };
 
-  private static final Function<Task, String> TO_ID =
-      Functions.compose(Tasks.SCHEDULED_TO_ID, TO_SCHEDULED);
-
   private static class Task {
     private final IScheduledTask task;
 
-    Task(IScheduledTask task, Interner<TaskConfig, String> interner) {
-      interner.removeAssociation(task.getAssignedTask().getTask().newBuilder(), Tasks.id(task));
-      TaskConfig canonical = interner.addAssociation(
-          task.getAssignedTask().getTask().newBuilder(),
-          Tasks.id(task));
-      ScheduledTask builder = task.newBuilder();
-      builder.getAssignedTask().setTask(canonical);
-      this.task = IScheduledTask.build(builder);
+    /**
+     * Creates a stored task, taking ownership of {@code builder}.  The task's configuration is
+     * replaced with its interned instance, and the builder is wrapped rather than deep-copied.
+     */
+    Task(ScheduledTask builder, Interner<TaskConfig, String> interner) {
+      TaskConfig config = builder.getAssignedTask().getTask();
+      String id = builder.getAssignedTask().getTaskId();
+      interner.removeAssociation(config, id);
+      builder.getAssignedTask().setTask(interner.addAssociation(config, id));
+      this.task = IScheduledTask.FROM_BUILDER.apply(builder);
     }
 
     @Override
@@ -351,6 +511,13 @@ class MemTaskStore implements TaskStore.Mutable {
     }
   }
 
+  private static final Ordering<IndexMatch<?>> BY_ESTIMATE =
+      Ordering.natural().onResultOf(new Function<IndexMatch<?>, Integer>() {
+        @Override public Integer apply(IndexMatch<?> match) {
+          return match.estimate;
+        }
+      });
+
   /**
    * A non-unique secondary index on the task store.  Maps a custom key type to a set of task IDs.
    *
@@ -360,24 +527,26 @@ class MemTaskStore implements TaskStore.Mutable {
     private final Multimap<K, String> index =
         Multimaps.synchronizedSetMultimap(HashMultimap.<K, String>create());
     private final Function<IScheduledTask, K> indexer;
-    private final Function<Query.Builder, Optional<K>> queryExtractor;
+    private final Function<Query.Builder, Optional<Set<K>>> queryExtractor;
     private final AtomicLong hitCount;
+    private final AtomicLong missCount;
 
     /**
      * Creates a secondary index that will extract keys from tasks using the provided indexer.
      *
      * @param indexer Indexing function.
-     * @param queryExtractor Function to extract the key relevant to a query.
-     * @param hitCount Counter for number of times the seconary index applies to a query.
+     * @param queryExtractor Function to extract the keys relevant to a query, which are ORed.
+     * @param name Name of the index, used to export hit and miss counters.
      */
     SecondaryIndex(
         Function<IScheduledTask, K> indexer,
-        Function<Query.Builder, Optional<K>> queryExtractor,
-        AtomicLong hitCount) {
+        Function<Query.Builder, Optional<Set<K>>> queryExtractor,
+        String name) {
 
       this.indexer = indexer;
       this.queryExtractor = queryExtractor;
-      this.hitCount = hitCount;
+      this.hitCount = Stats.exportLong("task_queries_by_" + name);
+      this.missCount = Stats.exportLong("task_queries_by_" + name + "_misses");
     }
 
     void insert(Iterable<IScheduledTask> tasks) {
@@ -397,10 +566,14 @@ class MemTaskStore implements TaskStore.Mutable {
       index.clear();
     }
 
+    int size() {
+      return index.size();
+    }
+
     void remove(IScheduledTask task) {
       K key = indexer.apply(task);
       if (key != null) {
-        index.remove(key, task);
+        index.remove(key, Tasks.id(task));
       }
     }
 
@@ -411,15 +584,80 @@ class MemTaskStore implements TaskStore.Mutable {
       }
     }
 
-    private final Function<K, Iterable<String>> lookup = new Function<K, Iterable<String>>() {
-      @Override public Iterable<String> apply(K key) {
-        hitCount.incrementAndGet();
-        return index.get(key);
+    Optional<IndexMatch<K>> match(Query.Builder query) {
+      Optional<Set<K>> keys = queryExtractor.apply(query);
+      if (!keys.isPresent()) {
+        return Optional.absent();
       }
-    };
 
-    Optional<Iterable<String>> getMatches(Query.Builder query) {
-      return queryExtractor.apply(query).transform(lookup);
+      int estimate = 0;
+      synchronized (index) {
+        for (K key : keys.get()) {
+          estimate += index.get(key).size();
+        }
+      }
+      return Optional.of(new IndexMatch<>(this, keys.get(), estimate));
+    }
+
+    Set<String> lookup(Set<K> keys) {
+      hitCount.incrementAndGet();
+      ImmutableSet.Builder<String> ids = ImmutableSet.builder();
+      synchronized (index) {
+        for (K key : keys) {
+          ids.addAll(index.get(key));
+        }
+      }
+      return ids.build();
+    }
+
+    Set<String> retain(Set<String> ids, Set<K> keys) {
+      hitCount.incrementAndGet();
+      ImmutableSet.Builder<String> retained = ImmutableSet.builder();
+      synchronized (index) {
+        for (String id : ids) {
+          for (K key : keys) {
+            if (index.containsEntry(key, id)) {
+              retained.add(id);
+              break;
+            }
+          }
+        }
+      }
+      return retained.build();
+    }
+
+    void skip() {
+      missCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * A secondary index that applies to a query, along with the keys the query selects and an
+   * estimate of the number of tasks those keys map to.
+   *
+   * @param <K> Key type.
+   */
+  private static class IndexMatch<K> {
+    private final SecondaryIndex<K> index;
+    private final Set<K> keys;
+    private final int estimate;
+
+    IndexMatch(SecondaryIndex<K> index, Set<K> keys, int estimate) {
+      this.index = index;
+      this.keys = keys;
+      this.estimate = estimate;
+    }
+
+    Set<String> lookup() {
+      return index.lookup(keys);
+    }
+
+    Set<String> retain(Set<String> ids) {
+      return index.retain(ids, keys);
+    }
+
+    void skip() {
+      index.skip();
     }
   }
 }
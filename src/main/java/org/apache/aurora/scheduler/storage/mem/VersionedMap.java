@@ -0,0 +1,175 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.mem;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.Maps;
+
+/**
+ * A concurrent map that can capture its contents at a point in time in constant time.
+ * <p>
+ * While a {@link Version} is open, the first write to each key records the value the key had when
+ * the version was opened.  A version is read by overlaying these recorded values on the live map,
+ * so reading a version does not block writers, and writers pay a constant cost for each key they
+ * change while versions are open.
+ * <p>
+ * Like the stores using it, this map expects writes to be serialized by the storage write lock.
+ * Versions must be opened while holding a storage lock, and may be read without it.  Collection
+ * views of the map are read-only, since writes must go through the map to be recorded.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+class VersionedMap<K, V> extends ForwardingMap<K, V> {
+
+  // Recorded for keys that were absent when a version was opened.
+  private static final Object ABSENT = new Object();
+
+  private final ConcurrentMap<K, V> delegate = Maps.newConcurrentMap();
+  private final List<Version> open = new CopyOnWriteArrayList<>();
+
+  @Override
+  protected Map<K, V> delegate() {
+    return delegate;
+  }
+
+  /**
+   * Captures the current contents of the map.  The version must be {@link Version#close() closed}
+   * when no longer needed.
+   *
+   * @return A point-in-time view of the map.
+   */
+  Version openVersion() {
+    Version version = new Version();
+    open.add(version);
+    return version;
+  }
+
+  private void recordOriginal(Object key) {
+    if (!open.isEmpty()) {
+      V original = delegate.get(key);
+      for (Version version : open) {
+        version.originals.putIfAbsent(key, (original == null) ? ABSENT : original);
+      }
+    }
+  }
+
+  @Override
+  public V put(K key, V value) {
+    recordOriginal(key);
+    return delegate.put(key, value);
+  }
+
+  @Override
+  public void putAll(Map<? extends K, ? extends V> map) {
+    for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public V remove(Object key) {
+    recordOriginal(key);
+    return delegate.remove(key);
+  }
+
+  @Override
+  public void clear() {
+    if (!open.isEmpty()) {
+      for (K key : delegate.keySet()) {
+        recordOriginal(key);
+      }
+    }
+    delegate.clear();
+  }
+
+  @Override
+  public Set<K> keySet() {
+    return Collections.unmodifiableSet(delegate.keySet());
+  }
+
+  @Override
+  public Collection<V> values() {
+    return Collections.unmodifiableCollection(delegate.values());
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return Collections.unmodifiableSet(delegate.entrySet());
+  }
+
+  /**
+   * A point-in-time view of the map.
+   */
+  class Version {
+    private final ConcurrentMap<Object, Object> originals = Maps.newConcurrentMap();
+
+    /**
+     * Reads the values the map contained when this version was opened.
+     *
+     * @return The values of the map at the time of the version.
+     */
+    @SuppressWarnings("unchecked")
+    Collection<V> values() {
+      // Writers record originals before changing the live map, so a live value is only used if it
+      // was not changed when it was read.
+      Map<K, V> values = Maps.newHashMapWithExpectedSize(delegate.size());
+      for (Map.Entry<K, V> entry : delegate.entrySet()) {
+        if (!originals.containsKey(entry.getKey())) {
+          values.put(entry.getKey(), entry.getValue());
+        }
+      }
+      for (Map.Entry<Object, Object> entry : originals.entrySet()) {
+        if (entry.getValue() != ABSENT) {
+          values.put((K) entry.getKey(), (V) entry.getValue());
+        }
+      }
+      return values.values();
+    }
+
+    /**
+     * Reads the value a key had when this version was opened.
+     *
+     * @param key Key to read.
+     * @return The value of the key at the time of the version, or {@code null} if it was absent.
+     */
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+      // The live value must be read first, since a writer changing it records the original first.
+      V live = delegate.get(key);
+      Object original = originals.get(key);
+      if (original == null) {
+        return live;
+      }
+      return (original == ABSENT) ? null : (V) original;
+    }
+
+    /**
+     * Closes this version, after which writers no longer record originals for it.
+     */
+    void close() {
+      open.remove(this);
+    }
+  }
+}
@@ -97,6 +97,9 @@ import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.configuration.ConfigurationManager;
 import org.apache.aurora.scheduler.configuration.ConfigurationManager.TaskDescriptionException;
 import org.apache.aurora.scheduler.configuration.SanitizedConfiguration;
+import org.apache.aurora.scheduler.events.EventSink;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskConfigRewritten;
+import org.apache.aurora.scheduler.events.PubsubEventModule.TransactionalDelivery;
 import org.apache.aurora.scheduler.quota.QuotaInfo;
 import org.apache.aurora.scheduler.quota.QuotaManager;
 import org.apache.aurora.scheduler.quota.QuotaManager.QuotaException;
@@ -112,7 +115,6 @@ import org.apache.aurora.scheduler.storage.Storage.MutateWork;
 import org.apache.aurora.scheduler.storage.backup.Recovery;
 import org.apache.aurora.scheduler.storage.backup.Recovery.RecoveryException;
 import org.apache.aurora.scheduler.storage.backup.StorageBackup;
-import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
 import org.apache.aurora.scheduler.storage.entities.IJobConfiguration;
 import org.apache.aurora.scheduler.storage.entities.IJobKey;
 import org.apache.aurora.scheduler.storage.entities.ILock;
@@ -172,6 +174,8 @@ class SchedulerThriftInterface implements AuroraAdmin.Iface {
   private final MaintenanceController maintenance;
   private final CronJobManager cronJobManager;
   private final QuotaManager quotaManager;
+  private final EventSink eventSink;
+  private final EventSink transactionalEventSink;
   private final Amount<Long, Time> killTaskInitialBackoff;
   private final Amount<Long, Time> killTaskMaxBackoff;
 
@@ -185,7 +189,9 @@ class SchedulerThriftInterface implements AuroraAdmin.Iface {
       Recovery recovery,
       CronJobManager cronJobManager,
       MaintenanceController maintenance,
-      QuotaManager quotaManager) {
+      QuotaManager quotaManager,
+      EventSink eventSink,
+      @TransactionalDelivery EventSink transactionalEventSink) {
 
     this(storage,
         schedulerCore,
@@ -196,6 +202,8 @@ class SchedulerThriftInterface implements AuroraAdmin.Iface {
         maintenance,
         cronJobManager,
         quotaManager,
+        eventSink,
+        transactionalEventSink,
         KILL_TASK_INITIAL_BACKOFF.get(),
         KILL_TASK_MAX_BACKOFF.get());
   }
@@ -211,6 +219,8 @@ class SchedulerThriftInterface implements AuroraAdmin.Iface {
       MaintenanceController maintenance,
       CronJobManager cronJobManager,
       QuotaManager quotaManager,
+      EventSink eventSink,
+      EventSink transactionalEventSink,
       Amount<Long, Time> initialBackoff,
       Amount<Long, Time> maxBackoff) {
 
@@ -223,6 +233,8 @@ class SchedulerThriftInterface implements AuroraAdmin.Iface {
     this.maintenance = checkNotNull(maintenance);
     this.cronJobManager = checkNotNull(cronJobManager);
     this.quotaManager = checkNotNull(quotaManager);
+    this.eventSink = checkNotNull(eventSink);
+    this.transactionalEventSink = checkNotNull(transactionalEventSink);
     this.killTaskInitialBackoff = checkNotNull(initialBackoff);
     this.killTaskMaxBackoff = checkNotNull(maxBackoff);
   }
@@ -868,20 +880,33 @@ class SchedulerThriftInterface implements AuroraAdmin.Iface {
             Query.instanceScoped(IJobKey.build(instanceKey.getJobKey()),
                 instanceKey.getInstanceId())
                 .active());
-        Optional<IAssignedTask> task =
-            Optional.fromNullable(Iterables.getOnlyElement(tasks, null))
-                .transform(Tasks.SCHEDULED_TO_ASSIGNED);
+        Optional<IScheduledTask> task =
+            Optional.fromNullable(Iterables.getOnlyElement(tasks, null));
         if (!task.isPresent()) {
           error = Optional.of("No active task found for " + instanceKey);
-        } else if (!task.get().getTask().newBuilder().equals(instanceRewrite.getOldTask())) {
+        } else if (!task.get().getAssignedTask().getTask().newBuilder()
+            .equals(instanceRewrite.getOldTask())) {
+
           error = Optional.of("CAS compare failed for " + instanceKey);
         } else {
           ITaskConfig newConfiguration = ITaskConfig.build(
               ConfigurationManager.applyDefaultsIfUnset(instanceRewrite.getRewrittenTask()));
+          String taskId = Tasks.id(task.get());
           boolean changed = storeProvider.getUnsafeTaskStore().unsafeModifyInPlace(
-              task.get().getTaskId(), newConfiguration);
-          if (!changed) {
-            error = Optional.of("Did not change " + task.get().getTaskId());
+              taskId, newConfiguration);
+          if (changed) {
+            // Rewrites bypass the state machine, so subscribers that account for task
+            // configurations must be told about them here.  As with state changes, transactional
+            // subscribers are told immediately and all others once the rewrite is committed.
+            final TaskConfigRewritten event = new TaskConfigRewritten(task.get(), newConfiguration);
+            transactionalEventSink.post(event);
+            storeProvider.addPostCommitHook(new Runnable() {
+              @Override public void run() {
+                eventSink.post(event);
+              }
+            });
+          } else {
+            error = Optional.of("Did not change " + taskId);
           }
         }
         break;
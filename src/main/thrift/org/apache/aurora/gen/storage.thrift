@@ -134,6 +134,45 @@ struct Snapshot {
   9: set<api.Lock> locks
 }
 
+// Represents the local storage records changed since the full snapshot preceding it in the log.
+// Applying a delta snapshot on top of that full snapshot restores the local storage system to its
+// state at the time the delta was taken, superseding the transactions logged in between.
+struct DeltaSnapshot {
+
+  // The timestamp when the delta was made in milliseconds since the epoch.
+  1: i64 timestamp
+
+  // The current values of records saved since the full snapshot.
+  2: Snapshot changed
+
+  3: set<string> removedTaskIds
+  4: set<api.JobKey> removedJobs
+  5: set<string> removedQuotaRoles
+  6: set<api.LockKey> removedLocks
+
+  // The timestamp of the full snapshot the delta is based on.
+  7: i64 baseTimestamp
+}
+
+// A ScheduledTask whose TaskConfig is stored in the table of a DeduplicatedSnapshot.
+struct DeduplicatedScheduledTask {
+  // The task, with the TaskConfig of its AssignedTask unset.
+  1: api.ScheduledTask partialScheduledTask
+
+  // Index of the task's configuration in the taskConfigs of the snapshot.
+  2: i32 taskConfigId
+}
+
+// A Snapshot that stores each distinct TaskConfig once, for tasks to reference by index.  Every
+// instance of a job usually shares the same configuration, which would otherwise be stored for
+// each instance.
+struct DeduplicatedSnapshot {
+  // The snapshot, with its tasks unset.
+  1: Snapshot partialSnapshot
+  2: list<DeduplicatedScheduledTask> partialTasks
+  3: list<api.TaskConfig> taskConfigs
+}
+
 // A message header that calls out the number of expected FrameChunks to follow to form a complete
 // message.
 struct FrameHeader {
@@ -168,6 +207,23 @@ union Frame {
   2: FrameChunk chunk
 }
 
+// Codecs that compressed log entries may be written with.
+enum CompressionCodec {
+  // The "deflate" compression format.
+  DEFLATE = 1
+  // The LZ4 block stream format of the lz4-java library, which compresses less but is faster to
+  // write and read than deflate.
+  LZ4 = 2
+}
+
+// A LogEntry that is first serialized in the thrift binary format, then compressed with a codec.
+// Like deflated entries, compressed entries may be pieced together by multiple frames, but the
+// contents of the compressed entry should not be a Frame.
+struct CompressedEntry {
+  1: CompressionCodec codec
+  2: binary data
+}
+
 // A scheduler storage write-ahead log entry consisting of no-ops to skip over or else snapshots or
 // transactions to apply.  Any entry type can also be chopped up into frames if the entry is too big
 // for whatever reason.
@@ -185,5 +241,16 @@ union LogEntry {
   // Deflated entries are expected to be un-framed.  They may be pieced together by multiple frames,
   // but the contents of the deflated entry should not be a Frame.
   5: binary deflatedEntry
+
+  6: DeltaSnapshot deltaSnapshot
+
+  // Marks the point at which the contents of the following snapshot were captured, holding the
+  // capture timestamp in milliseconds since the epoch.  Transactions between the marker and the
+  // snapshot are not reflected in the snapshot, and must be applied after it during recovery.
+  7: i64 snapshotMarker
+
+  8: CompressedEntry compressedEntry
+
+  9: DeduplicatedSnapshot deduplicatedSnapshot
 }
 
@@ -15,12 +15,19 @@
  */
 package org.apache.aurora.codec;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
 import org.apache.aurora.gen.Identity;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 public class ThriftBinaryCodecTest {
 
@@ -50,6 +57,57 @@ public class ThriftBinaryCodecTest {
 
   @Test(expected = NullPointerException.class)
   public void testDecodeNonNull() throws CodingException {
-    ThriftBinaryCodec.decodeNonNull(Identity.class, null);
+    ThriftBinaryCodec.decodeNonNull(Identity.class, (byte[]) null);
+  }
+
+  @Test
+  public void testRoundTripHeapBuffer() throws CodingException {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    roundTripBuffer(buffer);
+  }
+
+  @Test
+  public void testRoundTripDirectBuffer() throws CodingException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+    roundTripBuffer(buffer);
+  }
+
+  private void roundTripBuffer(ByteBuffer buffer) throws CodingException {
+    Identity first = new Identity("mesos", "jack");
+    Identity second = new Identity("mesos", "jill");
+    ThriftBinaryCodec.encodeNonNull(first, buffer);
+    ThriftBinaryCodec.encodeNonNull(second, buffer);
+    buffer.flip();
+
+    assertEquals(first, ThriftBinaryCodec.decodeNonNull(Identity.class, buffer));
+    assertEquals(second, ThriftBinaryCodec.decodeNonNull(Identity.class, buffer));
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test(expected = CodingException.class)
+  public void testEncodeBufferOverflow() throws CodingException {
+    ThriftBinaryCodec.encodeNonNull(new Identity("mesos", "jack"), ByteBuffer.allocate(4));
+  }
+
+  @Test
+  public void testRoundTripStream() throws CodingException {
+    Identity original = new Identity("mesos", "jack");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ThriftBinaryCodec.encodeNonNull(original, output);
+    assertArrayEquals(ThriftBinaryCodec.encodeNonNull(original), output.toByteArray());
+    assertEquals(original, ThriftBinaryCodec.decodeNonNull(
+        Identity.class,
+        new ByteArrayInputStream(output.toByteArray())));
+  }
+
+  @Test
+  public void testReuseAfterFailure() throws CodingException {
+    try {
+      ThriftBinaryCodec.decodeNonNull(Identity.class, new byte[] {11});
+      fail();
+    } catch (CodingException e) {
+      // Expected.
+    }
+    testRoundTripNonNull();
   }
 }
@@ -52,6 +52,7 @@ public class SchedulerLifecycleTest extends EasyMockTest {
   private StorageTestUtil storageUtil;
   private Command shutdownRegistry;
   private SettableDriver driver;
+  private StatusUpdateQueue statusUpdates;
   private LeaderControl leaderControl;
   private SchedulerDriver schedulerDriver;
   private DelayedActions delayedActions;
@@ -65,6 +66,7 @@ public class SchedulerLifecycleTest extends EasyMockTest {
     storageUtil = new StorageTestUtil(this);
     shutdownRegistry = createMock(Command.class);
     driver = createMock(SettableDriver.class);
+    statusUpdates = createMock(StatusUpdateQueue.class);
     leaderControl = createMock(LeaderControl.class);
     schedulerDriver = createMock(SchedulerDriver.class);
     delayedActions = createMock(DelayedActions.class);
@@ -78,6 +80,7 @@ public class SchedulerLifecycleTest extends EasyMockTest {
           }
         }),
         driver,
+        statusUpdates,
         delayedActions,
         createMock(Clock.class),
         eventSink);
@@ -108,6 +111,7 @@ public class SchedulerLifecycleTest extends EasyMockTest {
     eventSink.post(new SchedulerActive());
     leaderControl.leave();
     driver.stop();
+    statusUpdates.flush();
     storageUtil.storage.stop();
     shutdownRegistry.execute();
 
@@ -134,6 +138,7 @@ public class SchedulerLifecycleTest extends EasyMockTest {
     // Important piece here is what's absent - leader presence is not advertised.
     leaderControl.leave();
     driver.stop();
+    statusUpdates.flush();
     storageUtil.storage.stop();
     shutdownRegistry.execute();
 
@@ -154,6 +159,7 @@ public class SchedulerLifecycleTest extends EasyMockTest {
 
     leaderControl.leave();
     driver.stop();
+    statusUpdates.flush();
     storageUtil.storage.stop();
     shutdownRegistry.execute();
 
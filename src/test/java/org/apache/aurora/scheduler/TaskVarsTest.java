@@ -19,6 +19,7 @@ import java.util.Map;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.twitter.common.stats.Stat;
@@ -32,6 +33,7 @@ import org.apache.aurora.gen.Identity;
 import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.scheduler.events.PubsubEvent;
 import org.apache.aurora.scheduler.events.PubsubEvent.SchedulerActive;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
@@ -235,6 +237,32 @@ public class TaskVarsTest extends EasyMockTest {
     assertEquals(2, getValue(TaskVars.rackStatName("rackB")));
   }
 
+  @Test
+  public void testBatchedEvents() {
+    expectStatusCountersInitialized();
+    expectGetHostRack("host1", "rackA");
+    expectGetHostRack("host2", "rackB");
+    expectStatExport(TaskVars.rackStatName("rackA"));
+    expectStatExport(TaskVars.rackStatName("rackB"));
+
+    control.replay();
+
+    IScheduledTask a = makeTask("jobA", RUNNING, "host1");
+    IScheduledTask b = makeTask("jobB", RUNNING, "host2");
+    vars.eventsPosted(ImmutableList.<PubsubEvent>of(
+        TaskStateChange.initialized(a),
+        TaskStateChange.initialized(b),
+        new SchedulerActive(),
+        TaskStateChange.transition(IScheduledTask.build(a.newBuilder().setStatus(LOST)), RUNNING),
+        TaskStateChange.transition(IScheduledTask.build(b.newBuilder().setStatus(LOST)), RUNNING),
+        new TasksDeleted(ImmutableSet.of(IScheduledTask.build(a.newBuilder().setStatus(LOST))))));
+
+    assertEquals(0, getValue(RUNNING));
+    assertEquals(1, getValue(LOST));
+    assertEquals(1, getValue(TaskVars.rackStatName("rackA")));
+    assertEquals(1, getValue(TaskVars.rackStatName("rackB")));
+  }
+
   @Test
   public void testRackMissing() {
     expectStatusCountersInitialized();
@@ -15,19 +15,32 @@
  */
 package org.apache.aurora.scheduler;
 
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.twitter.common.application.Lifecycle;
+import com.twitter.common.base.Command;
 import com.twitter.common.collections.Pair;
 import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.testing.FakeClock;
 
 import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.scheduler.async.OfferQueue;
+import org.apache.aurora.scheduler.base.SchedulerException;
 import org.apache.aurora.scheduler.configuration.Resources;
+import org.apache.aurora.scheduler.UserTaskLauncher.StatusUpdateSettings;
 import org.apache.aurora.scheduler.state.StateManager;
+import org.apache.aurora.scheduler.state.StateManager.Transition;
 import org.apache.aurora.scheduler.storage.Storage.StorageException;
 import org.apache.mesos.Protos.Attribute;
 import org.apache.mesos.Protos.FrameworkID;
@@ -47,11 +60,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.apache.aurora.gen.ScheduleStatus.FAILED;
+import static org.apache.aurora.gen.ScheduleStatus.FINISHED;
 import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
 import static org.apache.aurora.scheduler.configuration.ConfigurationManager.HOST_CONSTRAINT;
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class UserTaskLauncherTest extends EasyMockTest {
 
@@ -68,13 +84,53 @@ public class UserTaskLauncherTest extends EasyMockTest {
   private OfferQueue offerQueue;
   private StateManager stateManager;
 
+  private FakeClock clock;
+  private Command shutdownCommand;
+  private Lifecycle lifecycle;
   private TaskLauncher launcher;
 
   @Before
   public void setUp() {
     offerQueue = createMock(OfferQueue.class);
     stateManager = createMock(StateManager.class);
-    launcher = new UserTaskLauncher(offerQueue, stateManager);
+    clock = new FakeClock();
+    shutdownCommand = createMock(Command.class);
+    lifecycle = new Lifecycle(shutdownCommand, createMock(UncaughtExceptionHandler.class));
+    launcher = new UserTaskLauncher(
+        offerQueue,
+        stateManager,
+        clock,
+        lifecycle,
+        new StatusUpdateSettings(false, 100, 10),
+        MoreExecutors.sameThreadExecutor());
+  }
+
+  private UserTaskLauncher launcherWithCapturedDrains(
+      int maxBatchSize,
+      final List<Runnable> drains) {
+
+    return new UserTaskLauncher(
+        offerQueue,
+        stateManager,
+        clock,
+        lifecycle,
+        new StatusUpdateSettings(true, 100, maxBatchSize),
+        new Executor() {
+          @Override public void execute(Runnable command) {
+            drains.add(command);
+          }
+        });
+  }
+
+  private void expectStatusUpdates(Map<String, Transition> transitions) {
+    expect(stateManager.changeStates(transitions)).andReturn(transitions.keySet());
+  }
+
+  private static TaskStatus makeStatus(String taskId, TaskState state) {
+    return TaskStatus.newBuilder()
+        .setState(state)
+        .setTaskId(TaskID.newBuilder().setValue(taskId))
+        .build();
   }
 
   @Test
@@ -105,15 +161,6 @@ public class UserTaskLauncherTest extends EasyMockTest {
     assertTrue(launcher.statusUpdate(status));
   }
 
-  @Test
-  public void testForwardsRescindedOffers() throws Exception {
-    launcher.cancelOffer(OFFER_ID);
-
-    control.replay();
-
-    launcher.cancelOffer(OFFER_ID);
-  }
-
   @Test(expected = StorageException.class)
   public void testFailedStatusUpdate() throws Exception {
     expect(stateManager.changeState(
@@ -133,6 +180,165 @@ public class UserTaskLauncherTest extends EasyMockTest {
     launcher.statusUpdate(status);
   }
 
+  @Test
+  public void testAsyncStatusUpdates() throws Exception {
+    launcher = new UserTaskLauncher(
+        offerQueue,
+        stateManager,
+        clock,
+        lifecycle,
+        new StatusUpdateSettings(true, 100, 10),
+        MoreExecutors.sameThreadExecutor());
+    expectStatusUpdates(
+        ImmutableMap.of(TASK_ID_A, Transition.to(RUNNING, Optional.of("fake message"))));
+
+    control.replay();
+
+    TaskStatus status = TaskStatus.newBuilder()
+        .setState(TaskState.TASK_RUNNING)
+        .setTaskId(TaskID.newBuilder().setValue(TASK_ID_A))
+        .setMessage("fake message")
+        .build();
+    assertTrue(launcher.statusUpdate(status));
+  }
+
+  @Test
+  public void testFlushAppliesQueuedUpdates() throws Exception {
+    List<Runnable> drains = Lists.newArrayList();
+    UserTaskLauncher asyncLauncher = launcherWithCapturedDrains(10, drains);
+
+    Optional<String> noMessage = Optional.absent();
+    expectStatusUpdates(ImmutableMap.of(
+        "a", Transition.to(RUNNING, noMessage),
+        "b", Transition.to(FINISHED, noMessage)));
+
+    control.replay();
+
+    assertTrue(asyncLauncher.statusUpdate(makeStatus("a", TaskState.TASK_RUNNING)));
+    assertTrue(asyncLauncher.statusUpdate(makeStatus("b", TaskState.TASK_FINISHED)));
+
+    // Flushing applies queued updates without waiting for the drain, and rejects later updates.
+    asyncLauncher.flush();
+    try {
+      asyncLauncher.statusUpdate(makeStatus("c", TaskState.TASK_RUNNING));
+      fail("Status update should have been rejected.");
+    } catch (SchedulerException e) {
+      // Expected.
+    }
+
+    // The scheduled drain finds nothing left to apply.
+    Iterables.getOnlyElement(drains).run();
+  }
+
+  @Test
+  public void testFlushFailureDropsQueuedUpdates() throws Exception {
+    List<Runnable> drains = Lists.newArrayList();
+    UserTaskLauncher asyncLauncher = launcherWithCapturedDrains(1, drains);
+
+    expect(stateManager.changeStates(
+        ImmutableMap.of("a", Transition.to(RUNNING, Optional.<String>absent()))))
+        .andThrow(new StorageException("Injected error"))
+        .times(UserTaskLauncher.MAX_APPLY_ATTEMPTS);
+
+    control.replay();
+
+    assertTrue(asyncLauncher.statusUpdate(makeStatus("a", TaskState.TASK_RUNNING)));
+    assertTrue(asyncLauncher.statusUpdate(makeStatus("b", TaskState.TASK_RUNNING)));
+
+    // The remaining update is dropped rather than applied once the first batch has failed.
+    asyncLauncher.flush();
+    Iterables.getOnlyElement(drains).run();
+  }
+
+  @Test
+  public void testCoalescesStatusUpdates() throws Exception {
+    List<Runnable> drains = Lists.newArrayList();
+    launcher = launcherWithCapturedDrains(5, drains);
+
+    Optional<String> noMessage = Optional.absent();
+    expectStatusUpdates(ImmutableMap.of(
+        "a", Transition.to(FINISHED, noMessage),
+        "b", Transition.to(FAILED, noMessage)));
+    expectStatusUpdates(ImmutableMap.of("c", Transition.to(RUNNING, noMessage)));
+
+    control.replay();
+
+    assertTrue(launcher.statusUpdate(makeStatus("a", TaskState.TASK_STARTING)));
+    assertTrue(launcher.statusUpdate(makeStatus("a", TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus("b", TaskState.TASK_FAILED)));
+    assertTrue(launcher.statusUpdate(makeStatus("a", TaskState.TASK_FINISHED)));
+    // A terminal state is not replaced by a later update.
+    assertTrue(launcher.statusUpdate(makeStatus("b", TaskState.TASK_LOST)));
+    assertTrue(launcher.statusUpdate(makeStatus("c", TaskState.TASK_RUNNING)));
+
+    // A single drain applies all queued updates, in batches.
+    assertEquals(1, drains.size());
+    Iterables.getOnlyElement(drains).run();
+  }
+
+  @Test
+  public void testForwardsRescindedOffers() throws Exception {
+    launcher.cancelOffer(OFFER_ID);
+
+    control.replay();
+
+    launcher.cancelOffer(OFFER_ID);
+  }
+
+  @Test
+  public void testFailedStatusUpdateRetried() throws Exception {
+    List<Runnable> drains = Lists.newArrayList();
+    launcher = launcherWithCapturedDrains(1, drains);
+
+    Map<String, Transition> first =
+        ImmutableMap.of("a", Transition.to(RUNNING, Optional.<String>absent()));
+    expect(stateManager.changeStates(first)).andThrow(new StorageException("Injected error"));
+    expectStatusUpdates(first);
+    expectStatusUpdates(ImmutableMap.of("b", Transition.to(RUNNING, Optional.<String>absent())));
+
+    control.replay();
+
+    assertTrue(launcher.statusUpdate(makeStatus("a", TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus("b", TaskState.TASK_RUNNING)));
+
+    // The failed batch is retried after a delay, and the drain continues with the next batch.
+    long startMs = clock.nowMillis();
+    Iterables.getOnlyElement(drains).run();
+    assertEquals(UserTaskLauncher.RETRY_DELAY_MS, clock.nowMillis() - startMs);
+  }
+
+  @Test
+  public void testFailedStatusUpdateShutsDown() throws Exception {
+    List<Runnable> drains = Lists.newArrayList();
+    launcher = launcherWithCapturedDrains(10, drains);
+
+    expect(stateManager.changeStates(
+        ImmutableMap.of(TASK_ID_A, Transition.to(RUNNING, Optional.of("fake message")))))
+        .andThrow(new StorageException("Injected error"))
+        .times(UserTaskLauncher.MAX_APPLY_ATTEMPTS);
+    shutdownCommand.execute();
+
+    control.replay();
+
+    TaskStatus status = TaskStatus.newBuilder()
+        .setState(TaskState.TASK_RUNNING)
+        .setTaskId(TaskID.newBuilder().setValue(TASK_ID_A))
+        .setMessage("fake message")
+        .build();
+    assertTrue(launcher.statusUpdate(status));
+    Iterables.getOnlyElement(drains).run();
+
+    // Once updates can no longer be applied, further updates are refused so that they are not
+    // acknowledged.
+    try {
+      launcher.statusUpdate(makeStatus("b", TaskState.TASK_FINISHED));
+      fail("Status update should have been rejected.");
+    } catch (SchedulerException e) {
+      // Expected.
+    }
+    assertEquals(1, drains.size());
+  }
+
   @Test
   public void testMemoryLimitTranslationHack() throws Exception {
     expect(stateManager.changeState(
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeClock;
+
+import org.apache.aurora.scheduler.async.TimerService.HashedWheelTimer;
+import org.apache.aurora.scheduler.async.TimerService.Timeout;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+
+  private static final Amount<Long, Time> TICK = Amount.of(10L, Time.MILLISECONDS);
+  private static final int WHEEL_SIZE = 8;
+
+  private FakeClock clock;
+  private HashedWheelTimer timer;
+  private List<String> ran;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    timer = new HashedWheelTimer(clock, TICK, WHEEL_SIZE);
+    ran = Lists.newArrayList();
+  }
+
+  private Timeout schedule(String name, long delayMs) {
+    return timer.schedule(record(name), delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  private Runnable record(final String name) {
+    return new Runnable() {
+      @Override public void run() {
+        ran.add(name);
+      }
+    };
+  }
+
+  private void advanceTo(long nowMs) {
+    clock.setNowMillis(nowMs);
+    timer.advance();
+  }
+
+  @Test
+  public void testRunsAtDeadline() {
+    schedule("a", 25);
+    schedule("b", 10);
+
+    advanceTo(9);
+    assertEquals(ImmutableList.<String>of(), ran);
+    advanceTo(10);
+    assertEquals(ImmutableList.of("b"), ran);
+    advanceTo(29);
+    assertEquals(ImmutableList.of("b"), ran);
+    advanceTo(30);
+    assertEquals(ImmutableList.of("b", "a"), ran);
+    assertEquals(0, timer.size());
+  }
+
+  @Test
+  public void testBatchesExpiredTimeouts() {
+    for (int i = 0; i < 5; i++) {
+      schedule("task" + i, i * 10);
+    }
+    assertEquals(5, timer.size());
+
+    advanceTo(100);
+    assertEquals(ImmutableList.of("task0", "task1", "task2", "task3", "task4"), ran);
+    assertEquals(0, timer.size());
+  }
+
+  @Test
+  public void testMultipleRevolutions() {
+    long revolutionMs = TICK.as(Time.MILLISECONDS) * timer.getWheelSize();
+    schedule("a", (revolutionMs * 3) + 10);
+
+    advanceTo(revolutionMs * 3);
+    assertEquals(ImmutableList.<String>of(), ran);
+    advanceTo((revolutionMs * 3) + 10);
+    assertEquals(ImmutableList.of("a"), ran);
+  }
+
+  @Test
+  public void testCancel() {
+    Timeout a = schedule("a", 10);
+    Timeout b = schedule("b", 10);
+    advanceTo(5);
+    assertTrue(a.cancel());
+    assertFalse(a.cancel());
+    assertEquals(1, timer.size());
+
+    advanceTo(10);
+    assertEquals(ImmutableList.of("b"), ran);
+    assertFalse(b.cancel());
+    assertEquals(0, timer.size());
+  }
+
+  @Test
+  public void testCancelBeforeAdvance() {
+    assertTrue(schedule("a", 10).cancel());
+    advanceTo(100);
+    assertEquals(ImmutableList.<String>of(), ran);
+  }
+
+  @Test
+  public void testScheduleDuringExpiry() {
+    timer.schedule(
+        new Runnable() {
+          @Override public void run() {
+            schedule("b", 0);
+          }
+        },
+        10,
+        TimeUnit.MILLISECONDS);
+
+    advanceTo(10);
+    assertEquals(ImmutableList.<String>of(), ran);
+    advanceTo(20);
+    assertEquals(ImmutableList.of("b"), ran);
+  }
+
+  @Test
+  public void testFailingTaskDoesNotBlockOthers() {
+    timer.schedule(
+        new Runnable() {
+          @Override public void run() {
+            throw new IllegalStateException("Expected.");
+          }
+        },
+        10,
+        TimeUnit.MILLISECONDS);
+    schedule("b", 10);
+
+    advanceTo(10);
+    assertEquals(ImmutableList.of("b"), ran);
+  }
+}
@@ -18,7 +18,6 @@ package org.apache.aurora.scheduler.async;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableList;
@@ -29,6 +28,7 @@ import com.twitter.common.base.Command;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.Clock;
 import com.twitter.common.util.testing.FakeClock;
 
 import org.apache.aurora.gen.AssignedTask;
@@ -38,9 +38,13 @@ import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
 import org.apache.aurora.gen.TaskEvent;
+import org.apache.aurora.scheduler.async.HistoryPruner.PruneBatchSettings;
+import org.apache.aurora.scheduler.async.TimerService.HashedWheelTimer;
+import org.apache.aurora.scheduler.async.TimerService.Timeout;
 import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.state.StateManager;
+import org.apache.aurora.scheduler.storage.Storage.StorageException;
 import org.apache.aurora.scheduler.storage.entities.IJobKey;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.easymock.Capture;
@@ -72,25 +76,28 @@ public class HistoryPrunerTest extends EasyMockTest {
   private static final Amount<Long, Time> ONE_DAY = Amount.of(1L, Time.DAYS);
   private static final Amount<Long, Time> ONE_HOUR = Amount.of(1L, Time.HOURS);
   private static final int PER_JOB_HISTORY = 2;
+  private static final PruneBatchSettings BATCH_SETTINGS = new PruneBatchSettings(2, 10);
+  private static final long BATCH_DELAY_MS = 200;
 
-  private ScheduledFuture<?> future;
-  private ScheduledExecutorService executor;
+  private Timeout timeout;
+  private TimerService timer;
   private FakeClock clock;
   private StateManager stateManager;
   private HistoryPruner pruner;
 
   @Before
   public void setUp() {
-    future = createMock(new Clazz<ScheduledFuture<?>>() { });
-    executor = createMock(ScheduledExecutorService.class);
+    timeout = createMock(Timeout.class);
+    timer = createMock(TimerService.class);
     clock = new FakeClock();
     stateManager = createMock(StateManager.class);
     pruner = new HistoryPruner(
-        executor,
+        timer,
         stateManager,
         clock,
         ONE_DAY,
-        PER_JOB_HISTORY);
+        PER_JOB_HISTORY,
+        BATCH_SETTINGS);
   }
 
   @After
@@ -148,13 +155,10 @@ public class HistoryPrunerTest extends EasyMockTest {
     expectDefaultTaskWatch();
     expectDefaultTaskWatch();
 
-    // Cancel future and delete pruned task "a" asynchronously.
-    expectCancelFuture();
-    stateManager.deleteTasks(Tasks.ids(a));
-
-    // Cancel future and delete pruned task "b" asynchronously.
-    expectCancelFuture();
-    stateManager.deleteTasks(Tasks.ids(b));
+    // Cancel futures and delete pruned tasks "a" and "b" in one batch.
+    expectCancelFuture().times(2);
+    Capture<Runnable> drain = expectDrain(0);
+    stateManager.deleteTasks(Tasks.ids(a, b));
 
     expectCancelFuture().times(3);
 
@@ -163,6 +167,7 @@ public class HistoryPrunerTest extends EasyMockTest {
     for (IScheduledTask task : ImmutableList.of(a, b, c, d, e)) {
       pruner.recordStateChange(TaskStateChange.initialized(task));
     }
+    drain.getValue().run();
 
     // Clean-up
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(c, d, e)));
@@ -191,6 +196,7 @@ public class HistoryPrunerTest extends EasyMockTest {
     Capture<Runnable> delayedDelete = expectDefaultTaskWatch();
 
     // Expect task "a" to be pruned when future is activated.
+    Capture<Runnable> drain = expectDrain(0);
     stateManager.deleteTasks(ImmutableSet.of("a"));
 
     control.replay();
@@ -198,8 +204,9 @@ public class HistoryPrunerTest extends EasyMockTest {
     // Capture future for inactive task "a"
     changeState("a", RUNNING, KILLED);
     clock.advance(ONE_HOUR);
-    // Execute future to prune task "a" from the system.
+    // Execute future to queue task "a" for pruning, and prune it.
     delayedDelete.getValue().run();
+    drain.getValue().run();
   }
 
   @Test
@@ -209,6 +216,7 @@ public class HistoryPrunerTest extends EasyMockTest {
 
     // Cancel future and delete task "a" asynchronously when history goal is exceeded.
     expectCancelFuture();
+    Capture<Runnable> drain = expectDrain(0);
     stateManager.deleteTasks(ImmutableSet.of("a"));
 
     expectCancelFuture().times(2);
@@ -220,6 +228,7 @@ public class HistoryPrunerTest extends EasyMockTest {
     IScheduledTask b = changeState("b", RUNNING, KILLED);
     clock.advance(ONE_HOUR);
     IScheduledTask c = changeState("c", RUNNING, LOST);
+    drain.getValue().run();
 
     // Clean-up
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(b, c)));
@@ -243,6 +252,66 @@ public class HistoryPrunerTest extends EasyMockTest {
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(b)));
   }
 
+  @Test
+  public void testPrunesInRateLimitedBatches() {
+    Capture<Runnable> expired = expectDefaultTaskWatchTimes(5);
+    Capture<Runnable> firstDrain = expectDrain(0);
+    Capture<Runnable> nextDrain = expectDrain(BATCH_DELAY_MS);
+    expectLastCall().times(2);
+    stateManager.deleteTasks(ImmutableSet.of("a", "b"));
+    stateManager.deleteTasks(ImmutableSet.of("c", "d"));
+    stateManager.deleteTasks(ImmutableSet.of("e"));
+
+    control.replay();
+
+    // Each task is in its own job, so none exceed the per-job history goal.
+    for (String id : ImmutableList.of("a", "b", "c", "d", "e")) {
+      changeState(makeTask("job-" + id, id, KILLED), RUNNING);
+      expired.getValue().run();
+    }
+
+    firstDrain.getValue().run();
+    nextDrain.getValue().run();
+    nextDrain.getValue().run();
+  }
+
+  @Test
+  public void testFailedBatchRetried() {
+    Capture<Runnable> expired = expectDefaultTaskWatchTimes(3);
+    Capture<Runnable> firstDrain = expectDrain(0);
+    Capture<Runnable> nextDrain = expectDrain(BATCH_DELAY_MS);
+    expectLastCall().times(2);
+    stateManager.deleteTasks(ImmutableSet.of("a", "b"));
+    expectLastCall().andThrow(new StorageException("Storage failed."));
+    stateManager.deleteTasks(ImmutableSet.of("a", "b"));
+    stateManager.deleteTasks(ImmutableSet.of("c"));
+
+    control.replay();
+
+    for (String id : ImmutableList.of("a", "b", "c")) {
+      changeState(makeTask("job-" + id, id, KILLED), RUNNING);
+      expired.getValue().run();
+    }
+
+    // The failed batch is retried ahead of tasks queued after it.
+    firstDrain.getValue().run();
+    nextDrain.getValue().run();
+    nextDrain.getValue().run();
+  }
+
+  @Test
+  public void testDeletedWhileQueued() {
+    Capture<Runnable> expired = expectDefaultTaskWatch();
+    Capture<Runnable> drain = expectDrain(0);
+
+    control.replay();
+
+    IScheduledTask a = changeState("a", RUNNING, KILLED);
+    expired.getValue().run();
+    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(a)));
+    drain.getValue().run();
+  }
+
   // TODO(William Farner): Consider removing the thread safety tests.  Now that intrinsic locks
   // are not used, it is rather awkward to test this.
   @Test
@@ -298,12 +367,24 @@ public class HistoryPrunerTest extends EasyMockTest {
             .setDaemon(true)
             .setNameFormat("testThreadSafeEvents-executor")
             .build());
+    final HashedWheelTimer realTimer =
+        new HashedWheelTimer(Clock.SYSTEM_CLOCK, Amount.of(1L, Time.MILLISECONDS), 16);
+    realExecutor.scheduleAtFixedRate(
+        new Runnable() {
+          @Override public void run() {
+            realTimer.advance();
+          }
+        },
+        1,
+        1,
+        TimeUnit.MILLISECONDS);
     return new HistoryPruner(
-        realExecutor,
+        realTimer,
         stateManager,
         clock,
         Amount.of(1L, Time.MILLISECONDS),
-        PER_JOB_HISTORY);
+        PER_JOB_HISTORY,
+        BATCH_SETTINGS);
   }
 
   private CountDownLatch expectTaskDeleted(final Command onDelete, String taskId) {
@@ -358,16 +439,23 @@ public class HistoryPrunerTest extends EasyMockTest {
 
   private Capture<Runnable> expectTaskWatch(long timestampMillis, int count) {
     Capture<Runnable> capture = createCapture();
-    executor.schedule(
+    timer.schedule(
         EasyMock.capture(capture),
         eq(pruner.calculateTimeout(timestampMillis)),
         eq(TimeUnit.MILLISECONDS));
-    expectLastCall().andReturn(future).times(count);
+    expectLastCall().andReturn(timeout).times(count);
+    return capture;
+  }
+
+  private Capture<Runnable> expectDrain(long delayMs) {
+    Capture<Runnable> capture = createCapture();
+    expect(timer.schedule(EasyMock.capture(capture), eq(delayMs), eq(TimeUnit.MILLISECONDS)))
+        .andReturn(timeout);
     return capture;
   }
 
   private IExpectationSetters<?> expectCancelFuture() {
-    return expect(future.cancel(false)).andReturn(true);
+    return expect(timeout.cancel()).andReturn(true);
   }
 
   private IScheduledTask changeState(ScheduleStatus from, ScheduleStatus to) {
@@ -375,7 +463,10 @@ public class HistoryPrunerTest extends EasyMockTest {
   }
 
   private IScheduledTask changeState(String taskId, ScheduleStatus from, ScheduleStatus to) {
-    IScheduledTask task = makeTask(taskId, to);
+    return changeState(makeTask(taskId, to), from);
+  }
+
+  private IScheduledTask changeState(IScheduledTask task, ScheduleStatus from) {
     pruner.recordStateChange(TaskStateChange.transition(task, from));
     return task;
   }
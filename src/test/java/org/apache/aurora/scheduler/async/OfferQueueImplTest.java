@@ -24,6 +24,8 @@ import java.util.concurrent.ThreadFactory;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.testing.TearDown;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.twitter.common.quantity.Amount;
@@ -31,12 +33,14 @@ import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
+import org.apache.aurora.gen.HostStatus;
 import org.apache.aurora.gen.MaintenanceMode;
 import org.apache.aurora.scheduler.Driver;
 import org.apache.aurora.scheduler.async.OfferQueue.LaunchException;
 import org.apache.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
 import org.apache.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
 import org.apache.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
+import org.apache.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
 import org.apache.aurora.scheduler.state.MaintenanceController;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.TaskInfo;
@@ -45,6 +49,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
 public class OfferQueueImplTest extends EasyMockTest {
@@ -139,6 +144,38 @@ public class OfferQueueImplTest extends EasyMockTest {
     assertFalse(offerQueue.launchFirst(offerAcceptor));
   }
 
+  @Test
+  public void testHostChangedState() throws Exception {
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.NONE);
+    expect(offerAcceptor.apply(OFFER_B)).andReturn(Optional.<TaskInfo>absent());
+    expect(offerAcceptor.apply(OFFER_A)).andReturn(Optional.<TaskInfo>absent());
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    offerQueue.hostChangedState(
+        new HostMaintenanceStateChange(new HostStatus(HOST_A, MaintenanceMode.DRAINING)));
+    assertEquals(2, Iterables.size(offerQueue.getOffers()));
+    assertFalse(offerQueue.launchFirst(offerAcceptor));
+  }
+
+  @Test
+  public void testCancelOffer() throws Exception {
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.NONE);
+    expect(offerAcceptor.apply(OFFER_B)).andReturn(Optional.<TaskInfo>absent());
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    offerQueue.cancelOffer(OFFER_A.getId());
+    assertEquals(ImmutableList.of(OFFER_B), ImmutableList.copyOf(offerQueue.getOffers()));
+    assertFalse(offerQueue.launchFirst(offerAcceptor));
+  }
+
   @Test
   public void testFlushOffers() throws Exception {
     expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
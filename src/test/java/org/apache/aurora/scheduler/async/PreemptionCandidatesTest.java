@@ -0,0 +1,160 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.List;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.aurora.gen.ScheduleStatus.ASSIGNED;
+import static org.apache.aurora.gen.ScheduleStatus.FINISHED;
+import static org.apache.aurora.gen.ScheduleStatus.PENDING;
+import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PreemptionCandidatesTest {
+
+  private static final String SLAVE_A = "slave_a";
+  private static final String SLAVE_B = "slave_b";
+
+  private static final ResourceSlot NO_SLACK =
+      ResourceSlot.from(0, Amount.of(0L, Data.MB), Amount.of(0L, Data.MB), 0);
+
+  private PreemptionCandidates candidates;
+
+  @Before
+  public void setUp() {
+    candidates = new PreemptionCandidates();
+  }
+
+  private static IScheduledTask makeTask(
+      String taskId,
+      String slaveId,
+      ScheduleStatus status,
+      boolean production,
+      double cpus) {
+
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setSlaveId(slaveId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity(production ? "prod" : "nonprod", "user"))
+                .setEnvironment("test")
+                .setJobName("job")
+                .setProduction(production)
+                .setNumCpus(cpus)
+                .setRamMb(1024)
+                .setDiskMb(1024))));
+  }
+
+  private static IAssignedTask pending(double cpus) {
+    return makeTask("pending", null, PENDING, true, cpus).getAssignedTask();
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus newState) {
+    candidates.taskChangedState(TaskStateChange.transition(
+        IScheduledTask.build(task.newBuilder().setStatus(newState)),
+        task.getStatus()));
+  }
+
+  private void assertVictims(String slaveId, IScheduledTask... victims) {
+    assertEquals(
+        Optional.<List<IAssignedTask>>of(ImmutableList.copyOf(
+            Iterables.transform(ImmutableList.copyOf(victims), Tasks.SCHEDULED_TO_ASSIGNED))),
+        candidates.getVictims(slaveId, pending(1), NO_SLACK));
+  }
+
+  private void assertNoVictims(String slaveId) {
+    assertFalse(candidates.getVictims(slaveId, pending(1), NO_SLACK).isPresent());
+  }
+
+  @Test
+  public void testRemovedWhenNoLongerCandidate() {
+    IScheduledTask task = makeTask("a", SLAVE_A, RUNNING, false, 1);
+    candidates.taskChangedState(TaskStateChange.initialized(task));
+    assertEquals(ImmutableSet.of(SLAVE_A), candidates.getSlaveIds());
+    assertVictims(SLAVE_A, task);
+
+    changeState(task, FINISHED);
+    assertEquals(ImmutableSet.<String>of(), candidates.getSlaveIds());
+    assertNoVictims(SLAVE_A);
+  }
+
+  @Test
+  public void testRemovedWhenDeleted() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING, false, 1);
+    IScheduledTask b = makeTask("b", SLAVE_B, RUNNING, false, 1);
+    candidates.taskChangedState(TaskStateChange.initialized(a));
+    candidates.taskChangedState(TaskStateChange.initialized(b));
+    assertEquals(ImmutableSet.of(SLAVE_A, SLAVE_B), candidates.getSlaveIds());
+
+    candidates.tasksDeleted(new TasksDeleted(ImmutableSet.of(a)));
+    assertEquals(ImmutableSet.of(SLAVE_B), candidates.getSlaveIds());
+    assertNoVictims(SLAVE_A);
+    assertVictims(SLAVE_B, b);
+  }
+
+  @Test
+  public void testTaskMovesToAnotherSlave() {
+    IScheduledTask onA = makeTask("a", SLAVE_A, RUNNING, false, 1);
+    candidates.taskChangedState(TaskStateChange.initialized(onA));
+
+    IScheduledTask onB = makeTask("a", SLAVE_B, ASSIGNED, false, 1);
+    candidates.taskChangedState(TaskStateChange.transition(onB, RUNNING));
+    assertEquals(ImmutableSet.of(SLAVE_B), candidates.getSlaveIds());
+    assertNoVictims(SLAVE_A);
+    assertVictims(SLAVE_B, onB);
+  }
+
+  @Test
+  public void testInsufficientResourcesSkipsSlave() {
+    IScheduledTask task = makeTask("a", SLAVE_A, RUNNING, false, 1);
+    candidates.taskChangedState(TaskStateChange.initialized(task));
+
+    assertFalse(candidates.getVictims(SLAVE_A, pending(4), NO_SLACK).isPresent());
+    assertEquals(1, candidates.getSlavesSkipped());
+
+    // A slave without eligible victims is not counted as skipped.
+    IAssignedTask nonProduction = makeTask("b", null, PENDING, false, 1).getAssignedTask();
+    assertFalse(candidates.getVictims(SLAVE_A, nonProduction, NO_SLACK).isPresent());
+    assertEquals(1, candidates.getSlavesSkipped());
+
+    assertVictims(SLAVE_A, task);
+    assertEquals(1, candidates.getSlavesSkipped());
+  }
+}
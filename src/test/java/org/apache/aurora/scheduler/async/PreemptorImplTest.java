@@ -45,6 +45,7 @@ import org.apache.aurora.scheduler.ResourceSlot;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.configuration.Resources;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.filter.CachedJobState;
 import org.apache.aurora.scheduler.filter.SchedulingFilter;
 import org.apache.aurora.scheduler.filter.SchedulingFilterImpl;
@@ -98,6 +99,7 @@ public class PreemptorImplTest extends EasyMockTest {
   private FakeClock clock;
   private MaintenanceController maintenance;
   private OfferQueue offerQueue;
+  private PreemptionCandidates candidates;
 
   @Before
   public void setUp() {
@@ -107,11 +109,13 @@ public class PreemptorImplTest extends EasyMockTest {
     maintenance = createMock(MaintenanceController.class);
     clock = new FakeClock();
     offerQueue = createMock(OfferQueue.class);
+    candidates = new PreemptionCandidates();
   }
 
   private void runPreemptor(ScheduledTask pendingTask) {
     PreemptorImpl preemptor = new PreemptorImpl(
         storageUtil.storage,
+        candidates,
         stateManager,
         offerQueue,
         schedulingFilter,
@@ -133,9 +137,9 @@ public class PreemptorImplTest extends EasyMockTest {
   }
 
   private void expectGetActiveTasks(ScheduledTask... returnedTasks) {
-    storageUtil.expectTaskFetch(
-        PreemptorImpl.CANDIDATE_QUERY,
-        IScheduledTask.setFromBuilders(Arrays.asList(returnedTasks)));
+    for (ScheduledTask task : returnedTasks) {
+      candidates.taskChangedState(TaskStateChange.initialized(IScheduledTask.build(task)));
+    }
   }
 
   @Test
@@ -21,6 +21,7 @@ import java.util.Map.Entry;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
@@ -35,6 +36,8 @@ import org.apache.aurora.gen.TaskEvent;
 import org.apache.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.testing.StorageTestUtil;
 import org.junit.Before;
@@ -56,7 +59,7 @@ public class RescheduleCalculatorImplTest extends EasyMockTest {
 
   private StorageTestUtil storageUtil;
   private BackoffStrategy backoff;
-  private RescheduleCalculator rescheduleCalculator;
+  private RescheduleCalculatorImpl rescheduleCalculator;
 
   @Before
   public void setUp() {
@@ -150,6 +153,84 @@ public class RescheduleCalculatorImplTest extends EasyMockTest {
             setAncestor(makeTask("b", INIT), Tasks.id(ancestor))));
   }
 
+  @Test
+  public void testPenaltyFromFlapHistory() {
+    expect(backoff.calculateBackoffMs(0L)).andReturn(1000L);
+    expect(backoff.calculateBackoffMs(1000L)).andReturn(2000L);
+
+    control.replay();
+
+    // No storage reads are expected, since each task's history builds on its ancestor's.
+    IScheduledTask taskA = inSameInstance(makeFlappyTask("a"));
+    IScheduledTask taskB = inSameInstance(setAncestor(makeFlappyTask("b"), Tasks.id(taskA)));
+    IScheduledTask taskC = inSameInstance(setAncestor(makeTask("c", INIT), Tasks.id(taskB)));
+
+    terminated(taskA);
+    assertEquals(1000L, rescheduleCalculator.getFlappingPenaltyMs(taskB));
+    terminated(taskB);
+    assertEquals(2000L, rescheduleCalculator.getFlappingPenaltyMs(taskC));
+  }
+
+  @Test
+  public void testFlapHistoryReset() {
+    expect(backoff.calculateBackoffMs(0L)).andReturn(1000L);
+
+    control.replay();
+
+    IScheduledTask taskA = inSameInstance(makeFlappyTask("a"));
+    IScheduledTask taskB = inSameInstance(setEvents(
+        setAncestor(makeTask("b", FINISHED), Tasks.id(taskA)),
+        ImmutableMap.of(INIT, 0L, PENDING, 100L, RUNNING, 200L, FINISHED, 600000L)));
+    IScheduledTask taskC = inSameInstance(setAncestor(makeTask("c", INIT), Tasks.id(taskB)));
+
+    terminated(taskA);
+    terminated(taskB);
+    assertEquals(0L, rescheduleCalculator.getFlappingPenaltyMs(taskC));
+  }
+
+  @Test
+  public void testFlapHistoryDroppedWithTask() {
+    IScheduledTask taskA = inSameInstance(makeFlappyTask("a"));
+    expect(backoff.calculateBackoffMs(0L)).andReturn(1000L);
+    storageUtil.expectTaskFetch(Query.taskScoped(Tasks.id(taskA)));
+
+    control.replay();
+
+    terminated(taskA);
+    rescheduleCalculator.tasksDeleted(new TasksDeleted(ImmutableSet.of(taskA)));
+    assertEquals(
+        0L,
+        rescheduleCalculator.getFlappingPenaltyMs(
+            inSameInstance(setAncestor(makeTask("b", INIT), Tasks.id(taskA)))));
+  }
+
+  @Test
+  public void testFlapHistoryLoadedOnMiss() {
+    IScheduledTask ancestor = inSameInstance(makeFlappyTask("a"));
+    storageUtil.expectTaskFetch(Query.taskScoped(Tasks.id(ancestor)), ancestor);
+    expect(backoff.calculateBackoffMs(0L)).andReturn(1000L);
+
+    control.replay();
+
+    // Only the first lookup should read from storage.
+    IScheduledTask task = inSameInstance(setAncestor(makeTask("b", INIT), Tasks.id(ancestor)));
+    assertEquals(1000L, rescheduleCalculator.getFlappingPenaltyMs(task));
+    assertEquals(1000L, rescheduleCalculator.getFlappingPenaltyMs(task));
+  }
+
+  private void terminated(IScheduledTask task) {
+    rescheduleCalculator.taskChangedState(TaskStateChange.transition(task, RUNNING));
+  }
+
+  private IScheduledTask inSameInstance(IScheduledTask task) {
+    ScheduledTask builder = task.newBuilder();
+    builder.getAssignedTask().getTask()
+        .setJobName("job")
+        .setOwner(new Identity().setRole("role").setUser("user"))
+        .setEnvironment("env");
+    return IScheduledTask.build(builder);
+  }
+
   private IScheduledTask makeFlappyTask(String taskId) {
     return setEvents(
         makeTask(taskId, FINISHED),
@@ -15,6 +15,8 @@
  */
 package org.apache.aurora.scheduler.async;
 
+import java.util.List;
+
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Suppliers;
@@ -47,6 +49,8 @@ import org.apache.aurora.scheduler.storage.testing.StorageTestUtil;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.TaskInfo;
 import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -54,6 +58,7 @@ import static org.apache.aurora.gen.ScheduleStatus.PENDING;
 import static org.apache.aurora.scheduler.async.TaskScheduler.TaskSchedulerResult.SUCCESS;
 import static org.apache.aurora.scheduler.async.TaskScheduler.TaskSchedulerResult.TRY_AGAIN;
 import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
 
@@ -259,6 +264,35 @@ public class TaskSchedulerImplTest extends EasyMockTest {
     firstAssignment.getValue().apply(OFFER);
   }
 
+  @Test
+  public void testScheduleBatch() throws OfferQueue.LaunchException {
+    storageUtil.expectOperations();
+
+    IScheduledTask taskA2 = IScheduledTask.build(TASK_A.newBuilder()
+        .setAssignedTask(TASK_A.getAssignedTask().newBuilder().setTaskId("a2")));
+    storageUtil.expectTaskFetch(
+        Query.taskScoped(ImmutableSet.of("a", "a2")).byStatus(PENDING),
+        ImmutableSet.of(TASK_A, taskA2));
+    storageUtil.expectTaskFetch(
+        TaskSchedulerImpl.activeJobStateQuery(Tasks.SCHEDULED_TO_JOB_KEY.apply(TASK_A)),
+        ImmutableSet.<IScheduledTask>of())
+        .times(3);
+    final Capture<Function<Offer, List<TaskInfo>>> assignment = createCapture();
+    expect(offerQueue.launchBatch(capture(assignment), eq(2))).andAnswer(new IAnswer<Integer>() {
+      @Override public Integer answer() {
+        return assignment.getValue().apply(OFFER).size();
+      }
+    });
+    expectAssigned(TASK_A);
+    expect(assigner.maybeAssign(EasyMock.<Offer>anyObject(), eq(taskA2), eq(EMPTY_JOB)))
+        .andReturn(Optional.<TaskInfo>absent());
+    expect(preemptor.findPreemptionSlotFor("a2", EMPTY_JOB)).andReturn(Optional.<String>absent());
+
+    control.replay();
+
+    assertEquals(ImmutableSet.of("a2"), scheduler.scheduleBatch(ImmutableSet.of("a", "a2")));
+  }
+
   private static IScheduledTask makeTask(String taskId) {
     return IScheduledTask.build(new ScheduledTask()
         .setAssignedTask(new AssignedTask()
@@ -144,6 +144,7 @@ public class TaskSchedulerTest extends EasyMockTest {
         executor,
         retryStrategy,
         rateLimiter,
+        1,
         scheduler,
         clock,
         // TODO(wfarner): Use a mock rather than impl here.
@@ -15,7 +15,6 @@
  */
 package org.apache.aurora.scheduler.async;
 
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Optional;
@@ -49,7 +48,7 @@ public class TaskThrottlerTest extends EasyMockTest {
 
   private RescheduleCalculator rescheduleCalculator;
   private FakeClock clock;
-  private ScheduledExecutorService executor;
+  private TimerService timer;
   private StateManager stateManager;
   private TaskThrottler throttler;
 
@@ -57,9 +56,9 @@ public class TaskThrottlerTest extends EasyMockTest {
   public void setUp() throws Exception {
     rescheduleCalculator = createMock(RescheduleCalculator.class);
     clock = new FakeClock();
-    executor = createMock(ScheduledExecutorService.class);
+    timer = createMock(TimerService.class);
     stateManager = createMock(StateManager.class);
-    throttler = new TaskThrottler(rescheduleCalculator, clock, executor, stateManager);
+    throttler = new TaskThrottler(rescheduleCalculator, clock, timer, stateManager);
   }
 
   @Test
@@ -108,7 +107,7 @@ public class TaskThrottlerTest extends EasyMockTest {
 
   private Capture<Runnable> expectThrottled(long penaltyMs) {
     Capture<Runnable> stateChangeCapture = createCapture();
-    expect(executor.schedule(
+    expect(timer.schedule(
         capture(stateChangeCapture),
         eq(penaltyMs),
         eq(TimeUnit.MILLISECONDS)))
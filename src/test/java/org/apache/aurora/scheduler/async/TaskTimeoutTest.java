@@ -16,14 +16,15 @@
 package org.apache.aurora.scheduler.async;
 
 import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -36,8 +37,10 @@ import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
 import org.apache.aurora.gen.TaskEvent;
+import org.apache.aurora.scheduler.async.TimerService.Timeout;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.state.StateManager;
+import org.apache.aurora.scheduler.state.StateManager.Transition;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -71,8 +74,8 @@ public class TaskTimeoutTest extends EasyMockTest {
   private Capture<Supplier<Number>> stateCountCapture;
   private Map<ScheduleStatus, Capture<Supplier<Number>>> stateCaptures;
 
-  private ScheduledExecutorService executor;
-  private ScheduledFuture<?> future;
+  private TimerService timer;
+  private Timeout future;
   private StateManager stateManager;
   private FakeClock clock;
   private TaskTimeout timeout;
@@ -80,8 +83,8 @@ public class TaskTimeoutTest extends EasyMockTest {
 
   @Before
   public void setUp() {
-    executor = createMock(ScheduledExecutorService.class);
-    future = createMock(new Clazz<ScheduledFuture<?>>() { });
+    timer = createMock(TimerService.class);
+    future = createMock(Timeout.class);
     stateManager = createMock(StateManager.class);
     clock = new FakeClock();
     statsProvider = createMock(StatsProvider.class);
@@ -117,7 +120,7 @@ public class TaskTimeoutTest extends EasyMockTest {
   private void replayAndCreate() {
     control.replay();
     timeout = new TaskTimeout(
-        executor,
+        timer,
         stateManager,
         clock,
         Amount.of(TIMEOUT_MS, Time.MILLISECONDS),
@@ -126,7 +129,7 @@ public class TaskTimeoutTest extends EasyMockTest {
 
   private Capture<Runnable> expectTaskWatch(long expireMs) {
     Capture<Runnable> capture = createCapture();
-    executor.schedule(
+    timer.schedule(
         EasyMock.capture(capture),
         eq(expireMs),
         eq(TimeUnit.MILLISECONDS));
@@ -138,8 +141,26 @@ public class TaskTimeoutTest extends EasyMockTest {
     return expectTaskWatch(TIMEOUT_MS);
   }
 
+  private Capture<Runnable> expectTimeouts(Map<String, ScheduleStatus> tasks, Set<String> lost) {
+    Capture<Runnable> drain = expectTaskWatch(0);
+    ImmutableMap.Builder<String, Transition> transitions = ImmutableMap.builder();
+    for (Map.Entry<String, ScheduleStatus> entry : tasks.entrySet()) {
+      transitions.put(
+          entry.getKey(),
+          new Transition(Optional.of(entry.getValue()), LOST, TaskTimeout.TIMEOUT_MESSAGE));
+    }
+    expect(stateManager.changeStates(transitions.build())).andReturn(lost);
+    return drain;
+  }
+
+  private Capture<Runnable> expectTimeout(ScheduleStatus status, boolean lost) {
+    return expectTimeouts(
+        ImmutableMap.of(TASK_ID, status),
+        lost ? ImmutableSet.of(TASK_ID) : ImmutableSet.<String>of());
+  }
+
   private IExpectationSetters<?> expectCancel() {
-    return expect(future.cancel(false)).andReturn(true);
+    return expect(future.cancel()).andReturn(true);
   }
 
   private void changeState(String taskId, ScheduleStatus from, ScheduleStatus to) {
@@ -175,53 +196,60 @@ public class TaskTimeoutTest extends EasyMockTest {
     expectTaskWatch();
     expectCancel();
     Capture<Runnable> killingTimeout = expectTaskWatch();
-    expect(stateManager.changeState(
-        TASK_ID,
-        Optional.of(KILLING),
-        LOST,
-        TaskTimeout.TIMEOUT_MESSAGE))
-        .andReturn(true);
+    Capture<Runnable> drain = expectTimeout(KILLING, true);
 
     replayAndCreate();
 
     changeState(PENDING, ASSIGNED);
     changeState(ASSIGNED, KILLING);
     killingTimeout.getValue().run();
+    drain.getValue().run();
   }
 
   @Test
   public void testTimeout() throws Exception {
     Capture<Runnable> assignedTimeout = expectTaskWatch();
-    expect(stateManager.changeState(
-        TASK_ID,
-        Optional.of(ASSIGNED),
-        LOST,
-        TaskTimeout.TIMEOUT_MESSAGE))
-        .andReturn(true);
+    Capture<Runnable> drain = expectTimeout(ASSIGNED, true);
 
     replayAndCreate();
 
     changeState(INIT, PENDING);
     changeState(PENDING, ASSIGNED);
     assignedTimeout.getValue().run();
+    assertEquals(timedOutTaskCounter.intValue(), 0);
+    drain.getValue().run();
+    assertEquals(timedOutTaskCounter.intValue(), 1);
+  }
+
+  @Test
+  public void testTimeoutsBatched() throws Exception {
+    Capture<Runnable> timeoutA = expectTaskWatch();
+    Capture<Runnable> timeoutB = expectTaskWatch();
+    Capture<Runnable> drain = expectTimeouts(
+        ImmutableMap.of("a", ASSIGNED, "b", KILLING),
+        ImmutableSet.of("a"));
+
+    replayAndCreate();
+
+    changeState("a", PENDING, ASSIGNED);
+    changeState("b", RUNNING, KILLING);
+    timeoutA.getValue().run();
+    timeoutB.getValue().run();
+    drain.getValue().run();
     assertEquals(timedOutTaskCounter.intValue(), 1);
   }
 
   @Test
   public void testTaskDeleted() throws Exception {
     Capture<Runnable> assignedTimeout = expectTaskWatch();
-    expect(stateManager.changeState(
-        TASK_ID,
-        Optional.of(KILLING),
-        LOST,
-        TaskTimeout.TIMEOUT_MESSAGE))
-        .andReturn(false);
+    Capture<Runnable> drain = expectTimeout(KILLING, false);
 
     replayAndCreate();
 
     changeState(INIT, PENDING);
     changeState(PENDING, KILLING);
     assignedTimeout.getValue().run();
+    drain.getValue().run();
     assertEquals(timedOutTaskCounter.intValue(), 0);
   }
 
@@ -102,6 +102,28 @@ public class ResourcesTest {
     assertEquals(NEGATIVE_ONE, Resources.subtract(TWO, THREE));
   }
 
+  @Test
+  public void testSubtractTaskFromOffer() {
+    Protos.Offer offer = createOffer(createPortRange(Pair.of(1, 3))).toBuilder()
+        .addResources(Resources.makeMesosResource(Resources.CPUS, 4))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, 1024))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, 1024))
+        .build();
+    Protos.TaskInfo task = Protos.TaskInfo.newBuilder()
+        .addAllResources(new Resources(1, Amount.of(256L, Data.MB), Amount.of(512L, Data.MB), 1)
+            .toResourceList(ImmutableSet.of(2)))
+        .setExecutor(Protos.ExecutorInfo.newBuilder()
+            .addResources(Resources.makeMesosResource(Resources.CPUS, 0.25))
+            .addResources(Resources.makeMesosResource(Resources.RAM_MB, 128)))
+        .buildPartial();
+
+    Protos.Offer remaining = Resources.subtract(offer, task);
+    assertEquals(
+        new Resources(2.75, Amount.of(640L, Data.MB), Amount.of(512L, Data.MB), 2),
+        Resources.from(remaining));
+    assertEquals(ImmutableSet.of(1, 3), Resources.getPorts(remaining, 2));
+  }
+
   @Test(expected = Resources.InsufficientResourcesException.class)
   public void testPortRangeScarcity() {
     Resource portsResource = createPortRange(Pair.of(1, 2));
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.events;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.scheduler.events.PubsubEvent.BatchedEventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.events.PubsubEvent.Vetoed;
+import org.apache.aurora.scheduler.filter.SchedulingFilter.Veto;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueuedSubscriberTest {
+
+  private static final TaskStateChange PENDING = stateChange("a", ScheduleStatus.PENDING);
+  private static final TaskStateChange ASSIGNED = stateChange("a", ScheduleStatus.ASSIGNED);
+  private static final TasksDeleted DELETED = new TasksDeleted(ImmutableSet.of(PENDING.getTask()));
+  private static final Vetoed VETOED = new Vetoed("a", ImmutableSet.<Veto>of());
+
+  private List<Runnable> drains;
+  private Executor executor;
+
+  @Before
+  public void setUp() {
+    drains = Lists.newArrayList();
+    executor = new Executor() {
+      @Override public void execute(Runnable command) {
+        drains.add(command);
+      }
+    };
+  }
+
+  private static TaskStateChange stateChange(String taskId, ScheduleStatus status) {
+    IScheduledTask task = IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask().setTaskId(taskId)));
+    return TaskStateChange.initialized(task);
+  }
+
+  private void drain() {
+    Runnable drain = Iterables.getOnlyElement(drains);
+    drains.clear();
+    drain.run();
+  }
+
+  public static class Recorder implements EventSubscriber {
+    final List<PubsubEvent> received = Lists.newArrayList();
+
+    @Subscribe
+    public void stateChanged(TaskStateChange event) {
+      received.add(event);
+    }
+
+    @Subscribe
+    public void deleted(TasksDeleted event) {
+      received.add(event);
+    }
+  }
+
+  public static class BatchRecorder extends Recorder implements BatchedEventSubscriber {
+    final List<List<PubsubEvent>> batches = Lists.newArrayList();
+
+    @Override
+    public void eventsPosted(List<PubsubEvent> events) {
+      batches.add(events);
+    }
+  }
+
+  @Test
+  public void testDeliversInOrder() {
+    Recorder recorder = new Recorder();
+    QueuedSubscriber subscriber = new QueuedSubscriber(recorder, executor);
+
+    assertTrue(subscriber.accepts(PENDING));
+    assertTrue(subscriber.accepts(DELETED));
+    assertFalse(subscriber.accepts(VETOED));
+
+    subscriber.post(PENDING);
+    subscriber.post(VETOED);
+    subscriber.post(ASSIGNED);
+    subscriber.post(DELETED);
+
+    // Events are only delivered on the subscriber's executor, and a single drain is scheduled.
+    assertEquals(ImmutableList.of(), recorder.received);
+    drain();
+    assertEquals(ImmutableList.of(PENDING, ASSIGNED, DELETED), recorder.received);
+
+    // A new drain is scheduled once the queue has been emptied.
+    subscriber.post(DELETED);
+    drain();
+    assertEquals(ImmutableList.of(PENDING, ASSIGNED, DELETED, DELETED), recorder.received);
+  }
+
+  @Test
+  public void testBatchedDelivery() {
+    BatchRecorder recorder = new BatchRecorder();
+    QueuedSubscriber subscriber = new QueuedSubscriber(recorder, executor);
+
+    subscriber.post(PENDING);
+    subscriber.post(VETOED);
+    subscriber.post(ASSIGNED);
+    drain();
+
+    assertEquals(
+        ImmutableList.of(ImmutableList.<PubsubEvent>of(PENDING, ASSIGNED)),
+        recorder.batches);
+    assertEquals(ImmutableList.of(), recorder.received);
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.filter;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.testing.FakeTicker;
+
+import org.apache.aurora.gen.Attribute;
+import org.apache.aurora.gen.Constraint;
+import org.apache.aurora.gen.ExecutorConfig;
+import org.apache.aurora.gen.HostAttributes;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.MaintenanceMode;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.TaskConstraint;
+import org.apache.aurora.gen.ValueConstraint;
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.configuration.ConfigurationManager;
+import org.apache.aurora.scheduler.filter.SchedulingFilter.Veto;
+import org.apache.aurora.scheduler.state.MaintenanceController;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+import org.apache.aurora.scheduler.storage.testing.StorageTestUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.aurora.scheduler.filter.ConstraintFilter.mismatchVeto;
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class CachingSchedulingFilterTest extends EasyMockTest {
+
+  private static final String HOST = "host";
+  private static final String RACK_ATTRIBUTE = "rack";
+
+  private static final ResourceSlot OFFER =
+      ResourceSlot.from(4, Amount.of(1024L, Data.MB), Amount.of(1024L, Data.MB), 0);
+
+  private static final CachedJobState EMPTY_JOB =
+      new CachedJobState(Suppliers.ofInstance(ImmutableSet.<IScheduledTask>of()));
+
+  private static final ITaskConfig TASK = ITaskConfig.build(
+      ConfigurationManager.applyDefaultsIfUnset(new TaskConfig()
+          .setOwner(new Identity("role", "user"))
+          .setJobName("job")
+          .setNumCpus(1)
+          .setRamMb(512)
+          .setDiskMb(512)
+          .setExecutorConfig(new ExecutorConfig("aurora", "config"))
+          .setConstraints(ImmutableSet.of(new Constraint(
+              RACK_ATTRIBUTE,
+              TaskConstraint.value(new ValueConstraint(false, ImmutableSet.of("a"))))))));
+
+  private FakeTicker ticker;
+  private StorageTestUtil storageUtil;
+  private MaintenanceController maintenance;
+  private CachingSchedulingFilter filter;
+
+  @Before
+  public void setUp() {
+    storageUtil = new StorageTestUtil(this);
+    maintenance = createMock(MaintenanceController.class);
+    ticker = new FakeTicker();
+    filter = new CachingSchedulingFilter(storageUtil.storage, maintenance, ticker);
+  }
+
+  private void expectHostAttributes(String rack) {
+    expect(storageUtil.attributeStore.getHostAttributes(HOST)).andReturn(Optional.of(
+        new HostAttributes()
+            .setHost(HOST)
+            .setAttributes(ImmutableSet.of(
+                new Attribute(RACK_ATTRIBUTE, ImmutableSet.of(rack))))));
+  }
+
+  @Test
+  public void testStaticResultsCached() {
+    storageUtil.expectOperations();
+    expect(maintenance.getMode(HOST)).andReturn(MaintenanceMode.NONE).times(3);
+    expectHostAttributes("a");
+    expectHostAttributes("b");
+
+    control.replay();
+
+    // Tasks stored separately carry distinct but equal configurations.
+    ITaskConfig equalTask = ITaskConfig.build(TASK.newBuilder());
+    assertNotSame(TASK, equalTask);
+
+    assertEquals(ImmutableSet.<Veto>of(), filter.filter(OFFER, HOST, TASK, "id", EMPTY_JOB));
+    assertEquals(0.0, filter.getStaticHitRate(), 0);
+    assertEquals(
+        ImmutableSet.<Veto>of(),
+        filter.filter(OFFER, HOST, equalTask, "id2", EMPTY_JOB));
+    assertEquals(0.5, filter.getStaticHitRate(), 0);
+
+    // Changed host attributes must not be served from the cache once they are re-read.
+    ticker.advance(CachingSchedulingFilter.HOST_ATTRIBUTES_EXPIRATION);
+    ticker.advance(Amount.of(1L, Time.SECONDS));
+    assertEquals(
+        ImmutableSet.of(mismatchVeto(RACK_ATTRIBUTE)),
+        filter.filter(OFFER, HOST, equalTask, "id2", EMPTY_JOB));
+  }
+}
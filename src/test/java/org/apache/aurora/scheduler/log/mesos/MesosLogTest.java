@@ -15,24 +15,38 @@
  */
 package org.apache.aurora.scheduler.log.mesos;
 
+import java.lang.reflect.Constructor;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.inject.Provider;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
 import com.google.inject.util.Providers;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
+import org.apache.aurora.scheduler.log.Log.Entry;
 import org.apache.aurora.scheduler.log.Log.Stream.StreamAccessException;
 import org.apache.aurora.scheduler.log.mesos.LogInterface.ReaderInterface;
 import org.apache.aurora.scheduler.log.mesos.LogInterface.WriterInterface;
 import org.apache.mesos.Log;
 import org.easymock.EasyMock;
+import org.easymock.IExpectationSetters;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.easymock.EasyMock.aryEq;
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class MesosLogTest extends EasyMockTest {
 
@@ -42,6 +56,7 @@ public class MesosLogTest extends EasyMockTest {
 
   private LogInterface logInterface;
   private ReaderInterface reader;
+  private WriterInterface writer;
   private Provider<WriterInterface> writerFactory;
   private MesosLog.LogStream logStream;
   private MesosLog.LogStream.Mutation<String> dummyMutation;
@@ -51,11 +66,12 @@ public class MesosLogTest extends EasyMockTest {
   public void setUp() {
     logInterface = createMock(LogInterface.class);
     reader = createMock(ReaderInterface.class);
-    writerFactory = Providers.of(createMock(WriterInterface.class));
+    writer = createMock(WriterInterface.class);
+    writerFactory = Providers.of(writer);
 
     dummyMutation = createMock(new Clazz<MesosLog.LogStream.Mutation<String>>() { });
     stats = new MesosLog.LogStream.OpStats("test");
-    logStream = new MesosLog.LogStream(logInterface, reader, READ_TIMEOUT,
+    logStream = new MesosLog.LogStream(logInterface, reader, READ_TIMEOUT, 1, 0,
         writerFactory, WRITE_TIMEOUT, DUMMY_CONTENT);
   }
 
@@ -75,4 +91,168 @@ public class MesosLogTest extends EasyMockTest {
     control.replay();
     logStream.mutate(stats, dummyMutation);
   }
+
+  private MesosLog.LogStream createStream(int readBatchSize, int readAheadBatches) {
+    return new MesosLog.LogStream(logInterface, reader, READ_TIMEOUT, readBatchSize,
+        readAheadBatches, writerFactory, WRITE_TIMEOUT, DUMMY_CONTENT);
+  }
+
+  // The mesos log only creates positions and entries from native code.
+  private static Log.Position position(long value) throws Exception {
+    Constructor<Log.Position> constructor = Log.Position.class.getDeclaredConstructor(long.class);
+    constructor.setAccessible(true);
+    return constructor.newInstance(value);
+  }
+
+  private static Log.Entry entry(long position, String data) throws Exception {
+    Constructor<Log.Entry> constructor =
+        Log.Entry.class.getDeclaredConstructor(Log.Position.class, byte[].class);
+    constructor.setAccessible(true);
+    return constructor.newInstance(position(position), data.getBytes());
+  }
+
+  private void expectReadAll(long from, long to) throws Exception {
+    expect(writer.append(
+        aryEq(DUMMY_CONTENT),
+        EasyMock.eq(WRITE_TIMEOUT.getValue()),
+        EasyMock.eq(TimeUnit.SECONDS)))
+        .andReturn(position(to));
+    expect(reader.beginning()).andReturn(position(from));
+    expect(reader.ending()).andReturn(position(to));
+  }
+
+  private Log.Position expectPosition(long value) throws Exception {
+    Log.Position position = position(value);
+    expect(logInterface.position(aryEq(Longs.toByteArray(value)))).andReturn(position).anyTimes();
+    return position;
+  }
+
+  private IExpectationSetters<List<Log.Entry>> expectRead(long from, long to) throws Exception {
+    Log.Position fromPosition = expectPosition(from);
+    Log.Position toPosition = (to == from) ? fromPosition : expectPosition(to);
+    return expect(reader.read(
+        fromPosition,
+        toPosition,
+        READ_TIMEOUT.getValue(),
+        TimeUnit.SECONDS));
+  }
+
+  private static List<String> contents(Iterator<Entry> entries) {
+    List<String> contents = Lists.newArrayList();
+    while (entries.hasNext()) {
+      contents.add(new String(entries.next().contents()));
+    }
+    return contents;
+  }
+
+  private void expectBatchedReads() throws Exception {
+    expectReadAll(1, 5);
+    expectRead(1, 2).andReturn(ImmutableList.of(entry(1, "a"), entry(2, "b")));
+    // Positions that are not appends are skipped by the native log.
+    expectRead(3, 4).andReturn(ImmutableList.of(entry(4, "d")));
+    expectRead(5, 5).andReturn(ImmutableList.of(entry(5, "e")));
+  }
+
+  @Test
+  public void testBatchedReads() throws Exception {
+    expectBatchedReads();
+
+    control.replay();
+
+    assertEquals(ImmutableList.of("a", "b", "d", "e"), contents(createStream(2, 0).readAll()));
+  }
+
+  @Test
+  public void testReadAhead() throws Exception {
+    expectBatchedReads();
+
+    control.replay();
+
+    MesosLog.LogStream stream = createStream(2, 1);
+    assertEquals(ImmutableList.of("a", "b", "d", "e"), contents(stream.readAll()));
+    awaitReadAheadThreads(stream);
+  }
+
+  @Test
+  public void testReadAheadFailure() throws Exception {
+    expectReadAll(1, 3);
+    expectRead(1, 2).andReturn(ImmutableList.of(entry(1, "a"), entry(2, "b")));
+    expectRead(3, 3).andThrow(new Log.OperationFailedException("Read failed"));
+
+    control.replay();
+
+    MesosLog.LogStream stream = createStream(2, 1);
+    Iterator<Entry> entries = stream.readAll();
+
+    // Entries read before the failure are returned before it is thrown.
+    assertEquals("a", new String(entries.next().contents()));
+    assertEquals("b", new String(entries.next().contents()));
+    try {
+      entries.hasNext();
+      fail("Read failure should have been thrown.");
+    } catch (StreamAccessException e) {
+      // Expected.
+    }
+    awaitReadAheadThreads(stream);
+  }
+
+  @Test
+  public void testCloseStopsReadAhead() throws Exception {
+    expectReadAll(1, 3);
+    expectRead(1, 1).andReturn(ImmutableList.of(entry(1, "a")));
+    expectRead(2, 2).andReturn(ImmutableList.of(entry(2, "b"))).anyTimes();
+    expectRead(3, 3).andReturn(ImmutableList.of(entry(3, "c"))).anyTimes();
+
+    control.replay();
+
+    MesosLog.LogStream stream = createStream(1, 1);
+    Iterator<Entry> entries = stream.readAll();
+    assertEquals("a", new String(entries.next().contents()));
+
+    stream.close();
+    awaitReadAheadThreads(stream);
+    try {
+      entries.hasNext();
+      fail("Reading from a closed stream should fail.");
+    } catch (StreamAccessException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testCloseDiscardsBufferedBatches() throws Exception {
+    expectReadAll(1, 2);
+    expectRead(1, 1).andReturn(ImmutableList.of(entry(1, "a")));
+    expectRead(2, 2).andReturn(ImmutableList.of(entry(2, "b")));
+
+    control.replay();
+
+    MesosLog.LogStream stream = createStream(1, 2);
+    Iterator<Entry> entries = stream.readAll();
+
+    // Once every batch is buffered, the read-ahead thread waits for room to signal the end of the
+    // log.
+    for (Thread thread : ImmutableList.copyOf(stream.getReadAheadThreads())) {
+      while (thread.getState() != Thread.State.TIMED_WAITING) {
+        Thread.sleep(10);
+      }
+    }
+
+    stream.close();
+    awaitReadAheadThreads(stream);
+    try {
+      entries.hasNext();
+      fail("Discarded batches should not be mistaken for the end of the log.");
+    } catch (StreamAccessException e) {
+      // Expected.
+    }
+  }
+
+  private static void awaitReadAheadThreads(MesosLog.LogStream stream) throws Exception {
+    for (Thread thread : ImmutableList.copyOf(stream.getReadAheadThreads())) {
+      thread.join(TimeUnit.SECONDS.toMillis(5));
+      assertFalse(thread.isAlive());
+    }
+    assertTrue(stream.getReadAheadThreads().isEmpty());
+  }
 }
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.quota;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.Quota;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskConfigRewritten;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.storage.entities.IQuota;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.aurora.gen.ScheduleStatus.FINISHED;
+import static org.apache.aurora.gen.ScheduleStatus.INIT;
+import static org.apache.aurora.gen.ScheduleStatus.PENDING;
+import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
+import static org.junit.Assert.assertEquals;
+
+public class QuotaLedgerTest {
+  private static final String ROLE = "test";
+  private static final IQuota QUOTA = IQuota.build(new Quota(10, 10, 10));
+
+  private QuotaLedger ledger;
+
+  @Before
+  public void setUp() {
+    ledger = new QuotaLedger();
+  }
+
+  @Test
+  public void testTracksActiveTasks() {
+    IScheduledTask prod = makeTask("a", ROLE, PENDING, true);
+    IScheduledTask nonProd = makeTask("b", ROLE, PENDING, false);
+    IScheduledTask otherRole = makeTask("c", "other", PENDING, true);
+    ledger.taskChangedState(TaskStateChange.transition(prod, INIT));
+    ledger.taskChangedState(TaskStateChange.transition(nonProd, INIT));
+    ledger.taskChangedState(TaskStateChange.transition(otherRole, INIT));
+    expectConsumption(new Quota(1, 2, 3), new Quota(1, 2, 3));
+
+    // Transitions between active states do not change consumption.
+    ledger.taskChangedState(TaskStateChange.transition(setStatus(prod, RUNNING), PENDING));
+    expectConsumption(new Quota(1, 2, 3), new Quota(1, 2, 3));
+
+    ledger.taskChangedState(TaskStateChange.transition(setStatus(prod, FINISHED), RUNNING));
+    expectConsumption(new Quota(0, 0, 0), new Quota(1, 2, 3));
+
+    // Deleting inactive tasks does not change consumption.
+    ledger.tasksDeleted(new TasksDeleted(ImmutableSet.of(setStatus(prod, FINISHED), nonProd)));
+    expectConsumption(new Quota(0, 0, 0), new Quota(0, 0, 0));
+
+    assertEquals(
+        IQuota.build(new Quota(1, 2, 3)),
+        ledger.getQuotaInfo("other", QUOTA).prodConsumption());
+  }
+
+  @Test
+  public void testInitializedTasks() {
+    ledger.taskChangedState(
+        TaskStateChange.initialized(makeTask("a", ROLE, RUNNING, true)));
+    ledger.taskChangedState(
+        TaskStateChange.initialized(makeTask("b", ROLE, FINISHED, true)));
+    expectConsumption(new Quota(1, 2, 3), new Quota(0, 0, 0));
+  }
+
+  @Test
+  public void testConfigRewrites() {
+    IScheduledTask task = makeTask("a", ROLE, RUNNING, true);
+    ledger.taskChangedState(TaskStateChange.initialized(task));
+    expectConsumption(new Quota(1, 2, 3), new Quota(0, 0, 0));
+
+    ITaskConfig rewritten = ITaskConfig.build(
+        task.getAssignedTask().getTask().newBuilder().setNumCpus(2).setProduction(false));
+    ledger.taskConfigRewritten(new TaskConfigRewritten(task, rewritten));
+    expectConsumption(new Quota(0, 0, 0), new Quota(2, 2, 3));
+
+    // Rewrites of inactive tasks do not change consumption.
+    IScheduledTask finished = makeTask("b", ROLE, FINISHED, true);
+    ledger.taskConfigRewritten(new TaskConfigRewritten(finished, rewritten));
+    expectConsumption(new Quota(0, 0, 0), new Quota(2, 2, 3));
+  }
+
+  private void expectConsumption(Quota prod, Quota nonProd) {
+    QuotaInfo info = ledger.getQuotaInfo(ROLE, QUOTA);
+    assertEquals(QUOTA, info.guota());
+    assertEquals(IQuota.build(prod), info.prodConsumption());
+    assertEquals(IQuota.build(nonProd), info.nonProdConsumption());
+  }
+
+  private static IScheduledTask setStatus(IScheduledTask task, ScheduleStatus status) {
+    return IScheduledTask.build(task.newBuilder().setStatus(status));
+  }
+
+  private static IScheduledTask makeTask(
+      String taskId,
+      String role,
+      ScheduleStatus status,
+      boolean production) {
+
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity(role, role))
+                .setEnvironment("test")
+                .setJobName("job")
+                .setNumCpus(1)
+                .setRamMb(2)
+                .setDiskMb(3)
+                .setProduction(production))));
+  }
+}
@@ -15,7 +15,14 @@
  */
 package org.apache.aurora.scheduler.quota;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
 import org.apache.aurora.gen.AssignedTask;
@@ -25,11 +32,16 @@ import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
 import org.apache.aurora.scheduler.base.Query;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.quota.QuotaManager.QuotaException;
 import org.apache.aurora.scheduler.quota.QuotaManager.QuotaManagerImpl;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.MutateWork;
 import org.apache.aurora.scheduler.storage.entities.IQuota;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+import org.apache.aurora.scheduler.storage.mem.MemStorage;
 import org.apache.aurora.scheduler.storage.testing.StorageTestUtil;
 import org.easymock.IExpectationSetters;
 import org.junit.Before;
@@ -39,6 +51,7 @@ import static org.apache.aurora.scheduler.quota.QuotaCheckResult.Result.INSUFFIC
 import static org.apache.aurora.scheduler.quota.QuotaCheckResult.Result.SUFFICIENT_QUOTA;
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class QuotaManagerImplTest extends EasyMockTest {
@@ -51,12 +64,14 @@ public class QuotaManagerImplTest extends EasyMockTest {
   private static final Query.Builder ACTIVE_QUERY = Query.roleScoped(ROLE).active();
 
   private StorageTestUtil storageUtil;
+  private QuotaLedger ledger;
   private QuotaManagerImpl quotaManager;
 
   @Before
   public void setUp() throws Exception {
     storageUtil = new StorageTestUtil(this);
-    quotaManager = new QuotaManagerImpl(storageUtil.storage);
+    ledger = new QuotaLedger();
+    quotaManager = new QuotaManagerImpl(storageUtil.storage, ledger, false);
   }
 
   @Test
@@ -66,7 +81,7 @@ public class QuotaManagerImplTest extends EasyMockTest {
     IQuota quota = IQuota.build(new Quota(4, 4, 4));
 
     expectQuota(quota);
-    expectTasks(prodTask, nonProdTask);
+    addActiveTasks(prodTask, nonProdTask);
     storageUtil.expectOperations();
 
     control.replay();
@@ -82,7 +97,6 @@ public class QuotaManagerImplTest extends EasyMockTest {
     IQuota quota = IQuota.build(new Quota(4, 4, 4));
 
     expectQuota(quota);
-    expectNoTasks();
     storageUtil.expectOperations();
 
     control.replay();
@@ -96,7 +110,7 @@ public class QuotaManagerImplTest extends EasyMockTest {
   @Test
   public void testCheckQuotaPasses() {
     expectQuota(IQuota.build(new Quota(4, 4, 4)));
-    expectTasks(createTask("foo", "id1", 3, 3, 3, true));
+    addActiveTasks(createTask("foo", "id1", 3, 3, 3, true));
     storageUtil.expectOperations();
 
     control.replay();
@@ -108,7 +122,6 @@ public class QuotaManagerImplTest extends EasyMockTest {
   @Test
   public void testCheckQuotaPassesNoTasks() {
     expectQuota(IQuota.build(new Quota(4, 4, 4)));
-    expectNoTasks();
     storageUtil.expectOperations();
 
     control.replay();
@@ -120,7 +133,9 @@ public class QuotaManagerImplTest extends EasyMockTest {
   @Test
   public void testCheckQuotaPassesNonProdUnaccounted() {
     expectQuota(IQuota.build(new Quota(4, 4, 4)));
-    expectTasks(createTask("foo", "id1", 3, 3, 3, true), createTask("bar", "id2", 5, 5, 5, false));
+    addActiveTasks(
+        createTask("foo", "id1", 3, 3, 3, true),
+        createTask("bar", "id2", 5, 5, 5, false));
     storageUtil.expectOperations();
 
     control.replay();
@@ -140,7 +155,6 @@ public class QuotaManagerImplTest extends EasyMockTest {
   @Test
   public void testCheckQuotaNoQuotaSet() {
     expect(storageUtil.quotaStore.fetchQuota(ROLE)).andReturn(Optional.<IQuota>absent());
-    expectNoTasks();
     storageUtil.expectOperations();
 
     control.replay();
@@ -151,7 +165,7 @@ public class QuotaManagerImplTest extends EasyMockTest {
   @Test
   public void testCheckQuotaExceedsCpu() {
     expectQuota(IQuota.build(new Quota(4, 4, 4)));
-    expectTasks(createTask("foo", "id1", 3, 3, 3, true));
+    addActiveTasks(createTask("foo", "id1", 3, 3, 3, true));
     storageUtil.expectOperations();
 
     control.replay();
@@ -163,7 +177,7 @@ public class QuotaManagerImplTest extends EasyMockTest {
   @Test
   public void testCheckQuotaExceedsRam() {
     expectQuota(IQuota.build(new Quota(4, 4, 4)));
-    expectTasks(createTask("foo", "id1", 3, 3, 3, true));
+    addActiveTasks(createTask("foo", "id1", 3, 3, 3, true));
     storageUtil.expectOperations();
 
     control.replay();
@@ -175,7 +189,7 @@ public class QuotaManagerImplTest extends EasyMockTest {
   @Test
   public void testCheckQuotaExceedsDisk() {
     expectQuota(IQuota.build(new Quota(4, 4, 4)));
-    expectTasks(createTask("foo", "id1", 3, 3, 3, true));
+    addActiveTasks(createTask("foo", "id1", 3, 3, 3, true));
     storageUtil.expectOperations();
 
     control.replay();
@@ -184,6 +198,99 @@ public class QuotaManagerImplTest extends EasyMockTest {
     assertTrue(checkQuota.getDetails().get().contains("DISK"));
   }
 
+  @Test
+  public void testVerifyLedger() {
+    quotaManager = new QuotaManagerImpl(storageUtil.storage, ledger, true);
+    IScheduledTask prodTask = createTask("foo", "id1", 3, 3, 3, true);
+    IScheduledTask nonProdTask = createTask("bar", "id2", 2, 2, 2, false);
+    IQuota quota = IQuota.build(new Quota(4, 4, 4));
+
+    // The ledger is missing the non-production task.
+    addActiveTasks(prodTask);
+    storageUtil.expectTaskFetch(ACTIVE_QUERY, prodTask, nonProdTask).times(2);
+    expectQuota(quota).times(2);
+    storageUtil.expectOperations();
+
+    control.replay();
+
+    QuotaInfo quotaInfo = quotaManager.getQuotaInfo(ROLE);
+    assertEquals(IQuota.build(new Quota(3, 3, 3)), quotaInfo.prodConsumption());
+    assertEquals(IQuota.build(new Quota(2, 2, 2)), quotaInfo.nonProdConsumption());
+    assertEquals(1L, quotaManager.getLedgerMismatches());
+
+    ledger.taskChangedState(TaskStateChange.initialized(nonProdTask));
+    quotaManager.getQuotaInfo(ROLE);
+    assertEquals(1L, quotaManager.getLedgerMismatches());
+  }
+
+  @Test
+  public void testConcurrentWriters() throws Exception {
+    control.replay();
+
+    final Storage storage = MemStorage.newEmptyStorage();
+    quotaManager = new QuotaManagerImpl(storage, ledger, false);
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getQuotaStore().saveQuota(ROLE, IQuota.build(new Quota(4, 4, 4)));
+      }
+    });
+
+    final CountDownLatch firstCommitted = new CountDownLatch(1);
+    final CountDownLatch secondWritten = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // The first writer's post-commit work is held up until the second writer completes, so the
+      // second writer may only observe the first writer's task through the ledger.
+      Future<Boolean> firstAdmitted = executor.submit(new Callable<Boolean>() {
+        @Override public Boolean call() {
+          return admitTask(storage, "id1", new Runnable() {
+            @Override public void run() {
+              firstCommitted.countDown();
+              try {
+                secondWritten.await();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            }
+          });
+        }
+      });
+
+      firstCommitted.await();
+      assertFalse(admitTask(storage, "id2", new Runnable() {
+        @Override public void run() {
+          // No-op.
+        }
+      }));
+      secondWritten.countDown();
+      assertTrue(firstAdmitted.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Admits a production task if quota allows, in the same way as the scheduler, by checking quota
+   * and inserting the task within one write transaction.  The task event is delivered to the
+   * ledger as a transactional subscriber.
+   */
+  private boolean admitTask(Storage storage, final String taskId, final Runnable postCommit) {
+    return storage.write(new MutateWork.Quiet<Boolean>() {
+      @Override public Boolean apply(MutableStoreProvider storeProvider) {
+        IScheduledTask task = createTask("foo", taskId, 3, 3, 3, true);
+        QuotaCheckResult check = quotaManager.checkQuota(task.getAssignedTask().getTask(), 1);
+        if (check.getResult() == INSUFFICIENT_QUOTA) {
+          return false;
+        }
+
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(task));
+        ledger.taskChangedState(TaskStateChange.transition(task, ScheduleStatus.INIT));
+        storeProvider.addPostCommitHook(postCommit);
+        return true;
+      }
+    });
+  }
+
   @Test
   public void testSaveQuotaPasses() throws Exception {
     storageUtil.quotaStore.saveQuota(ROLE, QUOTA);
@@ -209,12 +316,10 @@ public class QuotaManagerImplTest extends EasyMockTest {
     quotaManager.saveQuota(ROLE, IQuota.build(new Quota(-2.0, 4, 5)));
   }
 
-  private IExpectationSetters<?> expectTasks(IScheduledTask... tasks) {
-    return storageUtil.expectTaskFetch(ACTIVE_QUERY, tasks);
-  }
-
-  private IExpectationSetters<?> expectNoTasks() {
-    return expectTasks();
+  private void addActiveTasks(IScheduledTask... tasks) {
+    for (IScheduledTask task : tasks) {
+      ledger.taskChangedState(TaskStateChange.initialized(task));
+    }
   }
 
   private IExpectationSetters<Optional<IQuota>> expectQuota(IQuota quota) {
@@ -204,6 +204,7 @@ public abstract class BaseSchedulerCoreImplTest extends EasyMockTest {
         driver,
         taskIdGenerator,
         eventSink,
+        eventSink,
         rescheduleCalculator);
     ImmediateJobManager immediateManager = new ImmediateJobManager(stateManager, storage);
     cron = new CronJobManager(stateManager, storage, cronScheduler, shutdownRegistry);
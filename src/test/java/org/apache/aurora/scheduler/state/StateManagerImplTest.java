@@ -25,6 +25,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.PeekingIterator;
 import com.twitter.common.testing.easymock.EasyMockTest;
 import com.twitter.common.util.testing.FakeClock;
@@ -44,7 +45,10 @@ import org.apache.aurora.scheduler.events.EventSink;
 import org.apache.aurora.scheduler.events.PubsubEvent;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.state.StateManager.Transition;
 import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.MutateWork;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 import org.apache.aurora.scheduler.storage.mem.MemStorage;
@@ -80,6 +84,7 @@ public class StateManagerImplTest extends EasyMockTest {
   private Driver driver;
   private TaskIdGenerator taskIdGenerator;
   private EventSink eventSink;
+  private List<PubsubEvent> transactionalEvents;
   private RescheduleCalculator rescheduleCalculator;
   private StateManagerImpl stateManager;
   private final FakeClock clock = new FakeClock();
@@ -90,6 +95,7 @@ public class StateManagerImplTest extends EasyMockTest {
     taskIdGenerator = createMock(TaskIdGenerator.class);
     driver = createMock(Driver.class);
     eventSink = createMock(EventSink.class);
+    transactionalEvents = Lists.newArrayList();
     rescheduleCalculator = createMock(RescheduleCalculator.class);
     // TODO(William Farner): Use a mocked storage.
     storage = MemStorage.newEmptyStorage();
@@ -99,6 +105,11 @@ public class StateManagerImplTest extends EasyMockTest {
         driver,
         taskIdGenerator,
         eventSink,
+        new EventSink() {
+          @Override public void post(PubsubEvent event) {
+            transactionalEvents.add(event);
+          }
+        },
         rescheduleCalculator);
   }
 
@@ -203,6 +214,40 @@ public class StateManagerImplTest extends EasyMockTest {
     assertEquals(false, changeState(taskId, KILLING));
   }
 
+  @Test
+  public void testChangeStates() {
+    ITaskConfig task = makeTask(JIM, MY_JOB);
+    expect(taskIdGenerator.generate(task, 0)).andReturn("a");
+    expect(taskIdGenerator.generate(task, 1)).andReturn("b");
+    expect(taskIdGenerator.generate(task, 2)).andReturn("c");
+    expect(taskIdGenerator.generate(task, 3)).andReturn("d");
+    expectStateTransitions("a", INIT, PENDING, ASSIGNED, RUNNING, KILLING);
+    expectStateTransitions("b", INIT, PENDING);
+    expectStateTransitions("c", INIT, PENDING);
+    expectStateTransitions("d", INIT, PENDING);
+    driver.killTask("a");
+    // Pending tasks killed together are deleted together.
+    eventSink.post(matchTasksDeleted("b", "d"));
+
+    control.replay();
+
+    stateManager.insertPendingTasks(ImmutableMap.of(0, task, 1, task, 2, task, 3, task));
+    assignTask("a", HOST_A);
+    changeState("a", RUNNING);
+
+    Transition kill = Transition.to(KILLING, Optional.of("Killed"));
+    assertEquals(
+        ImmutableSet.of("a", "b", "d"),
+        stateManager.changeStates(ImmutableMap.of(
+            "a", kill,
+            "b", kill,
+            "c", new Transition(Optional.of(RUNNING), KILLING, Optional.<String>absent()),
+            "d", kill)));
+    assertEquals(
+        ImmutableSet.of("a", "c"),
+        Tasks.ids(Storage.Util.consistentFetchTasks(storage, Query.unscoped())));
+  }
+
   @Test
   public void testLostKillingTask() {
     ITaskConfig task = makeTask(JIM, MY_JOB);
@@ -246,6 +291,30 @@ public class StateManagerImplTest extends EasyMockTest {
     insertTask(task, 0);
   }
 
+  @Test
+  public void testTransactionalEvents() {
+    final ITaskConfig task = makeTask(JIM, MY_JOB);
+    final String taskId = "a";
+    expect(taskIdGenerator.generate(task, 0)).andReturn(taskId);
+    expectStateTransitions(taskId, INIT, PENDING);
+    eventSink.post(matchTasksDeleted(taskId));
+
+    control.replay();
+
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        insertTask(task, 0);
+        assertEquals(1, transactionalEvents.size());
+        TaskStateChange change = (TaskStateChange) transactionalEvents.get(0);
+        assertEquals(PENDING, change.getNewState());
+
+        stateManager.deleteTasks(ImmutableSet.of(taskId));
+        assertEquals(2, transactionalEvents.size());
+        assertTrue(transactionalEvents.get(1) instanceof TasksDeleted);
+      }
+    });
+  }
+
   @Test
   public void testDeleteTask() {
     ITaskConfig task = makeTask(JIM, MY_JOB);
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.stats;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.twitter.common.stats.StatsProvider;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Constraint;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.TaskConstraint;
+import org.apache.aurora.gen.ValueConstraint;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.configuration.ConfigurationManager;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskConfigRewritten;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.stats.ResourceCounter.GlobalMetric;
+import org.apache.aurora.scheduler.stats.ResourceCounter.Metric;
+import org.apache.aurora.scheduler.stats.ResourceCounter.MetricType;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.aurora.gen.ScheduleStatus.FINISHED;
+import static org.apache.aurora.gen.ScheduleStatus.INIT;
+import static org.apache.aurora.gen.ScheduleStatus.PENDING;
+import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceAggregatorTest extends EasyMockTest {
+
+  private AtomicLong drift;
+  private ResourceAggregator aggregator;
+
+  @Before
+  public void setUp() {
+    StatsProvider statsProvider = createMock(StatsProvider.class);
+    drift = new AtomicLong();
+    expect(statsProvider.makeCounter("resource_aggregate_reconciliations"))
+        .andReturn(new AtomicLong());
+    expect(statsProvider.makeCounter("resource_aggregate_drift")).andReturn(drift);
+
+    control.replay();
+    aggregator = new ResourceAggregator(statsProvider);
+  }
+
+  private static IScheduledTask makeTask(
+      String id,
+      String job,
+      ScheduleStatus status,
+      boolean production,
+      boolean dedicated) {
+
+    TaskConfig config = new TaskConfig()
+        .setOwner(new Identity("role", "role"))
+        .setEnvironment("test")
+        .setJobName(job)
+        .setProduction(production)
+        .setNumCpus(2)
+        .setRamMb(1024)
+        .setDiskMb(2048)
+        .setConstraints(ImmutableSet.<Constraint>of());
+    if (dedicated) {
+      config.addToConstraints(new Constraint(
+          ConfigurationManager.DEDICATED_ATTRIBUTE,
+          TaskConstraint.value(new ValueConstraint(false, ImmutableSet.of("role/pool")))));
+    }
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask().setTaskId(id).setTask(config)));
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus newState) {
+    aggregator.taskChangedState(TaskStateChange.transition(
+        IScheduledTask.build(task.newBuilder().setStatus(newState)),
+        task.getStatus()));
+  }
+
+  private Metric getTotal(MetricType type) {
+    for (GlobalMetric metric : aggregator.getConsumptionTotals()) {
+      if (metric.type == type) {
+        return metric;
+      }
+    }
+    throw new IllegalArgumentException("No total for " + type);
+  }
+
+  private static void assertMetric(long cpu, long ramGb, long diskGb, Metric metric) {
+    assertEquals(cpu, metric.getCpu());
+    assertEquals(ramGb, metric.getRamGb());
+    assertEquals(diskGb, metric.getDiskGb());
+  }
+
+  @Test
+  public void testAggregates() {
+    IScheduledTask prod = makeTask("a", "prod", PENDING, true, false);
+    IScheduledTask nonProd = makeTask("b", "nonprod", INIT, false, false);
+    IScheduledTask dedicated = makeTask("c", "dedicated", RUNNING, false, true);
+
+    aggregator.taskChangedState(TaskStateChange.initialized(prod));
+    aggregator.taskChangedState(TaskStateChange.initialized(dedicated));
+    aggregator.taskChangedState(TaskStateChange.initialized(nonProd));
+    assertMetric(4, 2, 4, getTotal(MetricType.TOTAL_CONSUMED));
+
+    changeState(nonProd, PENDING);
+    assertMetric(6, 3, 6, getTotal(MetricType.TOTAL_CONSUMED));
+    assertMetric(2, 1, 2, getTotal(MetricType.QUOTA_CONSUMED));
+    assertMetric(2, 1, 2, getTotal(MetricType.DEDICATED_CONSUMED));
+    assertMetric(2, 1, 2, getTotal(MetricType.FREE_POOL_CONSUMED));
+    assertMetric(6, 3, 6, aggregator.getRoleAggregates(MetricType.TOTAL_CONSUMED).get("role"));
+    assertMetric(
+        2, 1, 2,
+        aggregator.getJobAggregates(MetricType.QUOTA_CONSUMED)
+            .get(JobKeys.from("role", "test", "prod")));
+    assertMetric(2, 1, 2, aggregator.getDedicatedPoolAggregates().get("role/pool"));
+
+    changeState(dedicated, FINISHED);
+    assertMetric(0, 0, 0, getTotal(MetricType.DEDICATED_CONSUMED));
+    assertEquals(0, aggregator.getDedicatedPoolAggregates().size());
+
+    aggregator.tasksDeleted(new TasksDeleted(ImmutableSet.of(
+        prod,
+        IScheduledTask.build(dedicated.newBuilder().setStatus(FINISHED)))));
+    assertMetric(2, 1, 2, getTotal(MetricType.TOTAL_CONSUMED));
+    Map<String, Metric> byRole = aggregator.getRoleAggregates(MetricType.QUOTA_CONSUMED);
+    assertEquals(0, byRole.size());
+  }
+
+  @Test
+  public void testConfigRewrites() {
+    IScheduledTask running = makeTask("a", "job", RUNNING, true, false);
+    IScheduledTask finished = makeTask("b", "job", FINISHED, true, false);
+    aggregator.taskChangedState(TaskStateChange.initialized(running));
+    assertMetric(2, 1, 2, getTotal(MetricType.QUOTA_CONSUMED));
+
+    ITaskConfig rewritten = ITaskConfig.build(
+        running.getAssignedTask().getTask().newBuilder().setProduction(false).setNumCpus(4));
+    aggregator.taskConfigRewritten(new TaskConfigRewritten(running, rewritten));
+    assertMetric(4, 1, 2, getTotal(MetricType.TOTAL_CONSUMED));
+    assertMetric(0, 0, 0, getTotal(MetricType.QUOTA_CONSUMED));
+    assertMetric(4, 1, 2, getTotal(MetricType.FREE_POOL_CONSUMED));
+
+    // Rewrites of inactive tasks are not counted.
+    aggregator.taskConfigRewritten(new TaskConfigRewritten(finished, rewritten));
+    assertMetric(4, 1, 2, getTotal(MetricType.TOTAL_CONSUMED));
+  }
+
+  @Test
+  public void testReconcile() {
+    aggregator.taskChangedState(
+        TaskStateChange.initialized(makeTask("a", "job", RUNNING, true, false)));
+
+    List<GlobalMetric> scanned = aggregator.getConsumptionTotals();
+    assertTrue(aggregator.reconcile(scanned));
+    assertEquals(0, drift.get());
+
+    assertFalse(
+        aggregator.reconcile(ImmutableList.of(new GlobalMetric(MetricType.QUOTA_CONSUMED))));
+    assertEquals(1, drift.get());
+  }
+}
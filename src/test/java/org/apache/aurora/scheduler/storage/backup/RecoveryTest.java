@@ -19,6 +19,7 @@ import java.io.File;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.testing.TearDown;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.twitter.common.base.Command;
 import com.twitter.common.io.FileUtils;
 import com.twitter.common.quantity.Amount;
@@ -89,8 +90,11 @@ public class RecoveryTest extends EasyMockTest {
     shutDownNow = createMock(Command.class);
     clock = new FakeClock();
     TemporaryStorageFactory factory = new TemporaryStorageFactory();
-    storageBackup =
-        new StorageBackupImpl(snapshotStore, clock, new BackupConfig(backupDir, 5, INTERVAL));
+    storageBackup = new StorageBackupImpl(
+        snapshotStore,
+        clock,
+        new BackupConfig(backupDir, 5, INTERVAL),
+        MoreExecutors.sameThreadExecutor());
     recovery = new RecoveryImpl(backupDir, factory, primaryStorage, distributedStore, shutDownNow);
   }
 
@@ -16,13 +16,18 @@
 package org.apache.aurora.scheduler.storage.backup;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.google.common.testing.TearDown;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.twitter.common.io.FileUtils;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -48,6 +53,7 @@ import org.junit.Test;
 
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class StorageBackupTest extends EasyMockTest {
 
@@ -71,7 +77,8 @@ public class StorageBackupTest extends EasyMockTest {
     });
     config = new BackupConfig(backupDir, MAX_BACKUPS, INTERVAL);
     clock.advance(Amount.of(365 * 30L, Time.DAYS));
-    storageBackup = new StorageBackupImpl(delegate, clock, config);
+    storageBackup =
+        new StorageBackupImpl(delegate, clock, config, MoreExecutors.sameThreadExecutor());
   }
 
   @Test
@@ -91,12 +98,77 @@ public class StorageBackupTest extends EasyMockTest {
     assertBackupCount(1);
     assertEquals(1, storageBackup.getSuccesses().get());
 
-    Snapshot restored = ThriftBinaryCodec.decode(
-        Snapshot.class,
-        Files.toByteArray(config.getDir().listFiles()[0]));
+    Snapshot restored = BackupFiles.read(config.getDir().listFiles()[0]);
     assertEquals(snapshot, restored);
   }
 
+  @Test
+  public void testBackupSkippedWhileInProgress() throws Exception {
+    Snapshot snapshot = makeSnapshot();
+    expect(delegate.createSnapshot()).andReturn(snapshot).times(3);
+
+    control.replay();
+
+    final List<Runnable> pending = Lists.newArrayList();
+    storageBackup = new StorageBackupImpl(delegate, clock, config, new Executor() {
+      @Override public void execute(Runnable command) {
+        pending.add(command);
+      }
+    });
+
+    clock.advance(INTERVAL);
+    assertEquals(snapshot, storageBackup.createSnapshot());
+    clock.advance(INTERVAL);
+    assertEquals(snapshot, storageBackup.createSnapshot());
+    assertEquals(1, pending.size());
+    assertEquals(1, storageBackup.getSkipped().get());
+    assertBackupCount(0);
+
+    pending.remove(0).run();
+    assertBackupCount(1);
+    assertEquals(1, storageBackup.getSuccesses().get());
+
+    clock.advance(INTERVAL);
+    assertEquals(snapshot, storageBackup.createSnapshot());
+    assertEquals(1, pending.size());
+  }
+
+  @Test
+  public void testReadUncompressedBackup() throws Exception {
+    control.replay();
+
+    Snapshot snapshot = makeSnapshot();
+    File legacy = new File(config.getDir(), storageBackup.createBackupName());
+    Files.write(ThriftBinaryCodec.encodeNonNull(snapshot), legacy);
+    assertEquals(snapshot, BackupFiles.read(legacy));
+  }
+
+  @Test
+  public void testCorruptBackupRejected() throws Exception {
+    Snapshot snapshot = makeSnapshot();
+    expect(delegate.createSnapshot()).andReturn(snapshot);
+
+    control.replay();
+
+    storageBackup.backupNow();
+    File backup = config.getDir().listFiles()[0];
+    try (RandomAccessFile file = new RandomAccessFile(backup, "rw")) {
+      // Corrupts the CRC32 in the gzip trailer.
+      long crcOffset = file.length() - 8;
+      file.seek(crcOffset);
+      int crcByte = file.read();
+      file.seek(crcOffset);
+      file.write(~crcByte);
+    }
+
+    try {
+      BackupFiles.read(backup);
+      fail("Corrupt backup should not be readable.");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
   @Test
   public void testDirectoryMissing() {
     Snapshot snapshot = makeSnapshot();
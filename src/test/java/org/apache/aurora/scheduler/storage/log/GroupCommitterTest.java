@@ -0,0 +1,150 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import com.google.common.collect.ImmutableList;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import org.apache.aurora.codec.ThriftBinaryCodec;
+import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.gen.storage.LogEntry;
+import org.apache.aurora.gen.storage.Op;
+import org.apache.aurora.gen.storage.RemoveJob;
+import org.apache.aurora.gen.storage.SaveFrameworkId;
+import org.apache.aurora.gen.storage.Transaction;
+import org.apache.aurora.gen.storage.storageConstants;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.log.Log.Position;
+import org.apache.aurora.scheduler.log.Log.Stream;
+import org.apache.aurora.scheduler.log.Log.Stream.StreamAccessException;
+import org.apache.aurora.scheduler.storage.log.GroupCommitter.PendingCommit;
+import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager;
+import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.checkOrder;
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class GroupCommitterTest extends EasyMockTest {
+
+  private static final Op OP_1 = Op.saveFrameworkId(new SaveFrameworkId("a"));
+  private static final Op OP_2 =
+      Op.removeJob(new RemoveJob(JobKeys.from("role", "env", "job").newBuilder()));
+  private static final Op OP_3 = Op.saveFrameworkId(new SaveFrameworkId("b"));
+
+  private Stream stream;
+  private StreamManager streamManager;
+  private GroupCommitter committer;
+
+  @Before
+  public void setUp() {
+    stream = createMock(Stream.class);
+    streamManager = new StreamManager(
+        stream,
+        EntryCompression.NONE,
+        false,
+        Amount.of(Integer.MAX_VALUE, Data.GB),
+        1);
+    committer = new GroupCommitter(streamManager);
+  }
+
+  private PendingCommit enqueue(Op op) {
+    StreamTransaction transaction = streamManager.startTransaction();
+    transaction.add(op);
+    return committer.enqueue(transaction);
+  }
+
+  private void expectAppend(Op... ops) throws CodingException {
+    expect(stream.append(aryEq(encode(ops)))).andReturn(createMock(Position.class));
+  }
+
+  private static byte[] encode(Op... ops) throws CodingException {
+    return ThriftBinaryCodec.encode(LogEntry.transaction(
+        new Transaction(ImmutableList.copyOf(ops), storageConstants.CURRENT_SCHEMA_VERSION)));
+  }
+
+  @Test
+  public void testQueuedTransactionsShareAppend() throws Exception {
+    expectAppend(OP_1, OP_2);
+    expectAppend(OP_3);
+
+    control.replay();
+
+    PendingCommit first = enqueue(OP_1);
+    PendingCommit second = enqueue(OP_2);
+
+    // The first writer to wait commits both transactions, and the second finds its own done.
+    committer.await(first);
+    committer.await(second);
+
+    committer.await(enqueue(OP_3));
+  }
+
+  @Test
+  public void testFailureReachesEveryWaiter() throws Exception {
+    StreamAccessException failure = new StreamAccessException("Append failed", null);
+    expect(stream.append(aryEq(encode(OP_1, OP_2)))).andThrow(failure);
+    expectAppend(OP_3);
+
+    control.replay();
+
+    PendingCommit first = enqueue(OP_1);
+    PendingCommit second = enqueue(OP_2);
+    for (PendingCommit pending : ImmutableList.of(first, second)) {
+      try {
+        committer.await(pending);
+        fail("Expected the failed append to be reported");
+      } catch (StreamAccessException e) {
+        assertSame(failure, e);
+      }
+    }
+
+    // A failed batch does not prevent later transactions from being committed.
+    committer.await(enqueue(OP_3));
+  }
+
+  @Test
+  public void testFlushQueuedBeforeSnapshotMarker() throws Exception {
+    checkOrder(stream, true);
+    expectAppend(OP_1, OP_2);
+    expect(stream.append(aryEq(ThriftBinaryCodec.encode(LogEntry.snapshotMarker(1L)))))
+        .andReturn(createMock(Position.class));
+
+    control.replay();
+
+    PendingCommit first = enqueue(OP_1);
+    PendingCommit second = enqueue(OP_2);
+    committer.flushQueued();
+    streamManager.markSnapshot(1L);
+
+    // Writers of flushed transactions are released without appending again.
+    committer.await(first);
+    committer.await(second);
+  }
+
+  @Test
+  public void testFlushQueuedEmpty() throws Exception {
+    control.replay();
+
+    committer.flushQueued();
+  }
+}
@@ -18,13 +18,17 @@ package org.apache.aurora.scheduler.storage.log;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -45,6 +49,8 @@ import org.apache.aurora.gen.HostAttributes;
 import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.storage.CompressionCodec;
+import org.apache.aurora.gen.storage.DeltaSnapshot;
 import org.apache.aurora.gen.storage.Frame;
 import org.apache.aurora.gen.storage.FrameChunk;
 import org.apache.aurora.gen.storage.FrameHeader;
@@ -63,6 +69,7 @@ import org.apache.aurora.scheduler.log.Log.Entry;
 import org.apache.aurora.scheduler.log.Log.Position;
 import org.apache.aurora.scheduler.log.Log.Stream;
 import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager;
+import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager.EntrySerializer;
 import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -74,16 +81,20 @@ import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LogManagerTest extends EasyMockTest {
 
   private static final Amount<Integer, Data> NO_FRAMES_EVER_SIZE =
       Amount.of(Integer.MAX_VALUE, Data.GB);
 
+  private static final int RECOVERY_THREADS = 2;
+
   private static final Function<LogEntry, byte[]> ENCODE = new Function<LogEntry, byte[]>() {
     @Override public byte[] apply(LogEntry entry) {
       try {
@@ -110,7 +121,7 @@ public class LogManagerTest extends EasyMockTest {
   }
 
   private StreamManager createStreamManager(Amount<Integer, Data> maxEntrySize) {
-    return new StreamManager(stream, false, maxEntrySize);
+    return new StreamManager(stream, EntryCompression.NONE, false, maxEntrySize, RECOVERY_THREADS);
   }
 
   @Test
@@ -127,7 +138,13 @@ public class LogManagerTest extends EasyMockTest {
 
     control.replay();
 
-    new LogManager(log, NO_FRAMES_EVER_SIZE, false, shutdownRegistry).open();
+    new LogManager(
+        log,
+        NO_FRAMES_EVER_SIZE,
+        EntryCompression.NONE,
+        false,
+        RECOVERY_THREADS,
+        shutdownRegistry).open();
 
     assertTrue(shutdownAction.hasCaptured());
     shutdownAction.getValue().execute();
@@ -262,6 +279,29 @@ public class LogManagerTest extends EasyMockTest {
     createNoMessagesStreamManager().snapshot(snapshot);
   }
 
+  @Test
+  public void testSnapshotDelta() throws CodingException {
+    Snapshot snapshot = createSnapshot();
+    expectAppend(position1, LogEntry.snapshot(snapshot));
+    stream.truncateBefore(position1);
+
+    // The delta records the timestamp of its base, and the log is not truncated.
+    DeltaSnapshot delta = new DeltaSnapshot()
+        .setTimestamp(2L)
+        .setBaseTimestamp(snapshot.getTimestamp())
+        .setChanged(new Snapshot().setTimestamp(2L))
+        .setRemovedTaskIds(ImmutableSet.of("task_id"));
+    expectAppend(position2, LogEntry.deltaSnapshot(delta));
+
+    control.replay();
+
+    StreamManager streamManager = createNoMessagesStreamManager();
+    assertFalse(streamManager.hasBaseSnapshot());
+    streamManager.snapshot(snapshot);
+    assertTrue(streamManager.hasBaseSnapshot());
+    streamManager.snapshotDelta(delta);
+  }
+
   @Test
   public void testTransactionOps() throws CodingException {
     Op saveFrameworkId = Op.saveFrameworkId(new SaveFrameworkId("jake"));
@@ -278,6 +318,25 @@ public class LogManagerTest extends EasyMockTest {
     assertSame(position1, position);
   }
 
+  @Test
+  public void testCommitAll() throws CodingException {
+    Op saveFrameworkId = Op.saveFrameworkId(new SaveFrameworkId("jake"));
+    Op deleteJob = Op.removeJob(new RemoveJob(JobKeys.from("role", "env", "name").newBuilder()));
+    expectTransaction(position1, saveFrameworkId, deleteJob);
+
+    control.replay();
+
+    StreamManager streamManager = createNoMessagesStreamManager();
+    StreamTransaction first = streamManager.startTransaction();
+    first.add(saveFrameworkId);
+    StreamTransaction empty = streamManager.startTransaction();
+    StreamTransaction second = streamManager.startTransaction();
+    second.add(deleteJob);
+
+    Position position = streamManager.commitAll(ImmutableList.of(first, empty, second));
+    assertSame(position1, position);
+  }
+
   static class Message {
     private final Amount<Integer, Data> chunkSize;
     private final LogEntry header;
@@ -391,7 +450,13 @@ public class LogManagerTest extends EasyMockTest {
       }
     };
 
-    final StreamManager streamManager = new StreamManager(mockStream, false, message1.chunkSize);
+    final StreamManager streamManager =
+        new StreamManager(
+            mockStream,
+            EntryCompression.NONE,
+            false,
+            message1.chunkSize,
+            RECOVERY_THREADS);
     StreamTransaction tr1 = streamManager.startTransaction();
     tr1.add(op1);
 
@@ -493,11 +558,242 @@ public class LogManagerTest extends EasyMockTest {
 
     control.replay();
 
-    StreamManager streamManager = new StreamManager(stream, true, NO_FRAMES_EVER_SIZE);
+    StreamManager streamManager = new StreamManager(
+        stream,
+        EntryCompression.DEFLATE_SNAPSHOTS,
+        false,
+        NO_FRAMES_EVER_SIZE,
+        RECOVERY_THREADS);
+    streamManager.snapshot(snapshot);
+    streamManager.readFromBeginning(reader);
+  }
+
+  @Test
+  public void testSerializeDeflatedFrames() throws Exception {
+    control.replay();
+
+    LogEntry snapshotLogEntry = LogEntry.snapshot(createSnapshot());
+    Message message = frame(Entries.deflate(snapshotLogEntry));
+    EntrySerializer serializer = new EntrySerializer(message.chunkSize);
+
+    byte[][] expected = serializer.serialize(Entries.deflate(snapshotLogEntry));
+    byte[][] actual =
+        serializer.serializeCompressed(snapshotLogEntry, EntryCompression.DEFLATE_SNAPSHOTS);
+    assertEquals(message.chunks.size() + 1, actual.length);
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertArrayEquals(expected[i], actual[i]);
+    }
+    assertEquals(message.header, Entries.thriftBinaryDecode(actual[0]));
+  }
+
+  @Test
+  public void testWriteAndReadLz4Snapshot() throws Exception {
+    Snapshot snapshot = createSnapshot();
+    LogEntry snapshotLogEntry = LogEntry.snapshot(snapshot);
+    EntryCompression compression = new EntryCompression(
+        EntryCodec.LZ4,
+        Deflater.DEFAULT_COMPRESSION,
+        true,
+        Optional.<Amount<Integer, Data>>absent());
+    byte[] compressed = new EntrySerializer(NO_FRAMES_EVER_SIZE)
+        .serializeCompressed(snapshotLogEntry, compression)[0];
+    LogEntry compressedEntry = Entries.thriftBinaryDecode(compressed);
+    assertEquals(CompressionCodec.LZ4, compressedEntry.getCompressedEntry().getCodec());
+    assertEquals(snapshotLogEntry, Entries.decompress(compressedEntry));
+
+    Entry snapshotEntry = createMock(Entry.class);
+    expect(stream.append(EasyMock.aryEq(compressed))).andReturn(position1);
+    stream.truncateBefore(position1);
+    expect(snapshotEntry.contents()).andReturn(compressed);
+    expect(stream.readAll()).andReturn(ImmutableList.of(snapshotEntry).iterator());
+
+    Closure<LogEntry> reader = createMock(new Clazz<Closure<LogEntry>>() { });
+    reader.execute(snapshotLogEntry);
+
+    control.replay();
+
+    StreamManager streamManager =
+        new StreamManager(stream, compression, false, NO_FRAMES_EVER_SIZE, RECOVERY_THREADS);
+    streamManager.snapshot(snapshot);
+    streamManager.readFromBeginning(reader);
+  }
+
+  @Test
+  public void testCompressLargeTransactions() throws Exception {
+    Op saveFrameworkId = Op.saveFrameworkId(new SaveFrameworkId("jake"));
+    Op removeJob = Op.removeJob(new RemoveJob(JobKeys.from("role", "env", "name").newBuilder()));
+    EntryCompression compression = new EntryCompression(
+        EntryCodec.DEFLATE,
+        Deflater.BEST_COMPRESSION,
+        false,
+        Optional.of(Amount.of(encode(createLogEntry(saveFrameworkId)).length, Data.BYTES)));
+
+    Capture<byte[]> small = new Capture<>();
+    expect(stream.append(capture(small))).andReturn(position1);
+    Capture<byte[]> large = new Capture<>();
+    expect(stream.append(capture(large))).andReturn(position2);
+
+    control.replay();
+
+    StreamManager streamManager =
+        new StreamManager(stream, compression, false, NO_FRAMES_EVER_SIZE, RECOVERY_THREADS);
+    StreamTransaction transaction = streamManager.startTransaction();
+    transaction.add(saveFrameworkId);
+    transaction.commit();
+    transaction = streamManager.startTransaction();
+    transaction.add(saveFrameworkId);
+    transaction.add(removeJob);
+    transaction.commit();
+
+    assertEquals(createLogEntry(saveFrameworkId), Entries.thriftBinaryDecode(small.getValue()));
+    LogEntry compressed = Entries.thriftBinaryDecode(large.getValue());
+    assertTrue(Entries.isCompressed(compressed));
+    assertEquals(createLogEntry(saveFrameworkId, removeJob), Entries.decompress(compressed));
+  }
+
+  @Test
+  public void testWriteAndReadDeduplicatedSnapshot() throws Exception {
+    Snapshot snapshot = createSnapshot();
+    LogEntry deduplicated =
+        LogEntry.deduplicatedSnapshot(SnapshotDeduplicator.deduplicate(snapshot.deepCopy()));
+
+    Entry snapshotEntry = createMock(Entry.class);
+    expect(stream.append(EasyMock.aryEq(encode(deduplicated)))).andReturn(position1);
+    stream.truncateBefore(position1);
+    expect(snapshotEntry.contents()).andReturn(encode(deduplicated));
+    expect(stream.readAll()).andReturn(ImmutableList.of(snapshotEntry).iterator());
+
+    Closure<LogEntry> reader = createMock(new Clazz<Closure<LogEntry>>() { });
+    reader.execute(LogEntry.snapshot(snapshot));
+
+    control.replay();
+
+    StreamManager streamManager = new StreamManager(
+        stream,
+        EntryCompression.NONE,
+        true,
+        NO_FRAMES_EVER_SIZE,
+        RECOVERY_THREADS);
     streamManager.snapshot(snapshot);
     streamManager.readFromBeginning(reader);
   }
 
+  @Test
+  public void testReadAheadPreservesOrder() throws Exception {
+    List<LogEntry> written = Lists.newArrayList();
+    List<Entry> entries = Lists.newArrayList();
+    for (int i = 0; i < 200; i++) {
+      LogEntry logEntry = createLogEntry(Op.saveFrameworkId(new SaveFrameworkId("id" + i)));
+      written.add(logEntry);
+      // Some entries are deflated, so that they are also expanded on the decoder pool.
+      entries.add(entryOf(encode((i % 3 == 0) ? Entries.deflate(logEntry) : logEntry)));
+    }
+    expect(stream.readAll()).andReturn(entries.iterator());
+
+    control.replay();
+
+    List<LogEntry> read = Lists.newArrayList();
+    new StreamManager(stream, EntryCompression.NONE, false, NO_FRAMES_EVER_SIZE, 4)
+        .readFromBeginning(recordingReader(read));
+    assertEquals(written, read);
+  }
+
+  @Test
+  public void testDecodeFailureAfterPrecedingEntries() throws Exception {
+    LogEntry transaction1 = createLogEntry(Op.saveFrameworkId(new SaveFrameworkId("a")));
+    LogEntry transaction2 = createLogEntry(Op.saveFrameworkId(new SaveFrameworkId("b")));
+    LogEntry transaction3 = createLogEntry(Op.saveFrameworkId(new SaveFrameworkId("c")));
+    byte[] encoded = encode(transaction3);
+    expect(stream.readAll()).andReturn(ImmutableList.of(
+        entryOf(encode(transaction1)),
+        entryOf(encode(transaction2)),
+        entryOf(Arrays.copyOf(encoded, encoded.length - 1)),
+        entryOf(encoded)).iterator());
+
+    control.replay();
+
+    List<LogEntry> read = Lists.newArrayList();
+    try {
+      createNoMessagesStreamManager().readFromBeginning(recordingReader(read));
+      fail("Expected the truncated entry to fail decoding.");
+    } catch (CodingException e) {
+      // Expected.
+    }
+    assertEquals(ImmutableList.of(transaction1, transaction2), read);
+  }
+
+  @Test
+  public void testAbortedFrameFollowedByEntry() throws Exception {
+    LogEntry transaction1 = createLogEntry(
+        Op.removeJob(new RemoveJob(JobKeys.from("r1", "env", "name").newBuilder())));
+    LogEntry transaction2 = createLogEntry(
+        Op.removeJob(new RemoveJob(JobKeys.from("r2", "env", "name").newBuilder())));
+    Message message = frame(transaction1);
+    assertTrue(message.chunks.size() > 1);
+
+    // The frame is interrupted after its first chunk by a standard entry.
+    expect(stream.readAll()).andReturn(ImmutableList.of(
+        entryOf(encode(message.header)),
+        entryOf(encode(message.chunks.get(0))),
+        entryOf(encode(transaction2))).iterator());
+
+    control.replay();
+
+    List<LogEntry> read = Lists.newArrayList();
+    createStreamManager(message.chunkSize).readFromBeginning(recordingReader(read));
+    assertEquals(ImmutableList.of(transaction2), read);
+  }
+
+  @Test
+  public void testReaderFailureStopsRecoveryThreads() throws Exception {
+    List<Entry> entries = Lists.newArrayList();
+    for (int i = 0; i < 500; i++) {
+      entries.add(entryOf(encode(
+          createLogEntry(Op.saveFrameworkId(new SaveFrameworkId("id" + i))))));
+    }
+    expect(stream.readAll()).andReturn(entries.iterator());
+
+    control.replay();
+
+    final IllegalStateException failure = new IllegalStateException("Reader failed");
+    try {
+      createNoMessagesStreamManager().readFromBeginning(new Closure<LogEntry>() {
+        @Override public void execute(LogEntry logEntry) {
+          throw failure;
+        }
+      });
+      fail("Expected the reader failure to propagate.");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+
+    // The read-ahead thread is blocked on a full queue of decoded entries, and must be stopped
+    // along with the decoders.
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("LogRecovery-")) {
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(thread.isAlive());
+      }
+    }
+  }
+
+  private static Entry entryOf(final byte[] contents) {
+    return new Entry() {
+      @Override public byte[] contents() {
+        return contents;
+      }
+    };
+  }
+
+  private static Closure<LogEntry> recordingReader(final List<LogEntry> read) {
+    return new Closure<LogEntry>() {
+      @Override public void execute(LogEntry logEntry) {
+        read.add(logEntry);
+      }
+    };
+  }
+
   private Snapshot createSnapshot() {
     return new Snapshot()
         .setTimestamp(1L)
@@ -22,6 +22,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
@@ -33,6 +34,7 @@ import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.testing.FakeClock;
 
 import org.apache.aurora.codec.ThriftBinaryCodec;
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
@@ -47,8 +49,10 @@ import org.apache.aurora.gen.Quota;
 import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.storage.DeltaSnapshot;
 import org.apache.aurora.gen.storage.LogEntry;
 import org.apache.aurora.gen.storage.Op;
+import org.apache.aurora.gen.storage.QuotaConfiguration;
 import org.apache.aurora.gen.storage.RemoveJob;
 import org.apache.aurora.gen.storage.RemoveLock;
 import org.apache.aurora.gen.storage.RemoveQuota;
@@ -60,7 +64,9 @@ import org.apache.aurora.gen.storage.SaveHostAttributes;
 import org.apache.aurora.gen.storage.SaveLock;
 import org.apache.aurora.gen.storage.SaveQuota;
 import org.apache.aurora.gen.storage.SaveTasks;
+import org.apache.aurora.gen.storage.SchedulerMetadata;
 import org.apache.aurora.gen.storage.Snapshot;
+import org.apache.aurora.gen.storage.StoredJob;
 import org.apache.aurora.gen.storage.Transaction;
 import org.apache.aurora.gen.storage.storageConstants;
 import org.apache.aurora.scheduler.base.JobKeys;
@@ -96,7 +102,9 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.notNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LogStorageTest extends EasyMockTest {
 
@@ -112,36 +120,57 @@ public class LogStorageTest extends EasyMockTest {
   private SchedulingService schedulingService;
   private SnapshotStore<Snapshot> snapshotStore;
   private StorageTestUtil storageUtil;
+  private FakeClock clock;
 
   @Before
   public void setUp() {
     log = createMock(Log.class);
 
     shutdownRegistry = createMock(ShutdownRegistry.class);
-    LogManager logManager = new LogManager(log, Amount.of(1, Data.GB), false, shutdownRegistry);
 
     schedulingService = createMock(SchedulingService.class);
     snapshotStore = createMock(new Clazz<SnapshotStore<Snapshot>>() { });
     storageUtil = new StorageTestUtil(this);
+    clock = new FakeClock();
+    clock.setNowMillis(NOW);
 
-    logStorage =
-        new LogStorage(logManager,
-            schedulingService,
-            snapshotStore,
-            SNAPSHOT_INTERVAL,
-            storageUtil.storage,
-            storageUtil.schedulerStore,
-            storageUtil.jobStore,
-            storageUtil.taskStore,
-            storageUtil.lockStore,
-            storageUtil.quotaStore,
-            storageUtil.attributeStore);
+    logStorage = createLogStorage(0);
 
     stream = createMock(Stream.class);
     streamMatcher = LogOpMatcher.matcherFor(stream);
     position = createMock(Position.class);
   }
 
+  private LogStorage createLogStorage(int snapshotDeltas) {
+    return createLogStorage(snapshotDeltas, false);
+  }
+
+  private LogStorage createLogStorage(int snapshotDeltas, boolean groupCommit) {
+    LogManager logManager = new LogManager(
+        log,
+        Amount.of(1, Data.GB),
+        EntryCompression.NONE,
+        false,
+        1,
+        shutdownRegistry);
+
+    return new LogStorage(
+        logManager,
+        schedulingService,
+        snapshotStore,
+        SNAPSHOT_INTERVAL,
+        groupCommit,
+        snapshotDeltas,
+        clock,
+        storageUtil.storage,
+        storageUtil.schedulerStore,
+        storageUtil.jobStore,
+        storageUtil.taskStore,
+        storageUtil.lockStore,
+        storageUtil.quotaStore,
+        storageUtil.attributeStore);
+  }
+
   @Test
   public void testStart() throws Exception {
     // We should open the log and arrange for its clean shutdown.
@@ -212,15 +241,16 @@ public class LogStorageTest extends EasyMockTest {
             new ScheduledTask()
                 .setStatus(ScheduleStatus.RUNNING)
                 .setAssignedTask(new AssignedTask().setTaskId("task_id"))));
-    expect(snapshotStore.createSnapshot()).andReturn(snapshotContents);
+    Position markerPosition = createMock(Position.class);
+    streamMatcher.expectSnapshotMarker(NOW).andReturn(markerPosition);
+    expect(snapshotStore.captureSnapshot()).andReturn(Suppliers.ofInstance(snapshotContents));
     streamMatcher.expectSnapshot(snapshotContents).andReturn(position);
-    stream.truncateBefore(position);
-    final Capture<MutateWork<Void, RuntimeException>> snapshotWork = createCapture();
+    stream.truncateBefore(markerPosition);
+    final Capture<MutateWork<Object, Exception>> snapshotWork = createCapture();
     expect(storageUtil.storage.write(capture(snapshotWork))).andAnswer(
-        new IAnswer<Void>() {
-          @Override public Void answer() {
-            snapshotWork.getValue().apply(storageUtil.mutableStoreProvider);
-            return null;
+        new IAnswer<Object>() {
+          @Override public Object answer() throws Exception {
+            return snapshotWork.getValue().apply(storageUtil.mutableStoreProvider);
           }
         }).times(2);
     storageUtil.storage.snapshot();
@@ -239,6 +269,77 @@ public class LogStorageTest extends EasyMockTest {
     shutdownStream.getValue().execute();
   }
 
+  @Test
+  public void testRecoverSkipsSupersededTransactions() throws Exception {
+    logStorage = createLogStorage(1);
+
+    expect(log.open()).andReturn(stream);
+    shutdownRegistry.addAction(EasyMock.<Command>notNull());
+
+    final Capture<MutateWork.NoResult.Quiet> recoverAndInitializeWork = createCapture();
+    storageUtil.storage.write(capture(recoverAndInitializeWork));
+    expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override public Void answer() throws Throwable {
+        recoverAndInitializeWork.getValue().apply(storageUtil.mutableStoreProvider);
+        return null;
+      }
+    });
+
+    // The delta supersedes the transactions between its base and its marker, which are skipped.
+    // Transactions following the marker are applied after the delta.
+    Snapshot base = new Snapshot().setTimestamp(1L);
+    DeltaSnapshot delta = new DeltaSnapshot()
+        .setTimestamp(2L)
+        .setBaseTimestamp(1L)
+        .setChanged(new Snapshot()
+            .setTimestamp(2L)
+            .setSchedulerMetadata(new SchedulerMetadata().setFrameworkId("jim"))
+            .setHostAttributes(ImmutableSet.<HostAttributes>of())
+            .setJobs(ImmutableSet.<StoredJob>of())
+            .setTasks(ImmutableSet.<ScheduledTask>of())
+            .setQuotaConfigurations(ImmutableSet.<QuotaConfiguration>of())
+            .setLocks(ImmutableSet.<Lock>of()))
+        .setRemovedTaskIds(ImmutableSet.of("task_id"))
+        .setRemovedJobs(ImmutableSet.<JobKey>of())
+        .setRemovedQuotaRoles(ImmutableSet.<String>of())
+        .setRemovedLocks(ImmutableSet.<LockKey>of());
+    expect(stream.readAll()).andReturn(Iterators.forArray(
+        entry(LogEntry.snapshot(base)),
+        entry(createTransaction(Op.saveFrameworkId(new SaveFrameworkId("bob")))),
+        entry(LogEntry.snapshotMarker(2L)),
+        entry(createTransaction(Op.saveFrameworkId(new SaveFrameworkId("pending")))),
+        entry(LogEntry.deltaSnapshot(delta)),
+        entry(createTransaction(Op.saveFrameworkId(new SaveFrameworkId("last"))))));
+
+    final Capture<MutateWork<Void, RuntimeException>> recoveryWork = createCapture();
+    expect(storageUtil.storage.write(capture(recoveryWork))).andAnswer(
+        new IAnswer<Void>() {
+          @Override public Void answer() {
+            recoveryWork.getValue().apply(storageUtil.mutableStoreProvider);
+            return null;
+          }
+        });
+    snapshotStore.applySnapshot(base);
+    storageUtil.schedulerStore.saveFrameworkId("jim");
+    storageUtil.taskStore.saveTasks(ImmutableSet.<IScheduledTask>of());
+    storageUtil.taskStore.deleteTasks(ImmutableSet.of("task_id"));
+    storageUtil.schedulerStore.saveFrameworkId("pending");
+    storageUtil.schedulerStore.saveFrameworkId("last");
+
+    schedulingService.doEvery(eq(SNAPSHOT_INTERVAL), notNull(Runnable.class));
+
+    control.replay();
+
+    logStorage.prepare();
+    logStorage.start(MutateWork.NOOP);
+  }
+
+  private Entry entry(LogEntry logEntry) throws CodingException {
+    Entry entry = createMock(Entry.class);
+    expect(entry.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(logEntry));
+    return entry;
+  }
+
   abstract class MutationFixture {
     private final AtomicBoolean runCalled = new AtomicBoolean(false);
 
@@ -322,6 +423,93 @@ public class LogStorageTest extends EasyMockTest {
     }.run();
   }
 
+  @Test
+  public void testPostCommitHooks() throws Exception {
+    final String frameworkId = "bob";
+    final AtomicBoolean hookRun = new AtomicBoolean(false);
+    final Runnable hook = new Runnable() {
+      @Override public void run() {
+        hookRun.set(true);
+      }
+    };
+    new MutationFixture() {
+      @Override protected void setupExpectations() throws CodingException {
+        storageUtil.expectOperations();
+        storageUtil.schedulerStore.saveFrameworkId(frameworkId);
+        streamMatcher.expectTransaction(Op.saveFrameworkId(new SaveFrameworkId(frameworkId)))
+            .andAnswer(new IAnswer<Position>() {
+              @Override public Position answer() {
+                // Hooks must not run before the transaction is appended to the log.
+                assertFalse(hookRun.get());
+                return position;
+              }
+            });
+      }
+
+      @Override protected void performMutations() {
+        try {
+          logStorage.write(new MutateWork.NoResult.Quiet() {
+            @Override protected void execute(MutableStoreProvider storeProvider) {
+              storeProvider.addPostCommitHook(hook);
+              throw new IllegalStateException();
+            }
+          });
+          fail("Expected failed write.");
+        } catch (IllegalStateException e) {
+          // Expected.
+        }
+        assertFalse(hookRun.get());
+
+        logStorage.write(new MutateWork.NoResult.Quiet() {
+          @Override protected void execute(MutableStoreProvider storeProvider) {
+            storeProvider.addPostCommitHook(hook);
+            storeProvider.getSchedulerStore().saveFrameworkId(frameworkId);
+          }
+        });
+        assertTrue(hookRun.get());
+      }
+    }.run();
+  }
+
+  @Test
+  public void testGroupCommitPostCommitHooks() throws Exception {
+    logStorage = createLogStorage(0, true);
+
+    final String frameworkId = "bob";
+    final AtomicBoolean hookRun = new AtomicBoolean(false);
+    final AtomicBoolean workDone = new AtomicBoolean(false);
+    new MutationFixture() {
+      @Override protected void setupExpectations() throws CodingException {
+        storageUtil.expectOperations();
+        storageUtil.schedulerStore.saveFrameworkId(frameworkId);
+        streamMatcher.expectTransaction(Op.saveFrameworkId(new SaveFrameworkId(frameworkId)))
+            .andAnswer(new IAnswer<Position>() {
+              @Override public Position answer() {
+                // The transaction is appended once the work has completed, and before hooks run.
+                assertTrue(workDone.get());
+                assertFalse(hookRun.get());
+                return position;
+              }
+            });
+      }
+
+      @Override protected void performMutations() {
+        logStorage.write(new MutateWork.NoResult.Quiet() {
+          @Override protected void execute(MutableStoreProvider storeProvider) {
+            storeProvider.addPostCommitHook(new Runnable() {
+              @Override public void run() {
+                hookRun.set(true);
+              }
+            });
+            storeProvider.getSchedulerStore().saveFrameworkId(frameworkId);
+            workDone.set(true);
+          }
+        });
+        assertTrue(hookRun.get());
+      }
+    }.run();
+  }
+
   @Test
   public void testSaveAcceptedJob() throws Exception {
     final IJobConfiguration jobConfig =
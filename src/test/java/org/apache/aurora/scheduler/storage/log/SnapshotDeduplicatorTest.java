@@ -0,0 +1,122 @@
+/**
+ * Copyright 2013 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.storage.DeduplicatedScheduledTask;
+import org.apache.aurora.gen.storage.DeduplicatedSnapshot;
+import org.apache.aurora.gen.storage.SchedulerMetadata;
+import org.apache.aurora.gen.storage.Snapshot;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class SnapshotDeduplicatorTest {
+
+  private static final TaskConfig CONFIG_A = makeConfig("a");
+  private static final TaskConfig CONFIG_B = makeConfig("b");
+
+  private static TaskConfig makeConfig(String jobName) {
+    return new TaskConfig()
+        .setOwner(new Identity("role", "user"))
+        .setEnvironment("env")
+        .setJobName(jobName)
+        .setNumCpus(1)
+        .setRamMb(1024)
+        .setDiskMb(1024);
+  }
+
+  private static ScheduledTask makeTask(String id, int instanceId, TaskConfig config) {
+    return new ScheduledTask()
+        .setStatus(ScheduleStatus.RUNNING)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(id)
+            .setInstanceId(instanceId)
+            .setTask(config.deepCopy()));
+  }
+
+  private static Snapshot makeSnapshot() {
+    return new Snapshot()
+        .setTimestamp(1L)
+        .setSchedulerMetadata(new SchedulerMetadata().setFrameworkId("framework"))
+        .setTasks(ImmutableSet.of(
+            makeTask("a0", 0, CONFIG_A),
+            makeTask("a1", 1, CONFIG_A),
+            makeTask("a2", 2, CONFIG_A),
+            makeTask("b0", 0, CONFIG_B)));
+  }
+
+  @Test
+  public void testRoundTrip() throws CodingException {
+    DeduplicatedSnapshot deduplicated = SnapshotDeduplicator.deduplicate(makeSnapshot());
+    assertEquals(2, deduplicated.getTaskConfigsSize());
+    assertEquals(4, deduplicated.getPartialTasksSize());
+    assertFalse(deduplicated.getPartialSnapshot().isSetTasks());
+    for (DeduplicatedScheduledTask partialTask : deduplicated.getPartialTasks()) {
+      assertFalse(partialTask.getPartialScheduledTask().getAssignedTask().isSetTask());
+    }
+
+    assertEquals(makeSnapshot(), SnapshotDeduplicator.reduplicate(deduplicated.deepCopy()));
+  }
+
+  @Test
+  public void testInputUnmodified() {
+    Snapshot snapshot = makeSnapshot();
+    SnapshotDeduplicator.deduplicate(snapshot);
+    assertEquals(makeSnapshot(), snapshot);
+  }
+
+  @Test
+  public void testConfigsShared() throws CodingException {
+    Snapshot restored =
+        SnapshotDeduplicator.reduplicate(SnapshotDeduplicator.deduplicate(makeSnapshot()));
+
+    TaskConfig shared = null;
+    for (ScheduledTask task : restored.getTasks()) {
+      if (task.getAssignedTask().getTask().getJobName().equals("a")) {
+        if (shared == null) {
+          shared = task.getAssignedTask().getTask();
+        }
+        assertSame(shared, task.getAssignedTask().getTask());
+      }
+    }
+  }
+
+  @Test
+  public void testNoTasks() throws CodingException {
+    Snapshot snapshot = new Snapshot().setTimestamp(1L);
+    assertEquals(
+        snapshot.deepCopy().setTasks(ImmutableSet.<ScheduledTask>of()),
+        SnapshotDeduplicator.reduplicate(SnapshotDeduplicator.deduplicate(snapshot)));
+  }
+
+  @Test(expected = CodingException.class)
+  public void testUnknownConfig() throws CodingException {
+    DeduplicatedSnapshot deduplicated = SnapshotDeduplicator.deduplicate(makeSnapshot());
+    deduplicated.setTaskConfigs(ImmutableList.of(CONFIG_A));
+    SnapshotDeduplicator.reduplicate(deduplicated);
+  }
+}
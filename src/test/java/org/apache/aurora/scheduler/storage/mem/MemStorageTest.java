@@ -15,6 +15,7 @@
  */
 package org.apache.aurora.scheduler.storage.mem;
 
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
@@ -23,8 +24,10 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.testing.TearDown;
 import com.google.common.testing.junit4.TearDownTestCase;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -210,4 +213,67 @@ public class MemStorageTest extends TearDownTestCase {
     });
     expectTasks("a", "c", "d");
   }
+
+  private static class RecordingHook implements Runnable {
+    private final String name;
+    private final List<String> runs;
+
+    RecordingHook(String name, List<String> runs) {
+      this.name = name;
+      this.runs = runs;
+    }
+
+    @Override public void run() {
+      runs.add(name);
+    }
+  }
+
+  @Test
+  public void testPostCommitHooks() {
+    final List<String> runs = Lists.newArrayList();
+
+    // Hooks registered in nested transactions run in order once the outer-most transaction
+    // completes.
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.addPostCommitHook(new RecordingHook("a", runs));
+        storage.write(new MutateWork.NoResult.Quiet() {
+          @Override protected void execute(MutableStoreProvider storeProvider) {
+            storeProvider.addPostCommitHook(new RecordingHook("b", runs));
+          }
+        });
+        assertEquals(ImmutableList.<String>of(), runs);
+        storeProvider.addPostCommitHook(new RecordingHook("c", runs));
+      }
+    });
+    assertEquals(ImmutableList.of("a", "b", "c"), runs);
+
+    // Hooks from a failed transaction are discarded.
+    runs.clear();
+    expectWriteFail(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.addPostCommitHook(new RecordingHook("d", runs));
+        throw new CustomException();
+      }
+    });
+    assertEquals(ImmutableList.<String>of(), runs);
+
+    // Hooks may write to storage, since the write lock has been released.
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.addPostCommitHook(new Runnable() {
+          @Override public void run() {
+            storage.write(new MutateWork.NoResult.Quiet() {
+              @Override protected void execute(MutableStoreProvider storeProvider) {
+                storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("e")));
+                storeProvider.addPostCommitHook(new RecordingHook("f", runs));
+              }
+            });
+          }
+        });
+      }
+    });
+    expectTasks("e");
+    assertEquals(ImmutableList.of("f"), runs);
+  }
 }
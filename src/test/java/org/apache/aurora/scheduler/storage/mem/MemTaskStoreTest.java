@@ -36,6 +36,7 @@ import org.apache.aurora.gen.TaskQuery;
 import org.apache.aurora.scheduler.base.JobKeys;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.storage.TaskStore;
 import org.apache.aurora.scheduler.storage.TaskStore.Mutable.TaskMutation;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
@@ -45,6 +46,7 @@ import org.junit.Test;
 import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class MemTaskStoreTest {
@@ -76,6 +78,29 @@ public class MemTaskStoreTest {
     assertStoreContents(taskAModified, TASK_B, TASK_C, TASK_D);
   }
 
+  @Test
+  public void testVersion() {
+    store.saveTasks(ImmutableSet.of(TASK_A, TASK_B, TASK_C));
+    TaskStore.Versioned.Version version = store.openVersion();
+
+    IScheduledTask taskAModified =
+        IScheduledTask.build(TASK_A.newBuilder().setStatus(RUNNING));
+    store.saveTasks(ImmutableSet.of(taskAModified, TASK_D));
+    store.deleteTasks(ImmutableSet.of(Tasks.id(TASK_B)));
+    assertStoreContents(taskAModified, TASK_C, TASK_D);
+    assertEquals(ImmutableSet.of(TASK_A, TASK_B, TASK_C), version.fetchTasks());
+    assertEquals(
+        ImmutableSet.of(TASK_A, TASK_B),
+        version.fetchTasks(ImmutableSet.of(Tasks.id(TASK_A), Tasks.id(TASK_B), Tasks.id(TASK_D))));
+
+    store.deleteAllTasks();
+    assertEquals(ImmutableSet.of(TASK_A, TASK_B, TASK_C), version.fetchTasks());
+    version.close();
+
+    store.saveTasks(ImmutableSet.of(TASK_A));
+    assertEquals(ImmutableSet.of(TASK_A), store.openVersion().fetchTasks());
+  }
+
   @Test
   public void testQuery() {
     assertStoreContents();
@@ -244,6 +269,22 @@ public class MemTaskStoreTest {
         identityMap);
   }
 
+  @Test
+  public void testRestoreSharesConfigs() {
+    ScheduledTask a = makeTask("a", "role", "env", "job").newBuilder();
+    ScheduledTask b = makeTask("b", "role", "env", "job").newBuilder();
+    TaskConfig config = a.getAssignedTask().getTask();
+    b.getAssignedTask().setTask(config);
+    IScheduledTask expectedA = IScheduledTask.build(a);
+    IScheduledTask expectedB = IScheduledTask.build(b);
+
+    store.restoreTasks(ImmutableSet.of(a, b));
+    assertStoreContents(expectedA, expectedB);
+
+    // The shared configuration is interned as is, rather than a copy of it.
+    assertSame(config, store.getInternedConfig(config));
+  }
+
   private static IScheduledTask setHost(IScheduledTask task, Optional<String> host) {
     ScheduledTask builder = task.newBuilder();
     builder.getAssignedTask().setSlaveHost(host.orNull());
@@ -337,6 +378,76 @@ public class MemTaskStoreTest {
     assertQueryResults(Query.slaveScoped(host), updated);
   }
 
+  @Test
+  public void testSaveOverwritesSecondaryKeys() {
+    // Recovery replays every state transition as a save, which changes the status and host keys.
+    IScheduledTask a = makeTask("a", "role", "env", "job");
+    IScheduledTask b = makeTask("b", "role", "env", "job");
+    store.saveTasks(ImmutableSet.of(a, b));
+    IScheduledTask assigned = setHost(setStatus(a, ScheduleStatus.ASSIGNED), Optional.of("host"));
+    IScheduledTask running = setStatus(assigned, RUNNING);
+    store.saveTasks(ImmutableSet.of(assigned, setStatus(b, ScheduleStatus.ASSIGNED)));
+    store.saveTasks(ImmutableSet.of(running));
+    assertQueryResults(Query.unscoped().byStatus(ScheduleStatus.ASSIGNED),
+        setStatus(b, ScheduleStatus.ASSIGNED));
+    assertQueryResults(Query.unscoped().byStatus(RUNNING), running);
+
+    store.unsafeModifyInPlace("a", ITaskConfig.build(
+        running.getAssignedTask().getTask().newBuilder().setEnvironment("prod")));
+    assertQueryResults(Query.envScoped("role", "env").byStatus(RUNNING));
+
+    store.deleteTasks(ImmutableSet.of("a", "b"));
+    assertEquals(0, store.secondaryIndexEntries());
+  }
+
+  private static IScheduledTask setStatus(IScheduledTask task, ScheduleStatus status) {
+    return IScheduledTask.build(task.newBuilder().setStatus(status));
+  }
+
+  @Test
+  public void testIntersectIndices() {
+    IScheduledTask a = makeTask("a", "jim", "test", "job");
+    IScheduledTask b = setStatus(makeTask("b", "jim", "test", "job"), RUNNING);
+    IScheduledTask c = setStatus(makeTask("c", "jim", "prod", "job"), RUNNING);
+    IScheduledTask d = setStatus(makeTask("d", "joe", "test", "job"), RUNNING);
+    IScheduledTask e = setStatus(makeTask("e", "joe", "prod", "job"), ScheduleStatus.FINISHED);
+    store.saveTasks(ImmutableSet.of(a, b, c, d, e));
+
+    assertQueryResults(Query.roleScoped("jim").active(), a, b, c);
+    assertQueryResults(Query.roleScoped("jim").byStatus(RUNNING), b, c);
+    assertQueryResults(Query.envScoped("jim", "test").byStatus(RUNNING), b);
+    assertQueryResults(Query.envScoped("joe", "prod").active());
+    assertQueryResults(Query.slaveScoped("slaveA").byStatus(RUNNING));
+    assertQueryResults(Query.unscoped().byStatus(RUNNING), b, c, d);
+    assertQueryResults(
+        Query.jobScoped(JobKeys.from("joe", "prod", "job")).byStatus(ScheduleStatus.FINISHED),
+        e);
+
+    // Mutations and deletions must be reflected in every index being intersected.
+    store.mutateTasks(Query.taskScoped("a"), new TaskMutation() {
+      @Override public IScheduledTask apply(IScheduledTask task) {
+        return setStatus(task, RUNNING);
+      }
+    });
+    store.deleteTasks(ImmutableSet.of("c"));
+    assertQueryResults(Query.roleScoped("jim").byStatus(RUNNING), setStatus(a, RUNNING), b);
+    assertQueryResults(Query.roleScoped("jim").byStatus(ScheduleStatus.PENDING));
+    assertQueryResults(Query.unscoped().byStatus(RUNNING), setStatus(a, RUNNING), b, d);
+  }
+
+  @Test
+  public void testIndicesCoveringStore() {
+    // Every index applicable to these queries covers the whole store, so they are answered by a
+    // full scan.
+    IScheduledTask a = makeTask("a", "jim", "test", "job");
+    IScheduledTask b = setStatus(makeTask("b", "jim", "test", "job"), RUNNING);
+    store.saveTasks(ImmutableSet.of(a, b));
+
+    assertQueryResults(Query.roleScoped("jim"), a, b);
+    assertQueryResults(Query.jobScoped(JobKeys.from("jim", "test", "job")), a, b);
+    assertQueryResults(Query.envScoped("jim", "test").active(), a, b);
+  }
+
   private void assertStoreContents(IScheduledTask... tasks) {
     assertQueryResults(Query.unscoped(), tasks);
   }
@@ -70,6 +70,9 @@ import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.ScheduleException;
 import org.apache.aurora.scheduler.configuration.ConfigurationManager;
 import org.apache.aurora.scheduler.configuration.SanitizedConfiguration;
+import org.apache.aurora.scheduler.events.EventSink;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskConfigRewritten;
+import org.apache.aurora.scheduler.events.PubsubEventModule.TransactionalDelivery;
 import org.apache.aurora.scheduler.quota.QuotaInfo;
 import org.apache.aurora.scheduler.quota.QuotaManager;
 import org.apache.aurora.scheduler.state.CronJobManager;
@@ -89,6 +92,7 @@ import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 import org.apache.aurora.scheduler.storage.testing.StorageTestUtil;
 import org.apache.aurora.scheduler.thrift.aop.AopModule;
+import org.easymock.Capture;
 import org.easymock.IExpectationSetters;
 import org.junit.Before;
 import org.junit.Test;
@@ -109,6 +113,7 @@ import static org.apache.aurora.gen.apiConstants.DEFAULT_ENVIRONMENT;
 import static org.apache.aurora.scheduler.configuration.ConfigurationManager.DEDICATED_ATTRIBUTE;
 import static org.apache.aurora.scheduler.thrift.SchedulerThriftInterface.transitionMessage;
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
@@ -141,6 +146,8 @@ public class SchedulerThriftInterfaceTest extends EasyMockTest {
   private AuroraAdmin.Iface thrift;
   private CronJobManager cronJobManager;
   private QuotaManager quotaManager;
+  private EventSink eventSink;
+  private EventSink transactionalEventSink;
 
   @Before
   public void setUp() throws Exception {
@@ -156,6 +163,8 @@ public class SchedulerThriftInterfaceTest extends EasyMockTest {
     maintenance = createMock(MaintenanceController.class);
     cronJobManager = createMock(CronJobManager.class);
     quotaManager = createMock(QuotaManager.class);
+    eventSink = createMock(EventSink.class);
+    transactionalEventSink = createMock(EventSink.class);
 
     // Use guice and install AuthModule to apply AOP-style auth layer.
     Module testModule = new AbstractModule() {
@@ -170,6 +179,9 @@ public class SchedulerThriftInterfaceTest extends EasyMockTest {
         bind(MaintenanceController.class).toInstance(maintenance);
         bind(CronJobManager.class).toInstance(cronJobManager);
         bind(QuotaManager.class).toInstance(quotaManager);
+        bind(EventSink.class).toInstance(eventSink);
+        bind(EventSink.class).annotatedWith(TransactionalDelivery.class)
+            .toInstance(transactionalEventSink);
         bind(AuroraAdmin.Iface.class).to(SchedulerThriftInterface.class);
       }
     };
@@ -765,10 +777,14 @@ public class SchedulerThriftInterfaceTest extends EasyMockTest {
 
     expectAuth(ROOT, true);
     storageUtil.expectTaskFetch(Query.instanceScoped(instanceKey).active(), storedTask);
-    expect(storageUtil.taskStore.unsafeModifyInPlace(
-        taskId,
-        ITaskConfig.build(ConfigurationManager.applyDefaultsIfUnset(modifiedConfig.newBuilder()))))
-        .andReturn(true);
+    ITaskConfig rewrittenConfig =
+        ITaskConfig.build(ConfigurationManager.applyDefaultsIfUnset(modifiedConfig.newBuilder()));
+    expect(storageUtil.taskStore.unsafeModifyInPlace(taskId, rewrittenConfig)).andReturn(true);
+    TaskConfigRewritten rewritten = new TaskConfigRewritten(storedTask, rewrittenConfig);
+    transactionalEventSink.post(rewritten);
+    Capture<Runnable> postCommit = createCapture();
+    storageUtil.mutableStoreProvider.addPostCommitHook(capture(postCommit));
+    eventSink.post(rewritten);
 
     control.replay();
 
@@ -776,6 +792,7 @@ public class SchedulerThriftInterfaceTest extends EasyMockTest {
         ImmutableList.of(ConfigRewrite.instanceRewrite(
             new InstanceConfigRewrite(instanceKey, storedConfig, modifiedConfig.newBuilder()))));
     assertEquals(OK, thrift.rewriteConfigs(request, SESSION).getResponseCode());
+    postCommit.getValue().run();
   }
 
   @Test
@@ -34,6 +34,8 @@ import org.apache.aurora.gen.AuroraAdmin;
 import org.apache.aurora.gen.Quota;
 import org.apache.aurora.gen.SessionKey;
 import org.apache.aurora.scheduler.cron.CronScheduler;
+import org.apache.aurora.scheduler.events.EventSink;
+import org.apache.aurora.scheduler.events.PubsubEventModule.TransactionalDelivery;
 import org.apache.aurora.scheduler.quota.QuotaManager;
 import org.apache.aurora.scheduler.state.LockManager;
 import org.apache.aurora.scheduler.state.MaintenanceController;
@@ -150,6 +152,9 @@ public class ThriftIT extends EasyMockTest {
             bindMock(StorageBackup.class);
             bindMock(ThriftConfiguration.class);
             bind(QuotaManager.class).toInstance(quotaManager);
+            bindMock(EventSink.class);
+            bind(EventSink.class).annotatedWith(TransactionalDelivery.class)
+                .toInstance(createMock(EventSink.class));
             bind(SessionValidator.class).toInstance(validator);
             bind(CapabilityValidator.class).toInstance(new CapabilityValidatorFake(validator));
           }